@@ -0,0 +1,32 @@
+#!/bin/sh
+# Builds an AppCDS (application class-data sharing) archive for ePortfolio and
+# compares startup with and without it. Run from this directory on a machine
+# with a display. Class-data sharing only archives classes loaded from JAR
+# files, so the classes are packaged into eportfolio.jar first.
+#
+# Usage: ./appcds.sh [portfolio file]
+set -e
+FILE=${1:-investments.txt}
+
+javac -encoding UTF-8 ePortfolio/*.java
+jar cf eportfolio.jar ePortfolio/*.class
+
+# 1. Training run: record the classes loaded until the window is up and all
+#    panels are built. ePortfolio.exitAfterStartup exits without saving.
+java -Xshare:off -XX:DumpLoadedClassList=eportfolio.classlist \
+    -DePortfolio.exitAfterStartup=true -cp eportfolio.jar ePortfolio.Portfolio "$FILE"
+
+# 2. Dump the archive for those classes.
+java -Xshare:dump -XX:SharedClassListFile=eportfolio.classlist \
+    -XX:SharedArchiveFile=eportfolio.jsa -cp eportfolio.jar
+
+# 3. Measure time to first frame without and with the archive.
+echo "Without AppCDS:"
+java -DePortfolio.startupTiming=true -DePortfolio.exitAfterStartup=true \
+    -cp eportfolio.jar ePortfolio.Portfolio "$FILE"
+echo "With AppCDS:"
+java -XX:SharedArchiveFile=eportfolio.jsa -DePortfolio.startupTiming=true -DePortfolio.exitAfterStartup=true \
+    -cp eportfolio.jar ePortfolio.Portfolio "$FILE"
+
+echo "Start the application with the archive using:"
+echo "java -XX:SharedArchiveFile=eportfolio.jsa -cp eportfolio.jar ePortfolio.Portfolio $FILE"
@@ -0,0 +1,309 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Hosts the portfolios of many client accounts and answers firm-wide
+ * queries across all of them.
+ *
+ * <p>
+ * Accounts are spread over a fixed number of shards by the hash of their
+ * id, and each shard has its own lock, so opening and looking up accounts
+ * from many threads rarely contends. A Portfolio itself is not thread-safe,
+ * so every operation on an account, including reads done by firm-wide
+ * queries, synchronizes on that account's Portfolio.
+ *
+ * <p>
+ * Firm-wide queries take a snapshot of the accounts and split it with
+ * fork/join into ranges of at most LEAF_ACCOUNTS accounts. Each range is
+ * summed independently and the partial results are merged on the way back,
+ * so the work spreads over all cores of the pool.
+ */
+public class AccountEngine {
+
+    private static final int SHARDS = 64;
+    private static final int LEAF_ACCOUNTS = 32;
+
+    private final ArrayList<HashMap<String, Portfolio>> shards;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates an engine that runs firm-wide queries in the common fork/join
+     * pool.
+     */
+    public AccountEngine() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an engine that runs firm-wide queries in the given pool.
+     *
+     * @param pool the fork/join pool used for firm-wide queries
+     */
+    public AccountEngine(ForkJoinPool pool) {
+        this.pool = pool;
+        shards = new ArrayList<>(SHARDS);
+        for (int i = 0; i < SHARDS; i++) {
+            shards.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Gets the shard holding an account.
+     *
+     * @param accountId the id of the account
+     * @return the shard of the account
+     */
+    private HashMap<String, Portfolio> shardOf(String accountId) {
+        int h = accountId.hashCode();
+        return shards.get((h ^ (h >>> 16)) & (SHARDS - 1));
+    }
+
+    /**
+     * Gets the portfolio of an account, creating an empty one if the account
+     * does not exist yet.
+     *
+     * @param accountId the id of the account
+     * @return the portfolio of the account
+     */
+    public Portfolio openAccount(String accountId) {
+        HashMap<String, Portfolio> shard = shardOf(accountId);
+        synchronized (shard) {
+            return shard.computeIfAbsent(accountId, id -> new Portfolio());
+        }
+    }
+
+    /**
+     * Gets the portfolio of an existing account.
+     *
+     * @param accountId the id of the account
+     * @return the portfolio of the account, or null if there is no such
+     * account
+     */
+    public Portfolio getAccount(String accountId) {
+        HashMap<String, Portfolio> shard = shardOf(accountId);
+        synchronized (shard) {
+            return shard.get(accountId);
+        }
+    }
+
+    /**
+     * Removes an account from the engine.
+     *
+     * @param accountId the id of the account
+     * @return the portfolio of the removed account, or null if there was no
+     * such account
+     */
+    public Portfolio closeAccount(String accountId) {
+        HashMap<String, Portfolio> shard = shardOf(accountId);
+        synchronized (shard) {
+            return shard.remove(accountId);
+        }
+    }
+
+    /**
+     * Gets the number of accounts in the engine.
+     *
+     * @return the number of accounts
+     */
+    public int getAccountCount() {
+        int count = 0;
+        for (HashMap<String, Portfolio> shard : shards) {
+            synchronized (shard) {
+                count += shard.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Buys an investment in an account, creating the account if needed.
+     *
+     * @param accountId the id of the account
+     * @param type the investment type ("stock" or "mutualfund")
+     * @param symbol the symbol of the investment
+     * @param name the name of the investment, used only for new investments
+     * @param quantity the quantity bought
+     * @param price the price paid per unit
+     * @return a message describing the result of the purchase or any errors
+     */
+    public String buyInvestment(String accountId, String type, String symbol, String name, int quantity, double price) {
+        Portfolio portfolio = openAccount(accountId);
+        synchronized (portfolio) {
+            return portfolio.buyInvestment(type, symbol, name, quantity, price);
+        }
+    }
+
+    /**
+     * Sells units of an investment held by an account.
+     *
+     * @param accountId the id of the account
+     * @param symbol the symbol of the investment to sell
+     * @param quantitySold the quantity of the investment to sell
+     * @param sellPrice the price at which the investment is sold
+     * @return the result of the sale, with status ACCOUNT_NOT_FOUND if no
+     * account has that id
+     */
+    public TradeResult sellInvestment(String accountId, String symbol, int quantitySold, double sellPrice) {
+        Portfolio portfolio = getAccount(accountId);
+        if (portfolio == null) {
+            return TradeResult.accountNotFound(accountId, symbol);
+        }
+        synchronized (portfolio) {
+            return portfolio.sellInvestment(symbol, quantitySold, sellPrice);
+        }
+    }
+
+    /**
+     * Updates the price of a symbol in every account that holds it.
+     *
+     * @param symbol the symbol whose price changed
+     * @param price the new price
+     * @return the number of accounts that were updated
+     * @throws IllegalArgumentException if the price is not greater than 0
+     */
+    public int updatePrice(String symbol, double price) {
+        if (price <= 0) {
+            throw new IllegalArgumentException("Error: Price must be greater than 0.");
+        }
+        int updated = 0;
+        for (Portfolio portfolio : snapshot()) {
+            synchronized (portfolio) {
+                Investment investment = portfolio.findInvestmentBySymbol(symbol);
+                if (investment != null) {
+                    investment.setPrice(price);
+                    updated++;
+                }
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Calculates the total gain across all accounts in parallel.
+     *
+     * @return the firm-wide total gain
+     */
+    public double getTotalGain() {
+        Portfolio[] accounts = snapshot();
+        return pool.invoke(new GainTask(accounts, 0, accounts.length));
+    }
+
+    /**
+     * Calculates the market value (quantity * price) held in every symbol
+     * across all accounts in parallel. Symbols are compared
+     * case-insensitively and reported in upper case.
+     *
+     * @return the firm-wide market value per symbol
+     */
+    public HashMap<String, Double> getExposureBySymbol() {
+        Portfolio[] accounts = snapshot();
+        return pool.invoke(new ExposureTask(accounts, 0, accounts.length));
+    }
+
+    /**
+     * Copies the portfolios of all accounts into an array, one shard at a
+     * time, so that queries can split the work by index.
+     *
+     * @return the portfolios of all accounts
+     */
+    private Portfolio[] snapshot() {
+        ArrayList<Portfolio> accounts = new ArrayList<>();
+        for (HashMap<String, Portfolio> shard : shards) {
+            synchronized (shard) {
+                accounts.addAll(shard.values());
+            }
+        }
+        return accounts.toArray(new Portfolio[0]);
+    }
+
+    /**
+     * Sums the gain of a range of accounts, splitting large ranges in half.
+     */
+    private static final class GainTask extends RecursiveTask<Double> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Portfolio[] accounts;
+        private final int from;
+        private final int to;
+
+        GainTask(Portfolio[] accounts, int from, int to) {
+            this.accounts = accounts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from <= LEAF_ACCOUNTS) {
+                double gain = 0.0;
+                for (int i = from; i < to; i++) {
+                    synchronized (accounts[i]) {
+                        gain += accounts[i].getTotalGain();
+                    }
+                }
+                return gain;
+            }
+            int middle = (from + to) >>> 1;
+            GainTask left = new GainTask(accounts, from, middle);
+            left.fork();
+            double right = new GainTask(accounts, middle, to).compute();
+            return left.join() + right;
+        }
+    }
+
+    /**
+     * Sums the market value per symbol of a range of accounts, splitting
+     * large ranges in half and merging the smaller result into the larger.
+     */
+    private static final class ExposureTask extends RecursiveTask<HashMap<String, Double>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Portfolio[] accounts;
+        private final int from;
+        private final int to;
+
+        ExposureTask(Portfolio[] accounts, int from, int to) {
+            this.accounts = accounts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected HashMap<String, Double> compute() {
+            if (to - from <= LEAF_ACCOUNTS) {
+                HashMap<String, Double> exposure = new HashMap<>();
+                for (int i = from; i < to; i++) {
+                    synchronized (accounts[i]) {
+                        for (Investment investment : accounts[i].getInvestments()) {
+                            exposure.merge(investment.getSymbol().toUpperCase(Locale.ROOT),
+                                    investment.getQuantity() * investment.getPrice(), Double::sum);
+                        }
+                    }
+                }
+                return exposure;
+            }
+            int middle = (from + to) >>> 1;
+            ExposureTask left = new ExposureTask(accounts, from, middle);
+            left.fork();
+            HashMap<String, Double> right = new ExposureTask(accounts, middle, to).compute();
+            HashMap<String, Double> merged = left.join();
+            if (merged.size() < right.size()) {
+                HashMap<String, Double> smaller = merged;
+                merged = right;
+                right = smaller;
+            }
+            for (Map.Entry<String, Double> entry : right.entrySet()) {
+                merged.merge(entry.getKey(), entry.getValue(), Double::sum);
+            }
+            return merged;
+        }
+    }
+}
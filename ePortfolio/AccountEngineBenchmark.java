@@ -0,0 +1,101 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how the firm-wide queries of AccountEngine scale with the number
+ * of cores. The same generated accounts are queried from fork/join pools of
+ * 1, 2, 4, ... threads up to the number of available processors.
+ *
+ * <pre>
+ * java ePortfolio.AccountEngineBenchmark 10000 100
+ * </pre>
+ */
+public class AccountEngineBenchmark {
+
+    private static final int SYMBOLS = 5_000;
+    private static final int ROUNDS = 20;
+
+    /**
+     * Generates the accounts and prints the query times per pool size.
+     *
+     * @param args args[0] is the number of accounts (default 10,000) and
+     * args[1] the number of positions per account (default 100)
+     */
+    public static void main(String[] args) {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int positions = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        Random random = new Random(42);
+        AccountEngine generated = new AccountEngine();
+        for (int a = 0; a < accounts; a++) {
+            for (int p = 0; p < positions; p++) {
+                int symbol = random.nextInt(SYMBOLS);
+                generated.buyInvestment("A" + a, symbol % 2 == 0 ? "stock" : "mutualfund", "S" + symbol,
+                        "Fund " + symbol, 1 + random.nextInt(100), 1 + random.nextInt(200));
+            }
+        }
+        System.out.printf("Accounts: %,d with %,d buys each, %d cores%n", accounts, positions, cores);
+
+        // Powers of two below the number of cores, then the number of cores
+        ArrayList<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(cores);
+
+        double baseline = 0;
+        for (int threads : threadCounts) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            AccountEngine engine = copyInto(generated, accounts, pool);
+            double gainMillis = time(() -> engine.getTotalGain());
+            double exposureMillis = time(() -> engine.getExposureBySymbol());
+            if (threads == 1) {
+                baseline = gainMillis + exposureMillis;
+            }
+            System.out.printf("%3d threads: total gain %8.2f ms, exposure %8.2f ms, speed-up %.2fx%n",
+                    threads, gainMillis, exposureMillis, baseline / (gainMillis + exposureMillis));
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Builds an engine sharing the accounts of another one but querying with
+     * a different pool.
+     *
+     * @param source the engine holding the accounts
+     * @param accounts the number of accounts in the source
+     * @param pool the pool of the new engine
+     * @return the new engine
+     */
+    private static AccountEngine copyInto(AccountEngine source, int accounts, ForkJoinPool pool) {
+        AccountEngine engine = new AccountEngine(pool);
+        for (int a = 0; a < accounts; a++) {
+            Portfolio portfolio = engine.openAccount("A" + a);
+            for (Investment investment : source.getAccount("A" + a).getInvestments()) {
+                portfolio.addInvestment(investment);
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * Runs a query a few times to warm up and returns its mean time.
+     *
+     * @param query the query to time
+     * @return the mean time of one run in milliseconds
+     */
+    private static double time(Runnable query) {
+        for (int i = 0; i < ROUNDS / 2; i++) {
+            query.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            query.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / ROUNDS;
+    }
+}
@@ -0,0 +1,435 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Fires alerts when the price or the unrealized gain of a position crosses
+ * a threshold.
+ *
+ * <p>
+ * The engine listens to the portfolio, so every price change made through
+ * Investment.setPrice, whether from the update panel, a batch, the HTTP API
+ * or a reloaded file, is checked. Each symbol keeps its thresholds in sorted
+ * maps, one for alerts on a rise and one for alerts on a fall. A price move
+ * from old to new fires the rise alerts with a threshold in (old, new] or the
+ * fall alerts with a threshold in [new, old), found with one range lookup,
+ * so a tick costs O(log n + fired) however many alerts exist.
+ *
+ * <p>
+ * A gain threshold g is kept as the price at which the position's gain
+ * reaches it, (g + book value) / quantity, so gain alerts use the same range
+ * lookups. Buying or selling changes that price; the gain alerts of the
+ * symbol are then placed again, which costs O(k log k) for its k gain alerts.
+ * Gain alerts of symbols not held are kept but do not fire. Gain changes
+ * caused by trades rather than prices do not fire alerts.
+ *
+ * <p>
+ * An alert stays registered after firing and fires again on its next
+ * crossing. Alerts are delivered on the thread that changed the price,
+ * while it holds the portfolio's monitor when the change came through
+ * Portfolio, so listeners should return quickly.
+ */
+public class AlertEngine implements PortfolioListener {
+
+    /**
+     * Receives the alerts that fire.
+     */
+    public interface AlertListener {
+
+        /**
+         * Called when an alert's threshold is crossed.
+         *
+         * @param alert the alert that fired
+         * @param investment the investment whose price changed
+         * @param oldPrice the price before the change
+         */
+        void alertTriggered(Alert alert, Investment investment, double oldPrice);
+    }
+
+    /**
+     * A registered threshold.
+     */
+    public static final class Alert {
+
+        private final long id;
+        private final String symbol;
+        private final boolean gain;
+        private final boolean above;
+        private final double threshold;
+
+        Alert(long id, String symbol, boolean gain, boolean above, double threshold) {
+            this.id = id;
+            this.symbol = symbol;
+            this.gain = gain;
+            this.above = above;
+            this.threshold = threshold;
+        }
+
+        /**
+         * Gets the id returned when the alert was added.
+         *
+         * @return the id
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Gets the symbol the alert watches.
+         *
+         * @return the symbol as given when the alert was added
+         */
+        public String getSymbol() {
+            return symbol;
+        }
+
+        /**
+         * Checks whether the threshold is a gain rather than a price.
+         *
+         * @return true for a gain alert
+         */
+        public boolean isGain() {
+            return gain;
+        }
+
+        /**
+         * Checks whether the alert fires on a rise through the threshold
+         * rather than a fall.
+         *
+         * @return true for a rise alert
+         */
+        public boolean isAbove() {
+            return above;
+        }
+
+        /**
+         * Gets the price or gain threshold.
+         *
+         * @return the threshold
+         */
+        public double getThreshold() {
+            return threshold;
+        }
+
+        @Override
+        public String toString() {
+            return symbol + (gain ? " gain " : " price ") + (above ? "rises to $" : "falls to $") + Portfolio.formatMoney(threshold);
+        }
+    }
+
+    /**
+     * The alerts of one symbol, by the price at which they fire.
+     */
+    private static final class SymbolAlerts {
+
+        final TreeMap<Double, ArrayList<Alert>> rises = new TreeMap<>();
+        final TreeMap<Double, ArrayList<Alert>> falls = new TreeMap<>();
+        // Gain alerts by the price they map to, for the position held
+        final TreeMap<Double, ArrayList<Alert>> gainRises = new TreeMap<>();
+        final TreeMap<Double, ArrayList<Alert>> gainFalls = new TreeMap<>();
+        final ArrayList<Alert> gainAlerts = new ArrayList<>();
+        // Every alert of the symbol, in the order they were added
+        final ArrayList<Alert> all = new ArrayList<>();
+        Investment investment;
+    }
+
+    private final Portfolio portfolio;
+    private final HashMap<String, SymbolAlerts> bySymbol = new HashMap<>();
+    private final HashMap<Long, Alert> byId = new HashMap<>();
+    private final CopyOnWriteArrayList<AlertListener> listeners = new CopyOnWriteArrayList<>();
+    private long nextId = 1;
+    private long fired;
+
+    /**
+     * Creates an engine for a portfolio and starts listening to its changes.
+     *
+     * @param portfolio the portfolio whose prices are watched
+     */
+    public AlertEngine(Portfolio portfolio) {
+        this.portfolio = portfolio;
+        portfolio.addListener(this);
+    }
+
+    /**
+     * Adds an alert on the price of a symbol.
+     *
+     * @param symbol the symbol to watch, matched ignoring case
+     * @param above true to fire when the price rises to the threshold or
+     * beyond, false to fire when it falls to it or below
+     * @param price the threshold price
+     * @return the id of the alert
+     * @throws IllegalArgumentException if the symbol is empty or the price is
+     * not greater than 0
+     */
+    public long addPriceAlert(String symbol, boolean above, double price) {
+        if (!(price > 0)) {
+            throw new IllegalArgumentException("Error: Price must be greater than 0.");
+        }
+        synchronized (portfolio) {
+            Alert alert = register(symbol, false, above, price);
+            SymbolAlerts alerts = bySymbol.get(key(symbol));
+            insert(above ? alerts.rises : alerts.falls, price, alert);
+            return alert.id;
+        }
+    }
+
+    /**
+     * Adds an alert on the unrealized gain of a symbol's position, that is
+     * price * quantity - book value.
+     *
+     * @param symbol the symbol to watch, matched ignoring case
+     * @param above true to fire when the gain rises to the threshold or
+     * beyond, false to fire when it falls to it or below
+     * @param gain the threshold gain, which may be negative
+     * @return the id of the alert
+     * @throws IllegalArgumentException if the symbol is empty or the gain is
+     * not a number
+     */
+    public long addGainAlert(String symbol, boolean above, double gain) {
+        if (Double.isNaN(gain) || Double.isInfinite(gain)) {
+            throw new IllegalArgumentException("Error: Gain must be a number.");
+        }
+        synchronized (portfolio) {
+            Alert alert = register(symbol, true, above, gain);
+            SymbolAlerts alerts = bySymbol.get(key(symbol));
+            alerts.gainAlerts.add(alert);
+            if (alerts.investment != null) {
+                insert(above ? alerts.gainRises : alerts.gainFalls, triggerPrice(alerts.investment, gain), alert);
+            }
+            return alert.id;
+        }
+    }
+
+    /**
+     * Removes an alert.
+     *
+     * @param id the id of the alert
+     * @return true if the alert existed
+     */
+    public boolean removeAlert(long id) {
+        synchronized (portfolio) {
+            Alert alert = byId.remove(id);
+            if (alert == null) {
+                return false;
+            }
+            String symbolKey = key(alert.symbol);
+            SymbolAlerts alerts = bySymbol.get(symbolKey);
+            if (alert.gain) {
+                alerts.gainAlerts.remove(alert);
+                if (alerts.investment != null) {
+                    remove(alert.above ? alerts.gainRises : alerts.gainFalls, triggerPrice(alerts.investment, alert.threshold), alert);
+                }
+            } else {
+                remove(alert.above ? alerts.rises : alerts.falls, alert.threshold, alert);
+            }
+            alerts.all.remove(alert);
+            if (alerts.all.isEmpty()) {
+                bySymbol.remove(symbolKey);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Gets an alert by id.
+     *
+     * @param id the id of the alert
+     * @return the alert, or null if there is none
+     */
+    public Alert getAlert(long id) {
+        synchronized (portfolio) {
+            return byId.get(id);
+        }
+    }
+
+    /**
+     * Gets the alerts of a symbol.
+     *
+     * @param symbol the symbol, matched ignoring case
+     * @return the alerts in the order they were added
+     */
+    public ArrayList<Alert> getAlerts(String symbol) {
+        synchronized (portfolio) {
+            SymbolAlerts alerts = bySymbol.get(key(symbol));
+            return alerts == null ? new ArrayList<>() : new ArrayList<>(alerts.all);
+        }
+    }
+
+    /**
+     * Gets the number of registered alerts.
+     *
+     * @return the number of alerts
+     */
+    public int size() {
+        synchronized (portfolio) {
+            return byId.size();
+        }
+    }
+
+    /**
+     * Gets the number of times an alert fired.
+     *
+     * @return the number of fired alerts
+     */
+    public long getFired() {
+        synchronized (portfolio) {
+            return fired;
+        }
+    }
+
+    /**
+     * Registers a listener for fired alerts.
+     *
+     * @param listener the listener to add
+     */
+    public void addListener(AlertListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener for fired alerts.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeListener(AlertListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Stops watching the portfolio.
+     */
+    public void close() {
+        portfolio.removeListener(this);
+    }
+
+    @Override
+    public void investmentAdded(Investment investment) {
+        SymbolAlerts alerts = bySymbol.get(key(investment.getSymbol()));
+        if (alerts != null) {
+            alerts.investment = investment;
+            placeGainAlerts(alerts);
+        }
+    }
+
+    @Override
+    public void investmentRemoved(Investment investment) {
+        SymbolAlerts alerts = bySymbol.get(key(investment.getSymbol()));
+        if (alerts != null && alerts.investment == investment) {
+            alerts.investment = null;
+            alerts.gainRises.clear();
+            alerts.gainFalls.clear();
+        }
+    }
+
+    @Override
+    public void priceChanged(Investment investment, double oldPrice) {
+        SymbolAlerts alerts = bySymbol.get(key(investment.getSymbol()));
+        if (alerts == null) {
+            return;
+        }
+        double newPrice = investment.getPrice();
+        ArrayList<Alert> crossed = new ArrayList<>();
+        if (newPrice > oldPrice) {
+            collect(alerts.rises.subMap(oldPrice, false, newPrice, true), crossed);
+            if (alerts.investment == investment) {
+                collect(alerts.gainRises.subMap(oldPrice, false, newPrice, true), crossed);
+            }
+        } else if (newPrice < oldPrice) {
+            // Nearest thresholds first, in the direction of the move
+            collect(alerts.falls.subMap(newPrice, true, oldPrice, false).descendingMap(), crossed);
+            if (alerts.investment == investment) {
+                collect(alerts.gainFalls.subMap(newPrice, true, oldPrice, false).descendingMap(), crossed);
+            }
+        }
+        // Collected first, so listeners may add or remove alerts
+        fired += crossed.size();
+        for (Alert alert : crossed) {
+            for (AlertListener listener : listeners) {
+                listener.alertTriggered(alert, investment, oldPrice);
+            }
+        }
+    }
+
+    @Override
+    public void quantityChanged(Investment investment, int oldQuantity) {
+        replaceGainAlerts(investment);
+    }
+
+    @Override
+    public void bookValueChanged(Investment investment, double oldBookValue) {
+        replaceGainAlerts(investment);
+    }
+
+    /**
+     * Places the gain alerts of a symbol again after its quantity or book
+     * value changed.
+     */
+    private void replaceGainAlerts(Investment investment) {
+        SymbolAlerts alerts = bySymbol.get(key(investment.getSymbol()));
+        if (alerts != null && alerts.investment == investment && !alerts.gainAlerts.isEmpty()) {
+            placeGainAlerts(alerts);
+        }
+    }
+
+    private void placeGainAlerts(SymbolAlerts alerts) {
+        alerts.gainRises.clear();
+        alerts.gainFalls.clear();
+        for (Alert alert : alerts.gainAlerts) {
+            insert(alert.above ? alerts.gainRises : alerts.gainFalls, triggerPrice(alerts.investment, alert.threshold), alert);
+        }
+    }
+
+    private static void collect(NavigableMap<Double, ArrayList<Alert>> range, ArrayList<Alert> crossed) {
+        for (ArrayList<Alert> alerts : range.values()) {
+            crossed.addAll(alerts);
+        }
+    }
+
+    /**
+     * Creates an alert and counts it for its symbol, whose entry is created
+     * if needed.
+     */
+    private Alert register(String symbol, boolean gain, boolean above, double threshold) {
+        if (symbol == null || symbol.trim().isEmpty()) {
+            throw new IllegalArgumentException("Error: Symbol cannot be empty.");
+        }
+        String symbolKey = key(symbol);
+        SymbolAlerts alerts = bySymbol.get(symbolKey);
+        if (alerts == null) {
+            alerts = new SymbolAlerts();
+            alerts.investment = portfolio.findInvestmentBySymbol(symbol.trim());
+            bySymbol.put(symbolKey, alerts);
+        }
+        Alert alert = new Alert(nextId++, symbol.trim(), gain, above, threshold);
+        alerts.all.add(alert);
+        byId.put(alert.id, alert);
+        return alert;
+    }
+
+    /**
+     * Calculates the price at which a position's gain equals a threshold.
+     */
+    private static double triggerPrice(Investment investment, double gain) {
+        return (gain + investment.getBookValue()) / investment.getQuantity();
+    }
+
+    private static void insert(TreeMap<Double, ArrayList<Alert>> tree, double price, Alert alert) {
+        tree.computeIfAbsent(price, p -> new ArrayList<>(1)).add(alert);
+    }
+
+    private static void remove(TreeMap<Double, ArrayList<Alert>> tree, double price, Alert alert) {
+        ArrayList<Alert> alerts = tree.get(price);
+        if (alerts != null && alerts.remove(alert) && alerts.isEmpty()) {
+            tree.remove(price);
+        }
+    }
+
+    private static String key(String symbol) {
+        return symbol.trim().toLowerCase(Locale.ROOT);
+    }
+}
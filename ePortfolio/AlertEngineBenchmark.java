@@ -0,0 +1,125 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures the cost of a price tick with many alerts registered, against
+ * checking every alert on every tick. The generated price and gain alerts
+ * sit around each position's price, and the ticks are a random walk with
+ * some buys in between, so the gain alerts are placed again from time to
+ * time. On the first ticks both approaches must fire the same number of
+ * alerts.
+ *
+ * <pre>
+ * java ePortfolio.AlertEngineBenchmark 1000 500000 1000000
+ * </pre>
+ */
+public class AlertEngineBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args args[0] is the number of positions (default 1,000), args[1]
+     * the number of alerts (default 500,000) and args[2] the number of ticks
+     * (default 1,000,000)
+     */
+    public static void main(String[] args) {
+        int positions = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int alertCount = args.length > 1 ? Integer.parseInt(args[1]) : 500_000;
+        int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+        Random random = new Random(1);
+
+        Portfolio portfolio = new Portfolio();
+        for (int i = 0; i < positions; i++) {
+            portfolio.buyInvestment("stock", "S" + i, "Generated Fund " + i, 100, 100.0);
+        }
+        AlertEngine engine = new AlertEngine(portfolio);
+        ArrayList<AlertEngine.Alert> alerts = new ArrayList<>(alertCount);
+        for (int i = 0; i < alertCount; i++) {
+            String symbol = "S" + random.nextInt(positions);
+            boolean above = random.nextBoolean();
+            long id = random.nextInt(4) == 0
+                    ? engine.addGainAlert(symbol, above, random.nextGaussian() * 500)
+                    : engine.addPriceAlert(symbol, above, 100 + random.nextGaussian() * 5);
+            alerts.add(engine.getAlert(id));
+        }
+
+        // Checking every alert is too slow for all the ticks, so both run a prefix with the same seed
+        int scanTicks = Math.min(ticks, 2_000);
+        long seed = random.nextLong();
+        runTicks(portfolio, positions, scanTicks, new Random(seed), null);
+        long engineFired = engine.getFired();
+
+        resetPrices(portfolio, positions);
+        long[] scanFired = {0};
+        long start = System.nanoTime();
+        runTicks(portfolio, positions, scanTicks, new Random(seed), (investment, oldPrice) -> {
+            for (AlertEngine.Alert alert : alerts) {
+                if (alert.getSymbol().equalsIgnoreCase(investment.getSymbol()) && crossed(alert, investment, oldPrice)) {
+                    scanFired[0]++;
+                }
+            }
+        });
+        double scanSeconds = (System.nanoTime() - start) / 1e9;
+
+        resetPrices(portfolio, positions);
+        long firedBefore = engine.getFired();
+        start = System.nanoTime();
+        runTicks(portfolio, positions, ticks, new Random(seed), null);
+        double engineSeconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Alerts:        %,d on %,d positions%n", alertCount, positions);
+        System.out.printf("Engine:        %,.0f ns/tick, %,d fired in %,d ticks%n", engineSeconds * 1e9 / ticks,
+                engine.getFired() - firedBefore, ticks);
+        System.out.printf("Scan all:      %,.0f ns/tick%n", scanSeconds * 1e9 / scanTicks);
+        System.out.printf("Same alerts:   %s (%,d fired in the first %,d ticks)%n",
+                engineFired == scanFired[0] ? "yes" : "NO", engineFired, scanTicks);
+    }
+
+    /**
+     * Receives each tick when the alerts are checked by scanning.
+     */
+    private interface TickCheck {
+
+        void check(Investment investment, double oldPrice);
+    }
+
+    /**
+     * Applies the ticks: a random walk of the prices, with a buy every 100
+     * ticks that changes quantity and book value.
+     */
+    private static void runTicks(Portfolio portfolio, int positions, int ticks, Random random, TickCheck check) {
+        for (int i = 0; i < ticks; i++) {
+            Investment investment = portfolio.findInvestmentBySymbol("S" + random.nextInt(positions));
+            if (i % 100 == 99) {
+                portfolio.buyInvestment("stock", investment.getSymbol(), investment.getName(), 1 + random.nextInt(10), investment.getPrice());
+                continue;
+            }
+            double oldPrice = investment.getPrice();
+            double newPrice = Math.max(1, Math.round((oldPrice + random.nextGaussian()) * 100) / 100.0);
+            portfolio.updatePrice(investment.getSymbol(), newPrice);
+            if (check != null) {
+                check.check(investment, oldPrice);
+            }
+        }
+    }
+
+    private static boolean crossed(AlertEngine.Alert alert, Investment investment, double oldPrice) {
+        double newPrice = investment.getPrice();
+        double threshold = alert.isGain()
+                ? (alert.getThreshold() + investment.getBookValue()) / investment.getQuantity()
+                : alert.getThreshold();
+        return alert.isAbove()
+                ? oldPrice < threshold && threshold <= newPrice
+                : newPrice <= threshold && threshold < oldPrice;
+    }
+
+    private static void resetPrices(Portfolio portfolio, int positions) {
+        for (int i = 0; i < positions; i++) {
+            Investment investment = portfolio.findInvestmentBySymbol("S" + i);
+            portfolio.sellInvestment(investment.getSymbol(), investment.getQuantity(), 100.0);
+            portfolio.buyInvestment("stock", "S" + i, "Generated Fund " + i, 100, 100.0);
+        }
+    }
+}
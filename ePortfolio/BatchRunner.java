@@ -0,0 +1,317 @@
+package ePortfolio;
+
+import java.io.*;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Headless entry point that loads a portfolio, applies a command script and
+ * saves the result without ever touching AWT or Swing, so it can run on
+ * servers and in containers with no display.
+ *
+ * <p>
+ * Each line of the script is one command. Tokens are separated by blanks and
+ * may be double-quoted when they contain blanks themselves. Lines that are
+ * empty or start with '#' are ignored.
+ * <pre>
+ * buy &lt;stock|mutualfund&gt; &lt;symbol&gt; &lt;quantity&gt; &lt;price&gt; &lt;name...&gt;
+ * sell &lt;symbol&gt; &lt;quantity&gt; &lt;price&gt;
+ * price &lt;symbol&gt; &lt;price&gt;
+ * fx &lt;currency&gt; &lt;rate&gt;
+ * search &lt;keywords...&gt;
+ * gain
+ * gains
+ * realized [stock|mutualfund|&lt;symbol&gt;]
+ * gainasof &lt;yyyy-mm-dd&gt;
+ * values &lt;from yyyy-mm-dd&gt; &lt;to yyyy-mm-dd&gt;
+ * save
+ * </pre>
+ * The realized command prints the totals of the sales made since the
+ * portfolio was loaded, for all of them, one investment type or one symbol.
+ */
+public class BatchRunner {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Portfolio portfolio;
+    private final String filename;
+
+    /**
+     * Creates a runner that applies commands to the given portfolio.
+     *
+     * @param portfolio the portfolio to apply commands to
+     * @param filename the file the "save" command writes to
+     */
+    public BatchRunner(Portfolio portfolio, String filename) {
+        this.portfolio = portfolio;
+        this.filename = filename;
+    }
+
+    /**
+     * Executes a single command line and appends its result to the output.
+     * Errors are reported in the output rather than thrown, so a bad line
+     * never aborts the rest of a script.
+     *
+     * @param line the command line to execute
+     * @param out where the result of the command is written
+     * @return true if the line was a command, false if it was blank or a
+     * comment
+     * @throws IOException if writing to the output fails
+     */
+    public boolean execute(String line, Appendable out) throws IOException {
+        ArrayList<String> tokens = tokenize(line);
+        if (tokens.isEmpty() || tokens.get(0).startsWith("#")) {
+            return false;
+        }
+
+        String command = tokens.get(0).toLowerCase(Locale.ROOT);
+        try {
+            switch (command) {
+                case "buy":
+                    requireTokens(tokens, 6, "buy <type> <symbol> <quantity> <price> <name>");
+                    out.append(portfolio.buyInvestment(tokens.get(1), tokens.get(2), join(tokens, 5),
+                            Integer.parseInt(tokens.get(3)), Double.parseDouble(tokens.get(4))));
+                    break;
+                case "sell":
+                    requireTokens(tokens, 4, "sell <symbol> <quantity> <price>");
+                    portfolio.sellInvestment(tokens.get(1), Integer.parseInt(tokens.get(2)),
+                            Double.parseDouble(tokens.get(3))).appendTo(out);
+                    break;
+                case "price":
+                    requireTokens(tokens, 3, "price <symbol> <price>");
+                    out.append(portfolio.updatePrice(tokens.get(1), Double.parseDouble(tokens.get(2))));
+                    break;
+                case "fx":
+                    requireTokens(tokens, 3, "fx <currency> <rate>");
+                    out.append(portfolio.updateFxRate(tokens.get(1), Double.parseDouble(tokens.get(2))));
+                    break;
+                case "search":
+                    requireTokens(tokens, 2, "search <keywords>");
+                    ArrayList<Investment> results = portfolio.search(join(tokens, 1));
+                    out.append("Found ").append(Integer.toString(results.size())).append(" investment(s).\n");
+                    for (Investment investment : results) {
+                        out.append(investment.toString()).append('\n');
+                    }
+                    break;
+                case "gain":
+                    appendMoney(out.append("Total gain: $"), portfolio.getTotalGain()).append('\n');
+                    break;
+                case "gains":
+                    out.append(portfolio.getIndividualGains());
+                    break;
+                case "realized":
+                    RealizedLedger ledger = portfolio.getRealizedLedger();
+                    String scope = tokens.size() > 1 ? tokens.get(1) : null;
+                    RealizedLedger.Totals totals = scope == null ? ledger.getTotals()
+                            : scope.equalsIgnoreCase("stock") || scope.equalsIgnoreCase("mutualfund") ? ledger.getTotalsByType(scope)
+                            : ledger.getTotals(scope);
+                    if (totals == null) {
+                        out.append("Error: No sales found for symbol '").append(scope).append("'.\n");
+                    } else {
+                        out.append("Realized").append(scope == null ? "" : " (" + scope + ")").append(": ")
+                                .append(totals.toString()).append('\n');
+                    }
+                    break;
+                case "gainasof":
+                    requireTokens(tokens, 2, "gainasof <yyyy-mm-dd>");
+                    LocalDate date = parseDate(tokens.get(1));
+                    long endOfDay = date.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() - 1;
+                    double gainAsOf = requirePriceHistory().gainAsOf(portfolio, endOfDay);
+                    appendMoney(out.append("Gain as of ").append(date.toString()).append(": $"), gainAsOf).append('\n');
+                    break;
+                case "values":
+                    requireTokens(tokens, 3, "values <from yyyy-mm-dd> <to yyyy-mm-dd>");
+                    LocalDate from = parseDate(tokens.get(1));
+                    double[] values = requirePriceHistory().dailyValues(portfolio, from, parseDate(tokens.get(2)), ZoneId.systemDefault());
+                    for (int day = 0; day < values.length; day++) {
+                        appendMoney(out.append(from.plusDays(day).toString()).append(": $"), values[day]).append('\n');
+                    }
+                    break;
+                case "save":
+                    portfolio.saveToFile(filename);
+                    out.append("Portfolio saved to ").append(filename).append('\n');
+                    break;
+                default:
+                    out.append("Error: Unknown command '").append(tokens.get(0)).append("'.\n");
+            }
+        } catch (NumberFormatException e) {
+            out.append("Error: Quantity and price must be valid numbers.\n");
+        } catch (IllegalArgumentException e) {
+            out.append(e.getMessage()).append('\n');
+        }
+        return true;
+    }
+
+    /**
+     * Executes every command read from the script and writes the results.
+     *
+     * @param script the command script
+     * @param out where the results are written
+     * @return the number of commands executed
+     * @throws IOException if reading the script or writing results fails
+     */
+    public long run(BufferedReader script, Writer out) throws IOException {
+        long commands = 0;
+        String line;
+        while ((line = script.readLine()) != null) {
+            if (execute(line, out)) {
+                commands++;
+            }
+        }
+        return commands;
+    }
+
+    /**
+     * Splits a command line into blank-separated tokens. A token wrapped in
+     * double quotes may contain blanks.
+     *
+     * @param line the line to split
+     * @return the tokens of the line, without quotes
+     */
+    public static ArrayList<String> tokenize(String line) {
+        ArrayList<String> tokens = new ArrayList<>();
+        int i = 0;
+        int length = line.length();
+        while (i < length) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                int end = line.indexOf('"', i + 1);
+                if (end < 0) {
+                    end = length;
+                }
+                tokens.add(line.substring(i + 1, end));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < length && !Character.isWhitespace(line.charAt(i))) {
+                    i++;
+                }
+                tokens.add(line.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Appends an amount with two decimals, like String.format("%.2f") but
+     * without creating a Formatter, which dominates the cost of cheap
+     * commands such as "gain".
+     *
+     * @param out where the amount is written
+     * @param amount the amount to write
+     * @return the output, for chaining
+     * @throws IOException if writing to the output fails
+     */
+    static Appendable appendMoney(Appendable out, double amount) throws IOException {
+        return out.append(Portfolio.formatMoney(amount));
+    }
+
+    /**
+     * Parses an ISO date such as 2024-12-31.
+     *
+     * @param text the date to parse
+     * @return the parsed date
+     * @throws IllegalArgumentException if the date is not valid
+     */
+    private static LocalDate parseDate(String text) {
+        try {
+            return LocalDate.parse(text);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Error: Dates must be given as yyyy-mm-dd.");
+        }
+    }
+
+    /**
+     * Gets the price history of the portfolio.
+     *
+     * @return the price history
+     * @throws IllegalArgumentException if the portfolio has no price history
+     */
+    private PriceHistory requirePriceHistory() {
+        if (portfolio.getPriceHistory() == null) {
+            throw new IllegalArgumentException("Error: No price history. Run with -DePortfolio.priceHistory=<directory>.");
+        }
+        return portfolio.getPriceHistory();
+    }
+
+    /**
+     * Joins the tokens from the given position onwards with single blanks.
+     *
+     * @param tokens the tokens to join
+     * @param from the index of the first token to join
+     * @return the joined tokens
+     */
+    private static String join(ArrayList<String> tokens, int from) {
+        return String.join(" ", tokens.subList(from, tokens.size()));
+    }
+
+    /**
+     * Checks that a command has at least the given number of tokens.
+     *
+     * @param tokens the tokens of the command
+     * @param count the minimum number of tokens
+     * @param usage the usage shown in the error message
+     * @throws IllegalArgumentException if there are too few tokens
+     */
+    private static void requireTokens(ArrayList<String> tokens, int count, String usage) {
+        if (tokens.size() < count) {
+            throw new IllegalArgumentException("Error: Usage: " + usage);
+        }
+    }
+
+    /**
+     * Runs a command script against a portfolio file without a GUI. Exits
+     * with status 1 if the script cannot be run or the portfolio cannot be
+     * saved.
+     *
+     * @param args args[0] is the portfolio file, args[1] the command script
+     * and the optional args[2] the results file (standard output if omitted)
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java ePortfolio.BatchRunner <portfolio file> <script file> [results file]\n");
+            return;
+        }
+        // Make sure nothing on this path can try to open a display
+        System.setProperty("java.awt.headless", "true");
+
+        String filename = args[0];
+        Portfolio portfolio = new Portfolio();
+        portfolio.loadFromFile(filename);
+        portfolio.setPriceHistory(PriceHistory.openConfigured());
+        BatchRunner runner = new BatchRunner(portfolio, filename);
+
+        long start = System.nanoTime();
+        long commands;
+        try (BufferedReader script = new BufferedReader(new FileReader(args[1]), BUFFER_SIZE);
+                Writer results = args.length > 2 ? new BufferedWriter(new FileWriter(args[2]), BUFFER_SIZE) : null) {
+            // Standard output is only flushed, so the messages below still reach it
+            Writer out = results != null ? results : new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE);
+            commands = runner.run(script, out);
+            out.flush();
+        } catch (IOException e) {
+            System.out.println("Error running script: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        boolean saved = portfolio.saveToFile(filename);
+        if (portfolio.getPriceHistory() != null) {
+            try {
+                portfolio.getPriceHistory().close();
+            } catch (IOException e) {
+                System.out.println("Error closing price history: " + e.getMessage());
+            }
+        }
+        System.err.printf("Applied %d commands in %.3f s (%.0f commands/s)%n", commands, seconds, commands / Math.max(seconds, 1e-9));
+        if (!saved) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The unrealized gain of a portfolio per currency, kept current as the
+ * portfolio changes, and the total in the base currency.
+ *
+ * <p>
+ * Each currency's gain (price * quantity - book value, summed over its
+ * positions) is held in that currency and adjusted by every change the
+ * portfolio reports, in O(1) with a compensated sum, so no position is
+ * visited again. Its value in the base currency is cached together with
+ * the version of the rate it was converted at. An FX rate update therefore
+ * only converts the one currency again, and the total adds up one cached
+ * value per currency. A currency whose last position goes is reset to
+ * exactly zero, which also drops any rounding left in its sum.
+ *
+ * <p>
+ * Every Portfolio keeps one. It is read while holding the portfolio's
+ * monitor.
+ */
+public class CurrencyGains implements PortfolioListener {
+
+    /**
+     * The positions and the running gain of one currency.
+     */
+    private static final class Bucket {
+
+        final String currency;
+        int positions;
+        // Gain in the currency, and the low-order part lost from it (Neumaier summation)
+        double gain;
+        double compensation;
+        // Gain in the base currency, valid while the sum and the rate are unchanged
+        double converted;
+        long convertedVersion = -1;
+        boolean changed = true;
+
+        Bucket(String currency) {
+            this.currency = currency;
+        }
+
+        void add(double amount) {
+            double sum = gain + amount;
+            if (Math.abs(gain) >= Math.abs(amount)) {
+                compensation += (gain - sum) + amount;
+            } else {
+                compensation += (amount - sum) + gain;
+            }
+            gain = sum;
+            changed = true;
+        }
+
+        double gain() {
+            return gain + compensation;
+        }
+    }
+
+    private final FxRates fxRates;
+    private final Bucket base = new Bucket(null);
+    // Foreign currencies by upper-case code
+    private final HashMap<String, Bucket> foreign = new HashMap<>();
+
+    /**
+     * Creates the gains of an empty portfolio.
+     *
+     * @param fxRates the rates of the portfolio
+     */
+    CurrencyGains(FxRates fxRates) {
+        this.fxRates = fxRates;
+    }
+
+    /**
+     * Gets the total gain in the base currency. Currencies whose positions
+     * or rate changed since the last call are converted again; the others
+     * are taken from the cache.
+     *
+     * @return the total gain, NaN if a currency held has no rate
+     */
+    public double getTotalGain() {
+        double total = converted(base);
+        for (Bucket bucket : foreign.values()) {
+            if (bucket.positions > 0) {
+                total += converted(bucket);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Gets the gain of the positions in one currency, in that currency.
+     *
+     * @param currency the currency code, or null or empty for the base
+     * currency
+     * @return the gain, 0 if no position is in that currency
+     */
+    public double getGain(String currency) {
+        Bucket bucket = bucketOf(FxRates.toCurrency(currency), false);
+        return bucket == null ? 0 : bucket.gain();
+    }
+
+    /**
+     * Gets the gain of the positions in one currency, in the base currency.
+     *
+     * @param currency the currency code, or null or empty for the base
+     * currency
+     * @return the gain, 0 if no position is in that currency and NaN if the
+     * currency has no rate
+     */
+    public double getBaseGain(String currency) {
+        Bucket bucket = bucketOf(FxRates.toCurrency(currency), false);
+        return bucket == null || bucket.positions == 0 ? 0 : converted(bucket);
+    }
+
+    /**
+     * Gets the foreign currencies the portfolio holds positions in.
+     *
+     * @return the upper-case codes
+     */
+    public ArrayList<String> getCurrencies() {
+        ArrayList<String> currencies = new ArrayList<>();
+        for (Bucket bucket : foreign.values()) {
+            if (bucket.positions > 0) {
+                currencies.add(bucket.currency);
+            }
+        }
+        return currencies;
+    }
+
+    @Override
+    public void investmentAdded(Investment investment) {
+        Bucket bucket = bucketOf(investment.getCurrency(), true);
+        bucket.positions++;
+        bucket.add(investment.getPrice() * investment.getQuantity() - investment.getBookValue());
+    }
+
+    @Override
+    public void investmentRemoved(Investment investment) {
+        Bucket bucket = bucketOf(investment.getCurrency(), true);
+        if (--bucket.positions == 0) {
+            bucket.gain = 0;
+            bucket.compensation = 0;
+            bucket.changed = true;
+        } else {
+            bucket.add(investment.getBookValue() - investment.getPrice() * investment.getQuantity());
+        }
+    }
+
+    @Override
+    public void priceChanged(Investment investment, double oldPrice) {
+        bucketOf(investment.getCurrency(), true).add(investment.getPrice() * investment.getQuantity()
+                - oldPrice * investment.getQuantity());
+    }
+
+    @Override
+    public void quantityChanged(Investment investment, int oldQuantity) {
+        bucketOf(investment.getCurrency(), true).add(investment.getPrice() * investment.getQuantity()
+                - investment.getPrice() * oldQuantity);
+    }
+
+    @Override
+    public void bookValueChanged(Investment investment, double oldBookValue) {
+        bucketOf(investment.getCurrency(), true).add(oldBookValue - investment.getBookValue());
+    }
+
+    private Bucket bucketOf(String currency, boolean create) {
+        if (currency == null) {
+            return base;
+        }
+        return create ? foreign.computeIfAbsent(currency, Bucket::new) : foreign.get(currency);
+    }
+
+    private double converted(Bucket bucket) {
+        long version = fxRates.getVersion(bucket.currency);
+        if (bucket.changed || bucket.convertedVersion != version) {
+            bucket.converted = fxRates.toBase(bucket.currency, bucket.gain());
+            bucket.convertedVersion = version;
+            bucket.changed = false;
+        }
+        return bucket.converted;
+    }
+}
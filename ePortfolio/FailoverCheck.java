@@ -0,0 +1,258 @@
+package ePortfolio;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Checks failover to a hot standby with two processes. A PortfolioServer
+ * is started as the primary in its own JVM, with replication enabled, and
+ * a ReplicationStandby follows it in this one. Trades are sent to the
+ * primary over HTTP while the standby's lag is sampled; afterwards the
+ * standby must hold exactly the investments the primary lists. Then the
+ * primary is killed and the time until the standby has noticed and been
+ * promoted is measured, against loading and indexing the same portfolio
+ * file from scratch.
+ *
+ * <pre>
+ * java ePortfolio.FailoverCheck 50000 10000
+ * </pre>
+ */
+public class FailoverCheck {
+
+    private static final int CLIENTS = 4;
+
+    /**
+     * Runs the check.
+     *
+     * @param args args[0] is the number of positions (default 50,000) and
+     * args[1] the number of trades (default 10,000)
+     * @throws Exception if the check cannot be set up
+     */
+    public static void main(String[] args) throws Exception {
+        int positions = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int trades = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        Path directory = Files.createTempDirectory("ePortfolio-failover");
+        String filename = directory.resolve("investments.txt").toString();
+
+        Portfolio generated = new Portfolio();
+        for (int i = 0; i < positions; i++) {
+            generated.buyInvestment(type(i), "S" + i, "Generated Fund " + i, 100 + i % 50, 10 + i % 90);
+        }
+        generated.saveToFile(filename);
+        generated = null;
+        // The second load is measured, so both sides run compiled code
+        new Portfolio().loadFromFile(filename);
+        long start = System.nanoTime();
+        new Portfolio().loadFromFile(filename);
+        double loadMillis = (System.nanoTime() - start) / 1e6;
+
+        int httpPort = freePort();
+        int replicationPort = freePort();
+        Process primary = startPrimary(filename, httpPort, replicationPort);
+        try {
+            Portfolio portfolio = new Portfolio();
+            start = System.nanoTime();
+            ReplicationStandby standby = new ReplicationStandby(portfolio, replicationPort);
+            if (!standby.awaitSnapshot(60_000)) {
+                System.out.println("Error: No snapshot from the primary: " + standby.getLossReason());
+                return;
+            }
+            double snapshotMillis = (System.nanoTime() - start) / 1e6;
+
+            String base = "http://127.0.0.1:" + httpPort;
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            ArrayList<Long> lags = new ArrayList<>();
+            Thread sampler = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    lags.add(standby.getLagMicros());
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            sampler.start();
+            AtomicInteger failures = new AtomicInteger();
+            start = System.nanoTime();
+            sendTrades(client, base, positions, trades, failures);
+            double tradeSeconds = (System.nanoTime() - start) / 1e9;
+            sampler.interrupt();
+            sampler.join();
+
+            // The standby has caught up when it lists the same investments as the primary
+            String expected = get(client, base + "/investments");
+            String actual = null;
+            for (int attempt = 0; attempt < 100 && !expected.equals(actual); attempt++) {
+                Thread.sleep(20);
+                actual = listInvestments(portfolio);
+            }
+
+            start = System.nanoTime();
+            primary.destroyForcibly();
+            boolean lost = standby.awaitPrimaryLoss(10_000);
+            double detectMillis = (System.nanoTime() - start) / 1e6;
+            long promoteStart = System.nanoTime();
+            Portfolio promoted = standby.promote();
+            String bought;
+            synchronized (promoted) {
+                bought = promoted.buyInvestment(type(1), "S1", "Generated Fund 1", 1, 10);
+            }
+            double promoteMillis = (System.nanoTime() - promoteStart) / 1e6;
+
+            long[] sorted = lags.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            System.out.printf("Positions:         %,d; snapshot applied in %.0f ms%n", positions, snapshotMillis);
+            System.out.printf("Trades:            %,d in %.2f s from %d clients, failures: %d%n", trades, tradeSeconds, CLIENTS, failures.get());
+            System.out.printf("Standby lag:       median %,d us, max %,d us over %,d messages%n",
+                    sorted.length == 0 ? 0 : sorted[sorted.length / 2], standby.getMaxLagMicros(), standby.getAppliedCount());
+            System.out.printf("Same investments:  %s (%,d)%n", expected.equals(actual) ? "yes" : "NO", portfolio.getInvestments().size());
+            System.out.printf("Primary killed:    %s after %.1f ms (%s)%n", lost ? "noticed" : "NOT noticed", detectMillis, standby.getLossReason());
+            System.out.printf("Promoted:          in %.1f ms, first trade: %s", promoteMillis, bought);
+            System.out.printf("Failover total:    %.1f ms, against %.0f ms to load and index the file%n", detectMillis + promoteMillis, loadMillis);
+        } finally {
+            primary.destroyForcibly();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * Starts a PortfolioServer with replication in a new JVM and waits until
+     * it serves.
+     */
+    private static Process startPrimary(String filename, int httpPort, int replicationPort) throws IOException {
+        ArrayList<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-DePortfolio.replicationPort=" + replicationPort);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(PortfolioServer.class.getName());
+        command.add(filename);
+        command.add(Integer.toString(httpPort));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = out.readLine()) != null && !line.startsWith("Serving")) {
+            if (line.startsWith("Error")) {
+                process.destroyForcibly();
+                throw new IOException(line);
+            }
+        }
+        if (line == null) {
+            throw new IOException("Primary exited before serving");
+        }
+        // Keeps the primary's output from filling the pipe
+        Thread drain = new Thread(() -> {
+            try {
+                while (out.readLine() != null) {
+                    // Ignored
+                }
+            } catch (IOException e) {
+                // The primary was killed
+            }
+        });
+        drain.setDaemon(true);
+        drain.start();
+        return process;
+    }
+
+    /**
+     * Sends the trades from several clients: mostly price updates, some buys
+     * and sells of held symbols, and new symbols that are bought and then
+     * sold in full, so investments are added and removed as well.
+     */
+    private static void sendTrades(HttpClient client, String base, int positions, int trades, AtomicInteger failures)
+            throws InterruptedException {
+        Thread[] clients = new Thread[CLIENTS];
+        for (int c = 0; c < CLIENTS; c++) {
+            int id = c;
+            clients[c] = new Thread(() -> {
+                for (int i = 0; i < trades / CLIENTS; i++) {
+                    int symbol = (int) ((i * 7919L + id * 104729L) % positions);
+                    int kind = i % 20;
+                    String uri;
+                    if (kind < 12) {
+                        uri = base + "/price?symbol=S" + symbol + "&price=" + (5 + (i % 100) / 4.0);
+                    } else if (kind < 17) {
+                        uri = base + "/buy?type=" + type(symbol) + "&symbol=S" + symbol + "&name=x&quantity=" + (1 + i % 9) + "&price=" + (10 + i % 30);
+                    } else if (kind == 17) {
+                        uri = base + "/buy?type=stock&symbol=N" + id + "_" + i + "&name=New+Fund&quantity=10&price=20";
+                    } else if (kind == 18) {
+                        uri = base + "/sell?symbol=S" + symbol + "&quantity=1&price=" + (10 + i % 30);
+                    } else {
+                        uri = base + "/sell?symbol=N" + id + "_" + (i - 2) + "&quantity=10&price=21";
+                    }
+                    try {
+                        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(uri))
+                                .POST(HttpRequest.BodyPublishers.noBody()).header(PortfolioServer.CLIENT_HEADER, "FailoverCheck").build(),
+                                HttpResponse.BodyHandlers.ofString());
+                        if (response.statusCode() / 100 != 2) {
+                            failures.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            clients[c].start();
+        }
+        for (Thread thread : clients) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Gets the type of the generated position S&lt;number&gt;; every fifth is a
+     * mutual fund.
+     */
+    private static String type(int number) {
+        return number % 5 == 0 ? "mutualfund" : "stock";
+    }
+
+    private static String get(HttpClient client, String uri) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(URI.create(uri)).GET().build(), HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    /**
+     * Lists the investments the way the /investments request does.
+     */
+    private static String listInvestments(Portfolio portfolio) {
+        StringBuilder text = new StringBuilder("[");
+        synchronized (portfolio) {
+            ArrayList<Investment> investments = portfolio.getInvestments();
+            for (int i = 0; i < investments.size(); i++) {
+                if (i > 0) {
+                    text.append(",\n");
+                }
+                text.append(PortfolioServer.toJson(investments.get(i)));
+            }
+        }
+        return text.append("]\n").toString();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package ePortfolio;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Checks that Portfolio.formatMoney prints the same text as
+ * String.format("%.2f") over a sweep of amounts: every multiple of 0.001
+ * between -2,000 and 2,000, which includes every half cent, amounts of every
+ * magnitude built from random digits, and edge cases such as negative
+ * amounts that round to zero. Exits with status 1 on the first mismatches.
+ *
+ * <pre>
+ * java ePortfolio.FormatMoneyCheck 1000000
+ * </pre>
+ */
+public class FormatMoneyCheck {
+
+    private static final int REPORTED = 10;
+
+    private static long checked;
+    private static int mismatches;
+
+    /**
+     * Runs the check.
+     *
+     * @param args args[0] is the number of random amounts (default 1,000,000)
+     */
+    public static void main(String[] args) {
+        int randomAmounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        for (long thousandths = -2_000_000; thousandths <= 2_000_000; thousandths++) {
+            check(thousandths / 1000.0);
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < randomAmounts; i++) {
+            // Two to four decimals at magnitudes from 1e-4 to 1e12
+            double amount = random.nextInt(1_000_000) / Math.pow(10, 2 + random.nextInt(3)) * Math.pow(10, random.nextInt(9) - 2);
+            check(random.nextBoolean() ? amount : -amount);
+            check(random.nextGaussian() * Math.pow(10, random.nextInt(16)));
+        }
+
+        double[] edges = {0.0, -0.0, 0.004, -0.004, 0.005, -0.005, 0.015, 1.005, -1.005, 2.675, 1.115, 1e-300, -1e-300,
+            Double.MIN_VALUE, 1e15, -1e15, 1e15 + 0.5, 123456789012.345, 1e20, -1e22, Double.MAX_VALUE, -Double.MAX_VALUE,
+            Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (double amount : edges) {
+            check(amount);
+        }
+
+        System.out.printf("Amounts: %,d, mismatches: %d%n", checked, mismatches);
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void check(double amount) {
+        checked++;
+        String expected = String.format(Locale.ROOT, "%.2f", amount);
+        String actual = Portfolio.formatMoney(amount);
+        if (!expected.equals(actual)) {
+            if (mismatches < REPORTED) {
+                System.out.println("Mismatch for " + amount + ": expected " + expected + ", got " + actual);
+            }
+            mismatches++;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The exchange rates a portfolio values its foreign positions with, in units
+ * of the base currency per unit of each currency.
+ *
+ * <p>
+ * Investments without a currency are priced in the base currency, which is
+ * named by the ePortfolio.baseCurrency system property (USD if unset).
+ * Initial rates can be given with ePortfolio.fxRates, for example
+ * -DePortfolio.fxRates=CAD:0.73,EUR:1.08. Later rates are set through
+ * Portfolio.updateFxRate, so the portfolio's listeners hear of them.
+ *
+ * <p>
+ * Every rate carries the version at which it was last set, taken from a
+ * counter of the whole table. Whoever caches a value converted at a rate
+ * keeps the version it used and converts again only once that currency's
+ * version has moved. Like the portfolio, the table is read and changed
+ * while holding the portfolio's monitor.
+ */
+public class FxRates {
+
+    public static final String BASE_CURRENCY = normalizeCode(System.getProperty("ePortfolio.baseCurrency", "USD"));
+
+    // The rates of ePortfolio.fxRates, parsed once so a bad entry is reported once
+    private static final LinkedHashMap<String, Double> CONFIGURED_RATES = parseConfiguredRates();
+
+    /**
+     * The rate of one currency and the version it was set at.
+     */
+    private static final class Rate {
+
+        double rate;
+        long version;
+    }
+
+    // By upper-case currency code; the base currency has no entry
+    private final HashMap<String, Rate> rates = new HashMap<>();
+    private long version;
+
+    /**
+     * Creates a table with the rates of the ePortfolio.fxRates system
+     * property.
+     */
+    FxRates() {
+        for (Map.Entry<String, Double> entry : CONFIGURED_RATES.entrySet()) {
+            setRate(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Parses the ePortfolio.fxRates system property. Entries that cannot be
+     * parsed are reported and skipped.
+     *
+     * @return the valid rates by currency code from toCurrency, in the order
+     * given
+     */
+    private static LinkedHashMap<String, Double> parseConfiguredRates() {
+        LinkedHashMap<String, Double> configuredRates = new LinkedHashMap<>();
+        String configured = System.getProperty("ePortfolio.fxRates");
+        if (configured == null) {
+            return configuredRates;
+        }
+        for (String entry : configured.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = entry.split(":");
+            try {
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Error: Exchange rates must be given as <currency>:<rate>.");
+                }
+                String currency = toCurrency(parts[0]);
+                double rate = Double.parseDouble(parts[1].trim());
+                checkRate(currency, rate);
+                configuredRates.put(currency, rate);
+            } catch (NumberFormatException e) {
+                System.out.println("Error: Invalid exchange rate '" + entry.trim() + "'.");
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return configuredRates;
+    }
+
+    /**
+     * Converts a currency code to the form investments keep: upper case,
+     * or null for the base currency.
+     *
+     * @param currency the currency code, or null or empty for the base
+     * currency
+     * @return the upper-case code, or null for the base currency
+     * @throws IllegalArgumentException if the code is not three letters
+     */
+    public static String toCurrency(String currency) {
+        if (currency == null || currency.trim().isEmpty()) {
+            return null;
+        }
+        String code = normalizeCode(currency);
+        return code.equals(BASE_CURRENCY) ? null : code;
+    }
+
+    private static String normalizeCode(String currency) {
+        String code = currency.trim().toUpperCase(Locale.ROOT);
+        if (code.length() != 3 || !Character.isLetter(code.charAt(0)) || !Character.isLetter(code.charAt(1))
+                || !Character.isLetter(code.charAt(2))) {
+            throw new IllegalArgumentException("Error: Invalid currency '" + currency.trim() + "'. Please enter a three-letter code.");
+        }
+        return code;
+    }
+
+    /**
+     * Gets the rate of a currency.
+     *
+     * @param currency the code from toCurrency, null for the base currency
+     * @return the units of base currency per unit, 1 for the base currency
+     * and NaN if no rate has been set, so values in that currency show as
+     * unknown instead of wrong
+     */
+    public double getRate(String currency) {
+        if (currency == null) {
+            return 1;
+        }
+        Rate rate = rates.get(currency);
+        return rate == null ? Double.NaN : rate.rate;
+    }
+
+    /**
+     * Converts an amount to the base currency.
+     *
+     * @param currency the code from toCurrency, null for the base currency
+     * @param amount the amount in that currency
+     * @return the amount in the base currency
+     */
+    public double toBase(String currency, double amount) {
+        return currency == null ? amount : amount * getRate(currency);
+    }
+
+    /**
+     * Gets the version of the last rate set in this table.
+     *
+     * @return the version, 0 before any rate is set
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the version at which a currency's rate was last set.
+     *
+     * @param currency the code from toCurrency, null for the base currency
+     * @return the version, 0 for the base currency or a currency without a
+     * rate
+     */
+    public long getVersion(String currency) {
+        Rate rate = currency == null ? null : rates.get(currency);
+        return rate == null ? 0 : rate.version;
+    }
+
+    /**
+     * Gets the currencies that have a rate.
+     *
+     * @return the upper-case codes
+     */
+    public ArrayList<String> getCurrencies() {
+        return new ArrayList<>(rates.keySet());
+    }
+
+    /**
+     * Sets the rate of a currency and gives it a new version.
+     *
+     * @param currency the code from toCurrency
+     * @param rate the units of base currency per unit
+     * @return the previous rate, or NaN if there was none
+     * @throws IllegalArgumentException if the currency is the base currency
+     * or the rate is not a positive number
+     */
+    double setRate(String currency, double rate) {
+        checkRate(currency, rate);
+        Rate entry = rates.computeIfAbsent(currency, code -> {
+            Rate created = new Rate();
+            created.rate = Double.NaN;
+            return created;
+        });
+        double oldRate = entry.rate;
+        entry.rate = rate;
+        entry.version = ++version;
+        return oldRate;
+    }
+
+    private static void checkRate(String currency, double rate) {
+        if (currency == null) {
+            throw new IllegalArgumentException("Error: The rate of the base currency " + BASE_CURRENCY + " is always 1.");
+        }
+        if (!(rate > 0) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException("Error: Exchange rate must be greater than 0.");
+        }
+    }
+}
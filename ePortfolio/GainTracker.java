@@ -0,0 +1,203 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * Keeps the investments of a portfolio ordered by unrealized gain and by
+ * percentage gain, so the top gainers and losers can be read without
+ * scanning the portfolio.
+ *
+ * <p>
+ * The tracker listens to the portfolio. Every price, quantity or book value
+ * change moves the investment to its new place in both orderings in
+ * O(log n), and reading the top n movers costs O(n + log size). The gain of
+ * an investment is (price * quantity - book value) and its percentage gain
+ * is the gain relative to its book value.
+ */
+public class GainTracker implements PortfolioListener {
+
+    /**
+     * The gains an investment was last ordered by. They are kept apart from
+     * the investment because its fields already hold the new values when a
+     * change is reported, and the tree needs the old ones to find it.
+     */
+    private static final class Entry {
+
+        final Investment investment;
+        final long sequence;
+        double gain;
+        double percentGain;
+
+        Entry(Investment investment, long sequence) {
+            this.investment = investment;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Entry> BY_GAIN = Comparator.<Entry>comparingDouble(e -> e.gain)
+            .thenComparingLong(e -> e.sequence);
+    private static final Comparator<Entry> BY_PERCENT_GAIN = Comparator.<Entry>comparingDouble(e -> e.percentGain)
+            .thenComparingLong(e -> e.sequence);
+
+    private final Portfolio portfolio;
+    private final IdentityHashMap<Investment, Entry> entries = new IdentityHashMap<>();
+    private final TreeSet<Entry> byGain = new TreeSet<>(BY_GAIN);
+    private final TreeSet<Entry> byPercentGain = new TreeSet<>(BY_PERCENT_GAIN);
+    private long nextSequence;
+
+    /**
+     * Creates a tracker for the investments of a portfolio and starts
+     * listening to its changes.
+     *
+     * @param portfolio the portfolio to track
+     */
+    public GainTracker(Portfolio portfolio) {
+        this.portfolio = portfolio;
+        synchronized (portfolio) {
+            for (Investment investment : portfolio.getInvestments()) {
+                investmentAdded(investment);
+            }
+            portfolio.addListener(this);
+        }
+    }
+
+    /**
+     * Stops tracking the portfolio.
+     */
+    public void close() {
+        portfolio.removeListener(this);
+    }
+
+    /**
+     * Gets the investments with the highest gain, best first.
+     *
+     * @param count the maximum number of investments to return
+     * @return the top gainers
+     */
+    public synchronized ArrayList<Investment> getTopGainers(int count) {
+        return first(byGain.descendingIterator(), count);
+    }
+
+    /**
+     * Gets the investments with the lowest gain, worst first.
+     *
+     * @param count the maximum number of investments to return
+     * @return the top losers
+     */
+    public synchronized ArrayList<Investment> getTopLosers(int count) {
+        return first(byGain.iterator(), count);
+    }
+
+    /**
+     * Gets the investments with the highest percentage gain, best first.
+     *
+     * @param count the maximum number of investments to return
+     * @return the top gainers by percentage
+     */
+    public synchronized ArrayList<Investment> getTopPercentGainers(int count) {
+        return first(byPercentGain.descendingIterator(), count);
+    }
+
+    /**
+     * Gets the investments with the lowest percentage gain, worst first.
+     *
+     * @param count the maximum number of investments to return
+     * @return the top losers by percentage
+     */
+    public synchronized ArrayList<Investment> getTopPercentLosers(int count) {
+        return first(byPercentGain.iterator(), count);
+    }
+
+    /**
+     * Gets the number of tracked investments.
+     *
+     * @return the number of tracked investments
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Calculates the gain of an investment.
+     *
+     * @param investment the investment
+     * @return the unrealized gain
+     */
+    public static double gainOf(Investment investment) {
+        return investment.getPrice() * investment.getQuantity() - investment.getBookValue();
+    }
+
+    /**
+     * Calculates the gain of an investment as a percentage of its book value.
+     *
+     * @param investment the investment
+     * @return the percentage gain, or 0 if the book value is 0
+     */
+    public static double percentGainOf(Investment investment) {
+        double bookValue = investment.getBookValue();
+        return bookValue == 0 ? 0.0 : gainOf(investment) / bookValue * 100.0;
+    }
+
+    @Override
+    public synchronized void investmentAdded(Investment investment) {
+        Entry entry = new Entry(investment, nextSequence++);
+        entries.put(investment, entry);
+        insert(entry);
+    }
+
+    @Override
+    public synchronized void investmentRemoved(Investment investment) {
+        Entry entry = entries.remove(investment);
+        if (entry != null) {
+            byGain.remove(entry);
+            byPercentGain.remove(entry);
+        }
+    }
+
+    @Override
+    public void priceChanged(Investment investment, double oldPrice) {
+        reorder(investment);
+    }
+
+    @Override
+    public void quantityChanged(Investment investment, int oldQuantity) {
+        reorder(investment);
+    }
+
+    @Override
+    public void bookValueChanged(Investment investment, double oldBookValue) {
+        reorder(investment);
+    }
+
+    /**
+     * Moves an investment to the places its current gains belong to.
+     */
+    private synchronized void reorder(Investment investment) {
+        Entry entry = entries.get(investment);
+        // A book value change that matches a quantity change can leave the gain as it was
+        if (entry != null && (entry.gain != gainOf(investment) || entry.percentGain != percentGainOf(investment))) {
+            byGain.remove(entry);
+            byPercentGain.remove(entry);
+            insert(entry);
+        }
+    }
+
+    private void insert(Entry entry) {
+        entry.gain = gainOf(entry.investment);
+        entry.percentGain = percentGainOf(entry.investment);
+        byGain.add(entry);
+        byPercentGain.add(entry);
+    }
+
+    private static ArrayList<Investment> first(Iterator<Entry> iterator, int count) {
+        ArrayList<Investment> result = new ArrayList<>(Math.max(0, count));
+        while (result.size() < count && iterator.hasNext()) {
+            result.add(iterator.next().investment);
+        }
+        return result;
+    }
+}
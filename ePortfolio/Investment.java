@@ -1,5 +1,7 @@
 package ePortfolio;
 
+import java.util.Locale;
+import java.util.Objects;
 import java.util.Scanner;
 
 /**
@@ -13,6 +15,16 @@ public abstract class Investment {
     protected int quantity;
     protected double price;
     protected double bookValue;
+    // Upper-case code of the currency prices and book value are in, or null for the base currency
+    protected String currency;
+    // Changes are reported here while the investment belongs to a portfolio
+    PortfolioListener listener;
+    // Portfolio the investment belongs to, told when the investment first changes after a save
+    Portfolio owner;
+    // Set by every change and cleared when a segmented save writes the investment
+    boolean dirty = true;
+    // Segment file the investment is saved in by a SegmentedPortfolioStore, or -1
+    int segment = -1;
 
     /**
      * Constructs a new Investment object with the specified attributes.
@@ -52,6 +64,9 @@ public abstract class Investment {
      */
     public void setSymbol(String symbol) {
         validateSymbol(symbol);
+        if (!symbol.equals(this.symbol)) {
+            markDirty();
+        }
         this.symbol = symbol;
     }
 
@@ -71,6 +86,9 @@ public abstract class Investment {
      */
     public void setName(String name) {
         validateName(name);
+        if (!name.equals(this.name)) {
+            markDirty();
+        }
         this.name = name;
     }
 
@@ -92,7 +110,14 @@ public abstract class Investment {
         if (quantity < 0) {
             throw new IllegalArgumentException("Error: Quantity must be zero or greater.");
         }
+        int oldQuantity = this.quantity;
         this.quantity = quantity;
+        if (oldQuantity != quantity) {
+            markDirty();
+            if (listener != null) {
+                listener.quantityChanged(this, oldQuantity);
+            }
+        }
     }
 
     /**
@@ -111,20 +136,75 @@ public abstract class Investment {
      */
     public void setPrice(double price) {
         validatePrice(price);
+        double oldPrice = this.price;
         this.price = price;
+        if (oldPrice != price) {
+            markDirty();
+            if (listener != null) {
+                listener.priceChanged(this, oldPrice);
+            }
+        }
     }
 
     public double getBookValue() {
         return bookValue;
     }
 
+    /**
+     * Gets the currency the price and book value of the investment are in.
+     *
+     * @return the upper-case currency code, or null for the base currency
+     */
+    public String getCurrency() {
+        return currency;
+    }
+
+    /**
+     * Sets the currency the price and book value of the investment are in.
+     * The currency is set before the investment is added to a portfolio,
+     * which keeps its gains per currency.
+     *
+     * @param currency the currency code, or null or empty for the base
+     * currency (see FxRates)
+     * @throws IllegalArgumentException if the code is not three letters
+     * @throws IllegalStateException if the investment belongs to a portfolio
+     */
+    public void setCurrency(String currency) {
+        String code = FxRates.toCurrency(currency);
+        if (owner != null && !Objects.equals(code, this.currency)) {
+            throw new IllegalStateException("Error: The currency of an investment in a portfolio cannot be changed.");
+        }
+        this.currency = code;
+    }
+
     /**
      * Sets the total book value of the investment.
      *
      * @param bookValue the new book value of the investment
      */
     public void setBookValue(double bookValue) {
+        double oldBookValue = this.bookValue;
         this.bookValue = bookValue;
+        if (oldBookValue != bookValue) {
+            markDirty();
+            if (listener != null) {
+                listener.bookValueChanged(this, oldBookValue);
+            }
+        }
+    }
+
+    /**
+     * Flags the investment as changed since the last segmented save. Only the
+     * first change after a save is reported to the owning portfolio, so the
+     * portfolio learns of each changed investment once.
+     */
+    private void markDirty() {
+        if (!dirty) {
+            dirty = true;
+            if (owner != null) {
+                owner.investmentChanged(this);
+            }
+        }
     }
 
     /**
@@ -135,7 +215,8 @@ public abstract class Investment {
      */
     @Override
     public String toString() {
-        return "Name: " + name + ", Symbol: " + symbol + ", Quantity: " + quantity + ", Price: $" + price + ", BookValue: $" + bookValue;
+        String text = "Name: " + name + ", Symbol: " + symbol + ", Quantity: " + quantity + ", Price: $" + price + ", BookValue: $" + bookValue;
+        return currency == null ? text : text + ", Currency: " + currency;
     }
 
     /**
@@ -207,7 +288,7 @@ public abstract class Investment {
      */
     public static Investment createInvestment(Scanner scanner) {
         System.out.println("Enter type (stock/mutualfund): ");
-        String type = scanner.nextLine().trim().toLowerCase();
+        String type = scanner.nextLine().trim().toLowerCase(Locale.ROOT);
 
         System.out.println("Enter symbol: ");
         String symbol = scanner.nextLine().trim();
@@ -0,0 +1,1215 @@
+package ePortfolio;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Alternative portfolio backend for books larger than the heap, organized
+ * as a log-structured merge tree in a directory.
+ *
+ * <p>
+ * Changes go to a sorted in-memory table (the memtable) and to a write-ahead
+ * log. When the memtable reaches its size limit it is written out as an
+ * immutable segment file sorted by symbol, and the log starts over. Each
+ * segment holds 4 KB blocks of records, the first symbol of every block and
+ * a bloom filter of its symbols. A lookup checks the memtable, then the
+ * segments from newest to oldest, skipping segments whose bloom filter rules
+ * the symbol out and reading a single block from the others through a
+ * bounded LRU page cache.
+ *
+ * <p>
+ * Compaction is size-tiered. After a flush, the segments are split into
+ * runs of consecutive segments, starting from the newest and going back
+ * while an older segment holds at most TIER_RATIO times the average of the
+ * run. The newest run of COMPACTION_TRIGGER or more segments is merged
+ * into one by a background thread, dropping overwritten records; the next
+ * operation on the store installs the result. Flushed segments thus merge
+ * into segments about COMPACTION_TRIGGER times larger, and those merge
+ * again once enough of them exist, so every record is rewritten about once
+ * per tier, a number that grows with the logarithm of the book size. Sold
+ * markers are only dropped by a merge that includes the oldest segment,
+ * since an older segment may still hold the position.
+ *
+ * <p>
+ * The heap holds the memtable, the page cache and, per segment, its block
+ * index and bloom filter (about 10 bits per position plus one symbol per
+ * block), so memory follows the working set and not the size of the book.
+ * Totals, listings and searches stream all segments past the page cache, so
+ * a scan does not evict the working set.
+ *
+ * <p>
+ * Like Portfolio this class is not thread-safe. Investments returned by its
+ * lookups are detached copies; changes to them are not written back. Changes
+ * reach the log's buffer at once and the disk on force or close.
+ */
+public class LsmPortfolio implements Closeable {
+
+    public static final int DEFAULT_MEMTABLE_BYTES = 8 << 20;
+    public static final int DEFAULT_CACHE_BLOCKS = 2048;
+    public static final int COMPACTION_TRIGGER = 4;
+    // An older segment joins a run of newer ones if it holds at most this many times their average
+    private static final int TIER_RATIO = 2;
+
+    private static final int BLOCK_SIZE = 4096;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int BLOOM_HASHES = 7;
+    private static final int SEGMENT_MAGIC = 0x45504c53; // "EPLS"
+    private static final int FOOTER_BYTES = 8 + 8 + 4 + 4;
+    // Rough heap cost of a memtable entry besides its strings
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private static final byte SOLD = 0;
+    private static final byte STOCK = 1;
+    private static final byte MUTUAL_FUND = 2;
+
+    /**
+     * The values of one position, or a marker for a sold one. Immutable, so
+     * every change writes a new instance.
+     */
+    private static final class Position {
+
+        static final Position SOLD_POSITION = new Position(SOLD, null, null, 0, 0, 0);
+
+        final byte type;
+        final String symbol;
+        final String name;
+        final int quantity;
+        final double price;
+        final double bookValue;
+
+        Position(byte type, String symbol, String name, int quantity, double price, double bookValue) {
+            this.type = type;
+            this.symbol = symbol;
+            this.name = name;
+            this.quantity = quantity;
+            this.price = price;
+            this.bookValue = bookValue;
+        }
+
+        Position with(int quantity, double price, double bookValue) {
+            return new Position(type, symbol, name, quantity, price, bookValue);
+        }
+
+        double gain() {
+            return price * quantity - bookValue;
+        }
+    }
+
+    private final Path directory;
+    private final int memtableLimit;
+    private final TreeMap<String, Position> memtable = new TreeMap<>();
+    private long memtableBytes;
+    private DataOutputStream log;
+    private FileChannel logChannel;
+    // Oldest first
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private final PageCache cache;
+    private long nextSegmentId;
+    private int count;
+    // The count as of the last flush, the one the manifest records; the
+    // changes since then are counted again when the log is replayed
+    private int flushedCount;
+
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "ePortfolio LSM compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // The running compaction and the segments it merges, or null
+    private Future<Segment> compaction;
+    private List<Segment> compacting;
+    private long compactions;
+
+    /**
+     * Opens or creates a store with the default memtable and cache sizes.
+     *
+     * @param directory the directory of the store
+     * @throws IOException if the store cannot be opened
+     */
+    public LsmPortfolio(String directory) throws IOException {
+        this(directory, DEFAULT_MEMTABLE_BYTES, DEFAULT_CACHE_BLOCKS);
+    }
+
+    /**
+     * Opens or creates a store. The segments listed in its manifest are
+     * opened, files left over from an interrupted flush or compaction are
+     * deleted and the changes in the log are applied again.
+     *
+     * @param directory the directory of the store
+     * @param memtableBytes the approximate heap size at which the memtable
+     * is written to a segment
+     * @param cacheBlocks the number of 4 KB blocks the page cache holds
+     * @throws IOException if the store cannot be opened
+     */
+    public LsmPortfolio(String directory, int memtableBytes, int cacheBlocks) throws IOException {
+        if (memtableBytes <= 0 || cacheBlocks <= 0) {
+            throw new IllegalArgumentException("Error: Memtable and cache sizes must be greater than 0.");
+        }
+        this.directory = Paths.get(directory);
+        memtableLimit = memtableBytes;
+        cache = new PageCache(cacheBlocks);
+        Files.createDirectories(this.directory);
+
+        ArrayList<Long> listed = readManifest();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                boolean orphan = name.endsWith(".tmp")
+                        || (name.endsWith(".seg") && !listed.contains(Long.parseLong(name.substring(0, name.length() - 4))));
+                if (orphan) {
+                    Files.delete(file);
+                }
+            }
+        }
+        for (long id : listed) {
+            segments.add(Segment.open(segmentFile(id), id));
+        }
+        replayLog();
+        openLog(false);
+    }
+
+    /**
+     * Gets the number of positions in the store.
+     *
+     * @return the number of positions
+     */
+    public int size() {
+        installCompaction();
+        return count;
+    }
+
+    /**
+     * Adds an investment to the store. If a position with the same symbol
+     * exists, its quantity, book value and price are updated the same way
+     * Portfolio.addInvestment does.
+     *
+     * @param newInvestment the investment to add
+     */
+    public void addInvestment(Investment newInvestment) {
+        installCompaction();
+        String key = newInvestment.getSymbol().toLowerCase(Locale.ROOT);
+        Position existing = get(key);
+        if (existing != null) {
+            put(key, existing.with(existing.quantity + newInvestment.getQuantity(), newInvestment.getPrice(),
+                    existing.bookValue + newInvestment.getQuantity() * newInvestment.getPrice()), true);
+            return;
+        }
+        put(key, new Position(newInvestment instanceof MutualFund ? MUTUAL_FUND : STOCK, newInvestment.getSymbol(),
+                newInvestment.getName(), newInvestment.getQuantity(), newInvestment.getPrice(), newInvestment.getBookValue()), false);
+    }
+
+    /**
+     * Buys an investment, with the same rules and messages as
+     * Portfolio.buyInvestment.
+     *
+     * @param type the investment type ("stock" or "mutualfund")
+     * @param symbol the symbol of the investment
+     * @param name the name of the investment, used only for new investments
+     * @param quantity the quantity bought
+     * @param price the price paid per unit
+     * @return a message describing the result of the purchase or any errors
+     */
+    public String buyInvestment(String type, String symbol, String name, int quantity, double price) {
+        installCompaction();
+        if (quantity <= 0) {
+            return "Error: Quantity must be greater than 0.\n";
+        }
+        if (price <= 0) {
+            return "Error: Price must be greater than 0.\n";
+        }
+        byte positionType;
+        if (type.equalsIgnoreCase("stock")) {
+            positionType = STOCK;
+        } else if (type.equalsIgnoreCase("mutualfund")) {
+            positionType = MUTUAL_FUND;
+        } else {
+            return "Error: Invalid investment type. Please enter 'stock' or 'mutualfund'.\n";
+        }
+
+        String key = symbol.toLowerCase(Locale.ROOT);
+        Position existing = get(key);
+        if (existing != null) {
+            if (existing.type != positionType) {
+                return "Error: The type of the existing investment does not match the provided type.\n";
+            }
+            put(key, existing.with(existing.quantity + quantity, price, existing.bookValue + quantity * price), true);
+            return "Symbol found. Updating the existing investment...\nExisting investment updated successfully!\n";
+        }
+
+        double bookValue = positionType == STOCK ? (quantity * price) + Stock.STOCK_FUND_FEE : quantity * price;
+        put(key, new Position(positionType, symbol, name, quantity, price, bookValue), false);
+        return "Investment added successfully!\n";
+    }
+
+    /**
+     * Sells units of a position, with the same rules and results as
+     * Portfolio.sellInvestment. A fully sold position is removed by writing
+     * a marker that hides it in older segments until compaction drops both.
+     *
+     * @param symbol the symbol of the investment to sell
+     * @param quantitySold the quantity of the investment to sell
+     * @param sellPrice the price at which the investment is sold
+     * @return the proceeds, fee and gain of the sale, or why it was refused
+     */
+    public TradeResult sellInvestment(String symbol, int quantitySold, double sellPrice) {
+        installCompaction();
+        String key = symbol.toLowerCase(Locale.ROOT);
+        Position position = get(key);
+        if (position == null) {
+            return TradeResult.notFound(symbol);
+        }
+        if (quantitySold <= 0 || quantitySold > position.quantity) {
+            return TradeResult.invalidQuantity();
+        }
+
+        double payment = quantitySold * sellPrice;
+        double fee = position.type == STOCK ? Stock.STOCK_FUND_FEE : MutualFund.MUTUAL_FUND_FEE;
+        double gain = (payment - fee) - (position.bookValue * (quantitySold / (double) position.quantity));
+
+        int remainingQuantity = position.quantity - quantitySold;
+        if (remainingQuantity == 0) {
+            put(key, Position.SOLD_POSITION, true);
+        } else {
+            put(key, position.with(remainingQuantity, position.price,
+                    position.bookValue * (remainingQuantity / (double) position.quantity)), true);
+        }
+        return TradeResult.sold(symbol, position.type != STOCK, quantitySold, sellPrice, fee, gain, remainingQuantity);
+    }
+
+    /**
+     * Updates the current price of the position with the given symbol.
+     *
+     * @param symbol the symbol of the investment to update
+     * @param price the new price
+     * @return a message describing the result of the update or any errors
+     */
+    public String updatePrice(String symbol, double price) {
+        installCompaction();
+        String key = symbol.toLowerCase(Locale.ROOT);
+        Position position = get(key);
+        if (position == null) {
+            return "Error: No investment found with symbol '" + symbol + "'.\n";
+        }
+        if (price <= 0) {
+            return "Error: Price must be greater than 0.\n";
+        }
+        put(key, position.with(position.quantity, price, position.bookValue), true);
+        return "Investment price updated successfully!\n";
+    }
+
+    /**
+     * Finds a position by symbol, case-insensitively.
+     *
+     * @param symbol the symbol of the investment to find
+     * @return a detached copy of the investment, or null if there is none
+     */
+    public Investment findInvestmentBySymbol(String symbol) {
+        installCompaction();
+        Position position = get(symbol.toLowerCase(Locale.ROOT));
+        return position == null ? null : toInvestment(position);
+    }
+
+    /**
+     * Calculates the total gain of all positions by streaming the store in
+     * symbol order.
+     *
+     * @return the total gain of the portfolio
+     */
+    public double getTotalGain() {
+        installCompaction();
+        double totalGain = 0.0;
+        Iterator<Position> positions = scan();
+        while (positions.hasNext()) {
+            totalGain += positions.next().gain();
+        }
+        return totalGain;
+    }
+
+    /**
+     * Generates a summary of individual gains for each position, in symbol
+     * order.
+     *
+     * @return a formatted string listing the individual gains
+     */
+    public String getIndividualGains() {
+        installCompaction();
+        StringBuilder output = new StringBuilder();
+        Iterator<Position> positions = scan();
+        while (positions.hasNext()) {
+            Position position = positions.next();
+            output.append(String.format("%s (%s): $%.2f\n", position.name, position.symbol, position.gain()));
+        }
+        return output.toString();
+    }
+
+    /**
+     * Searches for positions whose name or symbol contains every keyword, with
+     * the same matching rules as Portfolio.search. There is no keyword index,
+     * so this scans the store.
+     *
+     * @param keywordString the keywords separated by spaces
+     * @return detached copies of the matching investments, in symbol order
+     */
+    public ArrayList<Investment> search(String keywordString) {
+        installCompaction();
+        String[] keywords = keywordString.toLowerCase(Locale.ROOT).split(" ");
+        ArrayList<Investment> result = new ArrayList<>();
+        Iterator<Position> positions = scan();
+        while (positions.hasNext()) {
+            Position position = positions.next();
+            String name = " " + position.name.toLowerCase(Locale.ROOT) + " ";
+            String symbol = position.symbol.toLowerCase(Locale.ROOT);
+            boolean matches = true;
+            for (String keyword : keywords) {
+                if (!keyword.equals(symbol) && !name.contains(" " + keyword + " ")) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                result.add(toInvestment(position));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of segment files.
+     *
+     * @return the number of segments
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Gets the number of compactions installed since the store was opened.
+     *
+     * @return the number of compactions
+     */
+    public long getCompactions() {
+        return compactions;
+    }
+
+    /**
+     * Gets the share of block reads served by the page cache.
+     *
+     * @return the hit rate between 0 and 1, or 0 before the first read
+     */
+    public double getCacheHitRate() {
+        long total = cache.hits + cache.misses;
+        return total == 0 ? 0 : cache.hits / (double) total;
+    }
+
+    /**
+     * Writes the changes made so far to the log on disk.
+     */
+    public void force() {
+        try {
+            log.flush();
+            logChannel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Waits for a running compaction, writes the memtable to a segment and
+     * closes the store. The store must not be used afterwards.
+     *
+     * @throws IOException if writing or closing the files fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (!memtable.isEmpty()) {
+            flush();
+        }
+        if (compaction != null) {
+            awaitCompaction();
+        }
+        compactor.shutdown();
+        log.close();
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    /**
+     * Looks up a position in the memtable and then the segments, newest
+     * first.
+     *
+     * @param key the lower-case symbol
+     * @return the position, or null if there is none or it was sold
+     */
+    private Position get(String key) {
+        Position position = memtable.get(key);
+        if (position == null) {
+            try {
+                for (int i = segments.size() - 1; i >= 0 && position == null; i--) {
+                    position = segments.get(i).find(key, cache);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return position == null || position.type == SOLD ? null : position;
+    }
+
+    /**
+     * Logs a new state of a position, puts it in the memtable and writes the
+     * memtable to a segment once it is full.
+     *
+     * @param key the lower-case symbol
+     * @param position the new state, or the sold marker
+     * @param existed whether the position existed before
+     */
+    private void put(String key, Position position, boolean existed) {
+        try {
+            writeRecord(log, key, position);
+            Position previous = memtable.put(key, position);
+            if (previous == null) {
+                memtableBytes += ENTRY_OVERHEAD + 2L * key.length() + (position.type == SOLD ? 0 : 2L * (position.symbol.length() + position.name.length()));
+            }
+            if (!existed && position.type != SOLD) {
+                count++;
+            } else if (existed && position.type == SOLD) {
+                count--;
+            }
+            if (memtableBytes >= memtableLimit) {
+                flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the memtable to a new segment, records it in the manifest and
+     * starts a new log, then starts a compaction if a run of similarly
+     * sized segments is long enough.
+     *
+     * @throws IOException if the segment cannot be written
+     */
+    private void flush() throws IOException {
+        long id = nextSegmentId++;
+        try (SegmentWriter writer = new SegmentWriter(segmentFile(id), memtable.size())) {
+            for (Map.Entry<String, Position> entry : memtable.entrySet()) {
+                // Sold markers are kept, since older segments may still hold the position
+                writer.add(entry.getKey(), entry.getValue());
+            }
+            segments.add(writer.finish(id));
+        }
+        flushedCount = count;
+        writeManifest();
+        log.close();
+        openLog(true);
+        memtable.clear();
+        memtableBytes = 0;
+
+        if (compaction == null) {
+            // The newest run long enough to merge, if any
+            for (int end = segments.size(); end > 0; ) {
+                int start = tierStart(end);
+                if (end - start >= COMPACTION_TRIGGER) {
+                    List<Segment> inputs = new ArrayList<>(segments.subList(start, end));
+                    boolean keepSold = start > 0;
+                    long outputId = nextSegmentId++;
+                    compacting = inputs;
+                    compaction = compactor.submit(() -> compact(inputs, outputId, keepSold));
+                    break;
+                }
+                end = start;
+            }
+        }
+    }
+
+    /**
+     * Finds the run of similarly sized segments that ends before the given
+     * one: an older segment joins while it holds at most TIER_RATIO times
+     * the average of the segments already in the run.
+     *
+     * @param end the index after the newest segment of the run
+     * @return the index of the oldest segment of the run
+     */
+    private int tierStart(int end) {
+        int start = end - 1;
+        long records = segments.get(start).records;
+        while (start > 0 && segments.get(start - 1).records <= TIER_RATIO * Math.max(1, records / (end - start))) {
+            start--;
+            records += segments.get(start).records;
+        }
+        return start;
+    }
+
+    /**
+     * Merges a run of consecutive segments into one on the compaction
+     * thread.
+     *
+     * @param inputs the segments to merge, oldest first
+     * @param id the id of the merged segment
+     * @param keepSold true to keep sold markers, which must hide the
+     * position in segments older than the inputs; false if the inputs
+     * include the oldest segment
+     * @return the merged segment
+     * @throws IOException if the merged segment cannot be written
+     */
+    private static Segment compact(List<Segment> inputs, long id, boolean keepSold) throws IOException {
+        int expected = 0;
+        for (Segment segment : inputs) {
+            expected += segment.records;
+        }
+        Path file = inputs.get(0).file.resolveSibling(String.format("%08d.seg", id));
+        try (SegmentWriter writer = new SegmentWriter(file, expected)) {
+            MergeIterator merged = new MergeIterator(null, inputs, keepSold);
+            while (merged.hasNext()) {
+                Position position = merged.next();
+                writer.add(merged.key, position);
+            }
+            return writer.finish(id);
+        }
+    }
+
+    /**
+     * Installs a finished compaction: the merged segment replaces its inputs,
+     * which are deleted. Runs on the caller's thread, so no lookup can be
+     * reading a deleted segment.
+     */
+    private void installCompaction() {
+        if (compaction == null || !compaction.isDone()) {
+            return;
+        }
+        try {
+            Segment merged;
+            try {
+                merged = compaction.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // The inputs stay in place; the next flush tries again
+                System.out.println("Error compacting segments: " + e.getCause().getMessage());
+                compaction = null;
+                compacting = null;
+                return;
+            }
+            // Only newer segments were added meanwhile, so the merged one takes the place of its inputs
+            int start = segments.indexOf(compacting.get(0));
+            segments.subList(start, start + compacting.size()).clear();
+            segments.add(start, merged);
+            writeManifest();
+            for (Segment segment : compacting) {
+                cache.evict(segment.id);
+                segment.close();
+                Files.deleteIfExists(segment.file);
+            }
+            compactions++;
+            compaction = null;
+            compacting = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Blocks until the running compaction is done and installs it.
+     */
+    private void awaitCompaction() {
+        try {
+            compaction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            // Reported by installCompaction
+        }
+        installCompaction();
+    }
+
+    /**
+     * Streams every position in symbol order, merging the memtable and the
+     * segments without going through the page cache.
+     */
+    private Iterator<Position> scan() {
+        try {
+            return new MergeIterator(memtable, segments);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path segmentFile(long id) {
+        return directory.resolve(String.format("%08d.seg", id));
+    }
+
+    private static Investment toInvestment(Position position) {
+        if (position.type == MUTUAL_FUND) {
+            return new MutualFund(position.symbol, position.name, position.quantity, position.price, position.bookValue);
+        }
+        return new Stock(position.symbol, position.name, position.quantity, position.price, position.bookValue);
+    }
+
+    /**
+     * Reads the ids of the live segments, the position count and the next
+     * segment id from the manifest.
+     *
+     * @return the ids of the segments, oldest first
+     * @throws IOException if the manifest cannot be read
+     */
+    private ArrayList<Long> readManifest() throws IOException {
+        ArrayList<Long> ids = new ArrayList<>();
+        Path manifest = directory.resolve("MANIFEST");
+        if (!Files.exists(manifest)) {
+            return ids;
+        }
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            String[] parts = line.split("=", 2);
+            if (parts.length < 2) {
+                continue;
+            }
+            if (parts[0].equals("count")) {
+                count = Integer.parseInt(parts[1].trim());
+                flushedCount = count;
+            } else if (parts[0].equals("next")) {
+                nextSegmentId = Long.parseLong(parts[1].trim());
+            } else if (parts[0].equals("segments") && !parts[1].trim().isEmpty()) {
+                for (String id : parts[1].trim().split(" ")) {
+                    ids.add(Long.parseLong(id));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Replaces the manifest with the current segments and the count as of
+     * the last flush.
+     *
+     * @throws IOException if the manifest cannot be written
+     */
+    private void writeManifest() throws IOException {
+        StringBuilder text = new StringBuilder("version=1\n");
+        text.append("count=").append(flushedCount).append('\n');
+        text.append("next=").append(nextSegmentId).append('\n');
+        text.append("segments=");
+        for (int i = 0; i < segments.size(); i++) {
+            text.append(i == 0 ? "" : " ").append(segments.get(i).id);
+        }
+        text.append('\n');
+        Path temporary = directory.resolve("MANIFEST.tmp");
+        Files.write(temporary, text.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, directory.resolve("MANIFEST"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Applies the records of the log again. The records are whole new
+     * states, so applying one that already reached a segment changes
+     * nothing. A record cut off by a crash ends the log.
+     *
+     * @throws IOException if the log cannot be read
+     */
+    private void replayLog() throws IOException {
+        Path file = directory.resolve("wal.log");
+        if (!Files.exists(file)) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        int complete = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                String key = readString(buffer);
+                Position position = readPosition(buffer);
+                // Not logged again, the log already holds it
+                boolean existed = get(key) != null;
+                memtable.put(key, position);
+                memtableBytes += ENTRY_OVERHEAD;
+                if (!existed && position.type != SOLD) {
+                    count++;
+                } else if (existed && position.type == SOLD) {
+                    count--;
+                }
+                complete = buffer.position();
+            }
+        } catch (RuntimeException e) {
+            // Cut off by a crash while writing the last record; dropped so new records follow the last whole one
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(complete);
+            }
+        }
+    }
+
+    /**
+     * Opens the log for appending.
+     *
+     * @param truncate true to start an empty log
+     * @throws IOException if the log cannot be opened
+     */
+    private void openLog(boolean truncate) throws IOException {
+        FileOutputStream stream = new FileOutputStream(directory.resolve("wal.log").toFile(), !truncate);
+        logChannel = stream.getChannel();
+        log = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+    }
+
+    private static void writeRecord(DataOutputStream out, String key, Position position) throws IOException {
+        writeString(out, key);
+        out.writeByte(position.type);
+        if (position.type != SOLD) {
+            writeString(out, position.symbol);
+            writeString(out, position.name);
+            out.writeInt(position.quantity);
+            out.writeDouble(position.price);
+            out.writeDouble(position.bookValue);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Position readPosition(ByteBuffer buffer) {
+        byte type = buffer.get();
+        if (type == SOLD) {
+            return Position.SOLD_POSITION;
+        }
+        String symbol = readString(buffer);
+        String name = readString(buffer);
+        return new Position(type, symbol, name, buffer.getInt(), buffer.getDouble(), buffer.getDouble());
+    }
+
+    /**
+     * Index of 64-bit hashes of a set of symbols that answers "maybe
+     * present" or "certainly absent".
+     */
+    private static final class BloomFilter {
+
+        final long[] bits;
+
+        BloomFilter(int expectedKeys) {
+            bits = new long[Math.max(1, (int) ((long) expectedKeys * BLOOM_BITS_PER_KEY / 64) + 1)];
+        }
+
+        BloomFilter(long[] bits) {
+            this.bits = bits;
+        }
+
+        void add(String key) {
+            long hash = hash(key);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            long size = bits.length * 64L;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                long bit = ((h1 + i * (long) h2) & Long.MAX_VALUE) % size;
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        boolean mightContain(String key) {
+            long hash = hash(key);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            long size = bits.length * 64L;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                long bit = ((h1 + i * (long) h2) & Long.MAX_VALUE) % size;
+                if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** 64-bit FNV-1a over the characters, finished with a mix step. */
+        private static long hash(String key) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+            }
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            return hash ^ (hash >>> 33);
+        }
+    }
+
+    /**
+     * Writes a segment: blocks of records in symbol order, then the block
+     * index, the bloom filter and a footer locating them. The file is written
+     * under a temporary name and renamed once complete.
+     */
+    private static final class SegmentWriter implements Closeable {
+
+        private final Path file;
+        private final Path temporary;
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+        private final DataOutputStream recordOut = new DataOutputStream(record);
+        private final ArrayList<String> firstKeys = new ArrayList<>();
+        private final ArrayList<long[]> blocks = new ArrayList<>();
+        private final BloomFilter bloom;
+        private long offset;
+        private int blockBytes;
+        private int records;
+        private boolean finished;
+
+        SegmentWriter(Path file, int expectedKeys) throws IOException {
+            this.file = file;
+            temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16));
+            bloom = new BloomFilter(expectedKeys);
+        }
+
+        void add(String key, Position position) throws IOException {
+            record.reset();
+            writeRecord(recordOut, key, position);
+            if (blockBytes > 0 && blockBytes + record.size() > BLOCK_SIZE) {
+                endBlock();
+            }
+            if (blockBytes == 0) {
+                firstKeys.add(key);
+                blocks.add(new long[]{offset, 0});
+            }
+            record.writeTo(out);
+            blockBytes += record.size();
+            offset += record.size();
+            bloom.add(key);
+            records++;
+        }
+
+        Segment finish(long id) throws IOException {
+            endBlock();
+            long indexOffset = offset;
+            int indexStart = out.size();
+            out.writeInt(firstKeys.size());
+            for (int i = 0; i < firstKeys.size(); i++) {
+                writeString(out, firstKeys.get(i));
+                out.writeLong(blocks.get(i)[0]);
+                out.writeInt((int) blocks.get(i)[1]);
+            }
+            long bloomOffset = indexOffset + (out.size() - indexStart);
+            out.writeInt(bloom.bits.length);
+            for (long word : bloom.bits) {
+                out.writeLong(word);
+            }
+            out.writeLong(indexOffset);
+            out.writeLong(bloomOffset);
+            out.writeInt(records);
+            out.writeInt(SEGMENT_MAGIC);
+            out.close();
+            finished = true;
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+            return new Segment(id, file, firstKeys.toArray(new String[0]), blocks, new BloomFilter(bloom.bits), records);
+        }
+
+        private void endBlock() {
+            if (blockBytes > 0) {
+                blocks.get(blocks.size() - 1)[1] = blockBytes;
+                blockBytes = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                out.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * An immutable segment file with its block index and bloom filter in
+     * memory.
+     */
+    private static final class Segment implements Closeable {
+
+        final long id;
+        final Path file;
+        final FileChannel channel;
+        final String[] firstKeys;
+        final long[] offsets;
+        final int[] lengths;
+        final BloomFilter bloom;
+        final int records;
+
+        Segment(long id, Path file, String[] firstKeys, List<long[]> blocks, BloomFilter bloom, int records) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.firstKeys = firstKeys;
+            offsets = new long[blocks.size()];
+            lengths = new int[blocks.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = blocks.get(i)[0];
+                lengths[i] = (int) blocks.get(i)[1];
+            }
+            this.bloom = bloom;
+            this.records = records;
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        }
+
+        /**
+         * Opens a segment file and reads its block index and bloom filter.
+         */
+        static Segment open(Path file, long id) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                ByteBuffer footer = read(channel, size - FOOTER_BYTES, FOOTER_BYTES);
+                long indexOffset = footer.getLong();
+                long bloomOffset = footer.getLong();
+                int records = footer.getInt();
+                if (footer.getInt() != SEGMENT_MAGIC) {
+                    throw new IOException("Not a segment file: " + file);
+                }
+                ByteBuffer index = read(channel, indexOffset, (int) (size - FOOTER_BYTES - indexOffset));
+                String[] firstKeys = new String[index.getInt()];
+                ArrayList<long[]> blocks = new ArrayList<>(firstKeys.length);
+                for (int i = 0; i < firstKeys.length; i++) {
+                    firstKeys[i] = readString(index);
+                    blocks.add(new long[]{index.getLong(), index.getInt()});
+                }
+                index.position((int) (bloomOffset - indexOffset));
+                long[] bits = new long[index.getInt()];
+                index.asLongBuffer().get(bits);
+                return new Segment(id, file, firstKeys, blocks, new BloomFilter(bits), records);
+            }
+        }
+
+        /**
+         * Finds the record of a symbol, reading at most one block.
+         *
+         * @return the position or sold marker, or null if the segment has no
+         * record of the symbol
+         */
+        Position find(String key, PageCache cache) throws IOException {
+            if (!bloom.mightContain(key)) {
+                return null;
+            }
+            int block = Arrays.binarySearch(firstKeys, key);
+            if (block < 0) {
+                block = -block - 2;
+                if (block < 0) {
+                    return null;
+                }
+            }
+            ByteBuffer buffer = cache.get(this, block);
+            while (buffer.hasRemaining()) {
+                int compare = readString(buffer).compareTo(key);
+                Position position = readPosition(buffer);
+                if (compare == 0) {
+                    return position;
+                } else if (compare > 0) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        ByteBuffer readBlock(int block) throws IOException {
+            return read(channel, offsets[block], lengths[block]);
+        }
+
+        private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Segment file is truncated");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Bounded LRU cache of segment blocks.
+     */
+    private static final class PageCache {
+
+        private final LinkedHashMap<Long, ByteBuffer> blocks;
+        long hits;
+        long misses;
+
+        PageCache(int capacity) {
+            blocks = new LinkedHashMap<Long, ByteBuffer>(capacity * 4 / 3 + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, ByteBuffer> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        /**
+         * Gets a block, reading it on a miss. The returned buffer is a view
+         * of its own, positioned at the start of the block.
+         */
+        ByteBuffer get(Segment segment, int block) throws IOException {
+            Long key = (segment.id << 32) | block;
+            ByteBuffer buffer = blocks.get(key);
+            if (buffer == null) {
+                misses++;
+                buffer = segment.readBlock(block);
+                blocks.put(key, buffer);
+            } else {
+                hits++;
+            }
+            return buffer.duplicate();
+        }
+
+        void evict(long segmentId) {
+            blocks.keySet().removeIf(key -> key >>> 32 == segmentId);
+        }
+    }
+
+    /**
+     * Reads the records of a segment in order, a block at a time, without
+     * the page cache.
+     */
+    private static final class SegmentCursor {
+
+        final Segment segment;
+        final int age;
+        int block = -1;
+        ByteBuffer buffer = ByteBuffer.allocate(0);
+        String key;
+        Position position;
+
+        SegmentCursor(Segment segment, int age) {
+            this.segment = segment;
+            this.age = age;
+        }
+
+        boolean advance() throws IOException {
+            while (!buffer.hasRemaining()) {
+                if (++block >= segment.offsets.length) {
+                    return false;
+                }
+                buffer = segment.readBlock(block);
+            }
+            key = readString(buffer);
+            position = readPosition(buffer);
+            return true;
+        }
+    }
+
+    /**
+     * Merges the memtable and segments into one stream in symbol order. For
+     * a symbol present in several sources, the newest record wins. Sold
+     * markers are skipped unless asked for, so the stream holds the live
+     * positions only.
+     */
+    private static final class MergeIterator implements Iterator<Position> {
+
+        // Cursors ordered by symbol, newest source first for equal symbols
+        private final PriorityQueue<SegmentCursor> queue = new PriorityQueue<>((a, b) -> {
+            int compare = a.key.compareTo(b.key);
+            return compare != 0 ? compare : Integer.compare(b.age, a.age);
+        });
+        private final Iterator<Map.Entry<String, Position>> memtable;
+        private Map.Entry<String, Position> memtableEntry;
+        // Symbol of the position returned last
+        String key;
+        private String nextKey;
+        private Position next;
+        private final boolean keepSold;
+
+        MergeIterator(TreeMap<String, Position> memtable, List<Segment> segments) throws IOException {
+            this(memtable, segments, false);
+        }
+
+        MergeIterator(TreeMap<String, Position> memtable, List<Segment> segments, boolean keepSold) throws IOException {
+            this.keepSold = keepSold;
+            this.memtable = memtable == null ? null : memtable.entrySet().iterator();
+            memtableEntry = this.memtable != null && this.memtable.hasNext() ? this.memtable.next() : null;
+            for (int i = 0; i < segments.size(); i++) {
+                SegmentCursor cursor = new SegmentCursor(segments.get(i), i);
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+            next = findNext();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Position next() {
+            Position result = next;
+            key = nextKey;
+            try {
+                next = findNext();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return result;
+        }
+
+        private Position findNext() throws IOException {
+            while (memtableEntry != null || !queue.isEmpty()) {
+                String candidate;
+                Position position;
+                SegmentCursor head = queue.peek();
+                if (memtableEntry != null && (head == null || memtableEntry.getKey().compareTo(head.key) <= 0)) {
+                    // The memtable is newer than every segment
+                    candidate = memtableEntry.getKey();
+                    position = memtableEntry.getValue();
+                    memtableEntry = memtable.hasNext() ? memtable.next() : null;
+                } else {
+                    candidate = head.key;
+                    position = head.position;
+                }
+                // Skip the older records of the same symbol
+                while (!queue.isEmpty() && queue.peek().key.equals(candidate)) {
+                    SegmentCursor cursor = queue.poll();
+                    if (cursor.advance()) {
+                        queue.add(cursor);
+                    }
+                }
+                if (position.type != SOLD || keepSold) {
+                    nextKey = candidate;
+                    return position;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ePortfolio;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Loads a generated book into an LsmPortfolio and then trades a small hot
+ * set of symbols, with an occasional lookup of a cold one. Prints the load
+ * and trading rates, the page cache hit rate and the heap in use, which
+ * stays near the memtable and cache sizes however large the book is. Run it
+ * with a small heap to see that the book does not have to fit:
+ *
+ * <pre>
+ * java -Xmx64m ePortfolio.LsmPortfolioBenchmark /tmp/lsm 5000000 1000000 10000
+ * </pre>
+ */
+public class LsmPortfolioBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args args[0] is the store directory (default "lsm-benchmark"),
+     * args[1] the number of positions (default 2,000,000), args[2] the number
+     * of trades (default 1,000,000) and args[3] the size of the hot set
+     * (default 10,000)
+     * @throws IOException if the store cannot be opened or written
+     */
+    public static void main(String[] args) throws IOException {
+        String directory = args.length > 0 ? args[0] : "lsm-benchmark";
+        int positions = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+        int trades = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+        int hotSet = args.length > 3 ? Integer.parseInt(args[3]) : 10_000;
+        Random random = new Random(1);
+
+        try (LsmPortfolio store = new LsmPortfolio(directory)) {
+            int existing = store.size();
+            long start = System.nanoTime();
+            for (int i = existing; i < positions; i++) {
+                store.buyInvestment(i % 2 == 0 ? "stock" : "mutualfund", symbol(i), "Generated Fund " + i, 100, 10.0);
+            }
+            double loadSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            for (int i = 0; i < trades; i++) {
+                // 95% of the trades go to the hot set, spread over the whole book
+                int position = random.nextInt(100) < 95
+                        ? (int) ((long) random.nextInt(hotSet) * positions / hotSet)
+                        : random.nextInt(positions);
+                switch (i % 4) {
+                    case 0:
+                        store.buyInvestment(position % 2 == 0 ? "stock" : "mutualfund", symbol(position), "Generated Fund " + position, 1, 11.0);
+                        break;
+                    case 1:
+                        store.sellInvestment(symbol(position), 1, 12.0);
+                        break;
+                    case 2:
+                        store.updatePrice(symbol(position), 9.0 + random.nextInt(300) / 100.0);
+                        break;
+                    default:
+                        store.findInvestmentBySymbol(symbol(position));
+                }
+            }
+            double tradeSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            double totalGain = store.getTotalGain();
+            double scanSeconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("Positions:      %,d in %d segments (%d compactions)%n", store.size(), store.getSegmentCount(), store.getCompactions());
+            System.out.printf("Load:           %,.0f buys/s%n", (positions - existing) / Math.max(loadSeconds, 1e-9));
+            System.out.printf("Trades:         %,.0f/s with a hot set of %,d%n", trades / tradeSeconds, hotSet);
+            System.out.printf("Cache hit rate: %.1f%%%n", store.getCacheHitRate() * 100);
+            System.out.printf("Total gain:     $%s in %.2f s%n", Portfolio.formatMoney(totalGain), scanSeconds);
+            System.out.printf("Heap used:      %,d MB of %,d MB max%n", usedHeap() >> 20, Runtime.getRuntime().maxMemory() >> 20);
+        }
+    }
+
+    private static String symbol(int position) {
+        return String.format("S%08d", position);
+    }
+
+    /**
+     * Gets the heap in use after a few garbage collections.
+     *
+     * @return the used heap in bytes
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,729 @@
+package ePortfolio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Alternative portfolio backend for very large books that keeps positions
+ * outside the Java heap. Every position is a fixed-width record in direct or
+ * memory-mapped buffers, and symbols are found through an open-addressing
+ * hash table that is also kept off-heap, so the garbage collector sees a
+ * handful of buffer objects instead of one Investment per position.
+ *
+ * <p>
+ * When created with a file the records and the hash table are mapped from
+ * that file and a companion ".idx" file, so a restarted process maps them
+ * again instead of parsing and indexing the book. Without a file the store
+ * lives in direct memory only.
+ *
+ * <p>
+ * Record layout (128 bytes, native byte order):
+ * <pre>
+ *   0  type (1 = stock, 2 = mutual fund)    1  symbol length    2  name length
+ *   4  quantity (int)                       8  price (double)   16 book value (double)
+ *  24  symbol (24 bytes, UTF-8)            48  name (80 bytes, UTF-8)
+ * </pre>
+ *
+ * <p>
+ * Like Portfolio this class is not thread-safe. Investments returned by its
+ * lookups are detached copies; changes to them are not written back.
+ */
+public class OffHeapPortfolio implements Closeable {
+
+    public static final int MAX_SYMBOL_BYTES = 24;
+    public static final int MAX_NAME_BYTES = 80;
+
+    private static final int RECORD_SIZE = 128;
+    private static final int TYPE = 0;
+    private static final int SYMBOL_LENGTH = 1;
+    private static final int NAME_LENGTH = 2;
+    private static final int QUANTITY = 4;
+    private static final int PRICE = 8;
+    private static final int BOOK_VALUE = 16;
+    private static final int SYMBOL = 24;
+    private static final int NAME = 48;
+
+    private static final byte STOCK = 1;
+    private static final byte MUTUAL_FUND = 2;
+
+    private static final int HEADER_SIZE = 4096;
+    private static final int DATA_MAGIC = 0x45504f48;  // "EPOH"
+    private static final int INDEX_MAGIC = 0x45504f49; // "EPOI"
+    private static final int VERSION = 1;
+    // Version of the symbol hash stored in an index file; older index files are rebuilt
+    private static final int INDEX_VERSION = 2;
+    // 128 MB chunks; records and index slots never straddle a chunk
+    private static final int CHUNK_SHIFT = 27;
+    private static final int MIN_TABLE_CAPACITY = 1024;
+
+    private final Path dataFile;
+    private final Path indexFile;
+    private final FileChannel dataChannel;
+    private final ByteBuffer header;
+    private final Region records;
+    private FileChannel indexChannel;
+    private Region table;
+    private int tableCapacity;
+    private int count;
+
+    /**
+     * Creates an empty store in direct memory.
+     */
+    public OffHeapPortfolio() {
+        dataFile = null;
+        indexFile = null;
+        dataChannel = null;
+        header = ByteBuffer.allocateDirect(HEADER_SIZE).order(ByteOrder.nativeOrder());
+        records = new Region(null, 0);
+        count = 0;
+        buildTable(MIN_TABLE_CAPACITY);
+    }
+
+    /**
+     * Opens a file-backed store, creating it if the file does not exist. An
+     * existing store is mapped as is; its hash table is rebuilt only if the
+     * index file is missing or does not match the data file.
+     *
+     * @param filename the data file of the store
+     * @throws IOException if the file cannot be opened or is not a store
+     */
+    public OffHeapPortfolio(String filename) throws IOException {
+        dataFile = Paths.get(filename);
+        indexFile = Paths.get(filename + ".idx");
+        dataChannel = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean created = dataChannel.size() == 0;
+        header = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE).order(ByteOrder.nativeOrder());
+        records = new Region(dataChannel, HEADER_SIZE);
+
+        if (created) {
+            header.putInt(0, DATA_MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(8, 0);
+        } else if (header.getInt(0) != DATA_MAGIC || header.getInt(4) != VERSION) {
+            dataChannel.close();
+            throw new IOException("Error: " + filename + " is not an off-heap portfolio file.");
+        }
+        count = header.getInt(8);
+        records.ensure((long) count * RECORD_SIZE);
+
+        if (!openTable()) {
+            buildTable(tableCapacityFor(count));
+        }
+    }
+
+    /**
+     * Gets the number of positions in the store.
+     *
+     * @return the number of positions
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Adds an investment to the store. If a position with the same symbol
+     * exists, its quantity, book value and price are updated the same way
+     * Portfolio.addInvestment does.
+     *
+     * @param newInvestment the investment to add
+     * @throws IllegalArgumentException if the symbol or name is too long
+     */
+    public void addInvestment(Investment newInvestment) {
+        int record = findRecord(newInvestment.getSymbol());
+        if (record >= 0) {
+            long offset = offset(record);
+            records.putInt(offset + QUANTITY, records.getInt(offset + QUANTITY) + newInvestment.getQuantity());
+            records.putDouble(offset + BOOK_VALUE, records.getDouble(offset + BOOK_VALUE)
+                    + newInvestment.getQuantity() * newInvestment.getPrice());
+            records.putDouble(offset + PRICE, newInvestment.getPrice());
+            return;
+        }
+        appendRecord(newInvestment instanceof MutualFund ? MUTUAL_FUND : STOCK, newInvestment.getSymbol(),
+                newInvestment.getName(), newInvestment.getQuantity(), newInvestment.getPrice(), newInvestment.getBookValue());
+    }
+
+    /**
+     * Buys an investment, with the same rules and messages as
+     * Portfolio.buyInvestment.
+     *
+     * @param type the investment type ("stock" or "mutualfund")
+     * @param symbol the symbol of the investment
+     * @param name the name of the investment, used only for new investments
+     * @param quantity the quantity bought
+     * @param price the price paid per unit
+     * @return a message describing the result of the purchase or any errors
+     */
+    public String buyInvestment(String type, String symbol, String name, int quantity, double price) {
+        if (quantity <= 0) {
+            return "Error: Quantity must be greater than 0.\n";
+        }
+        if (price <= 0) {
+            return "Error: Price must be greater than 0.\n";
+        }
+        byte recordType;
+        if (type.equalsIgnoreCase("stock")) {
+            recordType = STOCK;
+        } else if (type.equalsIgnoreCase("mutualfund")) {
+            recordType = MUTUAL_FUND;
+        } else {
+            return "Error: Invalid investment type. Please enter 'stock' or 'mutualfund'.\n";
+        }
+
+        int record = findRecord(symbol);
+        if (record >= 0) {
+            long offset = offset(record);
+            if (records.get(offset + TYPE) != recordType) {
+                return "Error: The type of the existing investment does not match the provided type.\n";
+            }
+            records.putInt(offset + QUANTITY, records.getInt(offset + QUANTITY) + quantity);
+            records.putDouble(offset + BOOK_VALUE, records.getDouble(offset + BOOK_VALUE) + quantity * price);
+            records.putDouble(offset + PRICE, price);
+            return "Symbol found. Updating the existing investment...\nExisting investment updated successfully!\n";
+        }
+
+        double bookValue = recordType == STOCK ? (quantity * price) + Stock.STOCK_FUND_FEE : quantity * price;
+        appendRecord(recordType, symbol, name, quantity, price, bookValue);
+        return "Investment added successfully!\n";
+    }
+
+    /**
+     * Sells units of a position, with the same rules and results as
+     * Portfolio.sellInvestment. A fully sold position is removed by moving
+     * the last record into its place, so removal is constant time.
+     *
+     * @param symbol the symbol of the investment to sell
+     * @param quantitySold the quantity of the investment to sell
+     * @param sellPrice the price at which the investment is sold
+     * @return the proceeds, fee and gain of the sale, or why it was refused
+     */
+    public TradeResult sellInvestment(String symbol, int quantitySold, double sellPrice) {
+        int record = findRecord(symbol);
+        if (record < 0) {
+            return TradeResult.notFound(symbol);
+        }
+        long offset = offset(record);
+        int quantity = records.getInt(offset + QUANTITY);
+        if (quantitySold <= 0 || quantitySold > quantity) {
+            return TradeResult.invalidQuantity();
+        }
+
+        double bookValue = records.getDouble(offset + BOOK_VALUE);
+        double payment = quantitySold * sellPrice;
+        boolean mutualFund = records.get(offset + TYPE) != STOCK;
+        double fee = mutualFund ? MutualFund.MUTUAL_FUND_FEE : Stock.STOCK_FUND_FEE;
+        double gain = (payment - fee) - (bookValue * (quantitySold / (double) quantity));
+
+        int remainingQuantity = quantity - quantitySold;
+        if (remainingQuantity == 0) {
+            removeRecord(record);
+        } else {
+            records.putInt(offset + QUANTITY, remainingQuantity);
+            records.putDouble(offset + BOOK_VALUE, bookValue * (remainingQuantity / (double) quantity));
+        }
+        return TradeResult.sold(symbol, mutualFund, quantitySold, sellPrice, fee, gain, remainingQuantity);
+    }
+
+    /**
+     * Updates the current price of the position with the given symbol.
+     *
+     * @param symbol the symbol of the investment to update
+     * @param price the new price
+     * @return a message describing the result of the update or any errors
+     */
+    public String updatePrice(String symbol, double price) {
+        int record = findRecord(symbol);
+        if (record < 0) {
+            return "Error: No investment found with symbol '" + symbol + "'.\n";
+        }
+        if (price <= 0) {
+            return "Error: Price must be greater than 0.\n";
+        }
+        records.putDouble(offset(record) + PRICE, price);
+        return "Investment price updated successfully!\n";
+    }
+
+    /**
+     * Calculates the total gain of all positions with a sequential scan over
+     * the records.
+     *
+     * @return the total gain of the portfolio
+     */
+    public double getTotalGain() {
+        double totalGain = 0.0;
+        for (int i = 0; i < count; i++) {
+            long offset = offset(i);
+            totalGain += records.getDouble(offset + PRICE) * records.getInt(offset + QUANTITY)
+                    - records.getDouble(offset + BOOK_VALUE);
+        }
+        return totalGain;
+    }
+
+    /**
+     * Generates a summary of individual gains for each position.
+     *
+     * @return a formatted string listing the individual gains
+     */
+    public String getIndividualGains() {
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            long offset = offset(i);
+            double gain = records.getDouble(offset + PRICE) * records.getInt(offset + QUANTITY)
+                    - records.getDouble(offset + BOOK_VALUE);
+            output.append(String.format("%s (%s): $%.2f\n", readString(offset + NAME, records.get(offset + NAME_LENGTH)),
+                    readString(offset + SYMBOL, records.get(offset + SYMBOL_LENGTH)), gain));
+        }
+        return output.toString();
+    }
+
+    /**
+     * Finds a position by symbol, case-insensitively.
+     *
+     * @param symbol the symbol of the investment to find
+     * @return a detached copy of the investment, or null if there is none
+     */
+    public Investment findInvestmentBySymbol(String symbol) {
+        int record = findRecord(symbol);
+        return record < 0 ? null : toInvestment(record);
+    }
+
+    /**
+     * Searches for positions whose name or symbol contains every keyword, with
+     * the same matching rules as Portfolio.search. There is no keyword index
+     * off-heap, so this scans the records.
+     *
+     * @param keywordString the keywords separated by spaces
+     * @return detached copies of the matching investments
+     */
+    public ArrayList<Investment> search(String keywordString) {
+        String[] keywords = keywordString.toLowerCase(Locale.ROOT).split(" ");
+        ArrayList<Investment> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long offset = offset(i);
+            String name = " " + readString(offset + NAME, records.get(offset + NAME_LENGTH)).toLowerCase(Locale.ROOT) + " ";
+            String symbol = readString(offset + SYMBOL, records.get(offset + SYMBOL_LENGTH)).toLowerCase(Locale.ROOT);
+            boolean matches = true;
+            for (String keyword : keywords) {
+                if (!keyword.equals(symbol) && !name.contains(" " + keyword + " ")) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                result.add(toInvestment(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Flushes a file-backed store to disk. Does nothing for an in-memory
+     * store.
+     */
+    public void force() {
+        if (dataChannel != null) {
+            ((MappedByteBuffer) header).force();
+            records.force();
+            table.force();
+        }
+    }
+
+    /**
+     * Flushes and closes a file-backed store. The mappings stay valid until
+     * they are garbage collected, but the store must not be used afterwards.
+     *
+     * @throws IOException if closing the files fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (dataChannel != null) {
+            force();
+            dataChannel.close();
+            indexChannel.close();
+        }
+    }
+
+    /**
+     * Writes a new record at the end of the store and indexes it.
+     */
+    private void appendRecord(byte type, String symbol, String name, int quantity, double price, double bookValue) {
+        byte[] symbolBytes = symbol.getBytes(StandardCharsets.UTF_8);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (symbolBytes.length > MAX_SYMBOL_BYTES) {
+            throw new IllegalArgumentException("Error: Symbol cannot be longer than " + MAX_SYMBOL_BYTES + " bytes.");
+        }
+        if (nameBytes.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Error: Name cannot be longer than " + MAX_NAME_BYTES + " bytes.");
+        }
+        if ((count + 1) * 2L > tableCapacity) {
+            buildTable(tableCapacity * 2);
+        }
+
+        int record = count;
+        long offset = offset(record);
+        records.ensure(offset + RECORD_SIZE);
+        records.put(offset + TYPE, type);
+        records.put(offset + SYMBOL_LENGTH, (byte) symbolBytes.length);
+        records.put(offset + NAME_LENGTH, (byte) nameBytes.length);
+        records.putInt(offset + QUANTITY, quantity);
+        records.putDouble(offset + PRICE, price);
+        records.putDouble(offset + BOOK_VALUE, bookValue);
+        records.putBytes(offset + SYMBOL, symbolBytes);
+        records.putBytes(offset + NAME, nameBytes);
+        setCount(count + 1);
+        insertIntoTable(record);
+    }
+
+    /**
+     * Removes a record by moving the last record into its place.
+     */
+    private void removeRecord(int record) {
+        deleteFromTable(record);
+        int last = count - 1;
+        if (record != last) {
+            deleteFromTable(last);
+            records.copy(offset(last), offset(record), RECORD_SIZE);
+            insertIntoTable(record);
+        }
+        setCount(last);
+    }
+
+    /**
+     * Stores the record count in both headers. A reopened store only trusts
+     * its index file when the two counts agree.
+     */
+    private void setCount(int newCount) {
+        count = newCount;
+        header.putInt(8, newCount);
+        table.putInt(8, newCount);
+    }
+
+    private static long offset(int record) {
+        return (long) record * RECORD_SIZE;
+    }
+
+    private Investment toInvestment(int record) {
+        long offset = offset(record);
+        String symbol = readString(offset + SYMBOL, records.get(offset + SYMBOL_LENGTH));
+        String name = StringPool.canonicalize(readString(offset + NAME, records.get(offset + NAME_LENGTH)));
+        int quantity = records.getInt(offset + QUANTITY);
+        double price = records.getDouble(offset + PRICE);
+        double bookValue = records.getDouble(offset + BOOK_VALUE);
+        if (records.get(offset + TYPE) == MUTUAL_FUND) {
+            return new MutualFund(symbol, name, quantity, price, bookValue);
+        }
+        return new Stock(symbol, name, quantity, price, bookValue);
+    }
+
+    private String readString(long offset, int length) {
+        byte[] bytes = new byte[length];
+        records.getBytes(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ---- Off-heap symbol hash table: slot -> record + 1, 0 marks an empty slot ----
+
+    /**
+     * Hashes a symbol case-insensitively (FNV-1a over the folded UTF-8
+     * bytes, followed by a final mix).
+     */
+    private static int hash(byte[] foldedSymbol) {
+        int h = 0x811c9dc5;
+        for (byte b : foldedSymbol) {
+            h = (h ^ (b & 0xff)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        return h * 0x7feb352d;
+    }
+
+    /**
+     * Folds the case of a symbol for the hash table: the UTF-8 bytes of its
+     * Locale.ROOT lower case, whatever the default locale.
+     */
+    private static byte[] fold(String symbol) {
+        return symbol.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Folds the symbol of a record like fold. An ASCII symbol, the common
+     * case, is folded in place without decoding it.
+     */
+    private byte[] foldedSymbolOf(int record) {
+        long offset = offset(record);
+        byte[] symbol = new byte[records.get(offset + SYMBOL_LENGTH)];
+        records.getBytes(offset + SYMBOL, symbol);
+        for (int i = 0; i < symbol.length; i++) {
+            if (symbol[i] < 0) {
+                return fold(new String(symbol, StandardCharsets.UTF_8));
+            }
+            symbol[i] = toLowerCase(symbol[i]);
+        }
+        return symbol;
+    }
+
+    private int hashOfRecord(int record) {
+        return hash(foldedSymbolOf(record));
+    }
+
+    /**
+     * Lower-cases an ASCII byte the way Locale.ROOT does.
+     */
+    private static byte toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    /**
+     * Finds the record holding a symbol.
+     *
+     * @return the record, or -1 if no record has the symbol
+     */
+    private int findRecord(String symbol) {
+        byte[] key = fold(symbol);
+        int mask = tableCapacity - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table.getInt((long) slot * 4 + HEADER_SIZE);
+            if (entry == 0) {
+                return -1;
+            }
+            if (symbolEquals(entry - 1, key)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private boolean symbolEquals(int record, byte[] foldedKey) {
+        long offset = offset(record);
+        int length = records.get(offset + SYMBOL_LENGTH);
+        for (int i = 0; i < length; i++) {
+            byte b = records.get(offset + SYMBOL + i);
+            if (b < 0) {
+                // Folding may change the length of non-ASCII text, so fold the whole symbol
+                return Arrays.equals(foldedSymbolOf(record), foldedKey);
+            }
+            if (i == foldedKey.length || toLowerCase(b) != foldedKey[i]) {
+                return false;
+            }
+        }
+        return length == foldedKey.length;
+    }
+
+    private void insertIntoTable(int record) {
+        int mask = tableCapacity - 1;
+        int slot = hashOfRecord(record) & mask;
+        while (table.getInt((long) slot * 4 + HEADER_SIZE) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table.putInt((long) slot * 4 + HEADER_SIZE, record + 1);
+    }
+
+    /**
+     * Deletes the slot of a record with backward-shift deletion, which keeps
+     * linear probing correct without tombstones.
+     */
+    private void deleteFromTable(int record) {
+        int mask = tableCapacity - 1;
+        int slot = hashOfRecord(record) & mask;
+        while (table.getInt((long) slot * 4 + HEADER_SIZE) != record + 1) {
+            slot = (slot + 1) & mask;
+        }
+        int hole = slot;
+        for (int next = (hole + 1) & mask; ; next = (next + 1) & mask) {
+            int entry = table.getInt((long) next * 4 + HEADER_SIZE);
+            if (entry == 0) {
+                break;
+            }
+            int home = hashOfRecord(entry - 1) & mask;
+            // Move the entry into the hole unless its home lies cyclically in (hole, next]
+            boolean stays = hole <= next ? (home > hole && home <= next) : (home > hole || home <= next);
+            if (!stays) {
+                table.putInt((long) hole * 4 + HEADER_SIZE, entry);
+                hole = next;
+            }
+        }
+        table.putInt((long) hole * 4 + HEADER_SIZE, 0);
+    }
+
+    private static int tableCapacityFor(int records) {
+        int capacity = MIN_TABLE_CAPACITY;
+        while (capacity < records * 2L) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Maps an existing index file if it matches the data file.
+     *
+     * @return true if the index file was mapped
+     */
+    private boolean openTable() throws IOException {
+        if (!Files.exists(indexFile)) {
+            return false;
+        }
+        FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Region region = new Region(channel, 0);
+        region.ensure(HEADER_SIZE);
+        int capacity = region.getInt(4);
+        boolean valid = channel.size() >= HEADER_SIZE && region.getInt(0) == INDEX_MAGIC
+                && capacity >= tableCapacityFor(0) && Integer.bitCount(capacity) == 1
+                && region.getInt(8) == count && capacity >= count * 2L && region.getInt(12) == INDEX_VERSION;
+        if (!valid) {
+            channel.close();
+            return false;
+        }
+        region.ensure(HEADER_SIZE + capacity * 4L);
+        indexChannel = channel;
+        table = region;
+        tableCapacity = capacity;
+        return true;
+    }
+
+    /**
+     * Builds a hash table of every record and makes it the store's table.
+     * A file-backed table is filled and flushed under a temporary name, with
+     * its magic number written last, and only then moved over the index
+     * file, so a crash during the rebuild never leaves an index file that
+     * openTable accepts but that misses records.
+     */
+    private void buildTable(int capacity) {
+        try {
+            FileChannel channel = null;
+            Path file = null;
+            if (indexFile != null) {
+                file = indexFile.resolveSibling(indexFile.getFileName() + ".new");
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            Region region = new Region(channel, 0);
+            region.ensure(HEADER_SIZE + capacity * 4L);
+            // insertIntoTable works on the current table, which the old one stops being here
+            table = region;
+            tableCapacity = capacity;
+            for (int i = 0; i < count; i++) {
+                insertIntoTable(i);
+            }
+            region.putInt(4, capacity);
+            region.putInt(8, count);
+            region.putInt(12, INDEX_VERSION);
+            region.putInt(0, INDEX_MAGIC);
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+            if (channel != null) {
+                region.force();
+                Files.move(file, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            indexChannel = channel;
+        } catch (IOException e) {
+            throw new IllegalStateException("Error: Cannot create the symbol index: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A long-addressable off-heap region made of fixed-size chunks, either
+     * direct buffers or mappings of consecutive ranges of a file.
+     */
+    private static final class Region {
+
+        private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+        private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+        private final FileChannel channel;
+        private final long base;
+        private final ArrayList<ByteBuffer> chunks = new ArrayList<>();
+
+        Region(FileChannel channel, long base) {
+            this.channel = channel;
+            this.base = base;
+        }
+
+        /**
+         * Makes sure the region covers offsets [0, bytes).
+         */
+        void ensure(long bytes) {
+            while ((long) chunks.size() << CHUNK_SHIFT < bytes) {
+                ByteBuffer chunk;
+                if (channel == null) {
+                    chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+                } else {
+                    try {
+                        chunk = channel.map(FileChannel.MapMode.READ_WRITE, base + ((long) chunks.size() << CHUNK_SHIFT), CHUNK_SIZE);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Error: Cannot map the portfolio file: " + e.getMessage(), e);
+                    }
+                }
+                chunks.add(chunk.order(ByteOrder.nativeOrder()));
+            }
+        }
+
+        private ByteBuffer chunk(long offset) {
+            return chunks.get((int) (offset >>> CHUNK_SHIFT));
+        }
+
+        byte get(long offset) {
+            return chunk(offset).get((int) (offset & CHUNK_MASK));
+        }
+
+        void put(long offset, byte value) {
+            chunk(offset).put((int) (offset & CHUNK_MASK), value);
+        }
+
+        int getInt(long offset) {
+            return chunk(offset).getInt((int) (offset & CHUNK_MASK));
+        }
+
+        void putInt(long offset, int value) {
+            chunk(offset).putInt((int) (offset & CHUNK_MASK), value);
+        }
+
+        double getDouble(long offset) {
+            return chunk(offset).getDouble((int) (offset & CHUNK_MASK));
+        }
+
+        void putDouble(long offset, double value) {
+            chunk(offset).putDouble((int) (offset & CHUNK_MASK), value);
+        }
+
+        void getBytes(long offset, byte[] bytes) {
+            ByteBuffer chunk = chunk(offset);
+            int position = (int) (offset & CHUNK_MASK);
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = chunk.get(position + i);
+            }
+        }
+
+        void putBytes(long offset, byte[] bytes) {
+            ByteBuffer chunk = chunk(offset);
+            int position = (int) (offset & CHUNK_MASK);
+            for (int i = 0; i < bytes.length; i++) {
+                chunk.put(position + i, bytes[i]);
+            }
+        }
+
+        void copy(long from, long to, int length) {
+            for (int i = 0; i < length; i += 8) {
+                chunk(to).putLong((int) ((to + i) & CHUNK_MASK), chunk(from).getLong((int) ((from + i) & CHUNK_MASK)));
+            }
+        }
+
+        void force() {
+            for (ByteBuffer chunk : chunks) {
+                if (chunk instanceof MappedByteBuffer) {
+                    ((MappedByteBuffer) chunk).force();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package ePortfolio;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Front end of a portfolio split by symbol across several PartitionWorker
+ * processes, so one book can use the heap and cores of more than one JVM.
+ *
+ * <p>
+ * The coordinator accepts the BatchRunner command language. Trades ("buy",
+ * "sell", "price") go to the partition that owns the symbol. Queries are
+ * scattered to every partition and gathered: "search" and "range
+ * &lt;low&gt; &lt;high&gt;" concatenate the matches under one count, "gain"
+ * adds the partitions' totals at full precision, and "gains" and "save" list
+ * every partition's result. "fx" sets a rate in every partition and shows
+ * the answer once if all partitions agree, or each partition's otherwise.
+ * "partitions" shows the positions per partition.
+ * Queries are sent to all workers before any answer is read, so the
+ * partitions work on them at the same time. The price history commands are
+ * not supported, since every worker would keep its own history.
+ *
+ * <p>
+ * The coordinator keeps one connection per worker and serializes commands
+ * over them, so trades for a symbol are applied in the order they were
+ * given.
+ */
+public class PartitionCoordinator implements Closeable {
+
+    // Time a started worker has to report its port
+    private static final long WORKER_START_SECONDS = 60;
+    // Trades sent ahead of their answers while running a script
+    private static final int PIPELINE = 256;
+
+    /**
+     * The connection to one worker.
+     */
+    private static final class Connection {
+
+        final Socket socket;
+        final BufferedReader in;
+        final Writer out;
+
+        Connection(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        void send(String line) throws IOException {
+            out.write(line);
+            out.write('\n');
+        }
+    }
+
+    private final ArrayList<Connection> workers = new ArrayList<>();
+    private final ArrayList<Process> processes = new ArrayList<>();
+
+    /**
+     * Connects to running workers. The worker listening on the n-th port must
+     * serve partition n of as many partitions as there are ports.
+     *
+     * @param ports the ports of the workers, in partition order
+     * @throws IOException if a worker cannot be reached or serves another
+     * partition
+     */
+    public PartitionCoordinator(int... ports) throws IOException {
+        try {
+            for (int port : ports) {
+                workers.add(new Connection(port));
+            }
+            String[] partitions = scatter("partition");
+            for (int i = 0; i < partitions.length; i++) {
+                String[] fields = partitions[i].split(" ");
+                if (fields.length < 2 || Integer.parseInt(fields[0]) != i || Integer.parseInt(fields[1]) != ports.length) {
+                    throw new IOException("The worker on port " + ports[i] + " serves partition " + partitions[i].trim()
+                            + ", not " + i + " of " + ports.length);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private PartitionCoordinator(ArrayList<Process> processes, int[] ports) throws IOException {
+        this(ports);
+        this.processes.addAll(processes);
+    }
+
+    /**
+     * Starts one worker process per partition on this machine and connects
+     * to them. Partition n is kept in "&lt;file&gt;.part&lt;n&gt;of&lt;count&gt;". If
+     * none of these files exist yet, the portfolio file is split into them
+     * first. The workers run with the same Java and class path as this
+     * process, plus the JVM options in -DePortfolio.workerOptions, and save
+     * their partition when the coordinator is closed.
+     *
+     * @param filename the portfolio file
+     * @param count the number of partitions
+     * @return the coordinator of the started workers
+     * @throws IOException if a worker cannot be started or reached
+     */
+    public static PartitionCoordinator start(String filename, int count) throws IOException {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Error: The number of partitions must be greater than 0.");
+        }
+        boolean split = true;
+        for (int i = 0; i < count; i++) {
+            split &= !new File(partitionFile(filename, i, count)).exists();
+        }
+        if (split && new File(filename).exists()) {
+            split(filename, count);
+        }
+
+        ArrayList<Process> processes = new ArrayList<>();
+        int[] ports = new int[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                processes.add(startWorker(partitionFile(filename, i, count), i, count));
+            }
+            for (int i = 0; i < count; i++) {
+                ports[i] = awaitPort(processes.get(i), i);
+            }
+            return new PartitionCoordinator(processes, ports);
+        } catch (IOException | RuntimeException e) {
+            for (Process process : processes) {
+                process.destroy();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the file that holds a partition of a portfolio file.
+     *
+     * @param filename the portfolio file
+     * @param index the number of the partition
+     * @param count the number of partitions
+     * @return the name of the partition file
+     */
+    public static String partitionFile(String filename, int index, int count) {
+        return filename + ".part" + index + "of" + count;
+    }
+
+    /**
+     * Executes one command line against the partitions and appends its
+     * result to the output, in the format BatchRunner uses.
+     *
+     * @param line the command line to execute
+     * @param out where the result of the command is written
+     * @return true if the line was a command, false if it was blank or a
+     * comment
+     * @throws IOException if a worker cannot be reached or writing to the
+     * output fails
+     */
+    public synchronized boolean execute(String line, Appendable out) throws IOException {
+        ArrayList<String> tokens = BatchRunner.tokenize(line);
+        if (tokens.isEmpty() || tokens.get(0).startsWith("#")) {
+            return false;
+        }
+        String command = tokens.get(0).toLowerCase(Locale.ROOT);
+        switch (command) {
+            case "buy":
+            case "sell":
+            case "price":
+                int symbolToken = command.equals("buy") ? 2 : 1;
+                // Incomplete commands go to any worker, which reports the usage
+                int partition = tokens.size() > symbolToken ? PartitionWorker.partitionOf(tokens.get(symbolToken), workers.size()) : 0;
+                out.append(send(partition, line));
+                break;
+            case "search":
+            case "range":
+                gatherMatches(scatter(line), out);
+                break;
+            case "gain":
+                out.append("Total gain: $").append(Portfolio.formatMoney(getTotalGain())).append('\n');
+                break;
+            case "gains":
+            case "save":
+                for (String result : scatter(line)) {
+                    out.append(result);
+                }
+                break;
+            case "fx":
+                gatherFx(scatter(line), out);
+                break;
+            case "partitions":
+                String[] partitions = scatter("partition");
+                for (int i = 0; i < partitions.length; i++) {
+                    out.append("Partition ").append(Integer.toString(i)).append(": ")
+                            .append(partitions[i].split(" ")[2]).append(" investment(s)\n");
+                }
+                break;
+            case "gainasof":
+            case "values":
+            case "realized":
+                out.append("Error: '").append(tokens.get(0)).append("' is not supported for a partitioned portfolio.\n");
+                break;
+            default:
+                out.append("Error: Unknown command '").append(tokens.get(0)).append("'.\n");
+        }
+        return true;
+    }
+
+    /**
+     * Executes every command read from a script and writes the results.
+     * Runs of trades are pipelined: up to PIPELINE trades are sent to their
+     * workers before the first answer is read, so a script does not wait for
+     * one round trip per trade. Every worker answers in the order it was
+     * asked, so the results are written in script order.
+     *
+     * @param script the command script
+     * @param out where the results are written
+     * @return the number of commands executed
+     * @throws IOException if reading the script, reaching a worker or
+     * writing results fails
+     */
+    public synchronized long run(BufferedReader script, Writer out) throws IOException {
+        long commands = 0;
+        int[] pending = new int[PIPELINE];
+        int pendingCount = 0;
+        String line;
+        while ((line = script.readLine()) != null) {
+            ArrayList<String> tokens = BatchRunner.tokenize(line);
+            String command = tokens.isEmpty() ? "" : tokens.get(0).toLowerCase(Locale.ROOT);
+            int symbolToken = command.equals("buy") ? 2 : (command.equals("sell") || command.equals("price")) ? 1 : -1;
+            if (symbolToken > 0 && tokens.size() > symbolToken) {
+                int partition = PartitionWorker.partitionOf(tokens.get(symbolToken), workers.size());
+                workers.get(partition).send(line);
+                pending[pendingCount++] = partition;
+                commands++;
+                if (pendingCount < PIPELINE) {
+                    continue;
+                }
+            }
+            pendingCount = collect(pending, pendingCount, out);
+            if (symbolToken < 0 || tokens.size() <= symbolToken) {
+                if (execute(line, out)) {
+                    commands++;
+                }
+            }
+        }
+        collect(pending, pendingCount, out);
+        return commands;
+    }
+
+    /**
+     * Flushes the pipelined trades and writes their answers in order.
+     *
+     * @return 0, the number of trades left pending
+     */
+    private int collect(int[] pending, int pendingCount, Writer out) throws IOException {
+        for (Connection worker : workers) {
+            worker.out.flush();
+        }
+        for (int i = 0; i < pendingCount; i++) {
+            out.write(PartitionWorker.readFrame(workers.get(pending[i]).in));
+        }
+        return 0;
+    }
+
+    /**
+     * Calculates the total gain of all partitions.
+     *
+     * @return the total gain
+     * @throws IOException if a worker cannot be reached
+     */
+    public synchronized double getTotalGain() throws IOException {
+        double totalGain = 0;
+        for (String partial : scatter("totalgain")) {
+            totalGain += Double.parseDouble(partial.trim());
+        }
+        return totalGain;
+    }
+
+    /**
+     * Gets the number of partitions.
+     *
+     * @return the number of workers
+     */
+    public int getPartitionCount() {
+        return workers.size();
+    }
+
+    /**
+     * Closes the connections and stops the workers this coordinator started,
+     * which save their partitions as they exit.
+     */
+    @Override
+    public void close() {
+        for (Connection worker : workers) {
+            try {
+                worker.socket.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+        for (Process process : processes) {
+            process.destroy();
+        }
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(WORKER_START_SECONDS, TimeUnit.SECONDS)) {
+                    System.out.println("Error: A worker did not stop in time.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends a command to one worker and waits for the result.
+     */
+    private String send(int partition, String line) throws IOException {
+        Connection worker = workers.get(partition);
+        worker.send(line);
+        worker.out.flush();
+        return PartitionWorker.readFrame(worker.in);
+    }
+
+    /**
+     * Sends a command to every worker, then collects the results in
+     * partition order.
+     */
+    private String[] scatter(String line) throws IOException {
+        for (Connection worker : workers) {
+            worker.send(line);
+            worker.out.flush();
+        }
+        String[] results = new String[workers.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = PartitionWorker.readFrame(workers.get(i).in);
+        }
+        return results;
+    }
+
+    /**
+     * Writes the answers of the partitions to an "fx" command. Every
+     * partition must take the same rate, so an answer that differs, such as
+     * a failure in one partition, is shown with the partition it came from.
+     */
+    private static void gatherFx(String[] results, Appendable out) throws IOException {
+        boolean agreed = true;
+        for (String result : results) {
+            agreed &= result.equals(results[0]);
+        }
+        if (agreed) {
+            out.append(results[0]);
+            return;
+        }
+        for (int i = 0; i < results.length; i++) {
+            out.append("Partition ").append(Integer.toString(i)).append(": ").append(results[i]);
+        }
+    }
+
+    /**
+     * Merges "Found n investment(s)." results under one count. An error from
+     * the partitions, which all see the same command, is reported once.
+     */
+    private static void gatherMatches(String[] results, Appendable out) throws IOException {
+        int found = 0;
+        StringBuilder matches = new StringBuilder();
+        for (String result : results) {
+            if (!result.startsWith("Found ")) {
+                out.append(result);
+                return;
+            }
+            int endOfCount = result.indexOf('\n');
+            found += Integer.parseInt(result.substring("Found ".length(), result.indexOf(' ', "Found ".length())));
+            matches.append(result, endOfCount + 1, result.length());
+        }
+        out.append("Found ").append(Integer.toString(found)).append(" investment(s).\n").append(matches);
+    }
+
+    /**
+     * Writes the investments of a portfolio file into partition files.
+     */
+    private static void split(String filename, int count) throws IOException {
+        ArrayList<Investment> investments;
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename), 1 << 16)) {
+            investments = Portfolio.parseInvestments(reader);
+        }
+        ArrayList<Writer> writers = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                writers.add(new BufferedWriter(new FileWriter(partitionFile(filename, i, count)), 1 << 16));
+            }
+            for (Investment investment : investments) {
+                Portfolio.writeInvestment(writers.get(PartitionWorker.partitionOf(investment.getSymbol(), count)), investment);
+            }
+        } finally {
+            for (Writer writer : writers) {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Starts a worker process with the Java and class path of this process.
+     */
+    private static Process startWorker(String partitionFile, int index, int count) throws IOException {
+        ArrayList<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        String options = System.getProperty("ePortfolio.workerOptions", "").trim();
+        if (!options.isEmpty()) {
+            for (String option : options.split("\\s+")) {
+                command.add(option);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(PartitionWorker.class.getName());
+        command.add(partitionFile);
+        command.add(Integer.toString(index));
+        command.add(Integer.toString(count));
+        return new ProcessBuilder(command).redirectErrorStream(true).start();
+    }
+
+    /**
+     * Reads a started worker's output until it reports its port, then
+     * forwards the rest of its output to standard error.
+     */
+    private static int awaitPort(Process process, int index) throws IOException {
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = output.readLine()) != null) {
+            if (line.startsWith("Listening on port ")) {
+                Thread forwarder = new Thread(() -> {
+                    try {
+                        String message;
+                        while ((message = output.readLine()) != null) {
+                            System.err.println("[partition " + index + "] " + message);
+                        }
+                    } catch (IOException e) {
+                        // The worker exited
+                    }
+                }, "ePortfolio partition " + index + " output");
+                forwarder.setDaemon(true);
+                forwarder.start();
+                return Integer.parseInt(line.substring("Listening on port ".length()).trim());
+            }
+            System.err.println("[partition " + index + "] " + line);
+        }
+        throw new IOException("Worker " + index + " exited before listening");
+    }
+
+    /**
+     * Runs a command script against a partitioned portfolio, either starting
+     * the workers or connecting to running ones.
+     *
+     * @param args either the portfolio file, the number of partitions and an
+     * optional script file, or "--connect", the comma-separated worker ports
+     * and an optional script file; the script is read from standard input if
+     * omitted
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java ePortfolio.PartitionCoordinator <portfolio file> <partitions> [script file]\n"
+                    + "       java ePortfolio.PartitionCoordinator --connect <port,port,...> [script file]\n");
+            return;
+        }
+        System.setProperty("java.awt.headless", "true");
+        long start = System.nanoTime();
+        long commands = 0;
+        try (PartitionCoordinator coordinator = args[0].equals("--connect")
+                ? new PartitionCoordinator(parsePorts(args[1]))
+                : start(args[0], Integer.parseInt(args[1]));
+                BufferedReader script = args.length > 2
+                        ? new BufferedReader(new FileReader(args[2]), 1 << 16)
+                        : new BufferedReader(new InputStreamReader(System.in));
+                Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16)) {
+            commands = coordinator.run(script, out);
+            out.flush();
+        } catch (NumberFormatException e) {
+            System.out.println("Error: The number of partitions and the ports must be valid numbers.");
+            return;
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        } catch (IOException e) {
+            System.out.println("Error running partitions: " + e.getMessage());
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("Applied %d commands in %.3f s (%.0f commands/s)%n", commands, seconds, commands / Math.max(seconds, 1e-9));
+    }
+
+    private static int[] parsePorts(String list) {
+        String[] parts = list.split(",");
+        int[] ports = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            ports[i] = Integer.parseInt(parts[i].trim());
+        }
+        return ports;
+    }
+}
@@ -0,0 +1,294 @@
+package ePortfolio;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * One partition of a portfolio that is split by symbol across several
+ * processes. The worker owns the positions whose symbol hashes to its
+ * partition (see partitionOf), keeps them in its own portfolio file and
+ * answers commands from a PartitionCoordinator over a loopback socket.
+ *
+ * <p>
+ * Requests are BatchRunner command lines, one per line. Every response is
+ * framed as a line holding the number of characters of the result, followed
+ * by the result itself, so results may span lines or lack a final newline.
+ * Besides the BatchRunner commands the worker answers:
+ * <pre>
+ * partition                  "&lt;index&gt; &lt;count&gt; &lt;positions&gt;"
+ * totalgain                  the total gain at full precision
+ * range &lt;low&gt; &lt;high&gt;         "Found n investment(s)." and the investments priced in [low, high]
+ * </pre>
+ * Trades for symbols of another partition are refused, so a misrouted trade
+ * cannot create a position in the wrong process. Each connection is served
+ * on its own thread; commands synchronize on the portfolio.
+ */
+public class PartitionWorker {
+
+    private final Portfolio portfolio;
+    private final String filename;
+    private final int index;
+    private final int count;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = PortfolioServer.newRequestExecutor();
+
+    /**
+     * Creates a worker for a partition file and binds a loopback port. The
+     * worker does not accept connections until start is called.
+     *
+     * @param portfolio the positions of the partition
+     * @param filename the partition file the "save" command writes to
+     * @param index the number of this partition, from 0
+     * @param count the number of partitions
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     * @throws IllegalArgumentException if the index is not below the count
+     */
+    public PartitionWorker(Portfolio portfolio, String filename, int index, int count, int port) throws IOException {
+        if (count <= 0 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Error: Partition " + index + " of " + count + " does not exist.");
+        }
+        this.portfolio = portfolio;
+        this.filename = filename;
+        this.index = index;
+        this.count = count;
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Gets the partition a symbol belongs to.
+     *
+     * @param symbol the symbol, matched ignoring case
+     * @param count the number of partitions
+     * @return the number of the partition, from 0
+     */
+    public static int partitionOf(String symbol, int count) {
+        return Math.floorMod(symbol.toLowerCase(Locale.ROOT).hashCode(), count);
+    }
+
+    /**
+     * Gets the port the worker listens on.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Starts accepting connections on a background thread.
+     */
+    public void start() {
+        Thread acceptor = new Thread(this::accept, "ePortfolio partition " + index);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops accepting connections.
+     */
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.out.println("Error closing worker socket: " + e.getMessage());
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Executes one request and returns its result.
+     *
+     * @param line the command line
+     * @param runner the runner for BatchRunner commands
+     * @return the result text
+     * @throws IOException if a BatchRunner command fails to write its result
+     */
+    String execute(String line, BatchRunner runner) throws IOException {
+        ArrayList<String> tokens = BatchRunner.tokenize(line);
+        String command = tokens.isEmpty() ? "" : tokens.get(0).toLowerCase(Locale.ROOT);
+        StringBuilder out = new StringBuilder();
+        synchronized (portfolio) {
+            switch (command) {
+                case "partition":
+                    out.append(index).append(' ').append(count).append(' ').append(portfolio.getInvestments().size());
+                    break;
+                case "totalgain":
+                    out.append(portfolio.getTotalGain());
+                    break;
+                case "range":
+                    range(tokens, out);
+                    break;
+                default:
+                    String symbol = command.equals("buy") ? token(tokens, 2) : (command.equals("sell") || command.equals("price")) ? token(tokens, 1) : null;
+                    if (symbol != null && partitionOf(symbol, count) != index) {
+                        out.append("Error: Symbol '").append(symbol).append("' belongs to partition ")
+                                .append(partitionOf(symbol, count)).append(", not ").append(index).append(".\n");
+                    } else {
+                        runner.execute(line, out);
+                    }
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Lists the investments whose price lies between two bounds.
+     */
+    private void range(ArrayList<String> tokens, StringBuilder out) {
+        if (tokens.size() < 3) {
+            out.append("Error: Usage: range <low> <high>\n");
+            return;
+        }
+        double low;
+        double high;
+        try {
+            low = Double.parseDouble(tokens.get(1));
+            high = Double.parseDouble(tokens.get(2));
+        } catch (NumberFormatException e) {
+            out.append("Error: Prices must be valid numbers.\n");
+            return;
+        }
+        ArrayList<Investment> matches = new ArrayList<>();
+        FxRates fxRates = portfolio.getFxRates();
+        for (Investment investment : portfolio.getInvestments()) {
+            // The range is in the base currency, like the search panel's
+            double price = fxRates.toBase(investment.getCurrency(), investment.getPrice());
+            if (price >= low && price <= high) {
+                matches.add(investment);
+            }
+        }
+        out.append("Found ").append(matches.size()).append(" investment(s).\n");
+        for (Investment investment : matches) {
+            out.append(investment.toString()).append('\n');
+        }
+    }
+
+    private static String token(ArrayList<String> tokens, int position) {
+        return tokens.size() > position ? tokens.get(position) : null;
+    }
+
+    /**
+     * Accepts connections until the socket is closed.
+     */
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                // Closed by stop
+            }
+        }
+    }
+
+    /**
+     * Answers the requests of one connection until it is closed.
+     */
+    private void serve(Socket socket) {
+        BatchRunner runner = new BatchRunner(portfolio, filename);
+        try (Socket connection = socket;
+                BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+                Writer out = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8))) {
+            connection.setTcpNoDelay(true);
+            String line;
+            while ((line = in.readLine()) != null) {
+                writeFrame(out, execute(line, runner));
+                // Pipelined requests are answered together
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // The coordinator went away
+        }
+    }
+
+    /**
+     * Writes a framed result: its length in characters on a line, then the
+     * text.
+     *
+     * @param out where the frame is written
+     * @param text the result
+     * @throws IOException if writing fails
+     */
+    static void writeFrame(Writer out, String text) throws IOException {
+        out.write(Integer.toString(text.length()));
+        out.write('\n');
+        out.write(text);
+    }
+
+    /**
+     * Reads a framed result.
+     *
+     * @param in where the frame is read from
+     * @return the result
+     * @throws IOException if the connection fails or closes mid-frame
+     */
+    static String readFrame(BufferedReader in) throws IOException {
+        String header = in.readLine();
+        if (header == null) {
+            throw new IOException("Worker closed the connection");
+        }
+        char[] text = new char[Integer.parseInt(header.trim())];
+        for (int read = 0; read < text.length; ) {
+            int n = in.read(text, read, text.length - read);
+            if (n < 0) {
+                throw new IOException("Worker closed the connection");
+            }
+            read += n;
+        }
+        return new String(text);
+    }
+
+    /**
+     * Loads a partition file and serves it until the process is stopped,
+     * then saves it. Once ready it prints "Listening on port &lt;port&gt;", which
+     * the coordinator waits for when it starts workers itself.
+     *
+     * @param args args[0] is the partition file, args[1] the partition index,
+     * args[2] the number of partitions and the optional args[3] the port
+     * (default any free port)
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: java ePortfolio.PartitionWorker <partition file> <index> <count> [port]\n");
+            return;
+        }
+        System.setProperty("java.awt.headless", "true");
+        String filename = args[0];
+        Portfolio portfolio = new Portfolio();
+        if (new File(filename).exists()) {
+            portfolio.loadFromFile(filename);
+        }
+        PartitionWorker worker;
+        try {
+            worker = new PartitionWorker(portfolio, filename, Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                    args.length > 3 ? Integer.parseInt(args[3]) : 0);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error starting worker: " + e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            worker.stop();
+            synchronized (portfolio) {
+                portfolio.saveToFile(filename);
+            }
+        }));
+        System.out.println("Listening on port " + worker.getPort());
+        System.out.flush();
+        worker.accept();
+    }
+}
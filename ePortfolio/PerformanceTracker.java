@@ -0,0 +1,430 @@
+package ePortfolio;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Measures the performance of a portfolio and of each of its positions as
+ * trades and prices stream in: the time-weighted return, the money-weighted
+ * return and the drawdown.
+ *
+ * <p>
+ * The time-weighted return chains the returns of the periods between cash
+ * flows, so it shows how the holdings did regardless of when money was put
+ * in or taken out. A buy or a sell ends a period; its fee and the difference
+ * between the trade price and the last price count against the period that
+ * ends. The money-weighted return is the Modified Dietz return, the gain
+ * divided by the capital weighted by how long it was invested, which is the
+ * first-order approximation of the internal rate of return over the period.
+ * The drawdown is the fall of the time-weighted growth from its highest
+ * point.
+ *
+ * <p>
+ * Each position and the portfolio as a whole keep running totals: the
+ * product of the closed periods' growth, the value at the start of the open
+ * period, the sum of the cash flows and of the flows times their time, and
+ * the highest growth seen. Every change reported by the portfolio updates
+ * them in O(1), and a query computes the measures from them in O(1), so no
+ * history is kept or replayed. Measuring starts when the tracker is
+ * created; investments held then count as invested at their market value.
+ *
+ * <p>
+ * Quantity changes that are not buys or sells, such as those of a reloaded
+ * file, count as money moved in or out at the current price. A position
+ * that is sold in full keeps its measures, and buying it again continues
+ * them.
+ *
+ * <p>
+ * A position is measured in its own currency and the portfolio in the base
+ * currency. Cash flows of foreign positions are converted at the rate of
+ * the moment they happen, and a new rate moves the portfolio's value like
+ * a price change. Positions in a currency without a rate are left out of
+ * the portfolio until their currency gets one, when they count as invested
+ * at their market value.
+ */
+public class PerformanceTracker implements PortfolioListener {
+
+    /**
+     * The measures of a position or of the whole portfolio at one moment.
+     */
+    public static final class Performance {
+
+        private final double value;
+        private final double netInvested;
+        private final double timeWeightedReturn;
+        private final double moneyWeightedReturn;
+        private final double drawdown;
+        private final double maxDrawdown;
+
+        Performance(double value, double netInvested, double timeWeightedReturn, double moneyWeightedReturn,
+                double drawdown, double maxDrawdown) {
+            this.value = value;
+            this.netInvested = netInvested;
+            this.timeWeightedReturn = timeWeightedReturn;
+            this.moneyWeightedReturn = moneyWeightedReturn;
+            this.drawdown = drawdown;
+            this.maxDrawdown = maxDrawdown;
+        }
+
+        /**
+         * Gets the market value, price times quantity.
+         *
+         * @return the value
+         */
+        public double getValue() {
+            return value;
+        }
+
+        /**
+         * Gets the value when measuring started plus the money put in since,
+         * minus the money taken out.
+         *
+         * @return the net amount invested
+         */
+        public double getNetInvested() {
+            return netInvested;
+        }
+
+        /**
+         * Gets the time-weighted return since measuring started.
+         *
+         * @return the return as a fraction, 0.05 for 5%
+         */
+        public double getTimeWeightedReturn() {
+            return timeWeightedReturn;
+        }
+
+        /**
+         * Gets the money-weighted (Modified Dietz) return since measuring
+         * started.
+         *
+         * @return the return as a fraction, or 0 if no money was invested
+         */
+        public double getMoneyWeightedReturn() {
+            return moneyWeightedReturn;
+        }
+
+        /**
+         * Gets how far the time-weighted growth is below its highest point.
+         *
+         * @return the drawdown as a fraction, 0 at a new high
+         */
+        public double getDrawdown() {
+            return drawdown;
+        }
+
+        /**
+         * Gets the largest drawdown since measuring started.
+         *
+         * @return the maximum drawdown as a fraction
+         */
+        public double getMaxDrawdown() {
+            return maxDrawdown;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Value: $%s, Net invested: $%s, TWR: %.2f%%, MWR: %.2f%%, Drawdown: %.2f%% (max %.2f%%)",
+                    Portfolio.formatMoney(value), Portfolio.formatMoney(netInvested), timeWeightedReturn * 100,
+                    moneyWeightedReturn * 100, drawdown * 100, maxDrawdown * 100);
+        }
+    }
+
+    /**
+     * The running totals of a position or of the portfolio.
+     */
+    private static final class Series {
+
+        final long startTime;
+        final double startValue;
+        double value;
+        // Value at the start of the open period, and the growth of the closed ones
+        double periodStart;
+        double growth = 1;
+        // The period closed by the last quantity change, which the trade's amount corrects
+        double closedGrowth = 1;
+        double closedStart;
+        double closedEnd;
+        double lastFlow;
+        // Set by a quantity change; a buy's price change that follows is part of the trade
+        boolean trading;
+        // Sum of the flows and of each flow times its milliseconds since startTime
+        double flows;
+        double flowTime;
+        double peak = 1;
+        double maxDrawdown;
+
+        Series(long startTime, double startValue) {
+            this.startTime = startTime;
+            this.startValue = startValue;
+            value = startValue;
+            periodStart = startValue;
+        }
+
+        double index() {
+            return periodStart > 0 ? growth * value / periodStart : growth;
+        }
+
+        /**
+         * Changes the value without money moving, as a price change does. The
+         * price change right after a quantity change is not marked: in a buy
+         * it revalues the new units too, until the trade settles.
+         */
+        void move(double change) {
+            value += change;
+            if (trading) {
+                trading = false;
+            } else {
+                mark();
+            }
+        }
+
+        /**
+         * Moves money in or out at the current price, ending the open period.
+         * The growth does not change, so there is nothing new to mark.
+         */
+        void flow(double amount, long time) {
+            closedGrowth = growth;
+            closedStart = periodStart;
+            closedEnd = value;
+            if (periodStart > 0) {
+                growth *= value / periodStart;
+            }
+            value += amount;
+            periodStart = value;
+            lastFlow = amount;
+            trading = true;
+            addFlow(amount, time);
+        }
+
+        /**
+         * Replaces the flow of the last quantity change by the amount
+         * actually paid or received. The difference, the fee and the gap
+         * between the trade price and the price the units were valued at, is
+         * a gain or loss of the period that the trade ended. A position held
+         * for the first time starts from the amount paid.
+         */
+        void settle(double amount, long time) {
+            double correction = amount - lastFlow;
+            if (closedStart > 0) {
+                growth = closedGrowth * (closedEnd + (value - periodStart) - correction) / closedStart;
+                periodStart = value;
+            } else {
+                growth = closedGrowth;
+                periodStart = amount > 0 ? closedEnd + amount : value;
+            }
+            lastFlow = amount;
+            trading = false;
+            addFlow(correction, time);
+            mark();
+        }
+
+        private void addFlow(double amount, long time) {
+            flows += amount;
+            flowTime += amount * (time - startTime);
+        }
+
+        private void mark() {
+            double index = index();
+            if (index > peak) {
+                peak = index;
+            } else if (1 - index / peak > maxDrawdown) {
+                maxDrawdown = 1 - index / peak;
+            }
+        }
+
+        Performance performance(long now) {
+            double gain = value - startValue - flows;
+            long elapsed = now - startTime;
+            // Each flow weighs by the share of the time it was invested
+            double capital = startValue + flows - (elapsed > 0 ? flowTime / elapsed : 0);
+            double index = index();
+            return new Performance(value, startValue + flows, index - 1, capital > 0 ? gain / capital : 0,
+                    index < peak ? 1 - index / peak : 0, maxDrawdown);
+        }
+    }
+
+    private final Portfolio portfolio;
+    private final LongSupplier clock;
+    private final Series total;
+    private final IdentityHashMap<Investment, Series> positions = new IdentityHashMap<>();
+    // Positions sold in full, by lower-case symbol, continued if bought again
+    private final HashMap<String, Series> closed = new HashMap<>();
+
+    /**
+     * Creates a tracker for a portfolio and starts listening to its changes.
+     *
+     * @param portfolio the portfolio to track
+     */
+    public PerformanceTracker(Portfolio portfolio) {
+        this(portfolio, System::currentTimeMillis);
+    }
+
+    /**
+     * Creates a tracker that reads the time from a clock.
+     *
+     * @param portfolio the portfolio to track
+     * @param clock the current time in milliseconds
+     */
+    PerformanceTracker(Portfolio portfolio, LongSupplier clock) {
+        this.portfolio = portfolio;
+        this.clock = clock;
+        synchronized (portfolio) {
+            long now = clock.getAsLong();
+            double value = 0;
+            for (Investment investment : portfolio.getInvestments()) {
+                Series series = new Series(now, valueOf(investment));
+                positions.put(investment, series);
+                double rate = rateOf(investment);
+                if (!Double.isNaN(rate)) {
+                    value += series.value * rate;
+                }
+            }
+            total = new Series(now, value);
+            portfolio.addListener(this);
+        }
+    }
+
+    /**
+     * Stops tracking the portfolio.
+     */
+    public void close() {
+        portfolio.removeListener(this);
+    }
+
+    /**
+     * Gets the performance of the whole portfolio.
+     *
+     * @return the performance since the tracker was created
+     */
+    public Performance getPerformance() {
+        synchronized (portfolio) {
+            return total.performance(clock.getAsLong());
+        }
+    }
+
+    /**
+     * Gets the performance of one position, including the time since it was
+     * last sold in full.
+     *
+     * @param symbol the symbol, matched ignoring case
+     * @return the performance since the position was first held, or null if
+     * it has not been held while tracking
+     */
+    public Performance getPerformance(String symbol) {
+        synchronized (portfolio) {
+            Investment investment = portfolio.findInvestmentBySymbol(symbol);
+            Series series = investment != null ? positions.get(investment) : closed.get(symbol.toLowerCase(Locale.ROOT));
+            return series == null ? null : series.performance(clock.getAsLong());
+        }
+    }
+
+    @Override
+    public void investmentAdded(Investment investment) {
+        Series series = closed.remove(investment.getSymbol().toLowerCase(Locale.ROOT));
+        long now = clock.getAsLong();
+        if (series == null) {
+            series = new Series(now, 0);
+        }
+        positions.put(investment, series);
+        double value = valueOf(investment);
+        series.flow(value, now);
+        double rate = rateOf(investment);
+        if (!Double.isNaN(rate)) {
+            total.flow(value * rate, now);
+        }
+    }
+
+    @Override
+    public void investmentRemoved(Investment investment) {
+        Series series = positions.remove(investment);
+        if (series == null) {
+            return;
+        }
+        if (series.value != 0) {
+            // Removed without being sold, as by a reload
+            long now = clock.getAsLong();
+            double rate = rateOf(investment);
+            if (!Double.isNaN(rate)) {
+                total.flow(-series.value * rate, now);
+            }
+            series.flow(-series.value, now);
+        }
+        closed.put(investment.getSymbol().toLowerCase(Locale.ROOT), series);
+    }
+
+    @Override
+    public void priceChanged(Investment investment, double oldPrice) {
+        Series series = positions.get(investment);
+        if (series != null) {
+            double change = valueOf(investment) - series.value;
+            series.move(change);
+            double rate = rateOf(investment);
+            if (!Double.isNaN(rate)) {
+                total.move(change * rate);
+            }
+        }
+    }
+
+    @Override
+    public void quantityChanged(Investment investment, int oldQuantity) {
+        Series series = positions.get(investment);
+        if (series != null) {
+            long now = clock.getAsLong();
+            double amount = valueOf(investment) - series.value;
+            series.flow(amount, now);
+            double rate = rateOf(investment);
+            if (!Double.isNaN(rate)) {
+                total.flow(amount * rate, now);
+            }
+        }
+    }
+
+    @Override
+    public void traded(Investment investment, int quantity, double price, double amount) {
+        Series series = positions.get(investment);
+        if (series != null) {
+            long now = clock.getAsLong();
+            series.settle(amount, now);
+            double rate = rateOf(investment);
+            if (!Double.isNaN(rate)) {
+                total.settle(amount * rate, now);
+            }
+        }
+    }
+
+    /**
+     * Revalues the positions in a currency at its new rate. Rates change
+     * far less often than prices, so the positions are walked.
+     */
+    @Override
+    public void fxRateChanged(String currency, double oldRate) {
+        double value = 0;
+        for (Map.Entry<Investment, Series> entry : positions.entrySet()) {
+            if (currency.equals(entry.getKey().getCurrency())) {
+                value += entry.getValue().value;
+            }
+        }
+        if (value == 0) {
+            return;
+        }
+        double rate = portfolio.getFxRates().getRate(currency);
+        if (Double.isNaN(oldRate)) {
+            // Positions without a rate join the portfolio now
+            total.flow(value * rate, clock.getAsLong());
+        } else {
+            total.move(value * (rate - oldRate));
+        }
+    }
+
+    private double rateOf(Investment investment) {
+        return portfolio.getFxRates().getRate(investment.getCurrency());
+    }
+
+    private static double valueOf(Investment investment) {
+        return investment.getPrice() * investment.getQuantity();
+    }
+}
@@ -0,0 +1,188 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures the cost of keeping time-weighted return, money-weighted return
+ * and drawdown current while millions of price updates, buys and sells
+ * stream through a portfolio, and the cost of reading them.
+ *
+ * <p>
+ * The same stream runs once without a tracker and once with one. A prefix of
+ * it also runs against a replay that values the whole portfolio after every
+ * event and chains the returns from those valuations; the tracker's
+ * portfolio measures must agree with it.
+ *
+ * <pre>
+ * java ePortfolio.PerformanceTrackerBenchmark 1000 5000000
+ * </pre>
+ */
+public class PerformanceTrackerBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args args[0] is the number of positions (default 1,000) and
+     * args[1] the number of events (default 5,000,000)
+     */
+    public static void main(String[] args) {
+        int positions = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int events = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        long seed = 1;
+
+        int replayEvents = Math.min(events, 20_000);
+        String check = replayCheck(positions, replayEvents, seed);
+
+        // Warm up both paths before measuring
+        runEvents(newPortfolio(positions), positions, Math.min(events, 500_000), new Random(seed), new long[1]);
+        Portfolio warm = newPortfolio(positions);
+        long[] warmClock = {0};
+        new PerformanceTracker(warm, () -> warmClock[0]);
+        runEvents(warm, positions, Math.min(events, 500_000), new Random(seed), warmClock);
+
+        long start = System.nanoTime();
+        runEvents(newPortfolio(positions), positions, events, new Random(seed), new long[1]);
+        double plainSeconds = (System.nanoTime() - start) / 1e9;
+
+        Portfolio portfolio = newPortfolio(positions);
+        long[] clock = {0};
+        PerformanceTracker tracker = new PerformanceTracker(portfolio, () -> clock[0]);
+        start = System.nanoTime();
+        runEvents(portfolio, positions, events, new Random(seed), clock);
+        double trackedSeconds = (System.nanoTime() - start) / 1e9;
+
+        int queries = 1_000_000;
+        double sink = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            sink += tracker.getPerformance().getTimeWeightedReturn();
+            sink += tracker.getPerformance("S" + (i % positions)).getMaxDrawdown();
+        }
+        double querySeconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Events:         %,d on %,d positions%n", events, positions);
+        System.out.printf("Without:        %,.0f ns/event%n", plainSeconds * 1e9 / events);
+        System.out.printf("With tracker:   %,.0f ns/event (%,.0f ns added)%n", trackedSeconds * 1e9 / events,
+                (trackedSeconds - plainSeconds) * 1e9 / events);
+        System.out.printf("Queries:        %,.0f ns for the portfolio and one position%s%n", querySeconds * 1e9 / queries,
+                sink == 42 ? " " : "");
+        System.out.println("Portfolio:      " + tracker.getPerformance());
+        System.out.println("Replay check:   " + check);
+    }
+
+    private static Portfolio newPortfolio(int positions) {
+        Portfolio portfolio = new Portfolio();
+        for (int i = 0; i < positions; i++) {
+            portfolio.buyInvestment(type(i), "S" + i, "Generated Fund " + i, 100, 100.0);
+        }
+        return portfolio;
+    }
+
+    private static String type(int number) {
+        return number % 5 == 0 ? "mutualfund" : "stock";
+    }
+
+    /**
+     * Applies the events, a second apart: a random walk of the prices, with
+     * buys, partial sells and, now and then, a position sold in full that a
+     * later buy opens again. Like TradePipeline, the events are applied in
+     * batches, so sold positions do not rebuild the keyword index each time.
+     */
+    private static void runEvents(Portfolio portfolio, int positions, int events, Random random, long[] clock) {
+        for (int i = 0; i < events; i++) {
+            if (i % 1000 == 0) {
+                portfolio.beginBatch();
+            }
+            clock[0] += 1000;
+            applyEvent(portfolio, positions, random);
+            if (i % 1000 == 999 || i == events - 1) {
+                portfolio.endBatch();
+            }
+        }
+    }
+
+    /**
+     * Applies one event and returns the cash it moved into the portfolio.
+     */
+    private static double applyEvent(Portfolio portfolio, int positions, Random random) {
+        int number = random.nextInt(positions);
+        String symbol = "S" + number;
+        int kind = random.nextInt(100);
+        Investment investment = portfolio.findInvestmentBySymbol(symbol);
+        if (investment == null) {
+            double price = 50 + random.nextInt(100);
+            portfolio.buyInvestment(type(number), symbol, "Generated Fund " + number, 100, price);
+            return 100 * price + (type(number).equals("stock") ? Stock.STOCK_FUND_FEE : 0);
+        }
+        double price = investment.getPrice();
+        if (kind < 90) {
+            portfolio.updatePrice(symbol, Math.max(1, Math.round((price * (1 + random.nextGaussian() * 0.01)) * 100) / 100.0));
+            return 0;
+        }
+        double tradePrice = Math.max(1, Math.round(price * (1 + random.nextGaussian() * 0.002) * 100) / 100.0);
+        if (kind < 95) {
+            int quantity = 1 + random.nextInt(20);
+            portfolio.buyInvestment(type(number), symbol, investment.getName(), quantity, tradePrice);
+            return quantity * tradePrice;
+        }
+        int quantity = kind < 99 ? Math.max(1, investment.getQuantity() / 4) : investment.getQuantity();
+        double fee = investment instanceof Stock ? Stock.STOCK_FUND_FEE : MutualFund.MUTUAL_FUND_FEE;
+        portfolio.sellInvestment(symbol, quantity, tradePrice);
+        return -(quantity * tradePrice - fee);
+    }
+
+    /**
+     * Runs events against the tracker and against a replay that values the
+     * whole portfolio after each one, and compares the portfolio measures.
+     */
+    private static String replayCheck(int positions, int events, long seed) {
+        Portfolio portfolio = newPortfolio(positions);
+        long[] clock = {0};
+        PerformanceTracker tracker = new PerformanceTracker(portfolio, () -> clock[0]);
+        Random random = new Random(seed);
+        double startValue = valueOf(portfolio);
+        double periodStart = startValue;
+        double growth = 1;
+        double peak = 1;
+        double maxDrawdown = 0;
+        ArrayList<double[]> flows = new ArrayList<>();
+        for (int i = 0; i < events; i++) {
+            clock[0] += 1000;
+            double amount = applyEvent(portfolio, positions, random);
+            double value = valueOf(portfolio);
+            if (amount != 0) {
+                // The period ends just before the money moves
+                growth *= (value - amount) / periodStart;
+                periodStart = value;
+                flows.add(new double[] {clock[0], amount});
+            }
+            double index = growth * value / periodStart;
+            peak = Math.max(peak, index);
+            maxDrawdown = Math.max(maxDrawdown, 1 - index / peak);
+        }
+        double value = valueOf(portfolio);
+        double flowSum = 0;
+        double weighted = 0;
+        for (double[] flow : flows) {
+            flowSum += flow[1];
+            weighted += flow[1] * (clock[0] - flow[0]) / clock[0];
+        }
+        double twr = growth * value / periodStart - 1;
+        double mwr = (value - startValue - flowSum) / (startValue + weighted);
+
+        PerformanceTracker.Performance performance = tracker.getPerformance();
+        double error = Math.max(Math.abs(twr - performance.getTimeWeightedReturn()),
+                Math.max(Math.abs(mwr - performance.getMoneyWeightedReturn()), Math.abs(maxDrawdown - performance.getMaxDrawdown())));
+        return String.format("%s over %,d events (TWR %.4f%%, MWR %.4f%%, max drawdown %.4f%%, largest difference %.1e)",
+                error < 1e-9 ? "same" : "DIFFERENT", events, twr * 100, mwr * 100, maxDrawdown * 100, error);
+    }
+
+    private static double valueOf(Portfolio portfolio) {
+        double value = 0;
+        for (Investment investment : portfolio.getInvestments()) {
+            value += investment.getPrice() * investment.getQuantity();
+        }
+        return value;
+    }
+}
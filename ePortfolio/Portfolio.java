@@ -1,16 +1,20 @@
 package ePortfolio;
 
-import java.awt.*;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-import java.awt.event.WindowAdapter;
-import java.awt.event.WindowEvent;
 import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Objects;
 import java.util.Scanner;
-import javax.swing.*;
-import javax.swing.border.EmptyBorder;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 
 /**
@@ -24,215 +28,819 @@ public class Portfolio {
     private ArrayList<Investment> investments;
     // HashMap to maintain keyword index for efficient searches
     private HashMap<String, ArrayList<Integer>> keywordIndex;
-    private static JPanel welcomePanel;
-    private static JPanel buyPanel;
-    private static JPanel sellPanel;
-    private static JPanel updatePanel;
-    private static JPanel searchPanel;
-    private static JPanel gainPanel;
+    // HashMap from lower-case symbol to investment for constant time lookups
+    private HashMap<String, Investment> symbolIndex;
+    // Optional store that keeps every price set through this portfolio
+    private PriceHistory priceHistory;
+    // Forwards changes of the portfolio and its investments to the registered listeners
+    private final Listeners listeners = new Listeners();
+    // Running totals of the gains realized by sellInvestment
+    private final RealizedLedger realizedLedger = new RealizedLedger();
+    // Records the commands applied, if undo is enabled, and the nesting depth of the command being applied
+    private UndoHistory undoHistory;
+    private int commandDepth;
+    // Exchange rates of foreign positions, and the unrealized gain per currency
+    private final FxRates fxRates = new FxRates();
+    private final CurrencyGains currencyGains = new CurrencyGains(fxRates);
+    // Nesting depth of beginBatch calls, and the full sales whose removal waits for endBatch
+    private int batchDepth;
+    private final Set<Investment> pendingRemovals = Collections.newSetFromMap(new IdentityHashMap<>());
+    // Directory store of the last segmented load or save, which tracks the changes made since
+    private SegmentedPortfolioStore segmentStore;
+    // True while a load appends investments without indexing them, see loadFromFile
+    private boolean indexDeferred;
+    // Length and CRC-32 of the portfolio file as last loaded, saved or reloaded, or -1
+    private long fileLength = -1;
+    private long fileCrc = -1;
 
     public ArrayList<Investment> getInvestments() {
         return investments;
     }
 
     /**
-     * Constructor initializes an empty portfolio and keyword index.
+     * Constructor initializes an empty portfolio, keyword index and symbol
+     * index.
      */
     public Portfolio() {
         investments = new ArrayList<>();
         keywordIndex = new HashMap<>();
+        symbolIndex = new HashMap<>();
+        listeners.listeners.add(currencyGains);
+    }
+
+    /**
+     * Gets the price history this portfolio records prices to.
+     *
+     * @return the price history, or null if prices are not recorded
+     */
+    public PriceHistory getPriceHistory() {
+        return priceHistory;
+    }
+
+    /**
+     * Gets the ledger of the gains realized by the sales made since this
+     * portfolio was created.
+     *
+     * @return the ledger
+     */
+    public RealizedLedger getRealizedLedger() {
+        return realizedLedger;
+    }
+
+    /**
+     * Gets the exchange rates foreign positions are valued with.
+     *
+     * @return the rates, changed through updateFxRate
+     */
+    public FxRates getFxRates() {
+        return fxRates;
+    }
+
+    /**
+     * Gets the unrealized gain per currency.
+     *
+     * @return the gains, kept current as the portfolio changes
+     */
+    public CurrencyGains getCurrencyGains() {
+        return currencyGains;
+    }
+
+    /**
+     * Sets the price history that buys, sells and price updates record the
+     * prices they set to.
+     *
+     * @param priceHistory the price history, or null to stop recording
+     */
+    public void setPriceHistory(PriceHistory priceHistory) {
+        this.priceHistory = priceHistory;
+    }
+
+    /**
+     * Sets the history that records the commands applied to this portfolio.
+     * Called by UndoHistory.
+     *
+     * @param undoHistory the history, or null to stop recording
+     */
+    void setUndoHistory(UndoHistory undoHistory) {
+        this.undoHistory = undoHistory;
+    }
+
+    /**
+     * Marks the start of a command that can be undone. A command that calls
+     * another, as a buy calls addInvestment, records as one.
+     */
+    private void beginCommand() {
+        if (commandDepth++ == 0 && undoHistory != null) {
+            undoHistory.beginCommand();
+        }
+    }
+
+    /**
+     * Marks the end of the command started by the matching beginCommand.
+     */
+    private void endCommand() {
+        if (--commandDepth == 0 && undoHistory != null) {
+            undoHistory.endCommand();
+        }
+    }
+
+    /**
+     * Registers a listener for changes to this portfolio and its investments.
+     *
+     * @param listener the listener to add
+     */
+    public void addListener(PortfolioListener listener) {
+        listeners.listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener added with addListener.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeListener(PortfolioListener listener) {
+        listeners.listeners.remove(listener);
+    }
+
+    /**
+     * Formats an amount with two decimals exactly like String.format("%.2f"),
+     * without creating a Formatter. Like the Formatter, it rounds the
+     * shortest decimal form of the amount half up, so 1.005 gives "1.01",
+     * and keeps the sign of a negative amount that rounds to zero.
+     *
+     * @param amount the amount to format
+     * @return the amount with two decimals
+     */
+    static String formatMoney(double amount) {
+        if (Double.isNaN(amount) || Double.isInfinite(amount)) {
+            return String.format("%.2f", amount);
+        }
+        BigDecimal rounded = new BigDecimal(Double.toString(amount)).setScale(2, RoundingMode.HALF_UP);
+        String text = rounded.toPlainString();
+        if (rounded.signum() == 0 && Math.copySign(1.0, amount) < 0) {
+            return "-" + text;
+        }
+        return text;
+    }
+
+    /**
+     * Starts a batch of buys, sells and price updates. Until the matching
+     * endBatch, fully sold investments are dropped from the symbol index at
+     * once, but removing them from the list and rebuilding the keyword index
+     * happens a single time at the end of the batch. Searches and the list of
+     * investments may show sold investments until then. Batches may nest.
+     */
+    void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * Ends a batch started with beginBatch, applying the deferred removals of
+     * the outermost batch.
+     */
+    void endBatch() {
+        if (--batchDepth == 0 && !pendingRemovals.isEmpty()) {
+            investments.removeIf(pendingRemovals::contains);
+            pendingRemovals.clear();
+            rebuildKeywordIndex();
+        }
+    }
+
+    /**
+     * Records the current time and a price in the price history, if there is
+     * one. UndoHistory calls it for the prices an undo or redo restores.
+     *
+     * @param symbol the symbol of the investment
+     * @param price the price to record
+     */
+    void recordPrice(String symbol, double price) {
+        if (priceHistory != null) {
+            priceHistory.append(symbol, System.currentTimeMillis(), price);
+        }
     }
 
     /**
      * Loads investments from a file. If the file does not exist, it will be
-     * created upon saving.
+     * created upon saving. If the path is a directory, the investments are
+     * loaded from its segment files, see SegmentedPortfolioStore.
+     *
+     * <p>
+     * When a file is loaded into an empty portfolio, the keyword and symbol
+     * index are taken from the index file saved next to it instead of being
+     * built record by record, provided the index file matches the checksum of
+     * the data just read (see PortfolioIndexFile). Otherwise they are rebuilt
+     * once at the end.
      *
      * @param filename the name of the file to load investments from
      */
     public void loadFromFile(String filename) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            String type = null, symbol = null, name = null;
-            int quantity = 0;
-            double price = 0.0, bookValue = 0.0;
-
-            //Read the file line by line and parse investment details
-            while ((line = reader.readLine()) != null) {
-
-                line = line.trim();
-                line = line.replace("“", "\"").replace("”", "\"");
-
-                // Check for end of an investment entry
-                if (line.isEmpty()) {
-                    if (type != null && symbol != null && name != null && quantity > 0 && price > 0) {
-                        Investment investment = null;
-                        if (type.equalsIgnoreCase("stock")) {
-                            investment = new Stock(symbol, name, quantity, price, bookValue);
-                        } else if (type.equalsIgnoreCase("mutualfund")) {
-                            investment = new MutualFund(symbol, name, quantity, price, bookValue);
-                        }
-                        if (investment != null) {
-                            investments.add(investment);
-                            updateKeywordIndex(investment, investments.size() - 1);
+        PortfolioEvents.LoadEvent event = new PortfolioEvents.LoadEvent();
+        event.begin();
+        // Investments parsed and entries skipped
+        int[] counts = new int[2];
+        File file = new File(filename);
+        try {
+            if (file.isDirectory()) {
+                // Assigned after loading, so the loaded investments are not reported as changes
+                segmentStore = null;
+                SegmentedPortfolioStore store = new SegmentedPortfolioStore(this, file);
+                store.load(counts);
+                segmentStore = store;
+            } else {
+                CRC32 crc = new CRC32();
+                indexDeferred = investments.isEmpty();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(new CheckedInputStream(new FileInputStream(file), crc)))) {
+                    readInvestments(reader, counts);
+                    fileLength = file.length();
+                    fileCrc = crc.getValue();
+                    if (indexDeferred) {
+                        // The reader has reached the end of the file, so the checksum covers all of it
+                        event.indexReused = PortfolioIndexFile.read(PortfolioIndexFile.indexFileFor(file), file.length(), crc.getValue(),
+                                investments, keywordIndex, symbolIndex);
+                    }
+                } finally {
+                    if (indexDeferred) {
+                        indexDeferred = false;
+                        if (!event.indexReused) {
+                            rebuildKeywordIndex();
                         }
-                    } else {
-                        System.out.println("Error: Incomplete or invalid investment entry. Skipping.\n");
                     }
-
-                    // Reseting variables for the next investment
-                    type = null;
-                    symbol = null;
-                    name = null;
-                    quantity = 0;
-                    price = 0.0;
-                    bookValue = 0.0;
-                    continue;
-                }
-
-                // Parsing each line to extract the details of an investment.
-                if (line.startsWith("type")) {
-                    type = line.split("=")[1].trim().replace("\"", "");
-                } else if (line.startsWith("symbol")) {
-                    symbol = line.split("=")[1].trim().replace("\"", "");
-                } else if (line.startsWith("name")) {
-                    name = line.split("=")[1].trim().replace("\"", "");
-                } else if (line.startsWith("quantity")) {
-                    quantity = Integer.parseInt(line.split("=")[1].trim().replace("\"", ""));
-                } else if (line.startsWith("price")) {
-                    price = Double.parseDouble(line.split("=")[1].trim().replace("\"", ""));
-                } else if (line.startsWith("bookValue")) {
-                    bookValue = Double.parseDouble(line.split("=")[1].trim().replace("\"", ""));
-                }
-            }
-
-            // Add the last investment if the file does not end with an empty line
-            if (type != null && symbol != null && name != null && quantity > 0 && price > 0) {
-                Investment investment = null;
-                if (type.equalsIgnoreCase("stock")) {
-                    investment = new Stock(symbol, name, quantity, price, bookValue);
-                } else if (type.equalsIgnoreCase("mutualfund")) {
-                    investment = new MutualFund(symbol, name, quantity, price, bookValue);
-                }
-                if (investment != null) {
-                    investments.add(investment);
-                    updateKeywordIndex(investment, investments.size() - 1);
                 }
             }
-
         } catch (FileNotFoundException e) {
             System.out.println("File not found. A new file will be created upon saving.\n");
         } catch (IOException e) {
             System.out.println("Error reading file: " + e.getMessage());
+            counts[1]++;
         } catch (Exception e) {
             System.out.println("Error parsing file: " + e.getMessage());
+            counts[1]++;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.file = filename;
+                event.bytes = file.isDirectory() ? SegmentedPortfolioStore.sizeOf(file) : file.length();
+                event.records = counts[0];
+                event.errors = counts[1];
+                event.commit();
+            }
         }
     }
 
     /**
-     * Saves all investments to the specified file in a readable format.
+     * Reads investments in the file format and appends them to the
+     * portfolio.
+     *
+     * @param reader the reader to read the investments from
+     * @param counts incremented at index 0 for every investment appended and
+     * at index 1 for every entry skipped
+     * @throws IOException if reading fails
+     */
+    void readInvestments(BufferedReader reader, int[] counts) throws IOException {
+        String line;
+        String type = null, symbol = null, name = null, currency = null;
+        int quantity = 0;
+        double price = 0.0, bookValue = 0.0;
+
+        //Read the file line by line and parse investment details
+        while ((line = reader.readLine()) != null) {
+
+            line = line.trim();
+            line = line.replace("“", "\"").replace("”", "\"");
+
+            // Check for end of an investment entry
+            if (line.isEmpty()) {
+                if (type != null && symbol != null && name != null && quantity > 0 && price > 0) {
+                    Investment investment = null;
+                    if (type.equalsIgnoreCase("stock")) {
+                        investment = new Stock(symbol, name, quantity, price, bookValue);
+                    } else if (type.equalsIgnoreCase("mutualfund")) {
+                        investment = new MutualFund(symbol, name, quantity, price, bookValue);
+                    }
+                    if (investment != null) {
+                        investment.setCurrency(currency);
+                        appendInvestment(investment);
+                        counts[0]++;
+                    } else {
+                        counts[1]++;
+                    }
+                } else {
+                    System.out.println("Error: Incomplete or invalid investment entry. Skipping.\n");
+                    counts[1]++;
+                }
+
+                // Reseting variables for the next investment
+                type = null;
+                symbol = null;
+                name = null;
+                currency = null;
+                quantity = 0;
+                price = 0.0;
+                bookValue = 0.0;
+                continue;
+            }
+
+            // Parsing each line to extract the details of an investment.
+            if (line.startsWith("type")) {
+                type = line.split("=")[1].trim().replace("\"", "");
+            } else if (line.startsWith("symbol")) {
+                symbol = line.split("=")[1].trim().replace("\"", "");
+            } else if (line.startsWith("name")) {
+                name = line.split("=")[1].trim().replace("\"", "");
+            } else if (line.startsWith("quantity")) {
+                quantity = Integer.parseInt(line.split("=")[1].trim().replace("\"", ""));
+            } else if (line.startsWith("price")) {
+                price = Double.parseDouble(line.split("=")[1].trim().replace("\"", ""));
+            } else if (line.startsWith("bookValue")) {
+                bookValue = Double.parseDouble(line.split("=")[1].trim().replace("\"", ""));
+            } else if (line.startsWith("currency")) {
+                currency = line.split("=")[1].trim().replace("\"", "");
+            }
+        }
+
+        // Add the last investment if the file does not end with an empty line
+        if (type != null && symbol != null && name != null && quantity > 0 && price > 0) {
+            Investment investment = null;
+            if (type.equalsIgnoreCase("stock")) {
+                investment = new Stock(symbol, name, quantity, price, bookValue);
+            } else if (type.equalsIgnoreCase("mutualfund")) {
+                investment = new MutualFund(symbol, name, quantity, price, bookValue);
+            }
+            if (investment != null) {
+                investment.setCurrency(currency);
+                appendInvestment(investment);
+                counts[0]++;
+            } else {
+                counts[1]++;
+            }
+        }
+    }
+
+    /**
+     * Saves all investments to the specified file in a readable format. If
+     * the path is a directory, or ends with a separator and is created as
+     * one, only the segment files holding investments changed since the last
+     * load or save of that directory are rewritten, see
+     * SegmentedPortfolioStore. A file is saved together with its keyword and
+     * symbol index, see PortfolioIndexFile.
      *
      * @param filename the name of the file to save investments to
+     * @return true if the investments were saved, false if an error was
+     * reported
      */
-    public void saveToFile(String filename) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            for (Investment investment : investments) {
-                if (investment instanceof Stock) {
-                    writer.write("type = \"stock\"\n");
-                } else if (investment instanceof MutualFund) {
-                    writer.write("type = \"mutualfund\"\n");
+    public boolean saveToFile(String filename) {
+        PortfolioEvents.SaveEvent event = new PortfolioEvents.SaveEvent();
+        event.begin();
+        int written = 0;
+        File file = new File(filename);
+        try {
+            if (file.isDirectory() || filename.endsWith("/") || filename.endsWith(File.separator)) {
+                if (segmentStore == null || !segmentStore.isStoreFor(file)) {
+                    segmentStore = new SegmentedPortfolioStore(this, file);
+                }
+                written = segmentStore.save();
+            } else {
+                CRC32 crc = new CRC32();
+                try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new CheckedOutputStream(new FileOutputStream(file), crc)))) {
+                    for (Investment investment : investments) {
+                        writeInvestment(writer, investment);
+                        written++;
+                    }
+                }
+                fileLength = file.length();
+                fileCrc = crc.getValue();
+                // Within a batch the keyword index lags behind the list; a stale index file fails its checksum
+                if (batchDepth == 0) {
+                    try {
+                        PortfolioIndexFile.write(PortfolioIndexFile.indexFileFor(file), file.length(), crc.getValue(),
+                                investments, keywordIndex, symbolIndex);
+                    } catch (IOException e) {
+                        // The data is saved; the next load rebuilds the index instead
+                        System.out.println("Error saving index: " + e.getMessage());
+                    }
                 }
-                writer.write("symbol = \"" + investment.getSymbol() + "\"\n");
-                writer.write("name = \"" + investment.getName() + "\"\n");
-                writer.write("quantity = \"" + investment.getQuantity() + "\"\n");
-                writer.write("price = \"" + investment.getPrice() + "\"\n");
-                writer.write("bookValue = \"" + String.format("%.2f", investment.getBookValue()) + "\"\n");
-                writer.write("\n");
             }
+            event.succeeded = true;
         } catch (IOException e) {
             System.out.println("Error saving to file: " + e.getMessage());
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.file = filename;
+                event.records = written;
+                event.commit();
+            }
+        }
+        return event.succeeded;
+    }
+
+    /**
+     * Writes one investment in the file format. The currency line is only
+     * written for foreign positions, so files of a single currency read the
+     * same as before.
+     *
+     * @param writer the writer to write the investment to
+     * @param investment the investment to write
+     * @throws IOException if writing fails
+     */
+    static void writeInvestment(Writer writer, Investment investment) throws IOException {
+        if (investment instanceof Stock) {
+            writer.write("type = \"stock\"\n");
+        } else if (investment instanceof MutualFund) {
+            writer.write("type = \"mutualfund\"\n");
+        }
+        writer.write("symbol = \"" + investment.getSymbol() + "\"\n");
+        writer.write("name = \"" + investment.getName() + "\"\n");
+        writer.write("quantity = \"" + investment.getQuantity() + "\"\n");
+        writer.write("price = \"" + investment.getPrice() + "\"\n");
+        writer.write("bookValue = \"" + String.format("%.2f", investment.getBookValue()) + "\"\n");
+        if (investment.getCurrency() != null) {
+            writer.write("currency = \"" + investment.getCurrency() + "\"\n");
+        }
+        writer.write("\n");
+    }
+
+    /**
+     * Called by an investment of this portfolio on its first change after a
+     * segmented save.
+     *
+     * @param investment the changed investment
+     */
+    void investmentChanged(Investment investment) {
+        if (segmentStore != null) {
+            segmentStore.changed(investment);
         }
     }
 
+    /**
+     * Parses investments in the file format without indexing them.
+     *
+     * @param reader the reader to read the investments from
+     * @return the investments in file order
+     * @throws IOException if reading fails
+     */
+    static ArrayList<Investment> parseInvestments(BufferedReader reader) throws IOException {
+        Portfolio parsed = new Portfolio();
+        parsed.indexDeferred = true;
+        parsed.readInvestments(reader, new int[2]);
+        for (Investment investment : parsed.investments) {
+            investment.listener = null;
+            investment.owner = null;
+        }
+        return parsed.investments;
+    }
+
+    /**
+     * Checks whether the contents of the portfolio file are the ones this
+     * portfolio last loaded, saved or reloaded.
+     *
+     * @param length the length of the file contents
+     * @param crc the CRC-32 of the file contents
+     * @return true if the contents are already known
+     */
+    boolean isKnownFile(long length, long crc) {
+        return length == fileLength && crc == fileCrc;
+    }
+
+    /**
+     * Brings the portfolio in line with new contents of its file, changing
+     * only the investments that differ. Investments are matched by symbol:
+     * new symbols are appended, missing ones are removed and matching ones
+     * take the quantity, price and book value of the file. An investment
+     * whose type or name changed is replaced, since its keywords change, and
+     * so is one whose currency changed, since its gain moves to another
+     * currency. All
+     * of it happens in one batch, so the keyword index is rebuilt at most
+     * once, and only if investments were removed. The caller must hold the
+     * portfolio's monitor.
+     *
+     * @param parsed the investments of the file, from parseInvestments
+     * @param length the length of the file contents
+     * @param crc the CRC-32 of the file contents
+     * @return the number of investments added, removed and updated
+     */
+    int[] applyFileContents(ArrayList<Investment> parsed, long length, long crc) {
+        HashMap<String, Investment> bySymbol = new HashMap<>(parsed.size() * 2);
+        for (Investment investment : parsed) {
+            bySymbol.putIfAbsent(investment.getSymbol().toLowerCase(Locale.ROOT), investment);
+        }
+        // Added, removed and updated
+        int[] counts = new int[3];
+        beginBatch();
+        try {
+            for (Investment investment : new ArrayList<>(investments)) {
+                if (pendingRemovals.contains(investment)) {
+                    continue;
+                }
+                Investment update = bySymbol.remove(investment.getSymbol().toLowerCase(Locale.ROOT));
+                if (update == null || update.getClass() != investment.getClass() || !update.getName().equals(investment.getName())
+                        || !Objects.equals(update.getCurrency(), investment.getCurrency())) {
+                    removeInvestment(investment);
+                    counts[1]++;
+                    if (update != null) {
+                        // Put back to be appended below under its new type or name
+                        bySymbol.put(update.getSymbol().toLowerCase(Locale.ROOT), update);
+                    }
+                } else if (update.getQuantity() != investment.getQuantity() || update.getPrice() != investment.getPrice()
+                        // Book values are saved with two decimals, so a saved value may differ by rounding
+                        || Math.abs(update.getBookValue() - investment.getBookValue()) >= 0.005) {
+                    investment.setQuantity(update.getQuantity());
+                    investment.setPrice(update.getPrice());
+                    investment.setBookValue(update.getBookValue());
+                    counts[2]++;
+                }
+            }
+            for (Investment investment : parsed) {
+                if (bySymbol.remove(investment.getSymbol().toLowerCase(Locale.ROOT), investment)) {
+                    appendInvestment(investment);
+                    counts[0]++;
+                }
+            }
+        } finally {
+            endBatch();
+        }
+        fileLength = length;
+        fileCrc = crc;
+        return counts;
+    }
+
     /**
      * Adds an investment to the portfolio and updates the keyword index.
      *
      * @param investment the investment to add
      */
     public void addInvestment(Investment newInvestment) {
-        boolean updated = false;
-
-        // Checking if investment with the same symbol exists
-        for (Investment investment : investments) {
-            if (investment.getSymbol().equalsIgnoreCase(newInvestment.getSymbol())) {
+        beginCommand();
+        try {
+            // Checking if investment with the same symbol exists
+            Investment investment = symbolIndex.get(newInvestment.getSymbol().toLowerCase(Locale.ROOT));
+            if (investment != null) {
                 investment.setQuantity(investment.getQuantity() + newInvestment.getQuantity());
                 investment.setBookValue(investment.getBookValue() + (newInvestment.getQuantity() * newInvestment.getPrice()));
                 investment.setPrice(newInvestment.getPrice());
-                updated = true;
-                break;
+            } else {
+                // Add new investment if not updated
+                appendInvestment(newInvestment);
             }
+        } finally {
+            endCommand();
         }
+    }
 
-        // Add new investment if not updated
-        if (!updated) {
-            investments.add(newInvestment);
-            updateKeywordIndex(newInvestment, investments.size() - 1);
+    /**
+     * Appends an investment to the end of the list and indexes it by symbol
+     * and keywords. The first investment wins the symbol index if a file
+     * contains the same symbol twice, matching the original linear lookup.
+     * The name is replaced by its pooled instance, so positions sharing a
+     * name share one String. Symbols are unique within a portfolio and are
+     * not pooled, but one lower-case copy serves both indexes. While a load
+     * defers indexing, the investment is only appended. A standby applies
+     * the investments its primary adds through here, without merging.
+     *
+     * @param investment the investment to append
+     */
+    void appendInvestment(Investment investment) {
+        investment.setName(StringPool.canonicalize(investment.getName()));
+        investments.add(investment);
+        investment.listener = listeners;
+        investment.owner = this;
+        if (!indexDeferred) {
+            String symbolKey = investment.getSymbol().toLowerCase(Locale.ROOT);
+            symbolIndex.putIfAbsent(symbolKey, investment);
+            updateKeywordIndex(investment, symbolKey, investments.size() - 1);
         }
+        if (segmentStore != null) {
+            // New investments start out dirty, so markDirty would not report them
+            segmentStore.changed(investment);
+        }
+        listeners.investmentAdded(investment);
     }
 
     /**
-     * Sells a specified quantity of an investment based on its symbol at the
-     * given price. If the quantity sold equals the total quantity, the
-     * investment is removed from the portfolio. The method calculates the
-     * payment, fees, and gain from the sale.
+     * Removes an investment from the portfolio and its indexes, deferring
+     * the removal from the list and the keyword index to the end of a batch.
+     * The last investment of the list, such as one just bought or restored
+     * by an undo, holds the last posting of each of its terms, so it is
+     * dropped without rebuilding the keyword index.
      *
-     * @param symbol the symbol of the investment to sell
-     * @param quantitySold the quantity of the investment to sell
-     * @param sellPrice the price at which the investment is sold
-     * @return a message describing the result of the sale, including the gain
-     * or any errors
+     * @param investment the investment to remove
      */
-    public String sellInvestment(String symbol, int quantitySold, double sellPrice) {
-        Investment investment = null;
-        String output = "";
+    void removeInvestment(Investment investment) {
+        if (batchDepth > 0) {
+            // Only the symbol index must be current for the rest of the batch
+            pendingRemovals.add(investment);
+            symbolIndex.remove(investment.getSymbol().toLowerCase(Locale.ROOT), investment);
+        } else if (!indexDeferred && !investments.isEmpty() && investments.get(investments.size() - 1) == investment) {
+            investments.remove(investments.size() - 1);
+            unindexLast(investment, investments.size());
+        } else {
+            investments.remove(investment);
+            rebuildKeywordIndex();
+        }
+        investment.listener = null;
+        investment.owner = null;
+        if (segmentStore != null) {
+            segmentStore.removed(investment);
+        }
+        listeners.investmentRemoved(investment);
+    }
+
+    /**
+     * Buys an investment. If an investment with the same symbol exists and has
+     * the same type, its quantity, price and book value are updated; otherwise
+     * a new investment is added with the purchase fee included in its book
+     * value.
+     *
+     * @param type the investment type ("stock" or "mutualfund")
+     * @param symbol the symbol of the investment
+     * @param name the name of the investment, used only for new investments
+     * @param quantity the quantity bought
+     * @param price the price paid per unit
+     * @return a message describing the result of the purchase or any errors
+     */
+    public String buyInvestment(String type, String symbol, String name, int quantity, double price) {
+        return buyInvestment(type, symbol, name, quantity, price, null);
+    }
 
-        // Find the investment by symbol
-        for (Investment inv : investments) {
-            if (inv.getSymbol().equalsIgnoreCase(symbol)) {
-                investment = inv;
-                break;
+    /**
+     * Buys an investment priced in a currency. The price and the fee of a
+     * new investment are in that currency. An existing investment must be in
+     * the same currency, unless the currency is left out.
+     *
+     * @param type the investment type ("stock" or "mutualfund")
+     * @param symbol the symbol of the investment
+     * @param name the name of the investment, used only for new investments
+     * @param quantity the quantity bought
+     * @param price the price paid per unit
+     * @param currency the currency code, or null to buy a new investment in
+     * the base currency and an existing one in its own
+     * @return a message describing the result of the purchase or any errors
+     */
+    public String buyInvestment(String type, String symbol, String name, int quantity, double price, String currency) {
+        beginCommand();
+        try {
+            if (quantity <= 0) {
+                return "Error: Quantity must be greater than 0.\n";
+            }
+            if (price <= 0) {
+                return "Error: Price must be greater than 0.\n";
             }
-        }
 
-        if (investment == null) {
-            return "Error: No investment found with symbol '" + symbol + "'.";
+            String currencyCode;
+            try {
+                currencyCode = FxRates.toCurrency(currency);
+            } catch (IllegalArgumentException e) {
+                return e.getMessage() + "\n";
+            }
+
+            Investment existingInvestment = findInvestmentBySymbol(symbol);
+            if (existingInvestment != null) {
+                boolean isTypeMatch = (existingInvestment instanceof Stock && type.equalsIgnoreCase("stock"))
+                        || (existingInvestment instanceof MutualFund && type.equalsIgnoreCase("mutualfund"));
+                if (!isTypeMatch) {
+                    return "Error: The type of the existing investment does not match the provided type.\n";
+                }
+                if (currency != null && !currency.trim().isEmpty() && !Objects.equals(currencyCode, existingInvestment.getCurrency())) {
+                    return "Error: The currency of the existing investment does not match the provided currency.\n";
+                }
+                double oldBookValue = existingInvestment.getBookValue();
+                updateExistingInvestment(existingInvestment, quantity, price);
+                recordPrice(symbol, price);
+                listeners.traded(existingInvestment, quantity, price, existingInvestment.getBookValue() - oldBookValue);
+                return "Symbol found. Updating the existing investment...\nExisting investment updated successfully!\n";
+            }
+
+            Investment newInvestment;
+            if (type.equalsIgnoreCase("stock")) {
+                newInvestment = new Stock(symbol, name, quantity, price, (quantity * price) + Stock.STOCK_FUND_FEE);
+            } else if (type.equalsIgnoreCase("mutualfund")) {
+                newInvestment = new MutualFund(symbol, name, quantity, price, quantity * price);
+            } else {
+                return "Error: Invalid investment type. Please enter 'stock' or 'mutualfund'.\n";
+            }
+            newInvestment.setCurrency(currencyCode);
+            addInvestment(newInvestment);
+            recordPrice(symbol, price);
+            listeners.traded(newInvestment, quantity, price, newInvestment.getBookValue());
+            return "Investment added successfully!\n";
+        } finally {
+            endCommand();
         }
+    }
 
-        if (quantitySold <= 0 || quantitySold > investment.getQuantity()) {
-            return "Error: Invalid quantity to sell.";
+    /**
+     * Updates the current price of the investment with the given symbol.
+     *
+     * @param symbol the symbol of the investment to update
+     * @param price the new price
+     * @return a message describing the result of the update or any errors
+     */
+    public String updatePrice(String symbol, double price) {
+        beginCommand();
+        try {
+            Investment investment = findInvestmentBySymbol(symbol);
+            if (investment == null) {
+                return "Error: No investment found with symbol '" + symbol + "'.\n";
+            }
+            if (price <= 0) {
+                return "Error: Price must be greater than 0.\n";
+            }
+            investment.setPrice(price);
+            recordPrice(investment.getSymbol(), price);
+            return "Investment price updated successfully!\n";
+        } finally {
+            endCommand();
         }
+    }
 
-        double payment = quantitySold * sellPrice;
-        double fee = (investment instanceof Stock) ? 9.99 : 45.00;
-        double gain = (payment - fee) - (investment.getBookValue() * (quantitySold / (double) investment.getQuantity()));
+    /**
+     * Sets the exchange rate of a currency. Only the gains of that currency
+     * are converted again, see CurrencyGains.
+     *
+     * @param currency the currency code
+     * @param rate the units of base currency per unit of the currency
+     * @return a message describing the result of the update or any errors
+     */
+    public String updateFxRate(String currency, double rate) {
+        String code;
+        double oldRate;
+        try {
+            code = FxRates.toCurrency(currency);
+            oldRate = fxRates.setRate(code, rate);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage() + "\n";
+        }
+        listeners.fxRateChanged(code, oldRate);
+        return "Exchange rate updated successfully!\n";
+    }
 
-        output += String.format("You received $%.2f for selling %d units of %s.\n", payment - fee, quantitySold, symbol);
-        output += String.format("Gain from this sale: $%.2f.\n", gain);
+    /**
+     * Sells a specified quantity of an investment based on its symbol at the
+     * given price. If the quantity sold equals the total quantity, the
+     * investment is removed from the portfolio. The method calculates the
+     * payment, fees, and gain from the sale and records the sale in the
+     * realized ledger.
+     *
+     * @param symbol the symbol of the investment to sell
+     * @param quantitySold the quantity of the investment to sell
+     * @param sellPrice the price at which the investment is sold
+     * @return the proceeds, fee and gain of the sale, or why it was refused;
+     * its toString is the message to show
+     */
+    public TradeResult sellInvestment(String symbol, int quantitySold, double sellPrice) {
+        beginCommand();
+        try {
+            PortfolioEvents.SellEvent event = new PortfolioEvents.SellEvent();
+            event.begin();
+            event.symbol = symbol;
+            event.quantity = quantitySold;
+            event.price = sellPrice;
+
+            // Find the investment by symbol
+            Investment investment = findInvestmentBySymbol(symbol);
+
+            if (investment == null) {
+                event.rejected = true;
+                event.commit();
+                return TradeResult.notFound(symbol);
+            }
 
-        // Update the investment's quantity and book value
-        int remainingQuantity = investment.getQuantity() - quantitySold;
-        investment.setQuantity(remainingQuantity);
+            if (quantitySold <= 0 || quantitySold > investment.getQuantity()) {
+                event.rejected = true;
+                event.commit();
+                return TradeResult.invalidQuantity();
+            }
 
-        // If the entire investment is sold, remove it and update the index
-        if (remainingQuantity == 0) {
-            investments.remove(investment);
-            rebuildKeywordIndex();
-            output += String.format("Investment with symbol '" + symbol + "' fully sold and removed from portfolio.");
-            return output;
-        } else /* if (remainingQuantity > 0) */ {
-            double newBookValue = investment.getBookValue() * (remainingQuantity / (double) (remainingQuantity + quantitySold));
-            investment.setBookValue(newBookValue);
+            double payment = quantitySold * sellPrice;
+            double fee = (investment instanceof Stock) ? 9.99 : 45.00;
+            double gain = (payment - fee) - (investment.getBookValue() * (quantitySold / (double) investment.getQuantity()));
+            event.gain = gain;
+
+            // Update the investment's quantity and book value
+            int remainingQuantity = investment.getQuantity() - quantitySold;
+            investment.setQuantity(remainingQuantity);
+
+            // If the entire investment is sold, remove it and update the index
+            if (remainingQuantity == 0) {
+                listeners.traded(investment, -quantitySold, sellPrice, -(payment - fee));
+                removeInvestment(investment);
+                event.removed = true;
+            } else /* if (remainingQuantity > 0) */ {
+                double newBookValue = investment.getBookValue() * (remainingQuantity / (double) (remainingQuantity + quantitySold));
+                investment.setBookValue(newBookValue);
+                listeners.traded(investment, -quantitySold, sellPrice, -(payment - fee));
+            }
+            TradeResult result = TradeResult.sold(symbol, investment instanceof MutualFund, quantitySold, sellPrice, fee, gain,
+                    remainingQuantity, fxRates.getRate(investment.getCurrency()));
+            realizedLedger.record(result);
+            if (undoHistory != null) {
+                undoHistory.sold(result);
+            }
+            event.commit();
+            return result;
+        } finally {
+            endCommand();
         }
-        return output;
     }
 
     /**
@@ -242,47 +850,57 @@ public class Portfolio {
      * @param scanner the Scanner object to read user input
      */
     public void updatePrices(Scanner scanner) {
-
-        for (Investment investment : investments) {
-            System.out.println("Enter new price for " + investment.getName() + " (" + investment.getSymbol() + "): ");
-            double newPrice = scanner.nextDouble();
-            investment.setPrice(newPrice);
+        beginCommand();
+        try {
+            for (Investment investment : investments) {
+                System.out.println("Enter new price for " + investment.getName() + " (" + investment.getSymbol() + "): ");
+                double newPrice = scanner.nextDouble();
+                investment.setPrice(newPrice);
+                recordPrice(investment.getSymbol(), newPrice);
+            }
+        } finally {
+            endCommand();
         }
     }
 
     /**
      * Calculates the total gain of all investments in the portfolio. The gain
-     * is calculated as (current value - book value) for each investment.
+     * is calculated as (current value - book value) for each investment, in
+     * its currency, and converted to the base currency at the current rate.
+     * The gains are kept per currency as the portfolio changes, so this
+     * does not visit the investments (see CurrencyGains).
      *
-     * @return the total gain of the portfolio
+     * @return the total gain of the portfolio in the base currency, NaN if
+     * a currency held has no exchange rate
      */
     public double getTotalGain() {
-
-        double totalGain = 0.0;
-        // Iterate over all investments and calculate their individual gains
-        for (Investment investment : investments) {
-            totalGain += investment.getPrice() * investment.getQuantity() - investment.getBookValue();
-        }
-        return totalGain;
+        return currencyGains.getTotalGain();
     }
 
     /**
      * Generates a summary of individual gains for each investment in the
      * portfolio. The gain is calculated as (current value - book value) for
-     * each investment.
+     * each investment and shown in the base currency, followed by the gain
+     * in its own currency for foreign investments.
      *
      * @return a formatted string listing the individual gains for each
      * investment
      */
     public String getIndividualGains() {
 
-        String output = "";
+        // A builder keeps this linear; the gain panel calls it on every refresh
+        StringBuilder output = new StringBuilder();
         // Iterate over all investments to calculate and append their gains
         for (Investment investment : investments) {
             double gain = investment.getPrice() * investment.getQuantity() - investment.getBookValue();
-            output += String.format("%s (%s): $%.2f\n", investment.getName(), investment.getSymbol(), gain);
+            if (investment.getCurrency() == null) {
+                output.append(String.format("%s (%s): $%.2f\n", investment.getName(), investment.getSymbol(), gain));
+            } else {
+                output.append(String.format("%s (%s): $%.2f (%s %.2f)\n", investment.getName(), investment.getSymbol(),
+                        fxRates.toBase(investment.getCurrency(), gain), investment.getCurrency(), gain));
+            }
         }
-        return output;
+        return output.toString();
     }
 
     /**
@@ -293,62 +911,93 @@ public class Portfolio {
      * exists
      */
     public Investment getInvestmentBySymbol(String symbol) {
-        // Iterate over all investments to find a match by symbol
-        for (Investment investment : investments) {
-            if (investment.getSymbol().equalsIgnoreCase(symbol)) {
-                return investment;
-            }
-        }
-        return null;
+        return findInvestmentBySymbol(symbol);
     }
 
     /**
-     * Updates the keyword index for a new investment.
+     * Updates the keyword index for a new investment. Name keywords are
+     * pooled since many investments share them.
      *
      * @param investment the investment to index
+     * @param symbolKey the lower-case symbol of the investment
      * @param index investment's index in the list
      */
-    private void updateKeywordIndex(Investment investment, int index) {
-        String[] nameKeywords = investment.getName().toLowerCase().split(" ");
+    private void updateKeywordIndex(Investment investment, String symbolKey, int index) {
+        String[] nameKeywords = investment.getName().toLowerCase(Locale.ROOT).split(" ");
         for (String keyword : nameKeywords) {
             if (!keyword.isEmpty()) {
-                keywordIndex.computeIfAbsent(keyword, k -> new ArrayList<>()).add(index);
+                keywordIndex.computeIfAbsent(StringPool.canonicalize(keyword), k -> new ArrayList<>()).add(index);
             }
         }
 
-        String symbol = investment.getSymbol().toLowerCase();
-        if (!symbol.isEmpty()) {
-            keywordIndex.computeIfAbsent(symbol, k -> new ArrayList<>()).add(index);
+        if (!symbolKey.isEmpty()) {
+            keywordIndex.computeIfAbsent(symbolKey, k -> new ArrayList<>()).add(index);
         }
     }
 
     /**
-     * Rebuilds the entire keyword index from the current list of investments.
-     * This is used after major changes like deletions.
+     * Drops the index entries of the investment that was last in the list.
+     * Its postings are the last ones of their lists, since postings are in
+     * ascending order.
+     *
+     * @param investment the investment removed from the end of the list
+     * @param index the index it had in the list
+     */
+    private void unindexLast(Investment investment, int index) {
+        String symbolKey = investment.getSymbol().toLowerCase(Locale.ROOT);
+        symbolIndex.remove(symbolKey, investment);
+        for (String keyword : investment.getName().toLowerCase(Locale.ROOT).split(" ")) {
+            dropLastPosting(keyword, index);
+        }
+        dropLastPosting(symbolKey, index);
+    }
+
+    private void dropLastPosting(String keyword, int index) {
+        ArrayList<Integer> postings = keywordIndex.get(keyword);
+        if (postings == null) {
+            return;
+        }
+        while (!postings.isEmpty() && postings.get(postings.size() - 1) == index) {
+            postings.remove(postings.size() - 1);
+        }
+        if (postings.isEmpty()) {
+            keywordIndex.remove(keyword);
+        }
+    }
+
+    /**
+     * Rebuilds the entire keyword index and symbol index from the current
+     * list of investments. This is used after major changes like deletions.
      */
     private void rebuildKeywordIndex() {
+        PortfolioEvents.IndexRebuildEvent event = new PortfolioEvents.IndexRebuildEvent();
+        event.begin();
         keywordIndex.clear();
+        symbolIndex.clear();
         for (int i = 0; i < investments.size(); i++) {
-            updateKeywordIndex(investments.get(i), i);
+            String symbolKey = investments.get(i).getSymbol().toLowerCase(Locale.ROOT);
+            symbolIndex.putIfAbsent(symbolKey, investments.get(i));
+            updateKeywordIndex(investments.get(i), symbolKey, i);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.investments = investments.size();
+            event.keywords = keywordIndex.size();
+            event.commit();
         }
     }
 
     /**
      * Finds and returns an investment from the portfolio by its symbol.
-     * Performs a case-insensitive search through the list of investments.
+     * Performs a case-insensitive lookup in the symbol index.
      *
      * @param symbol the symbol of the investment to find
      * @return the Investment object if found, or null if no matching investment
      * exists
      */
     public Investment findInvestmentBySymbol(String symbol) {
-        // Check if the investment's symbol matches the given symbol (case-insensitive)
-        for (Investment investment : investments) {
-            if (investment.getSymbol().equalsIgnoreCase(symbol)) {
-                return investment;
-            }
-        }
-        return null;
+        // Symbols are indexed in lower case so the lookup is case-insensitive
+        return symbolIndex.get(symbol.toLowerCase(Locale.ROOT));
     }
 
     /**
@@ -361,12 +1010,48 @@ public class Portfolio {
      * @param price the new price to update the investment with
      */
     public void updateExistingInvestment(Investment investment, int quantity, double price) {
-        // Calculate the new total quantity by adding the additional quantity
-        int newQuantity = investment.getQuantity() + quantity;
-        double newBookValue = investment.getBookValue() + (quantity * price);
-        investment.setQuantity(newQuantity);
-        investment.setPrice(price);
-        investment.setBookValue(newBookValue);
+        beginCommand();
+        try {
+            // Calculate the new total quantity by adding the additional quantity
+            int newQuantity = investment.getQuantity() + quantity;
+            double newBookValue = investment.getBookValue() + (quantity * price);
+            investment.setQuantity(newQuantity);
+            investment.setPrice(price);
+            investment.setBookValue(newBookValue);
+        } finally {
+            endCommand();
+        }
+    }
+
+    /**
+     * Intersects two posting lists. Posting lists are kept in ascending order
+     * because investments are always indexed in list order, so a linear merge
+     * replaces the quadratic retainAll.
+     *
+     * @param first the first posting list
+     * @param second the second posting list
+     * @return the ascending, duplicate-free indexes present in both lists
+     */
+    private static ArrayList<Integer> intersect(ArrayList<Integer> first, ArrayList<Integer> second) {
+        ArrayList<Integer> result = new ArrayList<>(Math.min(first.size(), second.size()));
+        int i = 0;
+        int j = 0;
+        while (i < first.size() && j < second.size()) {
+            int a = first.get(i);
+            int b = second.get(j);
+            if (a < b) {
+                i++;
+            } else if (a > b) {
+                j++;
+            } else {
+                if (result.isEmpty() || result.get(result.size() - 1) != a) {
+                    result.add(a);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
     }
 
     /**
@@ -376,16 +1061,20 @@ public class Portfolio {
      * @return a list of matching investments
      */
     public ArrayList<Investment> search(String keywordString) {
-        String[] keywords = keywordString.toLowerCase().split(" ");
+        PortfolioEvents.SearchEvent event = new PortfolioEvents.SearchEvent();
+        event.begin();
+        String[] keywords = keywordString.toLowerCase(Locale.ROOT).split(" ");
         if (keywords.length == 0) {
             return new ArrayList<>();
         }
 
         ArrayList<Integer> intersection = new ArrayList<>(keywordIndex.getOrDefault(keywords[0], new ArrayList<>()));
+        int postings = intersection.size();
 
         for (int i = 1; i < keywords.length; i++) {
             ArrayList<Integer> keywordList = keywordIndex.getOrDefault(keywords[i], new ArrayList<>());
-            intersection.retainAll(keywordList);
+            postings += keywordList.size();
+            intersection = intersect(intersection, keywordList);
         }
 
         ArrayList<Investment> result = new ArrayList<>();
@@ -393,29 +1082,21 @@ public class Portfolio {
             result.add(investments.get(index));
         }
 
+        event.end();
+        if (event.shouldCommit()) {
+            event.query = keywordString;
+            event.terms = keywords.length;
+            event.postings = postings;
+            event.results = result.size();
+            event.commit();
+        }
         return result;
     }
 
-    public static final int WIDTH = 600;
-    public static final int HEIGHT = 400;
-    private static int currentIndex = 0;
-    private static int currentInvestment = 0;
-
-    public static JTextField gainSymbolField;
-    public static JTextArea gainMessagesArea;
-
-    public static int getCurrentIndex() {
-        return currentIndex;
-    }
-
-    public static void setCurrentIndex(int index) {
-        currentIndex = index;
-    }
-
     /**
-     * Main method to run the Portfolio application. Loads investments from the
-     * specified file and demonstrates adding, searching, and saving
-     * functionality.
+     * Main method to run the Portfolio application. Opens the application
+     * window, which loads investments from the specified file in the
+     * background. For runs without a display, see BatchRunner.
      *
      * @param args command-line arguments, where args[0] is the filename
      */
@@ -427,560 +1108,79 @@ public class Portfolio {
 
         String filename = args[0];
         Portfolio portfolio = new Portfolio();
-        portfolio.loadFromFile(filename);
-        Scanner scanner = new Scanner(System.in);
-
-        JFrame window = new JFrame();
-        window.setSize(WIDTH, HEIGHT);
-        window.setTitle("ePortfolio");
-        window.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
-        window.addWindowListener(new WindowAdapter() {
-            @Override
-            public void windowClosing(WindowEvent e) {
-                System.out.println("Program is closing...\n");
-                System.out.println("Saving portfolio to the file...\n");
-                portfolio.saveToFile(filename);
-                window.dispose();
-            }
-        });
-        window.setLayout(new BorderLayout());
-
-        JMenuBar menuBar = new JMenuBar();
-        JMenu commandsMenu = new JMenu("Commands");
-            
-        JMenuItem buyItem = new JMenuItem("Buy");
-        buyItem.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                welcomePanel.setVisible(false);
-                buyPanel.setVisible(true);
-                sellPanel.setVisible(false);
-                updatePanel.setVisible(false);
-                searchPanel.setVisible(false);
-                gainPanel.setVisible(false);
-                window.validate();
-            }
-        });
-        commandsMenu.add(buyItem);
-        
-        JMenuItem sellItem = new JMenuItem("Sell");
-        sellItem.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                welcomePanel.setVisible(false);
-                buyPanel.setVisible(false);
-                sellPanel.setVisible(true);
-                updatePanel.setVisible(false);
-                searchPanel.setVisible(false);
-                gainPanel.setVisible(false);
-                window.validate();
-            }
-        });
-        commandsMenu.add(sellItem);
-
-        JMenuItem updateItem = new JMenuItem("Update");
-        updateItem.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                welcomePanel.setVisible(false);
-                buyPanel.setVisible(false);
-                sellPanel.setVisible(false);
-                updatePanel.setVisible(true);
-                searchPanel.setVisible(false);
-                gainPanel.setVisible(false);
-                window.validate();
-            }
-        });
-        commandsMenu.add(updateItem);
-
-        JMenuItem searchItem = new JMenuItem("Search");
-        searchItem.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                welcomePanel.setVisible(false);
-                buyPanel.setVisible(false);
-                sellPanel.setVisible(false);
-                updatePanel.setVisible(false);
-                searchPanel.setVisible(true);
-                gainPanel.setVisible(false);
-                window.validate();
-            }
-        });
-        commandsMenu.add(searchItem);
-
-        JMenuItem gainItem = new JMenuItem("Get Gain");
-        gainItem.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                welcomePanel.setVisible(false);
-                buyPanel.setVisible(false);
-                sellPanel.setVisible(false);
-                updatePanel.setVisible(false);
-                searchPanel.setVisible(false);
-                gainPanel.setVisible(true);
-                window.validate();
-
-                double totalGain = portfolio.getTotalGain();
-                gainSymbolField.setText(Double.toString(totalGain));
-                gainMessagesArea.setText(portfolio.getIndividualGains()); 
-            }
-        });
-        commandsMenu.add(gainItem);
-
-        JMenuItem quitItem = new JMenuItem("Quit");
-        quitItem.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                System.out.println("Saving portfolio and exiting...\n");
-                portfolio.saveToFile(filename);
-                System.exit(0);
-            }
-        });
-        commandsMenu.add(quitItem);
-        menuBar.add(commandsMenu);
-
-        JTextArea textArea = new JTextArea("Welcome to ePortfolio!\n\n\n\n\nChoose a command from the “Commands” menu to buy or sell an investment, update prices for all investments, get gain for the portfolio, search for relevant investments, or quit the program.");
-        textArea.setEditable(false); 
-        textArea.setFont(new Font("Arial", Font.PLAIN, 16));
-        textArea.setLineWrap(true);
-        textArea.setWrapStyleWord(true);
-        textArea.setAlignmentX(Component.CENTER_ALIGNMENT);
-        textArea.setBorder(new EmptyBorder(80, 20, 20, 20));
-
-        JPanel mainPanel = new JPanel();
-        mainPanel.setLayout(new BoxLayout(mainPanel, BoxLayout.Y_AXIS));
-
-        welcomePanel = new JPanel(new BorderLayout());
-        welcomePanel.add(textArea, BorderLayout.CENTER);
-
-
-        // <<<<< BUY PANEL >>>>>
-        buyPanel = new JPanel();
-        buyPanel.setBorder(BorderFactory.createTitledBorder("Buying an investment"));
-        buyPanel.setLayout(new BoxLayout(buyPanel, BoxLayout.Y_AXIS));
-        JPanel buyPanelTop = new JPanel(new BorderLayout());
-        
-        JPanel buyInputPanel = new JPanel(new GridLayout(5, 2, 5, 5));
-        buyInputPanel.add(new JLabel("Type:"));
-        JComboBox<String> typeDropdown = new JComboBox<>(new String[]{"stock", "mutualfund"});
-        buyInputPanel.add(typeDropdown);
-        buyInputPanel.add(new JLabel("Symbol:"));
-        JTextField symbolField = new JTextField();
-        buyInputPanel.add(symbolField);
-        buyInputPanel.add(new JLabel("Name:"));
-        JTextField nameField = new JTextField();
-        buyInputPanel.add(nameField);
-        buyInputPanel.add(new JLabel("Quantity:"));
-        JTextField quantityField = new JTextField();
-        buyInputPanel.add(quantityField);
-        buyInputPanel.add(new JLabel("Price:"));
-        JTextField priceField = new JTextField();
-        buyInputPanel.add(priceField);
-
-        JPanel buyButtonPanel = new JPanel();
-        buyButtonPanel.setLayout(new BoxLayout(buyButtonPanel, BoxLayout.Y_AXIS));
-        JButton resetButton = new JButton("Reset");
-        JButton buyButton = new JButton("Buy");
-        resetButton.setAlignmentX(Component.CENTER_ALIGNMENT);
-        buyButton.setAlignmentX(Component.CENTER_ALIGNMENT);
-        buyButtonPanel.add(Box.createVerticalGlue()); 
-        buyButtonPanel.add(resetButton);
-        buyButtonPanel.add(Box.createRigidArea(new Dimension(0, 10))); 
-        buyButtonPanel.add(buyButton);
-        buyButtonPanel.add(Box.createVerticalGlue()); 
-
-        JPanel buyTextPanel = new JPanel(new BorderLayout());
-        buyTextPanel.setBorder(BorderFactory.createTitledBorder("Messages"));
-        JTextArea messagesArea = new JTextArea();
-        messagesArea.setEditable(false); 
-        JScrollPane scrollPane = new JScrollPane(messagesArea, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
-        buyTextPanel.add(scrollPane, BorderLayout.CENTER);
-
-        buyPanelTop.add(buyInputPanel, BorderLayout.CENTER);
-        buyPanelTop.add(buyButtonPanel, BorderLayout.EAST);
-        buyPanel.add(buyPanelTop);
-        buyPanel.add(buyTextPanel);
-
-
-        // ActionListener for the "Buy" button
-        buyButton.addActionListener(e -> {
-            String type = (String) typeDropdown.getSelectedItem(); 
-            String symbol = symbolField.getText().trim();
-            String name = nameField.getText().trim();
-            String quantity = quantityField.getText().trim();
-            String price = priceField.getText().trim();
-
-            // Validate inputs
-            if (symbol.isEmpty() || name.isEmpty() || quantity.isEmpty() || price.isEmpty()) {
-                messagesArea.append("Error: All fields must be filled!\n");
-            } else {
+        PriceHistory priceHistory = PriceHistory.openConfigured();
+        if (priceHistory != null) {
+            portfolio.setPriceHistory(priceHistory);
+            // The window can exit through System.exit or by disposing, so seal the history on the way out
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 try {
-                    int quantityInt = Integer.parseInt(quantity);
-                    double priceDouble = Double.parseDouble(price);
-                    if(quantityInt > 0 && priceDouble > 0){
-                        Investment existingInvestment = portfolio.findInvestmentBySymbol(symbol);
-                        if (existingInvestment != null) {
-                            boolean isTypeMatch = (existingInvestment instanceof Stock && type.equals("stock"))
-                                    || (existingInvestment instanceof MutualFund && type.equals("mutualfund"));
-                            if (isTypeMatch) {
-                                // Update existing investment
-                                messagesArea.setText("");
-                                messagesArea.append("Symbol found. Updating the existing investment...\n");
-                                portfolio.updateExistingInvestment(existingInvestment, quantityInt, priceDouble);
-                                messagesArea.append("Existing investment updated successfully!\n");
-                            } else {
-                                messagesArea.append("Error: The type of the existing investment does not match the provided type.\n");
-                            }
-                        } else {
-                            // Add a new investment
-                            Investment newInvestment;
-                            if (type.equals("stock")) {
-                                newInvestment = new Stock(symbol, name, quantityInt, priceDouble, (quantityInt * priceDouble) + 9.99);
-                            } else /* if (type.equals("mutualfund")) */ {
-                                newInvestment = new MutualFund(symbol, name, quantityInt, priceDouble, quantityInt * priceDouble);
-                            }
-                            portfolio.addInvestment(newInvestment);
-                            messagesArea.setText("");
-                            messagesArea.append("Investment added successfully!\n");
-                        }
-                    } else {
-                        if(quantityInt <= 0){
-                            messagesArea.append("Error: Quantity must be greater than 0.\n");
-                        } 
-                        if(priceDouble <= 0){
-                            messagesArea.append("Error: Price must be greater than 0.\n");
-                        }
-                    }
-                } catch (NumberFormatException ex) {
-                    messagesArea.append("Error: Quantity and price must be valid numbers.\n");
+                    priceHistory.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing price history: " + e.getMessage());
                 }
+            }));
+        }
+        PortfolioWindow.open(portfolio, filename);
+    }
+
+    /**
+     * Forwards every change to the registered listeners. Investments of this
+     * portfolio hold it as their listener, so a change made through an
+     * investment's setters reaches the listeners too. The list is copied on
+     * write, so listeners can be added while changes are being reported.
+     */
+    private static final class Listeners implements PortfolioListener {
+
+        private final CopyOnWriteArrayList<PortfolioListener> listeners = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void investmentAdded(Investment investment) {
+            for (PortfolioListener listener : listeners) {
+                listener.investmentAdded(investment);
             }
-        });
-
-        // ActionListener for the "Reset" button
-        resetButton.addActionListener(e -> {
-            symbolField.setText("");          
-            nameField.setText("");            
-            quantityField.setText("");       
-            priceField.setText("");           
-            messagesArea.setText("");
-        });
-
-
-        // <<<<< SELL PANEL >>>>>
-        sellPanel = new JPanel();
-        sellPanel.setBorder(BorderFactory.createTitledBorder("Selling an investment"));
-        sellPanel.setLayout(new BoxLayout(sellPanel, BoxLayout.Y_AXIS));
-        JPanel sellPanelTop = new JPanel(new BorderLayout());
-        
-        JPanel sellInputPanel = new JPanel(new GridLayout(3, 2, 5, 5));
-        sellInputPanel.add(new JLabel("Symbol:"));
-        JTextField sellSymbolField = new JTextField();
-        sellInputPanel.add(sellSymbolField);
-        sellInputPanel.add(new JLabel("Quantity:"));
-        JTextField sellQuantityField = new JTextField();
-        sellInputPanel.add(sellQuantityField);
-        sellInputPanel.add(new JLabel("Price:"));
-        JTextField sellPriceField = new JTextField();
-        sellInputPanel.add(sellPriceField);
-
-        JPanel sellButtonPanel = new JPanel();
-        sellButtonPanel.setLayout(new BoxLayout(sellButtonPanel, BoxLayout.Y_AXIS));
-        JButton sellResetButton = new JButton("Reset");
-        JButton sellButton = new JButton("Sell");
-        sellResetButton.setAlignmentX(Component.CENTER_ALIGNMENT);
-        sellButton.setAlignmentX(Component.CENTER_ALIGNMENT);
-        sellButtonPanel.add(Box.createVerticalGlue()); 
-        sellButtonPanel.add(sellResetButton);
-        sellButtonPanel.add(Box.createRigidArea(new Dimension(0, 10))); 
-        sellButtonPanel.add(sellButton);
-        sellButtonPanel.add(Box.createVerticalGlue()); 
-
-        JPanel sellTextPanel = new JPanel(new BorderLayout());
-        sellTextPanel.setBorder(BorderFactory.createTitledBorder("Messages"));
-        JTextArea sellMessagesArea = new JTextArea();
-        sellMessagesArea.setEditable(false); 
-        JScrollPane sellScrollPane = new JScrollPane(sellMessagesArea, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
-        sellTextPanel.add(sellScrollPane, BorderLayout.CENTER);
-
-        sellPanelTop.add(sellInputPanel, BorderLayout.CENTER);
-        sellPanelTop.add(sellButtonPanel, BorderLayout.EAST);
-        sellPanel.add(sellPanelTop);
-        sellPanel.add(sellTextPanel);
-
-        // ActionListener for the "Sell" button
-        sellButton.addActionListener(e -> {
-            String symbol = sellSymbolField.getText().trim();
-            String quantity = sellQuantityField.getText().trim();
-            String price = sellPriceField.getText().trim();
-
-            // Validate inputs
-            if (symbol.isEmpty() || quantity.isEmpty() || price.isEmpty()) {
-                sellMessagesArea.append("Error: All fields must be filled!\n");
-            } else {
-                try {
-                    int quantitySold = Integer.parseInt(quantity);
-                    double sellPrice = Double.parseDouble(price);
-                    if(quantitySold > 0 && sellPrice > 0){
-                        String sellInfo = portfolio.sellInvestment(symbol, quantitySold, sellPrice);
-                        sellMessagesArea.setText("");
-                        sellMessagesArea.append(sellInfo);
-                    } else {
-                        if(quantitySold <= 0){
-                            sellMessagesArea.append("Error: Quantity must be greater than 0.\n");
-                        } 
-                        if(sellPrice <= 0){
-                            sellMessagesArea.append("Error: Price must be greater than 0.\n");
-                        }
-                    }
-                } catch (NumberFormatException ex) {
-                    sellMessagesArea.append("Error: Quantity and price must be valid numbers.\n");
-                }
+        }
+
+        @Override
+        public void investmentRemoved(Investment investment) {
+            for (PortfolioListener listener : listeners) {
+                listener.investmentRemoved(investment);
             }
-        });
-
-
-        // ActionListener for the "Reset" button
-        sellResetButton.addActionListener(e -> {
-            sellSymbolField.setText("");          
-            sellQuantityField.setText("");       
-            sellPriceField.setText("");           
-            sellMessagesArea.setText("");
-        });
-
-        // <<<<< UPDATE PANEL >>>>>
-        updatePanel = new JPanel();
-        updatePanel.setBorder(BorderFactory.createTitledBorder("Updating investments"));
-        updatePanel.setLayout(new BoxLayout(updatePanel, BoxLayout.Y_AXIS));
-        JPanel updatePanelTop = new JPanel(new BorderLayout());
-        
-        JPanel updateInputPanel = new JPanel(new GridLayout(3, 2, 5, 5));
-        updateInputPanel.add(new JLabel("Symbol:"));
-        JTextField updateSymbolField = new JTextField();
-        updateSymbolField.setEditable(false);
-        updateInputPanel.add(updateSymbolField);
-        updateInputPanel.add(new JLabel("Name:"));
-        JTextField updateQuantityField = new JTextField();
-        updateQuantityField.setEditable(false);
-        updateInputPanel.add(updateQuantityField);
-        updateInputPanel.add(new JLabel("Price:"));
-        JTextField updatePriceField = new JTextField();
-        updateInputPanel.add(updatePriceField);
-
-        JPanel updateButtonPanel = new JPanel();
-        updateButtonPanel.setLayout(new BoxLayout(updateButtonPanel, BoxLayout.Y_AXIS));
-        JButton updatePrevButton = new JButton("Prev");
-        JButton updateNextButton = new JButton("Next");
-        JButton updateSaveButton = new JButton("Save");
-        updatePrevButton.setAlignmentX(Component.CENTER_ALIGNMENT);
-        updateNextButton.setAlignmentX(Component.CENTER_ALIGNMENT);
-        updateSaveButton.setAlignmentX(Component.CENTER_ALIGNMENT);
-        updateButtonPanel.add(Box.createVerticalGlue()); 
-        updateButtonPanel.add(updatePrevButton);
-        updateButtonPanel.add(Box.createRigidArea(new Dimension(0, 10))); 
-        updateButtonPanel.add(updateNextButton);
-        updateButtonPanel.add(Box.createVerticalGlue()); 
-        updateButtonPanel.add(updateSaveButton);
-        updateButtonPanel.add(Box.createVerticalGlue()); 
-
-        JPanel updateTextPanel = new JPanel(new BorderLayout());
-        updateTextPanel.setBorder(BorderFactory.createTitledBorder("Messages"));
-        JTextArea updateMessagesArea = new JTextArea();
-        updateMessagesArea.setEditable(false);
-        JScrollPane updateScrollPane = new JScrollPane(updateMessagesArea, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
-        updateTextPanel.add(updateScrollPane, BorderLayout.CENTER);
-
-        updatePanelTop.add(updateInputPanel, BorderLayout.CENTER);
-        updatePanelTop.add(updateButtonPanel, BorderLayout.EAST);
-        updatePanel.add(updatePanelTop);
-        updatePanel.add(updateTextPanel);
-
-        Investment inv = portfolio.getInvestments().get(getCurrentIndex());
-        updateSymbolField.setText(inv.getSymbol());
-        updateQuantityField.setText(Integer.toString(inv.getQuantity()));
-        updatePriceField.setText(Double.toString(inv.getPrice()));
-
-
-        updateNextButton.addActionListener(e -> {
-            int length = portfolio.getInvestments().size();
-            setCurrentIndex((getCurrentIndex() + 1) % length);
-            Investment invest = portfolio.getInvestments().get(getCurrentIndex());
-            updateSymbolField.setText(invest.getSymbol());
-            updateQuantityField.setText(Integer.toString(invest.getQuantity()));
-            updatePriceField.setText(Double.toString(invest.getPrice()));
-        });
-        updatePrevButton.addActionListener(e -> {
-            int length = portfolio.getInvestments().size();
-            setCurrentIndex((getCurrentIndex() - 1 + length) % length);
-            Investment invest = portfolio.getInvestments().get(getCurrentIndex());
-            updateSymbolField.setText(invest.getSymbol());
-            updateQuantityField.setText(Integer.toString(invest.getQuantity()));
-            updatePriceField.setText(Double.toString(invest.getPrice()));
-        });
-
-        updateSaveButton.addActionListener(e -> {
-            String price = updatePriceField.getText().trim();
-            if (price.isEmpty()) {
-                updateMessagesArea.append("Error: Price cannot be empty!\n");
-            } else {
-                try {
-                    double updatePrice = Double.parseDouble(price);
-                    if(updatePrice <= 0){
-                        updateMessagesArea.append("Error: Price must be greater than 0.\n");
-                    } else {
-                        Investment invest = portfolio.getInvestments().get(getCurrentIndex());
-                        invest.setPrice(updatePrice);
-                        updateMessagesArea.setText("Investment price updated successfully!\n");
-                    }
-                } catch (NumberFormatException ex) {
-                    updateMessagesArea.append("Error: Price must be a valid number.\n");
-                }
+        }
+
+        @Override
+        public void priceChanged(Investment investment, double oldPrice) {
+            for (PortfolioListener listener : listeners) {
+                listener.priceChanged(investment, oldPrice);
             }
-        });
-           
-        // <<<<< SEARCH PANEL >>>>>
-        searchPanel = new JPanel();
-        searchPanel.setBorder(BorderFactory.createTitledBorder("Searching investments"));
-        searchPanel.setLayout(new BoxLayout(searchPanel, BoxLayout.Y_AXIS));
-        JPanel searchPanelTop = new JPanel(new BorderLayout());
-        
-        JPanel searchInputPanel = new JPanel(new GridLayout(4, 2, 5, 5));
-        searchInputPanel.add(new JLabel("Symbol:"));
-        JTextField searchSymbolField = new JTextField();
-        searchInputPanel.add(searchSymbolField);
-        searchInputPanel.add(new JLabel("Name Keywords:"));
-        JTextField searchQuantityField = new JTextField();
-        searchInputPanel.add(searchQuantityField);
-        searchInputPanel.add(new JLabel("Low Price:"));
-        JTextField searchLowPriceField = new JTextField();
-        searchInputPanel.add(searchLowPriceField);
-        searchInputPanel.add(new JLabel("High Price:"));
-        JTextField searchHighPriceField = new JTextField();
-        searchInputPanel.add(searchHighPriceField);
-
-        JPanel searchButtonPanel = new JPanel();
-        searchButtonPanel.setLayout(new BoxLayout(searchButtonPanel, BoxLayout.Y_AXIS));
-        JButton searchResetButton = new JButton("Reset");
-        JButton searchButton = new JButton("Search");
-        searchResetButton.setAlignmentX(Component.CENTER_ALIGNMENT);
-        searchButton.setAlignmentX(Component.CENTER_ALIGNMENT);
-        searchButtonPanel.add(Box.createVerticalGlue()); 
-        searchButtonPanel.add(searchResetButton);
-        searchButtonPanel.add(Box.createRigidArea(new Dimension(0, 10))); 
-        searchButtonPanel.add(searchButton);
-        searchButtonPanel.add(Box.createVerticalGlue()); 
-
-        JPanel searchTextPanel = new JPanel(new BorderLayout());
-        searchTextPanel.setBorder(BorderFactory.createTitledBorder("Search results"));
-        JTextArea searchMessagesArea = new JTextArea();
-        searchMessagesArea.setEditable(false);
-        JScrollPane searchScrollPane = new JScrollPane(searchMessagesArea, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
-        searchTextPanel.add(searchScrollPane, BorderLayout.CENTER);
-
-        searchPanelTop.add(searchInputPanel, BorderLayout.CENTER);
-        searchPanelTop.add(searchButtonPanel, BorderLayout.EAST);
-        searchPanel.add(searchPanelTop);
-        searchPanel.add(searchTextPanel);
-
-        // ActionListener for the "Search" button
-        searchButton.addActionListener(e -> {
-            String symbol = searchSymbolField.getText().trim();
-            String keywords = searchQuantityField.getText().trim();
-            String lowPrice = searchLowPriceField.getText().trim();
-            String highPrice = searchHighPriceField.getText().trim();
-
-            // Validate inputs
-            if (symbol.isEmpty() || keywords.isEmpty() || lowPrice.isEmpty() || highPrice.isEmpty()) {
-                searchMessagesArea.append("Error: All fields must be filled!\n");
-            } else {
-                try {
-                    double lowSearchPrice = Double.parseDouble(lowPrice);
-                    double highSearchPrice = Double.parseDouble(highPrice);
-                    if (lowSearchPrice < 0 || highSearchPrice < 0) {
-                        searchMessagesArea.append("Error: Search prices must be positive numbers.\n");
-                    } else if (lowSearchPrice > highSearchPrice) {
-                        searchMessagesArea.append("Error: Minimum price cannot be greater than maximum price.\n");
-                    } else {
-                        ArrayList<Investment> results = portfolio.search(keywords);
-                        boolean found = false;
-                        searchMessagesArea.setText("");
-                        // ...
-                        for (Investment investment : results) {
-                            if (investment.getSymbol().equalsIgnoreCase(symbol)
-                                    && investment.getPrice() >= lowSearchPrice
-                                    && investment.getPrice() <= highSearchPrice) {
-                                searchMessagesArea.append(investment.toString());
-                                found = true;
-                            }
-                        }
-                        if (!found) {
-                            searchMessagesArea.append("No investments found matching symbol: " + symbol + ", keywords: " + keywords + " and price range: $" + lowSearchPrice + " - $" + highSearchPrice + "\n");
-                        }
-                    }
-                } catch (NumberFormatException ex) {
-                    searchMessagesArea.append("Error: Low price and High price must be valid numbers.\n");
-                }
+        }
+
+        @Override
+        public void quantityChanged(Investment investment, int oldQuantity) {
+            for (PortfolioListener listener : listeners) {
+                listener.quantityChanged(investment, oldQuantity);
             }
-        });
-
-        // ActionListener for the "Reset" button
-        searchResetButton.addActionListener(e -> {
-            searchSymbolField.setText("");
-            searchQuantityField.setText("");
-            searchLowPriceField.setText("");
-            searchHighPriceField.setText("");
-            searchMessagesArea.setText("");
-        });
-
-        // <<<<< GAIN PANEL >>>>>
-        gainPanel = new JPanel();
-        gainPanel.setBorder(BorderFactory.createTitledBorder("Getting total gain"));
-        gainPanel.setLayout(new BoxLayout(gainPanel, BoxLayout.Y_AXIS));
-        JPanel gainPanelTop = new JPanel(new BorderLayout());
-        
-        JPanel gainInputPanel = new JPanel(new GridLayout(1, 2, 5, 5));
-        gainInputPanel.add(new JLabel("Total Gain:"));
-        gainSymbolField = new JTextField();
-        gainSymbolField.setEditable(false);
-        gainInputPanel.add(gainSymbolField);
-
-        JPanel gainTextPanel = new JPanel(new BorderLayout());
-        gainTextPanel.setBorder(BorderFactory.createTitledBorder("Individual gains"));
-        gainMessagesArea = new JTextArea();
-        gainMessagesArea.setEditable(false);
-        JScrollPane gainScrollPane = new JScrollPane(gainMessagesArea, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
-        gainTextPanel.add(gainScrollPane, BorderLayout.CENTER);
-
-        gainPanelTop.add(gainInputPanel, BorderLayout.NORTH);
-        gainPanel.add(gainPanelTop);
-        gainPanel.add(gainTextPanel);
-
-        double totalGain = portfolio.getTotalGain();
-        gainSymbolField.setText(Double.toString(totalGain));
-        gainMessagesArea.setText(portfolio.getIndividualGains()); 
-        
-
-        // <<<<< MAIN PANEL >>>>>
-        mainPanel.add(welcomePanel);
-        mainPanel.add(buyPanel);
-        mainPanel.add(sellPanel);
-        mainPanel.add(updatePanel);
-        mainPanel.add(searchPanel);
-        mainPanel.add(gainPanel);
-
-        window.setJMenuBar(menuBar);
-        window.add(mainPanel);
-
-        welcomePanel.setVisible(true);
-        buyPanel.setVisible(false);
-        sellPanel.setVisible(false);
-        updatePanel.setVisible(false);
-        searchPanel.setVisible(false);
-        gainPanel.setVisible(false);
-        
-        window.validate();
-        window.setVisible(true);
+        }
+
+        @Override
+        public void bookValueChanged(Investment investment, double oldBookValue) {
+            for (PortfolioListener listener : listeners) {
+                listener.bookValueChanged(investment, oldBookValue);
+            }
+        }
+
+        @Override
+        public void traded(Investment investment, int quantity, double price, double amount) {
+            for (PortfolioListener listener : listeners) {
+                listener.traded(investment, quantity, price, amount);
+            }
+        }
+
+        @Override
+        public void fxRateChanged(String currency, double oldRate) {
+            for (PortfolioListener listener : listeners) {
+                listener.fxRateChanged(currency, oldRate);
+            }
+        }
     }
 }
 
-
@@ -0,0 +1,135 @@
+package ePortfolio;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Custom JDK Flight Recorder events emitted by the portfolio on its load, save,
+ * index and trade paths. The events are cheap when no recording is running,
+ * so they stay enabled in production and can be captured with
+ * -XX:StartFlightRecording.
+ */
+public final class PortfolioEvents {
+
+    private PortfolioEvents() {
+    }
+
+    /**
+     * Emitted once per call to Portfolio.loadFromFile.
+     */
+    @Name("ePortfolio.Load")
+    @Label("Portfolio Load")
+    @Category("ePortfolio")
+    @Description("Parsing of a portfolio file into investments")
+    public static class LoadEvent extends Event {
+
+        @Label("File")
+        public String file;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        @Label("Records Parsed")
+        public int records;
+
+        @Label("Errors")
+        @Description("Entries skipped because they were incomplete or could not be parsed")
+        public int errors;
+
+        @Label("Index Reused")
+        @Description("Whether the keyword and symbol index were read from the index file instead of being rebuilt")
+        public boolean indexReused;
+    }
+
+    /**
+     * Emitted once per call to Portfolio.saveToFile.
+     */
+    @Name("ePortfolio.Save")
+    @Label("Portfolio Save")
+    @Category("ePortfolio")
+    @Description("Writing of all investments to a portfolio file")
+    public static class SaveEvent extends Event {
+
+        @Label("File")
+        public String file;
+
+        @Label("Records Written")
+        public int records;
+
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+
+    /**
+     * Emitted when the keyword index is rebuilt from scratch.
+     */
+    @Name("ePortfolio.IndexRebuild")
+    @Label("Keyword Index Rebuild")
+    @Category("ePortfolio")
+    @Description("Full rebuild of the keyword index after a removal")
+    public static class IndexRebuildEvent extends Event {
+
+        @Label("Investments")
+        public int investments;
+
+        @Label("Keywords")
+        public int keywords;
+    }
+
+    /**
+     * Emitted once per keyword search.
+     */
+    @Name("ePortfolio.Search")
+    @Label("Keyword Search")
+    @Category("ePortfolio")
+    @Description("Keyword lookup and posting list intersection")
+    public static class SearchEvent extends Event {
+
+        @Label("Query")
+        public String query;
+
+        @Label("Terms")
+        public int terms;
+
+        @Label("Posting Sizes")
+        @Description("Sum of the posting list lengths of all terms")
+        public int postings;
+
+        @Label("Results")
+        public int results;
+    }
+
+    /**
+     * Emitted once per sell request, including rejected ones.
+     */
+    @Name("ePortfolio.Sell")
+    @Label("Sell Investment")
+    @Category("ePortfolio")
+    @Description("Sale of some or all units of an investment")
+    public static class SellEvent extends Event {
+
+        @Label("Symbol")
+        public String symbol;
+
+        @Label("Quantity")
+        public int quantity;
+
+        @Label("Price")
+        public double price;
+
+        @Label("Gain")
+        public double gain;
+
+        @Label("Removed")
+        @Description("Whether the sale removed the investment from the portfolio")
+        public boolean removed;
+
+        @Label("Rejected")
+        public boolean rejected;
+    }
+}
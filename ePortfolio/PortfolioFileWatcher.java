@@ -0,0 +1,181 @@
+package ePortfolio;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Reloads a portfolio when another program rewrites its file.
+ *
+ * <p>
+ * A background thread watches the file's directory with a WatchService. Once
+ * the file has stopped changing for QUIET_MILLIS, the thread reads it, parses
+ * it off the portfolio's monitor and applies only the differences with
+ * Portfolio.applyFileContents. Listeners, such as the window's refresher,
+ * see the added, removed and updated investments like any other change, so
+ * the user interface never waits for the parse.
+ *
+ * <p>
+ * The file is read while holding the portfolio's monitor, which saves also
+ * hold, so a save of this portfolio is never seen half written. Contents the
+ * portfolio saved or loaded itself are recognized by their checksum and
+ * skipped. Deleting the file leaves the portfolio as it is; a file created in
+ * its place is loaded. Portfolios saved as a directory are not watched.
+ */
+public class PortfolioFileWatcher implements Closeable {
+
+    /** Time the file must stay unchanged before it is read, in milliseconds. */
+    public static final long QUIET_MILLIS = 20;
+
+    private final Portfolio portfolio;
+    private final Path file;
+    private final WatchService watchService;
+    private final Thread thread;
+    private volatile long reloads;
+
+    /**
+     * Starts watching a portfolio file.
+     *
+     * @param portfolio the portfolio loaded from the file
+     * @param filename the portfolio file
+     * @throws IOException if the directory of the file cannot be watched
+     */
+    public PortfolioFileWatcher(Portfolio portfolio, String filename) throws IOException {
+        this.portfolio = portfolio;
+        file = Paths.get(filename).toAbsolutePath();
+        watchService = file.getFileSystem().newWatchService();
+        file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this::run, "ePortfolio file watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts watching a portfolio file unless -DePortfolio.watch=false is
+     * set or the portfolio is saved as a directory.
+     *
+     * @param portfolio the portfolio loaded from the file
+     * @param filename the portfolio file
+     * @return the watcher, or null if the file is not watched
+     */
+    public static PortfolioFileWatcher startConfigured(Portfolio portfolio, String filename) {
+        if ("false".equalsIgnoreCase(System.getProperty("ePortfolio.watch")) || new File(filename).isDirectory()) {
+            return null;
+        }
+        try {
+            return new PortfolioFileWatcher(portfolio, filename);
+        } catch (IOException e) {
+            System.out.println("Error watching file: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Gets the number of times changes made by another program were applied.
+     *
+     * @return the number of reloads
+     */
+    public long getReloads() {
+        return reloads;
+    }
+
+    /**
+     * Stops watching the file.
+     */
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.out.println("Error closing file watcher: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Waits for changes to the file and reloads it until the watcher is
+     * closed.
+     */
+    private void run() {
+        try {
+            while (true) {
+                if (awaitChange(watchService.take())) {
+                    // Writers often touch a file several times; wait until they are done
+                    WatchKey key;
+                    while ((key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                        awaitChange(key);
+                    }
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Takes the events of a watch key and re-arms it.
+     *
+     * @param key the signalled key
+     * @return true if one of the events may concern the portfolio file
+     */
+    private boolean awaitChange(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Reads the file and applies its differences to the portfolio, unless
+     * the portfolio already has these contents.
+     */
+    private void reload() {
+        byte[] contents;
+        FileTime modified;
+        CRC32 crc = new CRC32();
+        try {
+            synchronized (portfolio) {
+                modified = Files.getLastModifiedTime(file);
+                contents = Files.readAllBytes(file);
+                crc.update(contents);
+                if (portfolio.isKnownFile(contents.length, crc.getValue())) {
+                    return;
+                }
+            }
+            ArrayList<Investment> parsed = Portfolio.parseInvestments(
+                    new BufferedReader(new InputStreamReader(new ByteArrayInputStream(contents))));
+            synchronized (portfolio) {
+                // A save while parsing replaced these contents; its own event follows
+                if (!modified.equals(Files.getLastModifiedTime(file)) || Files.size(file) != contents.length) {
+                    return;
+                }
+                portfolio.applyFileContents(parsed, contents.length, crc.getValue());
+            }
+            reloads++;
+        } catch (NoSuchFileException e) {
+            // Deleted or being replaced; a file created in its place raises another event
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error reloading file: " + e.getMessage());
+        }
+    }
+}
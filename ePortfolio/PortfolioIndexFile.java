@@ -0,0 +1,190 @@
+package ePortfolio;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Keyword and symbol index of a portfolio file, saved next to it as
+ * "&lt;file&gt;.index" so loading can skip tokenizing every name again.
+ *
+ * <p>
+ * The index file starts with a magic number, a format version, and the
+ * length and CRC-32 of the portfolio file it was saved with. It ends with a
+ * CRC-32 of everything before it. Loading maps the index file and uses it
+ * only if all of these match the portfolio file just read and the number of
+ * investments in it; otherwise the portfolio rebuilds its index and the next
+ * save replaces the stale file. Both indexes refer to investments by their
+ * position in the file:
+ * <pre>
+ *   int magic, int version, long data length, long data CRC, int investments
+ *   int keywords, then per keyword: int length, UTF-8 bytes, int count, int[count] positions
+ *   int symbols, then per symbol: int length, UTF-8 bytes, int position
+ *   long CRC of all the bytes above
+ * </pre>
+ */
+public final class PortfolioIndexFile {
+
+    private static final int MAGIC = 0x45504958; // "EPIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4;
+
+    private PortfolioIndexFile() {
+    }
+
+    /**
+     * Gets the index file that belongs to a portfolio file.
+     *
+     * @param dataFile the portfolio file
+     * @return the index file next to it
+     */
+    static File indexFileFor(File dataFile) {
+        return new File(dataFile.getPath() + ".index");
+    }
+
+    /**
+     * Writes the index of a portfolio file to a temporary file and moves it
+     * over the index file.
+     *
+     * @param indexFile the index file to write
+     * @param dataLength the length of the portfolio file
+     * @param dataCrc the CRC-32 of the portfolio file
+     * @param investments the investments in the order they were written
+     * @param keywordIndex the posting lists by keyword
+     * @param symbolIndex the investments by lower-case symbol
+     * @throws IOException if the index cannot be written
+     */
+    static void write(File indexFile, long dataLength, long dataCrc, ArrayList<Investment> investments,
+            Map<String, ArrayList<Integer>> keywordIndex, Map<String, Investment> symbolIndex) throws IOException {
+        File temporary = new File(indexFile.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(
+                new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16), crc))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(dataLength);
+            out.writeLong(dataCrc);
+            out.writeInt(investments.size());
+
+            out.writeInt(keywordIndex.size());
+            for (Map.Entry<String, ArrayList<Integer>> entry : keywordIndex.entrySet()) {
+                writeString(out, entry.getKey());
+                ArrayList<Integer> postings = entry.getValue();
+                out.writeInt(postings.size());
+                for (int position : postings) {
+                    out.writeInt(position);
+                }
+            }
+
+            // The symbol index keeps the first investment of each symbol, as in the file
+            ArrayList<String> symbolKeys = new ArrayList<>(symbolIndex.size());
+            int[] positions = new int[symbolIndex.size()];
+            for (int i = 0; i < investments.size() && symbolKeys.size() < positions.length; i++) {
+                String symbolKey = investments.get(i).getSymbol().toLowerCase(Locale.ROOT);
+                if (symbolIndex.get(symbolKey) == investments.get(i)) {
+                    positions[symbolKeys.size()] = i;
+                    symbolKeys.add(symbolKey);
+                }
+            }
+            out.writeInt(symbolKeys.size());
+            for (int s = 0; s < symbolKeys.size(); s++) {
+                writeString(out, symbolKeys.get(s));
+                out.writeInt(positions[s]);
+            }
+            // DataOutputStream does not buffer, so the checksum already covers every byte above
+            out.writeLong(crc.getValue());
+        }
+        Files.move(temporary.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Maps an index file and fills the keyword and symbol index from it if
+     * it belongs to the portfolio file just read.
+     *
+     * @param indexFile the index file to read
+     * @param dataLength the length of the portfolio file
+     * @param dataCrc the CRC-32 of the portfolio file
+     * @param investments the investments read from the portfolio file
+     * @param keywordIndex the empty keyword index to fill
+     * @param symbolIndex the empty symbol index to fill
+     * @return true if the indexes were filled, false if the index file is
+     * missing, stale or damaged and the indexes are left empty
+     */
+    static boolean read(File indexFile, long dataLength, long dataCrc, ArrayList<Investment> investments,
+            HashMap<String, ArrayList<Integer>> keywordIndex, HashMap<String, Investment> symbolIndex) {
+        if (!indexFile.isFile() || indexFile.length() < HEADER_BYTES + 8) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != dataLength
+                    || buffer.getLong() != dataCrc || buffer.getInt() != investments.size()) {
+                return false;
+            }
+            // Checked only once the header matches, since it reads the whole file
+            int payloadBytes = buffer.limit() - 8;
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate().position(0).limit(payloadBytes));
+            if (buffer.getLong(payloadBytes) != crc.getValue()) {
+                return false;
+            }
+
+            int keywords = buffer.getInt();
+            keywordIndex.clear();
+            for (int k = 0; k < keywords; k++) {
+                String keyword = readString(buffer);
+                int count = buffer.getInt();
+                ArrayList<Integer> postings = new ArrayList<>(count);
+                for (int p = 0; p < count; p++) {
+                    postings.add(checkPosition(buffer.getInt(), investments));
+                }
+                keywordIndex.put(keyword, postings);
+            }
+            int symbols = buffer.getInt();
+            symbolIndex.clear();
+            for (int s = 0; s < symbols; s++) {
+                String symbolKey = readString(buffer);
+                symbolIndex.put(symbolKey, investments.get(checkPosition(buffer.getInt(), investments)));
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // Unreadable, or damaged in a way the checksum missed; the caller rebuilds
+            keywordIndex.clear();
+            symbolIndex.clear();
+            return false;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int checkPosition(int position, ArrayList<Investment> investments) {
+        if (position < 0 || position >= investments.size()) {
+            throw new IndexOutOfBoundsException("Error: Index position " + position + " is out of range.");
+        }
+        return position;
+    }
+}
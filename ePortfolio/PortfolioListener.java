@@ -0,0 +1,82 @@
+package ePortfolio;
+
+/**
+ * Receives the changes made to a portfolio and its investments. Every method
+ * has an empty default, so listeners only implement the changes they care
+ * about.
+ *
+ * <p>
+ * Listeners are called synchronously on the thread that made the change,
+ * after the change has been applied. They should return quickly; a listener
+ * that updates a view should only note that the view is stale and refresh it
+ * later, as CoalescingRefresher does.
+ */
+public interface PortfolioListener {
+
+    /**
+     * Called after an investment has been added to the portfolio.
+     *
+     * @param investment the investment that was added
+     */
+    default void investmentAdded(Investment investment) {
+    }
+
+    /**
+     * Called after an investment has been removed from the portfolio.
+     *
+     * @param investment the investment that was removed
+     */
+    default void investmentRemoved(Investment investment) {
+    }
+
+    /**
+     * Called after the price of an investment has changed.
+     *
+     * @param investment the investment whose price changed
+     * @param oldPrice the price before the change
+     */
+    default void priceChanged(Investment investment, double oldPrice) {
+    }
+
+    /**
+     * Called after the quantity of an investment has changed.
+     *
+     * @param investment the investment whose quantity changed
+     * @param oldQuantity the quantity before the change
+     */
+    default void quantityChanged(Investment investment, int oldQuantity) {
+    }
+
+    /**
+     * Called after the book value of an investment has changed.
+     *
+     * @param investment the investment whose book value changed
+     * @param oldBookValue the book value before the change
+     */
+    default void bookValueChanged(Investment investment, double oldBookValue) {
+    }
+
+    /**
+     * Called after the exchange rate of a currency has been set through
+     * Portfolio.updateFxRate.
+     *
+     * @param currency the upper-case currency code
+     * @param oldRate the rate before the change, or NaN if there was none
+     */
+    default void fxRateChanged(String currency, double oldRate) {
+    }
+
+    /**
+     * Called after a buy or a sell has been applied, once the quantity,
+     * price and book value changes it caused have been reported, and before
+     * a fully sold investment is removed.
+     *
+     * @param investment the investment traded
+     * @param quantity the quantity bought, or minus the quantity sold
+     * @param price the price per unit of the trade
+     * @param amount the money put into the position, fees included, or
+     * minus the proceeds of a sale after fees
+     */
+    default void traded(Investment investment, int quantity, double price, double amount) {
+    }
+}
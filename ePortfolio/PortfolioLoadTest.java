@@ -0,0 +1,132 @@
+package ePortfolio;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load-test client for PortfolioServer. Several threads send a mix of
+ * requests (60% price updates, 15% gain queries, 15% buys, 10% searches)
+ * to a running server and the latency of every request is recorded. Prints
+ * the throughput and the latency percentiles, including p99.
+ *
+ * <p>
+ * The test buys LOAD0 to LOAD99 and trades them, and the server saves its
+ * portfolio when it stops, so run the server on a scratch copy of the file:
+ * <pre>
+ * cp investments.txt /tmp/loadtest.txt
+ * java ePortfolio.PortfolioServer /tmp/loadtest.txt 8080 &amp;
+ * java ePortfolio.PortfolioLoadTest 8080 50000 32
+ * </pre>
+ */
+public class PortfolioLoadTest {
+
+    private static final int SYMBOLS = 100;
+
+    /**
+     * Runs the load test.
+     *
+     * @param args args[0] is the server port (default 8080), args[1] the
+     * number of requests (default 20,000) and args[2] the number of client
+     * threads (default 16)
+     * @throws Exception if the client threads are interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : PortfolioServer.DEFAULT_PORT;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        String base = "http://127.0.0.1:" + port;
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        // Make sure the symbols used below exist
+        for (int s = 0; s < SYMBOLS; s++) {
+            send(client, base + "/buy?type=stock&symbol=LOAD" + s + "&name=Load+Test+" + s + "&quantity=100&price=10", true);
+        }
+
+        int perThread = requests / threads;
+        long[][] latencies = new long[threads][perThread];
+        AtomicInteger failures = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    int symbol = (i * 7 + thread) % SYMBOLS;
+                    int kind = (i * 13 + thread) % 20;
+                    String uri;
+                    boolean post = true;
+                    if (kind < 12) {
+                        uri = base + "/price?symbol=LOAD" + symbol + "&price=" + (5 + (i % 10));
+                    } else if (kind < 15) {
+                        uri = base + "/gain";
+                        post = false;
+                    } else if (kind < 18) {
+                        uri = base + "/buy?type=stock&symbol=LOAD" + symbol + "&name=Load+Test&quantity=1&price=" + (5 + (i % 10));
+                    } else {
+                        uri = base + "/search?keywords=load+test+" + symbol;
+                        post = false;
+                    }
+                    long sent = System.nanoTime();
+                    if (!send(client, uri, post)) {
+                        failures.incrementAndGet();
+                    }
+                    latencies[thread][i] = System.nanoTime() - sent;
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] all = new long[perThread * threads];
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(latencies[t], 0, all, t * perThread, perThread);
+        }
+        Arrays.sort(all);
+        System.out.printf("Requests: %,d from %d threads in %.2f s (%,.0f requests/s), failures: %d%n",
+                all.length, threads, seconds, all.length / seconds, failures.get());
+        System.out.printf("Latency p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+                percentile(all, 50), percentile(all, 90), percentile(all, 99), percentile(all, 99.9), all[all.length - 1] / 1e6);
+    }
+
+    /**
+     * Sends one request and reads the whole response.
+     *
+     * @param client the HTTP client
+     * @param uri the request URI
+     * @param post true for a POST, false for a GET
+     * @return true if the server answered with a 2xx status
+     */
+    private static boolean send(HttpClient client, String uri, boolean post) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(uri));
+        request = post ? request.POST(HttpRequest.BodyPublishers.noBody()).header(PortfolioServer.CLIENT_HEADER, "PortfolioLoadTest") : request.GET();
+        try {
+            HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+            return response.statusCode() / 100 == 2;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Gets a percentile of sorted latencies.
+     *
+     * @param sorted the latencies in nanoseconds, in ascending order
+     * @param percent the percentile to get
+     * @return the latency at that percentile in milliseconds
+     */
+    private static double percentile(long[] sorted, double percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+}
@@ -0,0 +1,773 @@
+package ePortfolio;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+
+/**
+ * Local HTTP API for booking trades and querying a live portfolio from other
+ * processes on the same machine. The server only listens on the loopback
+ * interface.
+ *
+ * <p>
+ * Trades go through a TradePipeline, so they are applied in order by its
+ * single writer no matter how many requests arrive at once. Queries
+ * synchronize on the portfolio. Parameters are passed in the query string,
+ * and every response is JSON:
+ * <pre>
+ * POST /buy?type=stock&amp;symbol=AAPL&amp;name=Apple+Inc.&amp;quantity=10&amp;price=150[&amp;currency=CAD]
+ * POST /sell?symbol=AAPL&amp;quantity=5&amp;price=160
+ * POST /price?symbol=AAPL&amp;price=155
+ * POST /fx?currency=CAD&amp;rate=0.73     (units of base currency per unit)
+ * GET  /gain                           (in the base currency, with the gain per foreign currency)
+ * GET  /search?keywords=apple[&amp;symbol=AAPL&amp;low=100&amp;high=200]   (streamed)
+ * GET  /investments                    (streamed)
+ * POST /batch   body: BatchRunner commands, one per line, not form-encoded (streamed)
+ * GET  /stats                          (search cache hit rate)
+ * POST /alert?symbol=AAPL&amp;above=160     (or below, gainAbove, gainBelow)
+ * POST /alert?remove=3
+ * GET  /alerts                         (the alerts fired most recently)
+ * GET  /valuations                     (streamed, one JSON line per update)
+ * GET  /performance[?symbol=AAPL]      (returns and drawdown since the server started)
+ * GET  /realized[?symbol=AAPL|type=stock]   (realized gain of the sales since the server started)
+ * </pre>
+ * Searches are answered from a SearchCache, alerts by an AlertEngine,
+ * valuation streams by a ValuationPublisher and performance by a
+ * PerformanceTracker. A sale answers with its proceeds, fee and gain as
+ * numbers next to the message, and /realized reads the portfolio's
+ * RealizedLedger.
+ * Messages that start with "Error" are answered with status 400.
+ *
+ * <p>
+ * The server only answers requests addressed to a loopback host name, so a
+ * web page cannot reach it through a host name of its own that resolves to
+ * the loopback address. The requests that change the portfolio or its
+ * alerts only accept a POST with the CLIENT_HEADER header and without a
+ * body an HTML form can send. A browser only sends such a request from a
+ * web page after asking the server, which never agrees, so a page open in
+ * a browser cannot book trades.
+ *
+ * <p>
+ * Each request runs on its own virtual thread when the JDK has them (21 and
+ * later) and on a cached thread pool otherwise. Valuation updates are
+ * delivered on a second executor of the same kind, since a slow /valuations
+ * client blocks its delivery thread while writing.
+ */
+public class PortfolioServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    // Header that requests changing the portfolio must carry, with any value
+    public static final String CLIENT_HEADER = "X-ePortfolio-Client";
+
+    // Positions copied per lock of the portfolio while streaming all investments
+    private static final int PAGE = 1000;
+    // Fired alerts kept for /alerts
+    private static final int RECENT_ALERTS = 100;
+
+    private final Portfolio portfolio;
+    private final TradePipeline pipeline;
+    private final String filename;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final SearchCache searchCache;
+    private final AlertEngine alertEngine;
+    private final ArrayDeque<String> firedAlerts = new ArrayDeque<>();
+    private final ValuationPublisher valuations;
+    // Delivers valuation updates; subscribers block on their sockets, so not the common pool
+    private final ExecutorService valuationExecutor;
+    private final PerformanceTracker performance;
+
+    /**
+     * Creates a server for a portfolio on a loopback port. The server does
+     * not accept requests until start is called.
+     *
+     * @param portfolio the portfolio to serve
+     * @param pipeline the pipeline that applies trades to the portfolio
+     * @param filename the file the "save" batch command writes to
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public PortfolioServer(Portfolio portfolio, TradePipeline pipeline, String filename, int port) throws IOException {
+        this.portfolio = portfolio;
+        this.pipeline = pipeline;
+        this.filename = filename;
+        searchCache = new SearchCache(portfolio);
+        alertEngine = new AlertEngine(portfolio);
+        alertEngine.addListener(this::alertTriggered);
+        valuationExecutor = newRequestExecutor();
+        valuations = new ValuationPublisher(portfolio, valuationExecutor, ValuationPublisher.DEFAULT_BUFFER_SIZE);
+        performance = new PerformanceTracker(portfolio);
+        // Without TCP_NODELAY the body of a small response waits for the delayed ACK of its headers (~40 ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/buy", exchange -> handle(exchange, this::buy, true, true));
+        server.createContext("/sell", exchange -> handle(exchange, this::sell, true, true));
+        server.createContext("/price", exchange -> handle(exchange, this::price, true, true));
+        server.createContext("/fx", exchange -> handle(exchange, this::fx, true, true));
+        server.createContext("/gain", exchange -> handle(exchange, this::gain, true, false));
+        server.createContext("/search", exchange -> handle(exchange, this::search, true, false));
+        server.createContext("/investments", exchange -> handle(exchange, this::investments, true, false));
+        server.createContext("/batch", exchange -> handle(exchange, this::batch, false, true));
+        server.createContext("/stats", exchange -> handle(exchange, this::stats, true, false));
+        server.createContext("/alert", exchange -> handle(exchange, this::alert, true, true));
+        server.createContext("/alerts", exchange -> handle(exchange, this::alerts, true, false));
+        server.createContext("/valuations", exchange -> handle(exchange, this::valuations, true, false));
+        server.createContext("/performance", exchange -> handle(exchange, this::performance, true, false));
+        server.createContext("/realized", exchange -> handle(exchange, this::realized, true, false));
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waiting up to a second for requests in
+     * progress.
+     */
+    public void stop() {
+        // Completes the valuation streams, which would otherwise keep their requests open
+        valuations.close();
+        server.stop(1);
+        executor.shutdown();
+        valuationExecutor.shutdown();
+    }
+
+    /**
+     * Gets the port the server listens on.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread, or a
+     * cached thread pool on JDKs without virtual threads. The method is looked
+     * up reflectively so the code still compiles for Java 11.
+     *
+     * @return the executor for requests
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Handles one endpoint of the API.
+     */
+    private interface Handler {
+
+        void handle(HttpExchange exchange, HashMap<String, String> parameters) throws IOException;
+    }
+
+    /**
+     * Checks the request, parses its parameters, runs its handler and turns
+     * bad parameters into a 400 response. Requests that change the portfolio
+     * must be POSTs with the CLIENT_HEADER header and without a body an HTML
+     * form can send, so neither a link nor a form or script on a web page
+     * can book a trade.
+     *
+     * @param formBody true if a form-encoded body of a query holds
+     * parameters, false if the handler reads the body itself
+     * @param mutating true if the handler changes the portfolio or its
+     * alerts
+     */
+    private void handle(HttpExchange exchange, Handler handler, boolean formBody, boolean mutating) throws IOException {
+        try {
+            String host = exchange.getRequestHeaders().getFirst("Host");
+            if (!isLoopbackHost(host)) {
+                send(exchange, 403, "{\"message\":" + quote("Error: Requests must be addressed to localhost, not '" + host + "'.") + "}");
+                return;
+            }
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (mutating) {
+                if (!exchange.getRequestMethod().equals("POST")) {
+                    exchange.getResponseHeaders().set("Allow", "POST");
+                    send(exchange, 405, "{\"message\":" + quote("Error: " + exchange.getRequestURI().getPath() + " only accepts POST.") + "}");
+                    return;
+                }
+                if (exchange.getRequestHeaders().getFirst(CLIENT_HEADER) == null) {
+                    send(exchange, 403, "{\"message\":" + quote("Error: " + exchange.getRequestURI().getPath() + " needs the " + CLIENT_HEADER + " header.") + "}");
+                    return;
+                }
+                if (contentType != null && isFormContentType(contentType)) {
+                    send(exchange, 415, "{\"message\":" + quote("Error: " + exchange.getRequestURI().getPath() + " does not accept " + contentType + " bodies.") + "}");
+                    return;
+                }
+            }
+            try {
+                HashMap<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+                if (formBody && !mutating && contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+                    parameters.putAll(parseParameters(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)));
+                }
+                handler.handle(exchange, parameters);
+            } catch (NumberFormatException e) {
+                sendMessage(exchange, "Error: Quantity and price must be valid numbers.");
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                sendMessage(exchange, e.getMessage());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Checks that a Host header names the loopback interface, with or
+     * without a port.
+     */
+    private static boolean isLoopbackHost(String host) {
+        if (host == null) {
+            return false;
+        }
+        String name = host.trim().toLowerCase(Locale.ROOT);
+        int port = name.startsWith("[") ? name.indexOf("]:") + 1 : name.indexOf(':');
+        if (port > 0) {
+            name = name.substring(0, port);
+        }
+        return name.equals("localhost") || name.equals("127.0.0.1") || name.equals("[::1]");
+    }
+
+    private void buy(HttpExchange exchange, HashMap<String, String> parameters) throws IOException {
+        sendResult(exchange, pipeline.buy(require(parameters, "type"), require(parameters, "symbol"), require(parameters, "name"),
+                Integer.parseInt(require(parameters, "quantity")), Double.parseDouble(require(parameters, "price")),
+                parameters.get("currency")));
+    }
+
+    private void sell(HttpExchange exchange, HashMap<String, String> parameters) throws IOException {
+        Future<TradeResult> future = pipeline.sell(require(parameters, "symbol"), Integer.parseInt(require(parameters, "quantity")),
+                Double.parseDouble(require(parameters, "price")));
+        TradeResult result = await(exchange, future);
+        if (result == null) {
+            return;
+        }
+        if (!result.isSold()) {
+            sendMessage(exchange, result.toString());
+            return;
+        }
+        send(exchange, 200, "{\"message\":" + quote(result.toString().trim())
+                + ",\"proceeds\":" + Portfolio.formatMoney(result.getProceeds())
+                + ",\"fee\":" + Portfolio.formatMoney(result.getFee())
+                + ",\"gain\":" + Portfolio.formatMoney(result.getGain())
+                + ",\"remainingQuantity\":" + result.getRemainingQuantity()
+                + ",\"removed\":" + result.isRemoved() + "}");
+    }
+
+    private void price(HttpExchange exchange, HashMap<String, String> parameters) throws IOException {
+        sendResult(exchange, pipeline.updatePrice(require(parameters, "symbol"), Double.parseDouble(require(parameters, "price"))));
+    }
+
+    private void fx(HttpExchange exchange, HashMap<String, String> parameters) throws IOException {
+        sendResult(exchange, pipeline.updateFxRate(require(parameters, "currency"), Double.parseDouble(require(parameters, "rate"))));
+    }
+
+    private void gain(HttpExchange exchange, HashMap<String, String> parameters) throws IOException {
+        StringBuilder json = new StringBuilder("{\"totalGain\":");
+        synchronized (portfolio) {
+            json.append(money(portfolio.getTotalGain()))
+                    .append(",\"investments\":").append(portfolio.getInvestments().size());
+            CurrencyGains gains = portfolio.getCurrencyGains();
+            ArrayList<String> currencies = gains.getCurrencies();
+            if (!currencies.isEmpty()) {
+                json.append(",\"currencies\":{");
+                for (int i = 0; i < currencies.size(); i++) {
+                    String currency = currencies.get(i);
+                    json.append(i == 0 ? "" : ",").append(quote(currency))
+                            .append(":{\"gain\":").append(Portfolio.formatMoney(gains.getGain(currency)))
+                            .append(",\"baseGain\":").append(money(gains.getBaseGain(currency))).append('}');
+                }
+                json.append('}');
+            }
+        }
+        send(exchange, 200, json.append('}').toString());
+    }
+
+    private void stats(HttpExchange exchange, HashMap<String, String> parameters) throws IOException {
+        send(exchange, 200, "{\"searchHits\":" + searchCache.getHits() + ",\"searchMisses\":" + searchCache.getMisses()
+                + ",\"searchInvalidations\":" + searchCache.getInvalidations()
+                + ",\"searchHitRate\":" + String.format(Locale.ROOT, "%.4f", searchCache.getHitRate()) + "}");
+    }
+
+    /**
+     * Adds a price or gain alert, or removes one by id.
+     */
+    private void alert(HttpExchange exchange, HashMap<String, String> parameters) throws IOException {
+        if (parameters.containsKey("remove")) {
+            boolean removed = alertEngine.removeAlert(Long.parseLong(require(parameters, "remove")));
+            sendMessage(exchange, removed ? "Alert removed." : "Error: No alert found with id " + parameters.get("remove").trim() + ".");
+            return;
+        }
+        String symbol = require(parameters, "symbol");
+        long id;
+        if (parameters.containsKey("above")) {
+            id = alertEngine.addPriceAlert(symbol, true, Double.parseDouble(require(parameters, "above")));
+        } else if (parameters.containsKey("below")) {
+            id = alertEngine.addPriceAlert(symbol, false, Double.parseDouble(require(parameters, "below")));
+        } else if (parameters.containsKey("gainAbove")) {
+            id = alertEngine.addGainAlert(symbol, true, Double.parseDouble(require(parameters, "gainAbove")));
+        } else if (parameters.containsKey("gainBelow")) {
+            id = alertEngine.addGainAlert(symbol, false, Double.parseDouble(require(parameters, "gainBelow")));
+        } else {
+            throw new IllegalArgumentException("Error: Missing parameter 'above', 'below', 'gainAbove' or 'gainBelow'.");
+        }
+        send(exchange, 200, "{\"id\":" + id + "}");
+    }
+
+    private void alerts(HttpExchange exchange, HashMap<String, String> parameters) throws IOException {
+        String json;
+        synchronized (firedAlerts) {
+            json = "[" + String.join(",\n", firedAlerts) + "]\n";
+        }
+        send(exchange, 200, json);
+    }
+
+    private void performance(HttpExchange exchange, HashMap<String, String> parameters) throws IOException {
+        String symbol = parameters.get("symbol");
+        PerformanceTracker.Performance result = symbol == null ? performance.getPerformance() : performance.getPerformance(symbol.trim());
+        if (result == null) {
+            throw new IllegalArgumentException("Error: No investment found with symbol '" + symbol.trim() + "'.");
+        }
+        send(exchange, 200, String.format(Locale.ROOT, "{\"value\":%s,\"netInvested\":%s,\"timeWeightedReturn\":%.6f,"
+                + "\"moneyWeightedReturn\":%.6f,\"drawdown\":%.6f,\"maxDrawdown\":%.6f}",
+                Portfolio.formatMoney(result.getValue()), Portfolio.formatMoney(result.getNetInvested()), result.getTimeWeightedReturn(),
+                result.getMoneyWeightedReturn(), result.getDrawdown(), result.getMaxDrawdown()));
+    }
+
+    private void realized(HttpExchange exchange, HashMap<String, String> parameters) throws IOException {
+        String symbol = parameters.get("symbol");
+        String type = parameters.get("type");
+        RealizedLedger.Totals totals;
+        synchronized (portfolio) {
+            RealizedLedger ledger = portfolio.getRealizedLedger();
+            totals = symbol != null ? ledger.getTotals(symbol.trim()) : type != null ? ledger.getTotalsByType(type.trim()) : ledger.getTotals();
+        }
+        if (totals == null) {
+            throw new IllegalArgumentException("Error: No sales found for symbol '" + symbol.trim() + "'.");
+        }
+        send(exchange, 200, "{\"sales\":" + totals.getSales() + ",\"quantity\":" + totals.getQuantity()
+                + ",\"proceeds\":" + Portfolio.formatMoney(totals.getProceeds())
+                + ",\"fees\":" + Portfolio.formatMoney(totals.getFees())
+                + ",\"gain\":" + Portfolio.formatMoney(totals.getGain()) + "}");
+    }
+
+    /**
+     * Streams valuation updates as JSON lines until the client disconnects
+     * or the server stops: first every position, then the positions whose
+     * gain changed. Updates are requested one at a time as they are written,
+     * so a slow client receives merged updates instead of a growing backlog.
+     */
+    private void valuations(HttpExchange exchange, HashMap<String, String> parameters) throws IOException {
+        CountDownLatch done = new CountDownLatch(1);
+        try (Writer out = startStream(exchange)) {
+            valuations.subscribe(new Flow.Subscriber<ValuationPublisher.Update>() {
+                private Flow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(ValuationPublisher.Update update) {
+                    try {
+                        out.write(toJson(update));
+                        out.write('\n');
+                        out.flush();
+                        subscription.request(1);
+                    } catch (IOException e) {
+                        // The client went away
+                        subscription.cancel();
+                        done.countDown();
+                    }
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    done.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    done.countDown();
+                }
+            });
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Converts a valuation update to a JSON object.
+     *
+     * @param update the update to convert
+     * @return the JSON text of the update
+     */
+    static String toJson(ValuationPublisher.Update update) {
+        StringBuilder json = new StringBuilder("{\"sequence\":").append(update.getSequence())
+                .append(",\"snapshot\":").append(update.isSnapshot())
+                .append(",\"totalGain\":").append(Portfolio.formatMoney(update.getTotalGain()))
+                .append(",\"changes\":[");
+        for (int i = 0; i < update.getChanges().size(); i++) {
+            ValuationPublisher.PositionGain change = update.getChanges().get(i);
+            json.append(i == 0 ? "" : ",").append("{\"symbol\":").append(quote(change.getSymbol()))
+                    .append(",\"gain\":").append(Portfolio.formatMoney(change.getGain()))
+                    .append(",\"change\":").append(Portfolio.formatMoney(change.getChange()));
+            if (change.isRemoved()) {
+                json.append(",\"removed\":true");
+            }
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Keeps a fired alert for /alerts, dropping the oldest beyond
+     * RECENT_ALERTS.
+     */
+    private void alertTriggered(AlertEngine.Alert alert, Investment investment, double oldPrice) {
+        String json = "{\"id\":" + alert.getId() + ",\"alert\":" + quote(alert.toString())
+                + ",\"oldPrice\":" + number(oldPrice) + ",\"price\":" + number(investment.getPrice()) + "}";
+        synchronized (firedAlerts) {
+            if (firedAlerts.size() == RECENT_ALERTS) {
+                firedAlerts.removeFirst();
+            }
+            firedAlerts.addLast(json);
+        }
+    }
+
+    /**
+     * Streams the investments matching the keywords as a JSON array,
+     * optionally only those with a symbol and a price between low and high.
+     */
+    private void search(HttpExchange exchange, HashMap<String, String> parameters) throws IOException {
+        String keywords = require(parameters, "keywords");
+        double low = parameters.containsKey("low") ? Double.parseDouble(require(parameters, "low")) : Double.NEGATIVE_INFINITY;
+        double high = parameters.containsKey("high") ? Double.parseDouble(require(parameters, "high")) : Double.POSITIVE_INFINITY;
+        ArrayList<Investment> matches = searchCache.search(keywords, parameters.get("symbol"), low, high);
+        ArrayList<String> results = new ArrayList<>();
+        synchronized (portfolio) {
+            for (Investment investment : matches) {
+                results.add(toJson(investment));
+            }
+        }
+        try (Writer out = startStream(exchange)) {
+            out.write('[');
+            for (int i = 0; i < results.size(); i++) {
+                if (i > 0) {
+                    out.write(",\n");
+                }
+                out.write(results.get(i));
+            }
+            out.write("]\n");
+        }
+    }
+
+    /**
+     * Streams every investment as a JSON array. The portfolio is locked one
+     * page at a time, so trades keep flowing while a large book is sent, and
+     * the result is not a consistent snapshot if trades happen meanwhile.
+     */
+    private void investments(HttpExchange exchange, HashMap<String, String> parameters) throws IOException {
+        try (Writer out = startStream(exchange)) {
+            out.write('[');
+            ArrayList<String> page = new ArrayList<>(PAGE);
+            for (int from = 0; ; from += PAGE) {
+                page.clear();
+                synchronized (portfolio) {
+                    ArrayList<Investment> investments = portfolio.getInvestments();
+                    for (int i = from; i < Math.min(from + PAGE, investments.size()); i++) {
+                        page.add(toJson(investments.get(i)));
+                    }
+                }
+                if (page.isEmpty()) {
+                    break;
+                }
+                for (int i = 0; i < page.size(); i++) {
+                    if (from + i > 0) {
+                        out.write(",\n");
+                    }
+                    out.write(page.get(i));
+                }
+            }
+            out.write("]\n");
+        }
+    }
+
+    /**
+     * Runs the BatchRunner commands in the request body as one atomic batch
+     * and streams one JSON object per command. The body must have a content
+     * type, and handle has already refused the ones an HTML form can send.
+     */
+    private void batch(HttpExchange exchange, HashMap<String, String> parameters) throws IOException {
+        if (exchange.getRequestHeaders().getFirst("Content-Type") == null) {
+            send(exchange, 415, "{\"message\":\"Error: Send the batch with a Content-Type such as text/x-ePortfolio-batch.\"}");
+            return;
+        }
+        ArrayList<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+
+        ArrayList<String> results = new ArrayList<>();
+        BatchRunner runner = new BatchRunner(portfolio, filename);
+        // Holding the monitor keeps the pipeline's writer out, so the batch is applied as a whole
+        synchronized (portfolio) {
+            for (String line : lines) {
+                StringBuilder result = new StringBuilder();
+                if (runner.execute(line, result)) {
+                    results.add("{\"command\":" + quote(line.trim()) + ",\"result\":" + quote(result.toString()) + "}");
+                }
+            }
+        }
+        try (Writer out = startStream(exchange)) {
+            out.write('[');
+            for (int i = 0; i < results.size(); i++) {
+                if (i > 0) {
+                    out.write(",\n");
+                }
+                out.write(results.get(i));
+            }
+            out.write("]\n");
+        }
+    }
+
+    /**
+     * Checks whether a content type is one that an HTML form, or a browser
+     * request without a CORS preflight, can send.
+     */
+    private static boolean isFormContentType(String contentType) {
+        String type = contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+        return type.isEmpty() || type.equals("application/x-www-form-urlencoded") || type.equals("multipart/form-data")
+                || type.equals("text/plain");
+    }
+
+    /**
+     * Waits for a trade to be applied and sends its message.
+     */
+    private static void sendResult(HttpExchange exchange, Future<String> result) throws IOException {
+        String message = await(exchange, result);
+        if (message != null) {
+            sendMessage(exchange, message);
+        }
+    }
+
+    /**
+     * Waits for a trade to be applied. If it failed or the wait was
+     * interrupted, the error is sent as the response.
+     *
+     * @return the result of the trade, or null if a response was sent
+     */
+    private static <T> T await(HttpExchange exchange, Future<T> result) throws IOException {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            // Report the exception's class if it has no message
+            Throwable cause = e.getCause();
+            sendMessage(exchange, cause.getMessage() != null ? cause.getMessage() : cause.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, "{\"message\":\"Error: The request was interrupted.\"}");
+        }
+        return null;
+    }
+
+    /**
+     * Sends a portfolio message, with status 400 if it reports an error.
+     */
+    private static void sendMessage(HttpExchange exchange, String message) throws IOException {
+        String text = message.trim();
+        send(exchange, text.startsWith("Error") ? 400 : 200, "{\"message\":" + quote(text) + "}");
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Starts a chunked JSON response whose length is not known in advance.
+     */
+    private static Writer startStream(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        return new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 1 << 14);
+    }
+
+    private static String require(HashMap<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Error: Missing parameter '" + name + "'.");
+        }
+        return value.trim();
+    }
+
+    private static HashMap<String, String> parseParameters(String query) {
+        HashMap<String, String> parameters = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            try {
+                parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Error: Invalid escape in parameter '" + pair + "'.");
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Converts an investment to a JSON object.
+     *
+     * @param investment the investment to convert
+     * @return the JSON text of the investment
+     */
+    static String toJson(Investment investment) {
+        return "{\"type\":\"" + (investment instanceof MutualFund ? "mutualfund" : "stock")
+                + "\",\"symbol\":" + quote(investment.getSymbol())
+                + ",\"name\":" + quote(investment.getName())
+                + ",\"quantity\":" + investment.getQuantity()
+                + ",\"price\":" + number(investment.getPrice())
+                + ",\"bookValue\":" + Portfolio.formatMoney(investment.getBookValue())
+                + (investment.getCurrency() == null ? "" : ",\"currency\":\"" + investment.getCurrency() + "\"") + "}";
+    }
+
+    /**
+     * Formats an amount in the base currency as a JSON number, or null if
+     * it is unknown because a currency has no exchange rate.
+     */
+    private static String money(double amount) {
+        return Double.isNaN(amount) ? "null" : Portfolio.formatMoney(amount);
+    }
+
+    /**
+     * Formats a number as JSON, or null if it is NaN or infinite, which
+     * JSON cannot represent.
+     */
+    private static String number(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+    }
+
+    /**
+     * Quotes a string as a JSON string literal.
+     *
+     * @param text the text to quote
+     * @return the JSON string literal
+     */
+    static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Loads a portfolio and serves it until the process is stopped, then
+     * applies the queued trades and saves it.
+     *
+     * @param args args[0] is the portfolio file and the optional args[1] the
+     * port (default 8080)
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java ePortfolio.PortfolioServer <portfolio file> [port]\n");
+            return;
+        }
+        System.setProperty("java.awt.headless", "true");
+        String filename = args[0];
+        Portfolio portfolio = new Portfolio();
+        portfolio.loadFromFile(filename);
+        portfolio.setPriceHistory(PriceHistory.openConfigured());
+        TradePipeline pipeline = new TradePipeline(portfolio);
+        PortfolioFileWatcher watcher = PortfolioFileWatcher.startConfigured(portfolio, filename);
+        ReplicationPrimary replication = ReplicationPrimary.startConfigured(portfolio);
+
+        PortfolioServer server;
+        try {
+            server = new PortfolioServer(portfolio, pipeline, filename, args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT);
+        } catch (IOException e) {
+            System.out.println("Error starting server: " + e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            if (watcher != null) {
+                watcher.close();
+            }
+            if (replication != null) {
+                replication.close();
+            }
+            pipeline.close();
+            synchronized (portfolio) {
+                portfolio.saveToFile(filename);
+                if (portfolio.getPriceHistory() != null) {
+                    try {
+                        portfolio.getPriceHistory().close();
+                    } catch (IOException e) {
+                        System.out.println("Error closing price history: " + e.getMessage());
+                    }
+                }
+            }
+        }));
+        server.start();
+        System.out.println("Serving " + filename + " on http://127.0.0.1:" + server.getPort() + "/");
+    }
+}
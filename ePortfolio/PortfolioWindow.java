@@ -0,0 +1,920 @@
+package ePortfolio;
+
+import java.awt.*;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+
+/**
+ * The Swing window of the ePortfolio application. It is kept apart from
+ * Portfolio so that headless users of the portfolio, such as BatchRunner,
+ * never load AWT or Swing classes.
+ *
+ * <p>
+ * Only the welcome panel is built before the window appears. The portfolio is
+ * loaded in the background while the welcome screen shows, and every other
+ * panel is built the first time it is navigated to. Setting the system
+ * property ePortfolio.startupTiming prints the time to the first frame, and
+ * ePortfolio.exitAfterStartup exits once startup is complete without saving,
+ * which is used to train the class-data sharing archive (see appcds.sh).
+ */
+public class PortfolioWindow {
+
+    public static final int WIDTH = 600;
+    public static final int HEIGHT = 400;
+
+    private static final String BUY = "Buy";
+    private static final String SELL = "Sell";
+    private static final String UPDATE = "Update";
+    private static final String SEARCH = "Search";
+    private static final String GAIN = "Get Gain";
+    private static final String[] COMMANDS = {BUY, SELL, UPDATE, SEARCH, GAIN};
+
+    private static final String WELCOME_TEXT = "Welcome to ePortfolio!\n\n\n\n\nChoose a command from the “Commands” menu to buy or sell an investment, update prices for all investments, get gain for the portfolio, search for relevant investments, or quit the program.";
+
+    // Panels that have been built so far, keyed by the command that shows them
+    private static final LinkedHashMap<String, JPanel> panels = new LinkedHashMap<>();
+    private static JFrame window;
+    private static JPanel mainPanel;
+    private static JPanel welcomePanel;
+    private static JTextArea welcomeArea;
+    // The Messages area of each panel that has one, keyed by its command
+    private static final HashMap<String, JTextArea> messageAreas = new HashMap<>();
+    // The result of the last undo or redo while the gain panel shows, kept above the individual gains
+    private static String gainNotice;
+    private static boolean loaded = false;
+    private static int currentIndex = 0;
+
+    private static JTextField updateSymbolField;
+    private static JTextField updateQuantityField;
+    private static JTextField updatePriceField;
+    private static JTextArea updateMessagesArea;
+
+    public static JTextField gainSymbolField;
+    public static JTextArea gainMessagesArea;
+    private static JTextArea gainMoversArea;
+    // Orders the investments by gain once the portfolio is loaded
+    private static GainTracker gainTracker;
+    private static final int MOVERS = 20;
+    // Applies buys and sells off the event dispatch thread once the portfolio is loaded
+    private static TradePipeline pipeline;
+    // Applies changes other programs make to the portfolio file, if enabled
+    private static PortfolioFileWatcher watcher;
+    // Answers repeated searches once the portfolio is loaded
+    private static SearchCache searchCache;
+    // Undoes and redoes the commands applied once the portfolio is loaded
+    private static UndoHistory undoHistory;
+    private static JMenuItem undoItem;
+    private static JMenuItem redoItem;
+
+    public static int getCurrentIndex() {
+        return currentIndex;
+    }
+
+    public static void setCurrentIndex(int index) {
+        currentIndex = index;
+    }
+
+    /**
+     * Shows the application window and loads the portfolio from the file in
+     * the background. The commands are enabled once loading has finished, and
+     * the portfolio is saved back to the file when the window is closed.
+     *
+     * @param portfolio the empty portfolio to load, display and modify
+     * @param filename the file the portfolio is loaded from and saved to
+     */
+    public static void open(Portfolio portfolio, String filename) {
+        SwingUtilities.invokeLater(() -> createWindow(portfolio, filename));
+    }
+
+    /**
+     * Builds the frame, menu and welcome panel, shows the frame and starts
+     * loading the portfolio. Must be called on the event dispatch thread.
+     *
+     * @param portfolio the portfolio to load, display and modify
+     * @param filename the file the portfolio is loaded from and saved to
+     */
+    private static void createWindow(Portfolio portfolio, String filename) {
+        window = new JFrame();
+        window.setSize(WIDTH, HEIGHT);
+        window.setTitle("ePortfolio");
+        window.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        window.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                if (Boolean.getBoolean("ePortfolio.startupTiming")) {
+                    System.out.println("Time to first frame: " + millisSinceStart() + " ms");
+                }
+                exitIfStartupComplete();
+            }
+
+            @Override
+            public void windowClosing(WindowEvent e) {
+                System.out.println("Program is closing...\n");
+                // Saving before the load finished would overwrite the file with a partial portfolio
+                if (loaded) {
+                    System.out.println("Saving portfolio to the file...\n");
+                    save(portfolio, filename);
+                }
+                window.dispose();
+            }
+        });
+        window.setLayout(new BorderLayout());
+
+        JMenuBar menuBar = new JMenuBar();
+        JMenu commandsMenu = new JMenu("Commands");
+        ArrayList<JMenuItem> commandItems = new ArrayList<>();
+        for (String command : COMMANDS) {
+            JMenuItem item = new JMenuItem(command);
+            item.addActionListener(e -> showPanel(command, portfolio));
+            // Commands stay disabled until the portfolio has been loaded
+            item.setEnabled(false);
+            commandItems.add(item);
+            commandsMenu.add(item);
+        }
+
+        JMenuItem quitItem = new JMenuItem("Quit");
+        quitItem.addActionListener(e -> {
+            if (loaded) {
+                System.out.println("Saving portfolio and exiting...\n");
+                save(portfolio, filename);
+            }
+            System.exit(0);
+        });
+        commandsMenu.add(quitItem);
+        menuBar.add(commandsMenu);
+
+        JMenu editMenu = new JMenu("Edit");
+        int shortcut = Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
+        undoItem = new JMenuItem("Undo");
+        undoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, shortcut));
+        undoItem.addActionListener(e -> {
+            String message = undoHistory.undo();
+            clampCurrentInvestment(portfolio);
+            showEditMessage(message, portfolio);
+            refreshEditItems();
+        });
+        redoItem = new JMenuItem("Redo");
+        redoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, shortcut));
+        redoItem.addActionListener(e -> {
+            String message = undoHistory.redo();
+            clampCurrentInvestment(portfolio);
+            showEditMessage(message, portfolio);
+            refreshEditItems();
+        });
+        // Enabled once the portfolio has been loaded and there is something to undo or redo
+        undoItem.setEnabled(false);
+        redoItem.setEnabled(false);
+        editMenu.add(undoItem);
+        editMenu.add(redoItem);
+        menuBar.add(editMenu);
+
+        JTextArea textArea = new JTextArea("Loading portfolio from " + filename + "...");
+        textArea.setEditable(false); 
+        textArea.setFont(new Font("Arial", Font.PLAIN, 16));
+        textArea.setLineWrap(true);
+        textArea.setWrapStyleWord(true);
+        textArea.setAlignmentX(Component.CENTER_ALIGNMENT);
+        textArea.setBorder(new EmptyBorder(80, 20, 20, 20));
+        welcomeArea = textArea;
+
+        mainPanel = new JPanel();
+        mainPanel.setLayout(new BoxLayout(mainPanel, BoxLayout.Y_AXIS));
+
+        welcomePanel = new JPanel(new BorderLayout());
+        welcomePanel.add(textArea, BorderLayout.CENTER);
+        mainPanel.add(welcomePanel);
+
+        window.setJMenuBar(menuBar);
+        window.add(mainPanel);
+        window.validate();
+        window.setVisible(true);
+
+        // Load the portfolio off the event dispatch thread while the welcome screen shows
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                portfolio.loadFromFile(filename);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                loaded = true;
+                pipeline = new TradePipeline(portfolio);
+                // Registered only now, so the load itself does not trigger refreshes
+                gainTracker = new GainTracker(portfolio);
+                searchCache = new SearchCache(portfolio);
+                undoHistory = new UndoHistory(portfolio);
+                portfolio.addListener(new CoalescingRefresher(() -> refreshLiveViews(portfolio)));
+                watcher = PortfolioFileWatcher.startConfigured(portfolio, filename);
+                textArea.setText(WELCOME_TEXT);
+                for (JMenuItem item : commandItems) {
+                    item.setEnabled(true);
+                }
+                if (Boolean.getBoolean("ePortfolio.startupTiming")) {
+                    System.out.println("Portfolio loaded after: " + millisSinceStart() + " ms");
+                }
+                exitIfStartupComplete();
+            }
+        }.execute();
+    }
+
+    /**
+     * Applies the trades still queued in the pipeline and saves the portfolio.
+     *
+     * @param portfolio the portfolio to save
+     * @param filename the file the portfolio is saved to
+     */
+    private static void save(Portfolio portfolio, String filename) {
+        if (watcher != null) {
+            watcher.close();
+        }
+        pipeline.close();
+        synchronized (portfolio) {
+            portfolio.saveToFile(filename);
+        }
+    }
+
+    /**
+     * Shows the panel of the given command, building it first if this is the
+     * first time it is shown, and refreshes the panels whose content depends
+     * on the current state of the portfolio.
+     *
+     * @param command the command whose panel to show
+     * @param portfolio the portfolio shown by the panel
+     */
+    private static void showPanel(String command, Portfolio portfolio) {
+        JPanel panel = panels.get(command);
+        if (panel == null) {
+            panel = buildPanel(command, portfolio);
+            panels.put(command, panel);
+            mainPanel.add(panel);
+        }
+
+        welcomePanel.setVisible(false);
+        gainNotice = null;
+        for (JPanel other : panels.values()) {
+            other.setVisible(other == panel);
+        }
+        window.validate();
+
+        // The trade pipeline changes the portfolio on its own thread, so read it under its monitor
+        synchronized (portfolio) {
+            if (command.equals(UPDATE)) {
+                showCurrentInvestment(portfolio);
+            } else if (command.equals(GAIN)) {
+                showGain(portfolio);
+            }
+        }
+    }
+
+    /**
+     * Shows the total and individual gains of the portfolio in the gain panel.
+     *
+     * @param portfolio the portfolio whose gains are shown
+     */
+    private static void showGain(Portfolio portfolio) {
+        double totalGain = portfolio.getTotalGain();
+        gainSymbolField.setText(Double.toString(totalGain));
+        gainMessagesArea.setText(gainNotice == null ? portfolio.getIndividualGains() : gainNotice + "\n" + portfolio.getIndividualGains());
+        if (gainTracker != null) {
+            StringBuilder movers = new StringBuilder("Top gainers:\n");
+            appendMovers(movers, gainTracker.getTopGainers(MOVERS));
+            movers.append("\nTop losers:\n");
+            appendMovers(movers, gainTracker.getTopLosers(MOVERS));
+            gainMoversArea.setText(movers.toString());
+            gainMoversArea.setCaretPosition(0);
+        }
+    }
+
+    /**
+     * Appends one line per investment with its gain and percentage gain.
+     *
+     * @param text where the lines are appended
+     * @param investments the investments to list
+     */
+    private static void appendMovers(StringBuilder text, ArrayList<Investment> investments) {
+        for (Investment investment : investments) {
+            text.append(String.format("%s: $%.2f (%+.1f%%)\n", investment.getSymbol(),
+                    GainTracker.gainOf(investment), GainTracker.percentGainOf(investment)));
+        }
+    }
+
+    /**
+     * Brings the visible panel up to date after the portfolio changed. The
+     * gain panel is recomputed; the update panel only refreshes the fields the
+     * user cannot edit, so a price being typed is not overwritten, unless
+     * the investment shown is gone. Called by the CoalescingRefresher at most
+     * once per frame.
+     *
+     * @param portfolio the portfolio that changed
+     */
+    private static void refreshLiveViews(Portfolio portfolio) {
+        synchronized (portfolio) {
+            JPanel gainPanel = panels.get(GAIN);
+            if (gainPanel != null && gainPanel.isVisible()) {
+                showGain(portfolio);
+            }
+            JPanel updatePanel = panels.get(UPDATE);
+            if (updatePanel != null && updatePanel.isVisible()) {
+                if (getCurrentIndex() < portfolio.getInvestments().size()) {
+                    Investment invest = portfolio.getInvestments().get(getCurrentIndex());
+                    updateSymbolField.setText(invest.getSymbol());
+                    updateQuantityField.setText(Integer.toString(invest.getQuantity()));
+                } else {
+                    clampCurrentInvestment(portfolio);
+                }
+            }
+        }
+        refreshEditItems();
+    }
+
+    /**
+     * Moves the update panel to the last investment if the list shrank
+     * below the current index, as an undo, redo or reload of the file can
+     * make it.
+     *
+     * @param portfolio the portfolio whose investments are shown
+     */
+    private static void clampCurrentInvestment(Portfolio portfolio) {
+        synchronized (portfolio) {
+            JPanel updatePanel = panels.get(UPDATE);
+            int length = portfolio.getInvestments().size();
+            if (updatePanel != null && updatePanel.isVisible() && getCurrentIndex() >= length) {
+                setCurrentIndex(Math.max(0, length - 1));
+                showCurrentInvestment(portfolio);
+            }
+        }
+    }
+
+    /**
+     * Shows the result of an undo or redo in the Messages area of the
+     * visible panel, above the individual gains on the gain panel, or on the
+     * welcome screen.
+     *
+     * @param message the result to show
+     * @param portfolio the portfolio, to refresh the gain panel
+     */
+    private static void showEditMessage(String message, Portfolio portfolio) {
+        for (Map.Entry<String, JPanel> entry : panels.entrySet()) {
+            if (!entry.getValue().isVisible()) {
+                continue;
+            }
+            if (entry.getKey().equals(GAIN)) {
+                gainNotice = message;
+                synchronized (portfolio) {
+                    showGain(portfolio);
+                }
+            } else {
+                messageAreas.get(entry.getKey()).setText(message);
+            }
+            return;
+        }
+        welcomeArea.setText(message + "\n" + WELCOME_TEXT);
+    }
+
+    /**
+     * Enables the Undo and Redo menu items if there is a command to undo or
+     * redo.
+     */
+    private static void refreshEditItems() {
+        if (undoHistory != null) {
+            undoItem.setEnabled(undoHistory.getUndoCount() > 0);
+            redoItem.setEnabled(undoHistory.getRedoCount() > 0);
+        }
+    }
+
+    /**
+     * Builds the panel of the given command.
+     *
+     * @param command the command whose panel to build
+     * @param portfolio the portfolio the panel operates on
+     * @return the new panel
+     */
+    private static JPanel buildPanel(String command, Portfolio portfolio) {
+        switch (command) {
+            case BUY:
+                return buildBuyPanel(portfolio);
+            case SELL:
+                return buildSellPanel(portfolio);
+            case UPDATE:
+                return buildUpdatePanel(portfolio);
+            case SEARCH:
+                return buildSearchPanel(portfolio);
+            default:
+                return buildGainPanel();
+        }
+    }
+
+    /**
+     * Shows the investment at the current index in the update panel. The
+     * index wraps around in both directions, and an empty portfolio leaves
+     * the fields blank instead of failing.
+     *
+     * @param portfolio the portfolio whose investments are shown
+     */
+    private static void showCurrentInvestment(Portfolio portfolio) {
+        int length = portfolio.getInvestments().size();
+        if (length == 0) {
+            setCurrentIndex(0);
+            updateSymbolField.setText("");
+            updateQuantityField.setText("");
+            updatePriceField.setText("");
+            updateMessagesArea.setText("There are no investments to update.\n");
+            return;
+        }
+        setCurrentIndex(((getCurrentIndex() % length) + length) % length);
+        Investment invest = portfolio.getInvestments().get(getCurrentIndex());
+        updateSymbolField.setText(invest.getSymbol());
+        updateQuantityField.setText(Integer.toString(invest.getQuantity()));
+        updatePriceField.setText(Double.toString(invest.getPrice()));
+    }
+
+    /**
+     * Returns the milliseconds elapsed since the JVM process started.
+     *
+     * @return the elapsed milliseconds, or -1 if the start time is unknown
+     */
+    private static long millisSinceStart() {
+        return ProcessHandle.current().info().startInstant()
+                .map(start -> Duration.between(start, Instant.now()).toMillis())
+                .orElse(-1L);
+    }
+
+    /**
+     * Exits without saving once the first frame is shown and the portfolio is
+     * loaded, if ePortfolio.exitAfterStartup is set. The remaining panels are
+     * built first so that a class-data sharing training run sees their
+     * classes too.
+     */
+    private static void exitIfStartupComplete() {
+        if (!Boolean.getBoolean("ePortfolio.exitAfterStartup") || !loaded || !window.isShowing()) {
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            for (String command : COMMANDS) {
+                if (!panels.containsKey(command)) {
+                    panels.put(command, buildPanel(command, new Portfolio()));
+                }
+            }
+            System.exit(0);
+        });
+    }
+
+    /**
+     * Builds the panel for buying investments.
+     *
+     * @param portfolio the portfolio the panel operates on
+     *
+     * @return the new panel
+     */
+    private static JPanel buildBuyPanel(Portfolio portfolio) {
+        // <<<<< BUY PANEL >>>>>
+        JPanel buyPanel = new JPanel();
+        buyPanel.setBorder(BorderFactory.createTitledBorder("Buying an investment"));
+        buyPanel.setLayout(new BoxLayout(buyPanel, BoxLayout.Y_AXIS));
+        JPanel buyPanelTop = new JPanel(new BorderLayout());
+        
+        JPanel buyInputPanel = new JPanel(new GridLayout(5, 2, 5, 5));
+        buyInputPanel.add(new JLabel("Type:"));
+        JComboBox<String> typeDropdown = new JComboBox<>(new String[]{"stock", "mutualfund"});
+        buyInputPanel.add(typeDropdown);
+        buyInputPanel.add(new JLabel("Symbol:"));
+        JTextField symbolField = new JTextField();
+        buyInputPanel.add(symbolField);
+        buyInputPanel.add(new JLabel("Name:"));
+        JTextField nameField = new JTextField();
+        buyInputPanel.add(nameField);
+        buyInputPanel.add(new JLabel("Quantity:"));
+        JTextField quantityField = new JTextField();
+        buyInputPanel.add(quantityField);
+        buyInputPanel.add(new JLabel("Price:"));
+        JTextField priceField = new JTextField();
+        buyInputPanel.add(priceField);
+
+        JPanel buyButtonPanel = new JPanel();
+        buyButtonPanel.setLayout(new BoxLayout(buyButtonPanel, BoxLayout.Y_AXIS));
+        JButton resetButton = new JButton("Reset");
+        JButton buyButton = new JButton("Buy");
+        resetButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        buyButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        buyButtonPanel.add(Box.createVerticalGlue()); 
+        buyButtonPanel.add(resetButton);
+        buyButtonPanel.add(Box.createRigidArea(new Dimension(0, 10))); 
+        buyButtonPanel.add(buyButton);
+        buyButtonPanel.add(Box.createVerticalGlue()); 
+
+        JPanel buyTextPanel = new JPanel(new BorderLayout());
+        buyTextPanel.setBorder(BorderFactory.createTitledBorder("Messages"));
+        JTextArea messagesArea = new JTextArea();
+        messagesArea.setEditable(false); 
+        messageAreas.put(BUY, messagesArea);
+        JScrollPane scrollPane = new JScrollPane(messagesArea, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        buyTextPanel.add(scrollPane, BorderLayout.CENTER);
+
+        buyPanelTop.add(buyInputPanel, BorderLayout.CENTER);
+        buyPanelTop.add(buyButtonPanel, BorderLayout.EAST);
+        buyPanel.add(buyPanelTop);
+        buyPanel.add(buyTextPanel);
+
+
+        // ActionListener for the "Buy" button
+        buyButton.addActionListener(e -> {
+            String type = (String) typeDropdown.getSelectedItem(); 
+            String symbol = symbolField.getText().trim();
+            String name = nameField.getText().trim();
+            String quantity = quantityField.getText().trim();
+            String price = priceField.getText().trim();
+
+            // Validate inputs
+            if (symbol.isEmpty() || name.isEmpty() || quantity.isEmpty() || price.isEmpty()) {
+                messagesArea.append("Error: All fields must be filled!\n");
+            } else {
+                try {
+                    int quantityInt = Integer.parseInt(quantity);
+                    double priceDouble = Double.parseDouble(price);
+                    if(quantityInt > 0 && priceDouble > 0){
+                        // Add a new investment or update the existing one, then show the result on the EDT
+                        pipeline.buy(type, symbol, name, quantityInt, priceDouble).whenComplete((buyInfo, error) ->
+                                SwingUtilities.invokeLater(() -> {
+                                    if (error != null) {
+                                        messagesArea.append(error.getMessage() + "\n");
+                                        return;
+                                    }
+                                    if (!buyInfo.startsWith("Error")) {
+                                        messagesArea.setText("");
+                                    }
+                                    messagesArea.append(buyInfo);
+                                }));
+                    } else {
+                        if(quantityInt <= 0){
+                            messagesArea.append("Error: Quantity must be greater than 0.\n");
+                        } 
+                        if(priceDouble <= 0){
+                            messagesArea.append("Error: Price must be greater than 0.\n");
+                        }
+                    }
+                } catch (NumberFormatException ex) {
+                    messagesArea.append("Error: Quantity and price must be valid numbers.\n");
+                }
+            }
+        });
+
+        // ActionListener for the "Reset" button
+        resetButton.addActionListener(e -> {
+            symbolField.setText("");          
+            nameField.setText("");            
+            quantityField.setText("");       
+            priceField.setText("");           
+            messagesArea.setText("");
+        });
+        return buyPanel;
+    }
+
+    /**
+     * Builds the panel for selling investments.
+     *
+     * @param portfolio the portfolio the panel operates on
+     *
+     * @return the new panel
+     */
+    private static JPanel buildSellPanel(Portfolio portfolio) {
+        // <<<<< SELL PANEL >>>>>
+        JPanel sellPanel = new JPanel();
+        sellPanel.setBorder(BorderFactory.createTitledBorder("Selling an investment"));
+        sellPanel.setLayout(new BoxLayout(sellPanel, BoxLayout.Y_AXIS));
+        JPanel sellPanelTop = new JPanel(new BorderLayout());
+        
+        JPanel sellInputPanel = new JPanel(new GridLayout(3, 2, 5, 5));
+        sellInputPanel.add(new JLabel("Symbol:"));
+        JTextField sellSymbolField = new JTextField();
+        sellInputPanel.add(sellSymbolField);
+        sellInputPanel.add(new JLabel("Quantity:"));
+        JTextField sellQuantityField = new JTextField();
+        sellInputPanel.add(sellQuantityField);
+        sellInputPanel.add(new JLabel("Price:"));
+        JTextField sellPriceField = new JTextField();
+        sellInputPanel.add(sellPriceField);
+
+        JPanel sellButtonPanel = new JPanel();
+        sellButtonPanel.setLayout(new BoxLayout(sellButtonPanel, BoxLayout.Y_AXIS));
+        JButton sellResetButton = new JButton("Reset");
+        JButton sellButton = new JButton("Sell");
+        sellResetButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        sellButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        sellButtonPanel.add(Box.createVerticalGlue()); 
+        sellButtonPanel.add(sellResetButton);
+        sellButtonPanel.add(Box.createRigidArea(new Dimension(0, 10))); 
+        sellButtonPanel.add(sellButton);
+        sellButtonPanel.add(Box.createVerticalGlue()); 
+
+        JPanel sellTextPanel = new JPanel(new BorderLayout());
+        sellTextPanel.setBorder(BorderFactory.createTitledBorder("Messages"));
+        JTextArea sellMessagesArea = new JTextArea();
+        sellMessagesArea.setEditable(false); 
+        messageAreas.put(SELL, sellMessagesArea);
+        JScrollPane sellScrollPane = new JScrollPane(sellMessagesArea, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        sellTextPanel.add(sellScrollPane, BorderLayout.CENTER);
+
+        sellPanelTop.add(sellInputPanel, BorderLayout.CENTER);
+        sellPanelTop.add(sellButtonPanel, BorderLayout.EAST);
+        sellPanel.add(sellPanelTop);
+        sellPanel.add(sellTextPanel);
+
+        // ActionListener for the "Sell" button
+        sellButton.addActionListener(e -> {
+            String symbol = sellSymbolField.getText().trim();
+            String quantity = sellQuantityField.getText().trim();
+            String price = sellPriceField.getText().trim();
+
+            // Validate inputs
+            if (symbol.isEmpty() || quantity.isEmpty() || price.isEmpty()) {
+                sellMessagesArea.append("Error: All fields must be filled!\n");
+            } else {
+                try {
+                    int quantitySold = Integer.parseInt(quantity);
+                    double sellPrice = Double.parseDouble(price);
+                    if(quantitySold > 0 && sellPrice > 0){
+                        pipeline.sell(symbol, quantitySold, sellPrice).whenComplete((sellInfo, error) ->
+                                SwingUtilities.invokeLater(() -> {
+                                    sellMessagesArea.setText("");
+                                    sellMessagesArea.append(error != null ? error.getMessage() : sellInfo.toString());
+                                }));
+                    } else {
+                        if(quantitySold <= 0){
+                            sellMessagesArea.append("Error: Quantity must be greater than 0.\n");
+                        } 
+                        if(sellPrice <= 0){
+                            sellMessagesArea.append("Error: Price must be greater than 0.\n");
+                        }
+                    }
+                } catch (NumberFormatException ex) {
+                    sellMessagesArea.append("Error: Quantity and price must be valid numbers.\n");
+                }
+            }
+        });
+
+
+        // ActionListener for the "Reset" button
+        sellResetButton.addActionListener(e -> {
+            sellSymbolField.setText("");          
+            sellQuantityField.setText("");       
+            sellPriceField.setText("");           
+            sellMessagesArea.setText("");
+        });
+        return sellPanel;
+    }
+
+    /**
+     * Builds the panel for updating the prices of investments.
+     *
+     * @param portfolio the portfolio the panel operates on
+     *
+     * @return the new panel
+     */
+    private static JPanel buildUpdatePanel(Portfolio portfolio) {
+        // <<<<< UPDATE PANEL >>>>>
+        JPanel updatePanel = new JPanel();
+        updatePanel.setBorder(BorderFactory.createTitledBorder("Updating investments"));
+        updatePanel.setLayout(new BoxLayout(updatePanel, BoxLayout.Y_AXIS));
+        JPanel updatePanelTop = new JPanel(new BorderLayout());
+        
+        JPanel updateInputPanel = new JPanel(new GridLayout(3, 2, 5, 5));
+        updateInputPanel.add(new JLabel("Symbol:"));
+        updateSymbolField = new JTextField();
+        updateSymbolField.setEditable(false);
+        updateInputPanel.add(updateSymbolField);
+        updateInputPanel.add(new JLabel("Name:"));
+        updateQuantityField = new JTextField();
+        updateQuantityField.setEditable(false);
+        updateInputPanel.add(updateQuantityField);
+        updateInputPanel.add(new JLabel("Price:"));
+        updatePriceField = new JTextField();
+        updateInputPanel.add(updatePriceField);
+
+        JPanel updateButtonPanel = new JPanel();
+        updateButtonPanel.setLayout(new BoxLayout(updateButtonPanel, BoxLayout.Y_AXIS));
+        JButton updatePrevButton = new JButton("Prev");
+        JButton updateNextButton = new JButton("Next");
+        JButton updateSaveButton = new JButton("Save");
+        updatePrevButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        updateNextButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        updateSaveButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        updateButtonPanel.add(Box.createVerticalGlue()); 
+        updateButtonPanel.add(updatePrevButton);
+        updateButtonPanel.add(Box.createRigidArea(new Dimension(0, 10))); 
+        updateButtonPanel.add(updateNextButton);
+        updateButtonPanel.add(Box.createVerticalGlue()); 
+        updateButtonPanel.add(updateSaveButton);
+        updateButtonPanel.add(Box.createVerticalGlue()); 
+
+        JPanel updateTextPanel = new JPanel(new BorderLayout());
+        updateTextPanel.setBorder(BorderFactory.createTitledBorder("Messages"));
+        updateMessagesArea = new JTextArea();
+        updateMessagesArea.setEditable(false);
+        messageAreas.put(UPDATE, updateMessagesArea);
+        JScrollPane updateScrollPane = new JScrollPane(updateMessagesArea, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        updateTextPanel.add(updateScrollPane, BorderLayout.CENTER);
+
+        updatePanelTop.add(updateInputPanel, BorderLayout.CENTER);
+        updatePanelTop.add(updateButtonPanel, BorderLayout.EAST);
+        updatePanel.add(updatePanelTop);
+        updatePanel.add(updateTextPanel);
+
+        updateNextButton.addActionListener(e -> {
+            setCurrentIndex(getCurrentIndex() + 1);
+            synchronized (portfolio) {
+                showCurrentInvestment(portfolio);
+            }
+        });
+        updatePrevButton.addActionListener(e -> {
+            setCurrentIndex(getCurrentIndex() - 1);
+            synchronized (portfolio) {
+                showCurrentInvestment(portfolio);
+            }
+        });
+
+        updateSaveButton.addActionListener(e -> {
+            String price = updatePriceField.getText().trim();
+            if (price.isEmpty()) {
+                updateMessagesArea.append("Error: Price cannot be empty!\n");
+            } else {
+                try {
+                    double updatePrice = Double.parseDouble(price);
+                    if(updatePrice <= 0){
+                        updateMessagesArea.append("Error: Price must be greater than 0.\n");
+                    } else {
+                        synchronized (portfolio) {
+                            if (portfolio.getInvestments().isEmpty()) {
+                                updateMessagesArea.append("Error: There are no investments to update.\n");
+                            } else if (getCurrentIndex() >= portfolio.getInvestments().size()
+                                    || !portfolio.getInvestments().get(getCurrentIndex()).getSymbol().equals(updateSymbolField.getText())) {
+                                // The list changed under the panel, as by an undo or a reload
+                                setCurrentIndex(Math.min(getCurrentIndex(), portfolio.getInvestments().size() - 1));
+                                showCurrentInvestment(portfolio);
+                                updateMessagesArea.setText("Error: The portfolio changed. Check the investment shown and save again.\n");
+                            } else {
+                                Investment invest = portfolio.getInvestments().get(getCurrentIndex());
+                                updateMessagesArea.setText(portfolio.updatePrice(invest.getSymbol(), updatePrice));
+                            }
+                        }
+                    }
+                } catch (NumberFormatException ex) {
+                    updateMessagesArea.append("Error: Price must be a valid number.\n");
+                }
+            }
+        });
+        return updatePanel;
+    }
+
+    /**
+     * Builds the panel for searching investments.
+     *
+     * @param portfolio the portfolio the panel operates on
+     *
+     * @return the new panel
+     */
+    private static JPanel buildSearchPanel(Portfolio portfolio) {
+        // <<<<< SEARCH PANEL >>>>>
+        JPanel searchPanel = new JPanel();
+        searchPanel.setBorder(BorderFactory.createTitledBorder("Searching investments"));
+        searchPanel.setLayout(new BoxLayout(searchPanel, BoxLayout.Y_AXIS));
+        JPanel searchPanelTop = new JPanel(new BorderLayout());
+        
+        JPanel searchInputPanel = new JPanel(new GridLayout(4, 2, 5, 5));
+        searchInputPanel.add(new JLabel("Symbol:"));
+        JTextField searchSymbolField = new JTextField();
+        searchInputPanel.add(searchSymbolField);
+        searchInputPanel.add(new JLabel("Name Keywords:"));
+        JTextField searchQuantityField = new JTextField();
+        searchInputPanel.add(searchQuantityField);
+        searchInputPanel.add(new JLabel("Low Price:"));
+        JTextField searchLowPriceField = new JTextField();
+        searchInputPanel.add(searchLowPriceField);
+        searchInputPanel.add(new JLabel("High Price:"));
+        JTextField searchHighPriceField = new JTextField();
+        searchInputPanel.add(searchHighPriceField);
+
+        JPanel searchButtonPanel = new JPanel();
+        searchButtonPanel.setLayout(new BoxLayout(searchButtonPanel, BoxLayout.Y_AXIS));
+        JButton searchResetButton = new JButton("Reset");
+        JButton searchButton = new JButton("Search");
+        searchResetButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        searchButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        searchButtonPanel.add(Box.createVerticalGlue()); 
+        searchButtonPanel.add(searchResetButton);
+        searchButtonPanel.add(Box.createRigidArea(new Dimension(0, 10))); 
+        searchButtonPanel.add(searchButton);
+        searchButtonPanel.add(Box.createVerticalGlue()); 
+
+        JPanel searchTextPanel = new JPanel(new BorderLayout());
+        searchTextPanel.setBorder(BorderFactory.createTitledBorder("Search results"));
+        JTextArea searchMessagesArea = new JTextArea();
+        searchMessagesArea.setEditable(false);
+        messageAreas.put(SEARCH, searchMessagesArea);
+        JScrollPane searchScrollPane = new JScrollPane(searchMessagesArea, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        searchTextPanel.add(searchScrollPane, BorderLayout.CENTER);
+
+        searchPanelTop.add(searchInputPanel, BorderLayout.CENTER);
+        searchPanelTop.add(searchButtonPanel, BorderLayout.EAST);
+        searchPanel.add(searchPanelTop);
+        searchPanel.add(searchTextPanel);
+
+        // ActionListener for the "Search" button
+        searchButton.addActionListener(e -> {
+            String symbol = searchSymbolField.getText().trim();
+            String keywords = searchQuantityField.getText().trim();
+            String lowPrice = searchLowPriceField.getText().trim();
+            String highPrice = searchHighPriceField.getText().trim();
+
+            // Validate inputs
+            if (symbol.isEmpty() || keywords.isEmpty() || lowPrice.isEmpty() || highPrice.isEmpty()) {
+                searchMessagesArea.append("Error: All fields must be filled!\n");
+            } else {
+                try {
+                    double lowSearchPrice = Double.parseDouble(lowPrice);
+                    double highSearchPrice = Double.parseDouble(highPrice);
+                    if (lowSearchPrice < 0 || highSearchPrice < 0) {
+                        searchMessagesArea.append("Error: Search prices must be positive numbers.\n");
+                    } else if (lowSearchPrice > highSearchPrice) {
+                        searchMessagesArea.append("Error: Minimum price cannot be greater than maximum price.\n");
+                    } else {
+                        // The cache applies the symbol and price filters too
+                        ArrayList<Investment> results = searchCache.search(keywords, symbol, lowSearchPrice, highSearchPrice);
+                        searchMessagesArea.setText("");
+                        synchronized (portfolio) {
+                            for (Investment investment : results) {
+                                searchMessagesArea.append(investment.toString());
+                            }
+                        }
+                        if (results.isEmpty()) {
+                            searchMessagesArea.append("No investments found matching symbol: " + symbol + ", keywords: " + keywords + " and price range: $" + lowSearchPrice + " - $" + highSearchPrice + "\n");
+                        }
+                    }
+                } catch (NumberFormatException ex) {
+                    searchMessagesArea.append("Error: Low price and High price must be valid numbers.\n");
+                }
+            }
+        });
+
+        // ActionListener for the "Reset" button
+        searchResetButton.addActionListener(e -> {
+            searchSymbolField.setText("");
+            searchQuantityField.setText("");
+            searchLowPriceField.setText("");
+            searchHighPriceField.setText("");
+            searchMessagesArea.setText("");
+        });
+        return searchPanel;
+    }
+
+    /**
+     * Builds the panel showing the total and individual gains.
+     *
+     * @return the new panel
+     */
+    private static JPanel buildGainPanel() {
+        // <<<<< GAIN PANEL >>>>>
+        JPanel gainPanel = new JPanel();
+        gainPanel.setBorder(BorderFactory.createTitledBorder("Getting total gain"));
+        gainPanel.setLayout(new BoxLayout(gainPanel, BoxLayout.Y_AXIS));
+        JPanel gainPanelTop = new JPanel(new BorderLayout());
+        
+        JPanel gainInputPanel = new JPanel(new GridLayout(1, 2, 5, 5));
+        gainInputPanel.add(new JLabel("Total Gain:"));
+        gainSymbolField = new JTextField();
+        gainSymbolField.setEditable(false);
+        gainInputPanel.add(gainSymbolField);
+
+        JPanel gainTextPanel = new JPanel(new BorderLayout());
+        gainTextPanel.setBorder(BorderFactory.createTitledBorder("Individual gains"));
+        gainMessagesArea = new JTextArea();
+        gainMessagesArea.setEditable(false);
+        JScrollPane gainScrollPane = new JScrollPane(gainMessagesArea, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        gainTextPanel.add(gainScrollPane, BorderLayout.CENTER);
+
+        JPanel gainMoversPanel = new JPanel(new BorderLayout());
+        gainMoversPanel.setBorder(BorderFactory.createTitledBorder("Top " + MOVERS + " movers"));
+        gainMoversArea = new JTextArea();
+        gainMoversArea.setEditable(false);
+        gainMoversPanel.add(new JScrollPane(gainMoversArea), BorderLayout.CENTER);
+
+        JPanel gainListsPanel = new JPanel(new GridLayout(1, 2, 5, 5));
+        gainListsPanel.add(gainTextPanel);
+        gainListsPanel.add(gainMoversPanel);
+
+        gainPanelTop.add(gainInputPanel, BorderLayout.NORTH);
+        gainPanel.add(gainPanelTop);
+        gainPanel.add(gainListsPanel);
+        return gainPanel;
+    }
+}
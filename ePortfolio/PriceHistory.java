@@ -0,0 +1,673 @@
+package ePortfolio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Append-only store of the prices every symbol has had over time.
+ *
+ * <p>
+ * Ticks of a symbol are collected in an open block of up to BLOCK_TICKS
+ * ticks, stored as two compressed columns: timestamps as delta-of-deltas and
+ * prices as the XOR of consecutive IEEE 754 bit patterns. Regular ticks with
+ * unchanged prices therefore take about two bits each. A full block is
+ * sealed into a segment, which is a memory-mapped file of SEGMENT_SIZE bytes
+ * when the store has a directory and a heap buffer otherwise. Each block
+ * records its symbol and time range, so a reopened store rebuilds its block
+ * index by scanning the segment headers and range scans only decode the
+ * blocks that overlap the range.
+ *
+ * <p>
+ * Timestamps are milliseconds since the epoch and must not decrease for a
+ * symbol. Symbols are compared case-insensitively. All methods are
+ * synchronized, so one store can be shared by the GUI and background tasks.
+ */
+public class PriceHistory implements Closeable {
+
+    /**
+     * Receives the ticks of a range scan in time order.
+     */
+    public interface TickVisitor {
+
+        /**
+         * Called once for every tick in the range.
+         *
+         * @param time the time of the tick in milliseconds since the epoch
+         * @param price the price at that time
+         */
+        void tick(long time, double price);
+    }
+
+    private static final int BLOCK_TICKS = 1024;
+    private static final int SEGMENT_SIZE = 1 << 25;
+    private static final int BLOCK_MAGIC = 0x50484b42; // "PHKB"
+    private static final String SEGMENT_PREFIX = "prices-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final HashMap<String, Series> series = new HashMap<>();
+    private final ArrayList<ByteBuffer> segments = new ArrayList<>();
+    private final ArrayList<FileChannel> channels = new ArrayList<>();
+    private long ticks;
+
+    /**
+     * Creates an empty store kept in memory only.
+     */
+    public PriceHistory() {
+        directory = null;
+    }
+
+    /**
+     * Opens the store kept in a directory, creating the directory if needed.
+     * Sealed blocks of earlier runs are mapped and indexed; ticks that were
+     * still in open blocks when the previous store was not closed are lost.
+     *
+     * @param directory the directory holding the segment files
+     * @throws IOException if the directory or its segments cannot be opened
+     */
+    public PriceHistory(String directory) throws IOException {
+        this.directory = Paths.get(directory);
+        Files.createDirectories(this.directory);
+        ArrayList<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(null);
+        for (Path file : files) {
+            ByteBuffer segment = mapSegment(file);
+            int offset = 0;
+            while (offset + 4 <= SEGMENT_SIZE && segment.getInt(offset) == BLOCK_MAGIC) {
+                offset = readBlockHeader(segment, offset);
+            }
+            segment.position(offset);
+        }
+    }
+
+    /**
+     * Opens the store in the directory named by the ePortfolio.priceHistory
+     * system property.
+     *
+     * @return the store, or null if the property is not set or the store
+     * cannot be opened
+     */
+    public static PriceHistory openConfigured() {
+        String directory = System.getProperty("ePortfolio.priceHistory");
+        if (directory == null) {
+            return null;
+        }
+        try {
+            return new PriceHistory(directory);
+        } catch (IOException e) {
+            System.out.println("Error opening price history: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Appends a price to the history of a symbol.
+     *
+     * A time before the last one recorded for the symbol, as when the wall
+     * clock is set back, is taken as that last time, so the series stays in
+     * time order and the trade that set the price is not failed after the
+     * fact.
+     *
+     * @param symbol the symbol of the investment
+     * @param time the time of the price in milliseconds since the epoch
+     * @param price the price
+     */
+    public synchronized void append(String symbol, long time, double price) {
+        Series s = seriesOf(symbol, true);
+        time = Math.max(time, s.lastTime);
+        if (s.open == null) {
+            s.open = new BlockWriter();
+        }
+        s.open.append(time, price);
+        s.lastTime = time;
+        ticks++;
+        if (s.open.count == BLOCK_TICKS) {
+            seal(s);
+        }
+    }
+
+    /**
+     * Gets the number of ticks appended since the store was opened.
+     *
+     * @return the number of ticks appended
+     */
+    public synchronized long getAppendedTicks() {
+        return ticks;
+    }
+
+    /**
+     * Gets the last price of a symbol at or before the given time.
+     *
+     * @param symbol the symbol of the investment
+     * @param time the time in milliseconds since the epoch
+     * @return the price at that time, or NaN if no price was recorded before
+     */
+    public synchronized double priceAsOf(String symbol, long time) {
+        Series s = seriesOf(symbol, false);
+        if (s == null) {
+            return Double.NaN;
+        }
+        if (s.open != null && s.open.firstTime <= time) {
+            return lastAtOrBefore(s.open.reader(), time);
+        }
+        // The last sealed block starting at or before the time holds the answer
+        int low = 0;
+        int high = s.blocks.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (s.blocks.get(middle).minTime <= time) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found < 0 ? Double.NaN : lastAtOrBefore(s.blocks.get(found).reader(), time);
+    }
+
+    /**
+     * Visits every tick of a symbol between two times, both inclusive.
+     * Blocks entirely outside the range are skipped without being decoded.
+     *
+     * @param symbol the symbol of the investment
+     * @param from the start of the range in milliseconds since the epoch
+     * @param to the end of the range in milliseconds since the epoch
+     * @param visitor receives the ticks in time order
+     */
+    public synchronized void scan(String symbol, long from, long to, TickVisitor visitor) {
+        Series s = seriesOf(symbol, false);
+        if (s == null) {
+            return;
+        }
+        for (BlockRef block : s.blocks) {
+            if (block.maxTime >= from && block.minTime <= to) {
+                visit(block.reader(), from, to, visitor);
+            }
+        }
+        if (s.open != null && s.open.lastTime >= from && s.open.firstTime <= to) {
+            visit(s.open.reader(), from, to, visitor);
+        }
+    }
+
+    /**
+     * Calculates the gain the portfolio's current positions had at a past
+     * time: the quantity of each position valued at its price as of that time,
+     * minus its book value. Positions without a recorded price at that time
+     * count as worth their book value. Trades are not part of the history, so
+     * quantities and book values are the current ones.
+     *
+     * @param portfolio the portfolio to value
+     * @param time the time in milliseconds since the epoch
+     * @return the gain of the portfolio at that time
+     */
+    public synchronized double gainAsOf(Portfolio portfolio, long time) {
+        double gain = 0.0;
+        for (Investment investment : portfolio.getInvestments()) {
+            double price = priceAsOf(investment.getSymbol(), time);
+            if (!Double.isNaN(price)) {
+                gain += price * investment.getQuantity() - investment.getBookValue();
+            }
+        }
+        return gain;
+    }
+
+    /**
+     * Calculates the closing market value of the portfolio's current positions
+     * on every day of a date range. Each symbol's ticks in the range are
+     * scanned once and its last price of each day is carried forward into
+     * following days without ticks. Positions without any price yet add
+     * nothing to the value of a day.
+     *
+     * @param portfolio the portfolio to value
+     * @param from the first day, inclusive
+     * @param to the last day, inclusive
+     * @param zone the time zone that defines where days end
+     * @return the market value at the end of each day, indexed from the first
+     * day
+     */
+    public synchronized double[] dailyValues(Portfolio portfolio, LocalDate from, LocalDate to, ZoneId zone) {
+        int days = (int) (to.toEpochDay() - from.toEpochDay()) + 1;
+        if (days <= 0) {
+            return new double[0];
+        }
+        long[] dayEnds = new long[days];
+        for (int d = 0; d < days; d++) {
+            dayEnds[d] = from.plusDays(d + 1).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+        long start = from.atStartOfDay(zone).toInstant().toEpochMilli();
+        double[] values = new double[days];
+
+        for (Investment investment : portfolio.getInvestments()) {
+            int quantity = investment.getQuantity();
+            DayCloser closer = new DayCloser(values, dayEnds, quantity, priceAsOf(investment.getSymbol(), start - 1));
+            scan(investment.getSymbol(), start, dayEnds[days - 1] - 1, closer);
+            closer.closeDaysBefore(Long.MAX_VALUE);
+        }
+        return values;
+    }
+
+    /**
+     * Seals all open blocks and forces mapped segments to disk.
+     *
+     * @throws IOException if flushing or closing a segment file fails
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (Series s : series.values()) {
+            if (s.open != null) {
+                seal(s);
+            }
+        }
+        for (ByteBuffer segment : segments) {
+            if (segment instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) segment).force();
+            }
+        }
+        for (FileChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Adds the value of one position to the days it was held at a known price.
+     */
+    private static final class DayCloser implements TickVisitor {
+
+        private final double[] values;
+        private final long[] dayEnds;
+        private final int quantity;
+        private double price;
+        private int day;
+
+        DayCloser(double[] values, long[] dayEnds, int quantity, double openingPrice) {
+            this.values = values;
+            this.dayEnds = dayEnds;
+            this.quantity = quantity;
+            this.price = openingPrice;
+        }
+
+        @Override
+        public void tick(long time, double tickPrice) {
+            closeDaysBefore(time);
+            price = tickPrice;
+        }
+
+        /**
+         * Adds the current price to every day that ends at or before a time.
+         */
+        void closeDaysBefore(long time) {
+            while (day < dayEnds.length && dayEnds[day] <= time) {
+                if (!Double.isNaN(price)) {
+                    values[day] += quantity * price;
+                }
+                day++;
+            }
+        }
+    }
+
+    private Series seriesOf(String symbol, boolean create) {
+        String key = symbol.toUpperCase(Locale.ROOT);
+        Series s = series.get(key);
+        if (s == null && create) {
+            s = new Series(key);
+            series.put(key, s);
+        }
+        return s;
+    }
+
+    private static double lastAtOrBefore(BlockReader reader, long time) {
+        double price = Double.NaN;
+        while (reader.next() && reader.time <= time) {
+            price = reader.price;
+        }
+        return price;
+    }
+
+    private static void visit(BlockReader reader, long from, long to, TickVisitor visitor) {
+        while (reader.next() && reader.time <= to) {
+            if (reader.time >= from) {
+                visitor.tick(reader.time, reader.price);
+            }
+        }
+    }
+
+    // ---- Segments ----
+
+    /**
+     * Writes the open block of a series to the current segment and indexes
+     * it. The magic number is written last, so a block cut short by a crash
+     * is not picked up on the next open.
+     */
+    private void seal(Series s) {
+        BlockWriter block = s.open;
+        s.open = null;
+        byte[] symbol = s.symbol.getBytes(StandardCharsets.UTF_8);
+        int timeBytes = block.times.byteLength();
+        int priceBytes = block.prices.byteLength();
+        int size = 4 + 2 + symbol.length + 4 + 8 + 8 + 4 + 4 + timeBytes + priceBytes;
+
+        ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.position() + size + 4 > SEGMENT_SIZE) {
+            segment = newSegment();
+        }
+        int offset = segment.position();
+        segment.position(offset + 4);
+        segment.putShort((short) symbol.length).put(symbol);
+        segment.putInt(block.count).putLong(block.firstTime).putLong(block.lastTime);
+        segment.putInt(timeBytes).putInt(priceBytes);
+        segment.put(block.times.bytes, 0, timeBytes).put(block.prices.bytes, 0, priceBytes);
+        segment.putInt(offset, BLOCK_MAGIC);
+        readBlockHeader(segment, offset);
+    }
+
+    /**
+     * Indexes the block at an offset of a segment.
+     *
+     * @return the offset just past the block
+     */
+    private int readBlockHeader(ByteBuffer segment, int offset) {
+        int position = offset + 4;
+        byte[] symbol = new byte[segment.getShort(position)];
+        position += 2;
+        for (int i = 0; i < symbol.length; i++) {
+            symbol[i] = segment.get(position + i);
+        }
+        position += symbol.length;
+        BlockRef block = new BlockRef();
+        block.segment = segment;
+        block.count = segment.getInt(position);
+        block.minTime = segment.getLong(position + 4);
+        block.maxTime = segment.getLong(position + 12);
+        int timeBytes = segment.getInt(position + 20);
+        int priceBytes = segment.getInt(position + 24);
+        block.timeOffset = position + 28;
+        block.priceOffset = block.timeOffset + timeBytes;
+
+        Series s = seriesOf(new String(symbol, StandardCharsets.UTF_8), true);
+        s.blocks.add(block);
+        s.lastTime = Math.max(s.lastTime, block.maxTime);
+        return block.priceOffset + priceBytes;
+    }
+
+    private ByteBuffer newSegment() {
+        if (directory == null) {
+            ByteBuffer segment = ByteBuffer.allocate(SEGMENT_SIZE);
+            segments.add(segment);
+            return segment;
+        }
+        try {
+            return mapSegment(directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, segments.size(), SEGMENT_SUFFIX)));
+        } catch (IOException e) {
+            throw new IllegalStateException("Error: Cannot create a price history segment: " + e.getMessage(), e);
+        }
+    }
+
+    private ByteBuffer mapSegment(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channels.add(channel);
+        ByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        segments.add(segment);
+        return segment;
+    }
+
+    // ---- Blocks ----
+
+    /**
+     * The sealed blocks and the open block of one symbol.
+     */
+    private static final class Series {
+
+        final String symbol;
+        final ArrayList<BlockRef> blocks = new ArrayList<>();
+        BlockWriter open;
+        long lastTime = Long.MIN_VALUE;
+
+        Series(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    /**
+     * Location and time range of a sealed block.
+     */
+    private static final class BlockRef {
+
+        ByteBuffer segment;
+        int count;
+        long minTime;
+        long maxTime;
+        int timeOffset;
+        int priceOffset;
+
+        BlockReader reader() {
+            return new BlockReader(segment, timeOffset, priceOffset, count);
+        }
+    }
+
+    /**
+     * Encodes ticks into a timestamp column and a price column.
+     *
+     * <p>
+     * The first timestamp is written in full. Every following one is written
+     * as the change of its delta, zig-zag encoded and prefixed by a code for
+     * its width: '0' for no change, '10' for 7 bits, '110' for 12 bits,
+     * '1110' for 20 bits and '1111' for 64 bits. The first price is written
+     * in full. Every following price is XORed with the previous one: '0'
+     * means equal, '10' means the meaningful bits fit the previous window,
+     * and '11' is followed by 6 bits of leading zeros, 6 bits of length - 1 and
+     * the meaningful bits.
+     */
+    private static final class BlockWriter {
+
+        final BitWriter times = new BitWriter();
+        final BitWriter prices = new BitWriter();
+        int count;
+        long firstTime;
+        long lastTime;
+        private long lastDelta;
+        private long lastBits;
+        private int leading = -1;
+        private int trailing;
+
+        void append(long time, double price) {
+            long bits = Double.doubleToLongBits(price);
+            if (count == 0) {
+                firstTime = time;
+                times.write(time, 64);
+                prices.write(bits, 64);
+            } else {
+                long delta = time - lastTime;
+                long change = delta - lastDelta;
+                long zigzag = (change << 1) ^ (change >> 63);
+                if (zigzag == 0) {
+                    times.write(0, 1);
+                } else if (zigzag < (1L << 7)) {
+                    times.write(0b10, 2);
+                    times.write(zigzag, 7);
+                } else if (zigzag < (1L << 12)) {
+                    times.write(0b110, 3);
+                    times.write(zigzag, 12);
+                } else if (zigzag < (1L << 20)) {
+                    times.write(0b1110, 4);
+                    times.write(zigzag, 20);
+                } else {
+                    times.write(0b1111, 4);
+                    times.write(zigzag, 64);
+                }
+                lastDelta = delta;
+
+                long xor = bits ^ lastBits;
+                if (xor == 0) {
+                    prices.write(0, 1);
+                } else {
+                    int newLeading = Long.numberOfLeadingZeros(xor);
+                    int newTrailing = Long.numberOfTrailingZeros(xor);
+                    if (leading >= 0 && newLeading >= leading && newTrailing >= trailing) {
+                        prices.write(0b10, 2);
+                        prices.write(xor >>> trailing, 64 - leading - trailing);
+                    } else {
+                        leading = newLeading;
+                        trailing = newTrailing;
+                        int length = 64 - leading - trailing;
+                        prices.write(0b11, 2);
+                        prices.write(leading, 6);
+                        prices.write(length - 1, 6);
+                        prices.write(xor >>> trailing, length);
+                    }
+                }
+            }
+            lastTime = time;
+            lastBits = bits;
+            count++;
+        }
+
+        BlockReader reader() {
+            return new BlockReader(ByteBuffer.wrap(times.bytes), 0, ByteBuffer.wrap(prices.bytes), 0, count);
+        }
+    }
+
+    /**
+     * Decodes the ticks written by BlockWriter.
+     */
+    private static final class BlockReader {
+
+        private final BitReader times;
+        private final BitReader prices;
+        private final int count;
+        private int read;
+        private long delta;
+        private long bits;
+        private int leading;
+        private int trailing;
+        long time;
+        double price;
+
+        BlockReader(ByteBuffer segment, int timeOffset, int priceOffset, int count) {
+            this(segment, timeOffset, segment, priceOffset, count);
+        }
+
+        BlockReader(ByteBuffer timeBuffer, int timeOffset, ByteBuffer priceBuffer, int priceOffset, int count) {
+            times = new BitReader(timeBuffer, timeOffset);
+            prices = new BitReader(priceBuffer, priceOffset);
+            this.count = count;
+        }
+
+        /**
+         * Decodes the next tick into time and price.
+         *
+         * @return false if the block has no more ticks
+         */
+        boolean next() {
+            if (read == count) {
+                return false;
+            }
+            if (read == 0) {
+                time = times.read(64);
+                bits = prices.read(64);
+            } else {
+                long zigzag;
+                if (times.read(1) == 0) {
+                    zigzag = 0;
+                } else if (times.read(1) == 0) {
+                    zigzag = times.read(7);
+                } else if (times.read(1) == 0) {
+                    zigzag = times.read(12);
+                } else if (times.read(1) == 0) {
+                    zigzag = times.read(20);
+                } else {
+                    zigzag = times.read(64);
+                }
+                delta += (zigzag >>> 1) ^ -(zigzag & 1);
+                time += delta;
+
+                if (prices.read(1) == 1) {
+                    if (prices.read(1) == 1) {
+                        leading = (int) prices.read(6);
+                        trailing = 64 - leading - ((int) prices.read(6) + 1);
+                    }
+                    bits ^= prices.read(64 - leading - trailing) << trailing;
+                }
+            }
+            price = Double.longBitsToDouble(bits);
+            read++;
+            return true;
+        }
+    }
+
+    /**
+     * Growable bit string written most significant bit first.
+     */
+    private static final class BitWriter {
+
+        byte[] bytes = new byte[64];
+        private int bitLength;
+
+        void write(long value, int bits) {
+            while (bits > 0) {
+                int index = bitLength >>> 3;
+                if (index == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                int free = 8 - (bitLength & 7);
+                int n = Math.min(free, bits);
+                int chunk = (int) (value >>> (bits - n)) & ((1 << n) - 1);
+                bytes[index] |= (byte) (chunk << (free - n));
+                bitLength += n;
+                bits -= n;
+            }
+        }
+
+        int byteLength() {
+            return (bitLength + 7) >>> 3;
+        }
+    }
+
+    /**
+     * Reads a bit string written by BitWriter from a buffer.
+     */
+    private static final class BitReader {
+
+        private final ByteBuffer buffer;
+        private final int offset;
+        private int position;
+
+        BitReader(ByteBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+        long read(int bits) {
+            long value = 0;
+            while (bits > 0) {
+                int current = buffer.get(offset + (position >>> 3)) & 0xff;
+                int available = 8 - (position & 7);
+                int n = Math.min(available, bits);
+                value = (value << n) | ((current >>> (available - n)) & ((1 << n) - 1));
+                position += n;
+                bits -= n;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Running totals of the gains realized by sales, per symbol, per investment
+ * type and for the whole portfolio.
+ *
+ * <p>
+ * Every Portfolio keeps one and records each sale in it as it is applied,
+ * whether the sale came from the window, a batch, the HTTP API or a trade
+ * pipeline, so no path can skip it. Recording a sale updates three sets of
+ * totals in O(1) and nothing is formatted. The ledger covers the sales made
+ * since the portfolio was created; it is not saved with the portfolio file.
+ * Like the portfolio it is read while holding the portfolio's monitor.
+ *
+ * <p>
+ * The amounts are in the base currency: each sale is converted at the rate
+ * its currency had when it was made, so later rate changes do not move
+ * gains already realized. A sale in a currency without a rate makes the
+ * totals it enters NaN, shown as unknown instead of wrong.
+ */
+public class RealizedLedger {
+
+    /**
+     * The totals of a group of sales.
+     */
+    public static final class Totals {
+
+        private int sales;
+        private long quantity;
+        private double proceeds;
+        private double fees;
+        private double gain;
+
+        Totals() {
+        }
+
+        private Totals(Totals totals) {
+            sales = totals.sales;
+            quantity = totals.quantity;
+            proceeds = totals.proceeds;
+            fees = totals.fees;
+            gain = totals.gain;
+        }
+
+        void add(TradeResult result) {
+            double rate = result.getFxRate();
+            sales++;
+            quantity += result.getQuantity();
+            proceeds += result.getProceeds() * rate;
+            fees += result.getFee() * rate;
+            gain += result.getGain() * rate;
+        }
+
+        void subtract(TradeResult result) {
+            double rate = result.getFxRate();
+            sales--;
+            quantity -= result.getQuantity();
+            proceeds -= result.getProceeds() * rate;
+            fees -= result.getFee() * rate;
+            gain -= result.getGain() * rate;
+        }
+
+        /**
+         * Gets the number of sales.
+         *
+         * @return the number of sales
+         */
+        public int getSales() {
+            return sales;
+        }
+
+        /**
+         * Gets the number of units sold.
+         *
+         * @return the quantity
+         */
+        public long getQuantity() {
+            return quantity;
+        }
+
+        /**
+         * Gets the proceeds before fees.
+         *
+         * @return the gross proceeds in the base currency
+         */
+        public double getProceeds() {
+            return proceeds;
+        }
+
+        /**
+         * Gets the fees charged.
+         *
+         * @return the fees in the base currency
+         */
+        public double getFees() {
+            return fees;
+        }
+
+        /**
+         * Gets the realized gain after fees.
+         *
+         * @return the gain in the base currency
+         */
+        public double getGain() {
+            return gain;
+        }
+
+        @Override
+        public String toString() {
+            return "Sales: " + sales + ", Quantity: " + quantity + ", Proceeds: $" + Portfolio.formatMoney(proceeds)
+                    + ", Fees: $" + Portfolio.formatMoney(fees) + ", Realized gain: $" + Portfolio.formatMoney(gain);
+        }
+    }
+
+    private final Totals total = new Totals();
+    private final Totals stocks = new Totals();
+    private final Totals mutualFunds = new Totals();
+    // By lower-case symbol
+    private final HashMap<String, Totals> bySymbol = new HashMap<>();
+
+    /**
+     * Records a sale. Refused sales are ignored.
+     *
+     * @param result the result of the sale
+     */
+    void record(TradeResult result) {
+        if (!result.isSold()) {
+            return;
+        }
+        total.add(result);
+        (result.getType().equals("mutualfund") ? mutualFunds : stocks).add(result);
+        bySymbol.computeIfAbsent(result.getSymbol().toLowerCase(Locale.ROOT), key -> new Totals()).add(result);
+    }
+
+    /**
+     * Takes back a sale recorded earlier, when it is undone. Refused sales
+     * are ignored.
+     *
+     * @param result the result of the sale
+     */
+    void reverse(TradeResult result) {
+        if (!result.isSold()) {
+            return;
+        }
+        total.subtract(result);
+        (result.getType().equals("mutualfund") ? mutualFunds : stocks).subtract(result);
+        String key = result.getSymbol().toLowerCase(Locale.ROOT);
+        Totals totals = bySymbol.get(key);
+        if (totals != null) {
+            totals.subtract(result);
+            if (totals.sales == 0) {
+                bySymbol.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Gets the totals of every sale.
+     *
+     * @return a copy of the totals
+     */
+    public Totals getTotals() {
+        return new Totals(total);
+    }
+
+    /**
+     * Gets the totals of the sales of one investment type.
+     *
+     * @param type "stock" or "mutualfund", ignoring case
+     * @return a copy of the totals
+     * @throws IllegalArgumentException if the type is neither
+     */
+    public Totals getTotalsByType(String type) {
+        if (type.equalsIgnoreCase("stock")) {
+            return new Totals(stocks);
+        } else if (type.equalsIgnoreCase("mutualfund")) {
+            return new Totals(mutualFunds);
+        }
+        throw new IllegalArgumentException("Error: Invalid investment type. Please enter 'stock' or 'mutualfund'.");
+    }
+
+    /**
+     * Gets the totals of the sales of one symbol.
+     *
+     * @param symbol the symbol, matched ignoring case
+     * @return a copy of the totals, or null if the symbol was never sold
+     */
+    public Totals getTotals(String symbol) {
+        Totals totals = bySymbol.get(symbol.toLowerCase(Locale.ROOT));
+        return totals == null ? null : new Totals(totals);
+    }
+
+    /**
+     * Gets the symbols that have been sold.
+     *
+     * @return the symbols in lower case
+     */
+    public ArrayList<String> getSymbols() {
+        return new ArrayList<>(bySymbol.keySet());
+    }
+}
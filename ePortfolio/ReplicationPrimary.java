@@ -0,0 +1,474 @@
+package ePortfolio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Streams every change of a portfolio to standby processes, so a standby
+ * can take over without loading and indexing the portfolio file again.
+ *
+ * <p>
+ * A standby that connects first receives a snapshot of every investment,
+ * taken under the portfolio's monitor, and from then on every change the
+ * portfolio reports to its listeners: investments added and removed, and
+ * new prices, quantities and book values, and new FX rates. These cover
+ * addInvestment, updateExistingInvestment, sellInvestment, price and FX
+ * rate updates and reloads of the file. Every message carries a sequence number and the time it was
+ * sent, from which the standby measures its lag; a heartbeat every
+ * HEARTBEAT_MILLIS tells an idle standby that the primary is alive.
+ *
+ * <p>
+ * Changes name investments by symbol, so a portfolio that holds a symbol
+ * more than once, as a hand-edited file can, is not replicated: the primary
+ * refuses to start, and standbys are disconnected if such a portfolio is
+ * loaded later.
+ *
+ * <p>
+ * Messages are encoded once on the thread that changed the portfolio and
+ * queued for each standby; a thread per standby writes its queue to the
+ * socket, so a slow standby never holds up trading. A standby whose queue
+ * grows past MAX_QUEUED_BYTES is disconnected and has to start over.
+ * <pre>
+ *   byte type, long sequence, long sent (microseconds since the epoch), then by type:
+ *   SNAPSHOT     int rates, that many times (UTF currency, double rate), int investments,
+ *                followed by that many INVESTMENT messages
+ *   INVESTMENT   boolean mutual fund, UTF symbol, UTF name, int quantity, double price, double book value,
+ *                UTF currency ("" for the base currency)
+ *   REMOVED      UTF symbol
+ *   PRICE        UTF symbol, double price
+ *   QUANTITY     UTF symbol, int quantity
+ *   BOOK_VALUE   UTF symbol, double book value
+ *   HEARTBEAT    nothing
+ *   FX_RATE      UTF currency, double rate
+ * </pre>
+ */
+public class ReplicationPrimary implements PortfolioListener, Closeable {
+
+    public static final long HEARTBEAT_MILLIS = 100;
+    public static final int MAX_QUEUED_BYTES = 64 << 20;
+
+    static final byte SNAPSHOT = 1;
+    static final byte INVESTMENT = 2;
+    static final byte REMOVED = 3;
+    static final byte PRICE = 4;
+    static final byte QUANTITY = 5;
+    static final byte BOOK_VALUE = 6;
+    static final byte HEARTBEAT = 7;
+    static final byte FX_RATE = 8;
+
+    private final Portfolio portfolio;
+    private final ServerSocket serverSocket;
+    private final CopyOnWriteArrayList<Standby> standbys = new CopyOnWriteArrayList<>();
+    // Encodes one message at a time; guarded by the portfolio
+    private final ByteArrayOutputStream message = new ByteArrayOutputStream(256);
+    private final DataOutputStream messageOut = new DataOutputStream(message);
+    private volatile long sequence;
+    private volatile boolean closed;
+
+    /**
+     * A connected standby and the bytes waiting to be sent to it.
+     */
+    private final class Standby implements Runnable {
+
+        private final Socket socket;
+        // Guarded by this standby
+        private ByteArrayOutputStream queued = new ByteArrayOutputStream(1 << 16);
+        private ByteArrayOutputStream sending = new ByteArrayOutputStream(1 << 16);
+        private boolean disconnected;
+
+        Standby(Socket socket) {
+            this.socket = socket;
+        }
+
+        synchronized void enqueue(byte[] bytes, int length) {
+            if (disconnected) {
+                return;
+            }
+            if (queued.size() + length > MAX_QUEUED_BYTES) {
+                System.out.println("Error: Standby " + socket.getRemoteSocketAddress() + " fell too far behind and was disconnected.");
+                disconnect();
+                return;
+            }
+            queued.write(bytes, 0, length);
+            notifyAll();
+        }
+
+        synchronized void disconnect() {
+            disconnected = true;
+            standbys.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+            notifyAll();
+        }
+
+        /**
+         * Writes the queue to the socket until the standby disconnects.
+         */
+        @Override
+        public void run() {
+            try {
+                OutputStream out = socket.getOutputStream();
+                while (true) {
+                    ByteArrayOutputStream batch;
+                    synchronized (this) {
+                        while (queued.size() == 0 && !disconnected) {
+                            wait();
+                        }
+                        if (disconnected) {
+                            return;
+                        }
+                        // Swap buffers, so changes keep queueing while this batch is written
+                        batch = queued;
+                        queued = sending;
+                        sending = batch;
+                    }
+                    batch.writeTo(out);
+                    out.flush();
+                    batch.reset();
+                }
+            } catch (IOException e) {
+                // The standby went away
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                disconnect();
+            }
+        }
+    }
+
+    /**
+     * Starts accepting standbys on a loopback port.
+     *
+     * @param portfolio the portfolio to replicate
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     * @throws IllegalStateException if the portfolio holds a symbol more than once
+     */
+    public ReplicationPrimary(Portfolio portfolio, int port) throws IOException {
+        this.portfolio = portfolio;
+        synchronized (portfolio) {
+            String duplicate = duplicateSymbol(portfolio);
+            if (duplicate != null) {
+                throw new IllegalStateException(duplicateMessage(duplicate));
+            }
+        }
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        portfolio.addListener(this);
+        startDaemon(this::accept, "ePortfolio replication");
+        startDaemon(this::heartbeat, "ePortfolio replication heartbeat");
+    }
+
+    /**
+     * Starts replication on the port given with -DePortfolio.replicationPort,
+     * if any.
+     *
+     * @param portfolio the portfolio to replicate
+     * @return the primary, or null if replication is not configured
+     */
+    public static ReplicationPrimary startConfigured(Portfolio portfolio) {
+        String port = System.getProperty("ePortfolio.replicationPort");
+        if (port == null || port.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            ReplicationPrimary primary = new ReplicationPrimary(portfolio, Integer.parseInt(port.trim()));
+            System.out.println("Replicating on port " + primary.getPort());
+            return primary;
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Error starting replication: " + e.getMessage());
+            return null;
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Gets the port standbys connect to.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Gets the number of connected standbys.
+     *
+     * @return the number of standbys
+     */
+    public int getStandbyCount() {
+        return standbys.size();
+    }
+
+    /**
+     * Gets the sequence number of the last message.
+     *
+     * @return the sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Stops replicating and disconnects the standbys.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        portfolio.removeListener(this);
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.out.println("Error closing replication socket: " + e.getMessage());
+        }
+        for (Standby standby : standbys) {
+            standby.disconnect();
+        }
+    }
+
+    @Override
+    public void investmentAdded(Investment investment) {
+        if (!standbys.isEmpty()) {
+            Investment held = portfolio.findInvestmentBySymbol(investment.getSymbol());
+            if (held != null && held != investment) {
+                System.out.println(duplicateMessage(investment.getSymbol()) + " Standbys were disconnected.");
+                for (Standby standby : standbys) {
+                    standby.disconnect();
+                }
+                return;
+            }
+            begin(INVESTMENT, ++sequence);
+            writeInvestment(investment);
+            publish(null);
+        }
+    }
+
+    @Override
+    public void investmentRemoved(Investment investment) {
+        if (!standbys.isEmpty()) {
+            begin(REMOVED, ++sequence);
+            writeUtf(investment.getSymbol());
+            publish(null);
+        }
+    }
+
+    @Override
+    public void priceChanged(Investment investment, double oldPrice) {
+        if (!standbys.isEmpty()) {
+            begin(PRICE, ++sequence);
+            writeUtf(investment.getSymbol());
+            writeDouble(investment.getPrice());
+            publish(null);
+        }
+    }
+
+    @Override
+    public void quantityChanged(Investment investment, int oldQuantity) {
+        if (!standbys.isEmpty()) {
+            begin(QUANTITY, ++sequence);
+            writeUtf(investment.getSymbol());
+            writeInt(investment.getQuantity());
+            publish(null);
+        }
+    }
+
+    @Override
+    public void bookValueChanged(Investment investment, double oldBookValue) {
+        if (!standbys.isEmpty()) {
+            begin(BOOK_VALUE, ++sequence);
+            writeUtf(investment.getSymbol());
+            writeDouble(investment.getBookValue());
+            publish(null);
+        }
+    }
+
+    @Override
+    public void fxRateChanged(String currency, double oldRate) {
+        if (!standbys.isEmpty()) {
+            begin(FX_RATE, ++sequence);
+            writeUtf(currency);
+            writeDouble(portfolio.getFxRates().getRate(currency));
+            publish(null);
+        }
+    }
+
+    /**
+     * Accepts standbys until closed. Each gets a snapshot, queued under the
+     * portfolio's monitor together with its registration, so no change falls
+     * between the snapshot and the stream.
+     */
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Standby standby = new Standby(socket);
+                // Sending starts at once, so a large snapshot streams while it is encoded
+                startDaemon(standby, "ePortfolio replication to " + socket.getRemoteSocketAddress());
+                synchronized (portfolio) {
+                    String duplicate = duplicateSymbol(portfolio);
+                    if (duplicate != null) {
+                        System.out.println(duplicateMessage(duplicate) + " Standby " + socket.getRemoteSocketAddress() + " was disconnected.");
+                        standby.disconnect();
+                        continue;
+                    }
+                    // The snapshot's messages carry the number of the last change before it
+                    begin(SNAPSHOT, sequence);
+                    FxRates fxRates = portfolio.getFxRates();
+                    writeInt(fxRates.getCurrencies().size());
+                    for (String currency : fxRates.getCurrencies()) {
+                        writeUtf(currency);
+                        writeDouble(fxRates.getRate(currency));
+                    }
+                    writeInt(portfolio.getInvestments().size());
+                    publish(standby);
+                    for (Investment investment : portfolio.getInvestments()) {
+                        begin(INVESTMENT, sequence);
+                        writeInvestment(investment);
+                        publish(standby);
+                    }
+                    standbys.add(standby);
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    /**
+     * Finds a symbol the portfolio holds more than once, ignoring case like
+     * findInvestmentBySymbol. The caller holds the portfolio's monitor.
+     *
+     * @return the symbol, or null if every symbol is held once
+     */
+    private static String duplicateSymbol(Portfolio portfolio) {
+        HashSet<String> symbols = new HashSet<>();
+        for (Investment investment : portfolio.getInvestments()) {
+            if (!symbols.add(investment.getSymbol().toLowerCase(Locale.ROOT))) {
+                return investment.getSymbol();
+            }
+        }
+        return null;
+    }
+
+    private static String duplicateMessage(String symbol) {
+        return "Error: Replication needs unique symbols, but '" + symbol + "' is held more than once.";
+    }
+
+    /**
+     * Sends a heartbeat to every standby every HEARTBEAT_MILLIS.
+     */
+    private void heartbeat() {
+        while (!closed) {
+            try {
+                Thread.sleep(HEARTBEAT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!standbys.isEmpty()) {
+                synchronized (portfolio) {
+                    begin(HEARTBEAT, ++sequence);
+                    publish(null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts a message. Callers hold the portfolio's monitor, as listeners
+     * are called with it.
+     */
+    private void begin(byte type, long number) {
+        message.reset();
+        try {
+            messageOut.writeByte(type);
+            messageOut.writeLong(number);
+            messageOut.writeLong(nowMicros());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Queues the message for one standby, or for all if standby is null.
+     */
+    private void publish(Standby standby) {
+        byte[] bytes = message.toByteArray();
+        if (standby != null) {
+            standby.enqueue(bytes, bytes.length);
+        } else {
+            for (Standby each : standbys) {
+                each.enqueue(bytes, bytes.length);
+            }
+        }
+    }
+
+    private void writeInvestment(Investment investment) {
+        try {
+            messageOut.writeBoolean(investment instanceof MutualFund);
+            messageOut.writeUTF(investment.getSymbol());
+            messageOut.writeUTF(investment.getName());
+            messageOut.writeInt(investment.getQuantity());
+            messageOut.writeDouble(investment.getPrice());
+            messageOut.writeDouble(investment.getBookValue());
+            messageOut.writeUTF(investment.getCurrency() == null ? "" : investment.getCurrency());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeUtf(String value) {
+        try {
+            messageOut.writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeInt(int value) {
+        try {
+            messageOut.writeInt(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeDouble(double value) {
+        try {
+            messageOut.writeDouble(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gets the current time in microseconds since the epoch, which both
+     * sides of a connection on one machine read from the same clock.
+     *
+     * @return the time in microseconds
+     */
+    static long nowMicros() {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+    }
+
+    private static void startDaemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,412 @@
+package ePortfolio;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a ReplicationPrimary, applying its stream of changes to a local
+ * portfolio, so that the standby can take over the moment the primary goes
+ * away.
+ *
+ * <p>
+ * Changes are applied through the same methods and setters the primary
+ * used, so the symbol and keyword indexes, and any listener registered on
+ * the standby's portfolio, stay current. Promoting the standby therefore
+ * only stops the stream; nothing has to be read or indexed. Changes are
+ * applied while holding the portfolio's monitor, each buffered run of them
+ * as one batch, so readers of the portfolio see whole changes and sold
+ * investments leave the keyword index once per run. The snapshot is applied
+ * under a single hold of the monitor, so readers never see half of it.
+ *
+ * <p>
+ * Changes name investments by symbol, so the primary refuses to replicate a
+ * portfolio holding a symbol twice, and the standby counts the stream as
+ * out of step if it is asked to add a symbol it already holds.
+ *
+ * <p>
+ * The primary counts as lost when the connection closes, when no message
+ * arrives for TIMEOUT_MILLIS (ten heartbeats) or when the stream is out of
+ * step, for example because a message was skipped.
+ */
+public class ReplicationStandby implements Closeable {
+
+    public static final int TIMEOUT_MILLIS = 10 * (int) ReplicationPrimary.HEARTBEAT_MILLIS;
+
+    private final Portfolio portfolio;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final Thread reader;
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private final CountDownLatch lost = new CountDownLatch(1);
+    private volatile boolean snapshotApplied;
+    private volatile long appliedSequence;
+    private volatile long applied;
+    private volatile long lagMicros;
+    private volatile long maxLagMicros;
+    private volatile long lastMessageNanos = System.nanoTime();
+    private volatile String lossReason;
+
+    /**
+     * Connects to a primary on this machine and starts following it.
+     *
+     * @param portfolio the portfolio the primary's investments are copied
+     * into; whatever it holds is replaced by the primary's snapshot
+     * @param port the primary's replication port
+     * @throws IOException if the primary cannot be reached
+     */
+    public ReplicationStandby(Portfolio portfolio, int port) throws IOException {
+        this.portfolio = portfolio;
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setSoTimeout(TIMEOUT_MILLIS);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        reader = new Thread(this::follow, "ePortfolio standby");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Waits until the primary's snapshot has been applied.
+     *
+     * @param timeoutMillis how long to wait
+     * @return true if the snapshot is applied, false if the wait timed out or
+     * the primary was lost first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean awaitSnapshot(long timeoutMillis) throws InterruptedException {
+        return ready.await(timeoutMillis, TimeUnit.MILLISECONDS) && snapshotApplied;
+    }
+
+    /**
+     * Waits until the primary is lost.
+     *
+     * @param timeoutMillis how long to wait
+     * @return true if the primary is lost, false if the wait timed out
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean awaitPrimaryLoss(long timeoutMillis) throws InterruptedException {
+        return lost.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks whether the primary is lost.
+     *
+     * @return true if the stream has ended
+     */
+    public boolean isPrimaryLost() {
+        return lost.getCount() == 0;
+    }
+
+    /**
+     * Gets why the primary counts as lost.
+     *
+     * @return the reason, or null while the primary is followed
+     */
+    public String getLossReason() {
+        return lossReason;
+    }
+
+    /**
+     * Gets the sequence number of the last message applied, which matches
+     * ReplicationPrimary.getSequence once the standby has caught up.
+     *
+     * @return the sequence number
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * Gets the number of changes applied since the snapshot, heartbeats
+     * included.
+     *
+     * @return the number of messages
+     */
+    public long getAppliedCount() {
+        return applied;
+    }
+
+    /**
+     * Gets how long the last message took from the primary's change to
+     * being applied here.
+     *
+     * @return the lag in microseconds
+     */
+    public long getLagMicros() {
+        return lagMicros;
+    }
+
+    /**
+     * Gets the largest lag of any message since the snapshot.
+     *
+     * @return the lag in microseconds
+     */
+    public long getMaxLagMicros() {
+        return maxLagMicros;
+    }
+
+    /**
+     * Gets the time since the last message from the primary, which stays
+     * below the heartbeat interval while the primary is alive.
+     *
+     * @return the time in milliseconds
+     */
+    public long getMillisSinceLastMessage() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastMessageNanos);
+    }
+
+    /**
+     * Stops following the primary and hands over the portfolio, which holds
+     * every change applied up to then and needs no loading or indexing.
+     *
+     * @return the portfolio, ready to serve
+     * @throws IllegalStateException if the snapshot was never completed
+     */
+    public Portfolio promote() {
+        close();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!snapshotApplied) {
+            throw new IllegalStateException("Error: Standby has no complete snapshot to promote.");
+        }
+        return portfolio;
+    }
+
+    /**
+     * Disconnects from the primary.
+     */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.out.println("Error closing standby socket: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies messages until the primary is lost or the standby is closed.
+     */
+    private void follow() {
+        try {
+            while (true) {
+                byte type = in.readByte();
+                synchronized (portfolio) {
+                    // What has already arrived is applied as one batch, like the trades on the primary
+                    portfolio.beginBatch();
+                    try {
+                        apply(type);
+                        while (in.available() > 0) {
+                            apply(in.readByte());
+                        }
+                    } finally {
+                        portfolio.endBatch();
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            lossReason = "Primary closed the connection";
+        } catch (SocketTimeoutException e) {
+            lossReason = "No message from the primary for " + TIMEOUT_MILLIS + " ms";
+        } catch (IOException e) {
+            lossReason = socket.isClosed() ? "Standby closed" : e.getMessage();
+        } finally {
+            close();
+            ready.countDown();
+            lost.countDown();
+        }
+    }
+
+    /**
+     * Applies one message whose type has been read.
+     */
+    private void apply(byte type) throws IOException {
+        long sequence = in.readLong();
+        long sent = in.readLong();
+        lastMessageNanos = System.nanoTime();
+        if (type == ReplicationPrimary.SNAPSHOT) {
+            applySnapshot(sequence);
+        } else if (!snapshotApplied) {
+            throw new IOException("Error: Stream did not start with a snapshot.");
+        } else {
+            if (sequence != appliedSequence + 1) {
+                throw new IOException("Error: Expected message " + (appliedSequence + 1) + " but got " + sequence + ".");
+            }
+            applyChange(type, sequence);
+            long lag = ReplicationPrimary.nowMicros() - sent;
+            lagMicros = lag;
+            if (lag > maxLagMicros) {
+                maxLagMicros = lag;
+            }
+            applied++;
+        }
+        appliedSequence = sequence;
+    }
+
+    /**
+     * Replaces the portfolio's investments with the snapshot whose header
+     * has been read, reading its investment messages as well. The caller
+     * holds the portfolio's monitor throughout, so readers wait for the
+     * whole snapshot, and the investments are applied in one batch, so the
+     * keyword index is rebuilt once.
+     */
+    private void applySnapshot(long sequence) throws IOException {
+        for (int rates = in.readInt(); rates > 0; rates--) {
+            portfolio.updateFxRate(in.readUTF(), in.readDouble());
+        }
+        int count = in.readInt();
+        portfolio.beginBatch();
+        try {
+            for (Investment investment : new ArrayList<>(portfolio.getInvestments())) {
+                portfolio.removeInvestment(investment);
+            }
+            for (int i = 0; i < count; i++) {
+                if (in.readByte() != ReplicationPrimary.INVESTMENT || in.readLong() != sequence) {
+                    throw new IOException("Error: Snapshot ended early at sequence " + sequence + ".");
+                }
+                in.readLong();
+                lastMessageNanos = System.nanoTime();
+                append(readInvestment(), sequence);
+            }
+        } finally {
+            portfolio.endBatch();
+        }
+        snapshotApplied = true;
+        ready.countDown();
+    }
+
+    /**
+     * Applies a change made on the primary after the snapshot.
+     */
+    private void applyChange(byte type, long sequence) throws IOException {
+        switch (type) {
+            case ReplicationPrimary.INVESTMENT:
+                append(readInvestment(), sequence);
+                break;
+            case ReplicationPrimary.REMOVED:
+                portfolio.removeInvestment(find(in.readUTF(), sequence));
+                break;
+            case ReplicationPrimary.PRICE:
+                find(in.readUTF(), sequence).setPrice(in.readDouble());
+                break;
+            case ReplicationPrimary.QUANTITY:
+                find(in.readUTF(), sequence).setQuantity(in.readInt());
+                break;
+            case ReplicationPrimary.BOOK_VALUE:
+                find(in.readUTF(), sequence).setBookValue(in.readDouble());
+                break;
+            case ReplicationPrimary.HEARTBEAT:
+                break;
+            case ReplicationPrimary.FX_RATE:
+                portfolio.updateFxRate(in.readUTF(), in.readDouble());
+                break;
+            default:
+                throw new IOException("Error: Unknown message type " + type + " at sequence " + sequence + ".");
+        }
+    }
+
+    /**
+     * Appends an investment from the primary. A symbol the standby already
+     * holds would make later changes by symbol ambiguous.
+     */
+    private void append(Investment investment, long sequence) throws IOException {
+        if (portfolio.findInvestmentBySymbol(investment.getSymbol()) != null) {
+            throw new IOException("Error: Message " + sequence + " adds '" + investment.getSymbol() + "', which the standby already holds.");
+        }
+        portfolio.appendInvestment(investment);
+    }
+
+    private Investment find(String symbol, long sequence) throws IOException {
+        Investment investment = portfolio.findInvestmentBySymbol(symbol);
+        if (investment == null) {
+            throw new IOException("Error: Message " + sequence + " changes '" + symbol + "', which the standby does not hold.");
+        }
+        return investment;
+    }
+
+    private Investment readInvestment() throws IOException {
+        boolean mutualFund = in.readBoolean();
+        String symbol = in.readUTF();
+        String name = in.readUTF();
+        int quantity = in.readInt();
+        double price = in.readDouble();
+        double bookValue = in.readDouble();
+        Investment investment = mutualFund
+                ? new MutualFund(symbol, name, quantity, price, bookValue)
+                : new Stock(symbol, name, quantity, price, bookValue);
+        investment.setCurrency(in.readUTF());
+        return investment;
+    }
+
+    /**
+     * Follows a primary and, once it is lost, promotes the standby: the
+     * portfolio is saved to the file and served over HTTP like
+     * PortfolioServer.
+     *
+     * @param args args[0] is the primary's replication port, args[1] the
+     * portfolio file to take over and the optional args[2] the HTTP port
+     * (default 8080)
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java ePortfolio.ReplicationStandby <replication port> <portfolio file> [port]\n");
+            return;
+        }
+        System.setProperty("java.awt.headless", "true");
+        String filename = args[1];
+        Portfolio portfolio = new Portfolio();
+        ReplicationStandby standby;
+        try {
+            standby = new ReplicationStandby(portfolio, Integer.parseInt(args[0]));
+            if (!standby.awaitSnapshot(Long.MAX_VALUE)) {
+                System.out.println("Error: " + standby.getLossReason());
+                return;
+            }
+            System.out.println("Following the primary with " + portfolio.getInvestments().size() + " investments");
+            while (!standby.awaitPrimaryLoss(10_000)) {
+                System.out.printf("Applied %d, lag %d us, max %d us%n", standby.getAppliedSequence(),
+                        standby.getLagMicros(), standby.getMaxLagMicros());
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Error starting standby: " + e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            return;
+        }
+        long start = System.nanoTime();
+        standby.promote();
+        System.out.printf("%s; promoted in %.1f ms%n", standby.getLossReason(), (System.nanoTime() - start) / 1e6);
+
+        TradePipeline pipeline = new TradePipeline(portfolio);
+        PortfolioServer server;
+        try {
+            server = new PortfolioServer(portfolio, pipeline, filename, args.length > 2 ? Integer.parseInt(args[2]) : PortfolioServer.DEFAULT_PORT);
+        } catch (IOException e) {
+            System.out.println("Error starting server: " + e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            pipeline.close();
+            synchronized (portfolio) {
+                portfolio.saveToFile(filename);
+            }
+        }));
+        server.start();
+        synchronized (portfolio) {
+            portfolio.saveToFile(filename);
+        }
+        System.out.println("Serving " + filename + " on http://127.0.0.1:" + server.getPort() + "/");
+    }
+}
@@ -0,0 +1,109 @@
+package ePortfolio;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A what-if price shock: every stock price moves by one fraction, every
+ * mutual fund price by another, and single symbols can be given their own
+ * fraction instead. A shock of -0.10 means the price falls by 10%.
+ */
+public class Scenario {
+
+    private final String name;
+    private final double stockShock;
+    private final double mutualFundShock;
+    // Lower-case symbol to the shock that replaces the type's shock
+    private final HashMap<String, Double> symbolShocks = new HashMap<>();
+
+    /**
+     * Creates a scenario that shocks prices by investment type.
+     *
+     * @param name the name of the scenario
+     * @param stockShock the price change of stocks as a fraction
+     * @param mutualFundShock the price change of mutual funds as a fraction
+     * @throws IllegalArgumentException if a shock is -100% or lower
+     */
+    public Scenario(String name, double stockShock, double mutualFundShock) {
+        validateShock(stockShock);
+        validateShock(mutualFundShock);
+        this.name = name;
+        this.stockShock = stockShock;
+        this.mutualFundShock = mutualFundShock;
+    }
+
+    /**
+     * Gets the name of the scenario.
+     *
+     * @return the name of the scenario
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the price change applied to stocks without a symbol shock.
+     *
+     * @return the price change as a fraction
+     */
+    public double getStockShock() {
+        return stockShock;
+    }
+
+    /**
+     * Gets the price change applied to mutual funds without a symbol shock.
+     *
+     * @return the price change as a fraction
+     */
+    public double getMutualFundShock() {
+        return mutualFundShock;
+    }
+
+    /**
+     * Gives one symbol its own price change, replacing the shock of its type.
+     *
+     * @param symbol the symbol to shock, compared case-insensitively
+     * @param shock the price change as a fraction
+     * @throws IllegalArgumentException if the shock is -100% or lower
+     */
+    public void setSymbolShock(String symbol, double shock) {
+        validateShock(shock);
+        symbolShocks.put(symbol.toLowerCase(Locale.ROOT), shock);
+    }
+
+    /**
+     * Gets the symbols with their own price change.
+     *
+     * @return the price change by lower-case symbol
+     */
+    public Map<String, Double> getSymbolShocks() {
+        return symbolShocks;
+    }
+
+    /**
+     * Gets the price change this scenario applies to an investment.
+     *
+     * @param investment the investment
+     * @return the price change as a fraction
+     */
+    public double shockOf(Investment investment) {
+        Double shock = symbolShocks.get(investment.getSymbol().toLowerCase(Locale.ROOT));
+        if (shock != null) {
+            return shock;
+        }
+        return investment instanceof MutualFund ? mutualFundShock : stockShock;
+    }
+
+    /**
+     * Validates a price shock.
+     *
+     * @param shock the shock to validate
+     * @throws IllegalArgumentException if the shock is -100% or lower
+     */
+    private static void validateShock(double shock) {
+        if (!(shock > -1.0)) {
+            throw new IllegalArgumentException("Error: A price shock must be greater than -100%.");
+        }
+    }
+}
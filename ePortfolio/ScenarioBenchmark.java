@@ -0,0 +1,93 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares ScenarioEngine with repricing the portfolio once per scenario.
+ * The baseline loops over every investment for every scenario, which is what
+ * getTotalGain would cost on a repriced copy without the copying itself.
+ *
+ * <pre>
+ * java -Xmx3g ePortfolio.ScenarioBenchmark 1000000 500
+ * </pre>
+ */
+public class ScenarioBenchmark {
+
+    private static final int SYMBOL_SHOCKS = 10;
+
+    /**
+     * Generates the portfolio and scenarios and prints both timings.
+     *
+     * @param args args[0] is the number of positions (default 1,000,000) and
+     * args[1] the number of scenarios (default 500)
+     */
+    public static void main(String[] args) {
+        int positions = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        Random random = new Random(42);
+
+        Portfolio portfolio = new Portfolio();
+        for (int i = 0; i < positions; i++) {
+            int quantity = 1 + random.nextInt(1000);
+            double price = 1 + random.nextInt(50_000) / 100.0;
+            if (i % 3 == 0) {
+                portfolio.addInvestment(new MutualFund("F" + i, "Fund " + (i % 5000), quantity, price, quantity * price));
+            } else {
+                portfolio.addInvestment(new Stock("S" + i, "Stock " + (i % 5000), quantity, price, quantity * price + 9.99));
+            }
+        }
+        ArrayList<Scenario> scenarios = new ArrayList<>();
+        for (int s = 0; s < count; s++) {
+            Scenario scenario = new Scenario("Scenario " + s, random.nextDouble() * 0.4 - 0.2, random.nextDouble() * 0.2 - 0.1);
+            for (int k = 0; k < SYMBOL_SHOCKS; k++) {
+                int position = random.nextInt(positions);
+                scenario.setSymbolShock((position % 3 == 0 ? "F" : "S") + position, random.nextDouble() - 0.5);
+            }
+            scenarios.add(scenario);
+        }
+
+        // Warm up both paths once before timing
+        new ScenarioEngine(portfolio).evaluate(scenarios);
+        repriceEach(portfolio, scenarios.subList(0, Math.min(5, count)));
+
+        long start = System.nanoTime();
+        ScenarioEngine engine = new ScenarioEngine(portfolio);
+        double[][] gains = engine.evaluate(scenarios);
+        double engineMillis = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        double[] expected = repriceEach(portfolio, scenarios);
+        double baselineMillis = (System.nanoTime() - start) / 1e6;
+
+        double maxError = 0;
+        for (int s = 0; s < count; s++) {
+            maxError = Math.max(maxError, Math.abs(gains[s][ScenarioEngine.TOTAL] - expected[s]) / Math.max(1, Math.abs(expected[s])));
+        }
+        System.out.printf("Positions: %,d, scenarios: %,d, cores: %d%n", positions, count, Runtime.getRuntime().availableProcessors());
+        System.out.printf("Scenario engine (snapshot + evaluate): %10.1f ms%n", engineMillis);
+        System.out.printf("Reprice per scenario:                  %10.1f ms%n", baselineMillis);
+        System.out.printf("Speed-up: %.0fx, largest relative difference: %.2e%n", baselineMillis / engineMillis, maxError);
+    }
+
+    /**
+     * Computes the total gain of every scenario by repricing each investment.
+     *
+     * @param portfolio the portfolio to evaluate
+     * @param scenarios the scenarios to evaluate
+     * @return the total gain of each scenario
+     */
+    private static double[] repriceEach(Portfolio portfolio, List<Scenario> scenarios) {
+        double[] gains = new double[scenarios.size()];
+        for (int s = 0; s < gains.length; s++) {
+            Scenario scenario = scenarios.get(s);
+            double gain = 0;
+            for (Investment investment : portfolio.getInvestments()) {
+                gain += investment.getQuantity() * investment.getPrice() * (1 + scenario.shockOf(investment)) - investment.getBookValue();
+            }
+            gains[s] = gain;
+        }
+        return gains;
+    }
+}
@@ -0,0 +1,179 @@
+package ePortfolio;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Evaluates many price shock scenarios against a portfolio without copying
+ * or repricing it once per scenario.
+ *
+ * <p>
+ * The engine takes a snapshot of the positions as primitive columns (market
+ * value, book value and type) and sums them by type in a single parallel
+ * pass. Since a type shock scales every market value of that type by the
+ * same factor, the gain of a scenario is
+ * <pre>
+ *   stockValue * (1 + stockShock) + fundValue * (1 + fundShock) - bookValue
+ * </pre>
+ * corrected by (symbolShock - typeShock) * value for each symbol shock. Each
+ * scenario therefore costs O(1 + symbol shocks) instead of O(positions), and
+ * the scenarios are evaluated in parallel as well.
+ *
+ * <p>
+ * The snapshot does not follow later changes to the portfolio; create a new
+ * engine to evaluate against current prices.
+ */
+public class ScenarioEngine {
+
+    /** Column of the stock gain in the gain matrix. */
+    public static final int STOCKS = 0;
+    /** Column of the mutual fund gain in the gain matrix. */
+    public static final int MUTUAL_FUNDS = 1;
+    /** Column of the total gain in the gain matrix. */
+    public static final int TOTAL = 2;
+
+    private static final int CHUNK = 1 << 14;
+
+    private final double[] marketValues;
+    private final double[] bookValues;
+    private final boolean[] mutualFunds;
+    private final HashMap<String, Integer> positions = new HashMap<>();
+    // Market and book value by type, indexed by STOCKS and MUTUAL_FUNDS
+    private final double[] typeMarketValues = new double[2];
+    private final double[] typeBookValues = new double[2];
+
+    /**
+     * Takes a snapshot of a portfolio's positions and sums them by type.
+     *
+     * @param portfolio the portfolio to evaluate
+     */
+    public ScenarioEngine(Portfolio portfolio) {
+        synchronized (portfolio) {
+            List<Investment> investments = portfolio.getInvestments();
+            int size = investments.size();
+            marketValues = new double[size];
+            bookValues = new double[size];
+            mutualFunds = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                Investment investment = investments.get(i);
+                marketValues[i] = investment.getQuantity() * investment.getPrice();
+                bookValues[i] = investment.getBookValue();
+                mutualFunds[i] = investment instanceof MutualFund;
+                positions.putIfAbsent(investment.getSymbol().toLowerCase(Locale.ROOT), i);
+            }
+        }
+
+        // One pass over the columns, chunked so each task sums a contiguous range
+        int chunks = (marketValues.length + CHUNK - 1) / CHUNK;
+        double[] sums = IntStream.range(0, chunks).parallel()
+                .mapToObj(this::sumChunk)
+                .reduce(new double[4], ScenarioEngine::add);
+        typeMarketValues[STOCKS] = sums[0];
+        typeMarketValues[MUTUAL_FUNDS] = sums[1];
+        typeBookValues[STOCKS] = sums[2];
+        typeBookValues[MUTUAL_FUNDS] = sums[3];
+    }
+
+    /**
+     * Gets the number of positions in the snapshot.
+     *
+     * @return the number of positions
+     */
+    public int size() {
+        return marketValues.length;
+    }
+
+    /**
+     * Evaluates scenarios and returns their gains. Row i of the matrix holds
+     * the gain of scenario i in the STOCKS, MUTUAL_FUNDS and TOTAL columns.
+     *
+     * @param scenarios the scenarios to evaluate
+     * @return the gain matrix, one row per scenario
+     */
+    public double[][] evaluate(List<Scenario> scenarios) {
+        double[][] gains = new double[scenarios.size()][];
+        IntStream.range(0, gains.length).parallel().forEach(s -> gains[s] = evaluate(scenarios.get(s)));
+        return gains;
+    }
+
+    /**
+     * Evaluates one scenario.
+     *
+     * @param scenario the scenario to evaluate
+     * @return the stock, mutual fund and total gain of the scenario
+     */
+    public double[] evaluate(Scenario scenario) {
+        double[] shocks = {scenario.getStockShock(), scenario.getMutualFundShock()};
+        double[] gain = new double[3];
+        for (int type = STOCKS; type <= MUTUAL_FUNDS; type++) {
+            gain[type] = typeMarketValues[type] * (1.0 + shocks[type]) - typeBookValues[type];
+        }
+        for (Map.Entry<String, Double> entry : scenario.getSymbolShocks().entrySet()) {
+            Integer position = positions.get(entry.getKey());
+            if (position != null) {
+                int type = mutualFunds[position] ? MUTUAL_FUNDS : STOCKS;
+                gain[type] += marketValues[position] * (entry.getValue() - shocks[type]);
+            }
+        }
+        gain[TOTAL] = gain[STOCKS] + gain[MUTUAL_FUNDS];
+        return gain;
+    }
+
+    /**
+     * Calculates the gain of every position under one scenario, in the order
+     * of the portfolio's investments at the time of the snapshot.
+     *
+     * @param scenario the scenario to evaluate
+     * @return the gain of each position
+     */
+    public double[] positionGains(Scenario scenario) {
+        double stockFactor = 1.0 + scenario.getStockShock();
+        double fundFactor = 1.0 + scenario.getMutualFundShock();
+        double[] gains = new double[marketValues.length];
+        IntStream.range(0, (gains.length + CHUNK - 1) / CHUNK).parallel().forEach(chunk -> {
+            int end = Math.min(gains.length, (chunk + 1) * CHUNK);
+            for (int i = chunk * CHUNK; i < end; i++) {
+                gains[i] = marketValues[i] * (mutualFunds[i] ? fundFactor : stockFactor) - bookValues[i];
+            }
+        });
+        for (Map.Entry<String, Double> entry : scenario.getSymbolShocks().entrySet()) {
+            Integer position = positions.get(entry.getKey());
+            if (position != null) {
+                gains[position] = marketValues[position] * (1.0 + entry.getValue()) - bookValues[position];
+            }
+        }
+        return gains;
+    }
+
+    /**
+     * Sums the market and book values of one chunk by type.
+     *
+     * @param chunk the number of the chunk
+     * @return stock value, fund value, stock book value and fund book value
+     */
+    private double[] sumChunk(int chunk) {
+        int end = Math.min(marketValues.length, (chunk + 1) * CHUNK);
+        double stockValue = 0, fundValue = 0, stockBook = 0, fundBook = 0;
+        for (int i = chunk * CHUNK; i < end; i++) {
+            if (mutualFunds[i]) {
+                fundValue += marketValues[i];
+                fundBook += bookValues[i];
+            } else {
+                stockValue += marketValues[i];
+                stockBook += bookValues[i];
+            }
+        }
+        return new double[]{stockValue, fundValue, stockBook, fundBook};
+    }
+
+    private static double[] add(double[] a, double[] b) {
+        double[] sum = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            sum[i] = a[i] + b[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,288 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bounded cache of search results, including the symbol and price range
+ * filters the search panel applies on top of Portfolio.search.
+ *
+ * <p>
+ * Queries are normalized (lower case, keywords sorted), so equivalent
+ * queries share an entry. The least recently used
+ * entry is evicted once the cache holds its capacity. Every term keeps the
+ * version at which an investment carrying it was last added or removed, and
+ * separately the version at which one of those investments last changed
+ * price. An entry remembers the version it was computed at and is used only
+ * while none of its terms has a newer version; price changes only affect
+ * entries with a price range. A trade in one investment therefore
+ * invalidates only the cached queries for its own name keywords and symbol.
+ *
+ * <p>
+ * Price ranges are in the base currency: foreign prices are converted at
+ * the portfolio's FX rates. An entry with a price range also remembers the
+ * foreign currencies among its candidates and the FX version it was
+ * computed at, so a new rate only invalidates the entries that hold
+ * investments in that currency.
+ *
+ * <p>
+ * The cache registers itself as a listener of the portfolio and must be used
+ * like the portfolio: either from one thread, or by threads synchronizing on
+ * the portfolio, which the search methods do themselves.
+ */
+public class SearchCache implements PortfolioListener {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * One cached result and the version it was computed at.
+     */
+    private static final class CachedResult {
+
+        final String[] terms;
+        final boolean priceFiltered;
+        final long version;
+        final Investment[] results;
+        // Foreign currencies of the investments the price range was applied to
+        final String[] currencies;
+        final long fxVersion;
+
+        CachedResult(String[] terms, boolean priceFiltered, long version, Investment[] results, String[] currencies, long fxVersion) {
+            this.terms = terms;
+            this.priceFiltered = priceFiltered;
+            this.version = version;
+            this.results = results;
+            this.currencies = currencies;
+            this.fxVersion = fxVersion;
+        }
+    }
+
+    private final Portfolio portfolio;
+    private final LinkedHashMap<String, CachedResult> entries;
+    // Versions at which an investment with the term was last added or removed, and last repriced
+    private final HashMap<String, Long> membershipVersions = new HashMap<>();
+    private final HashMap<String, Long> priceVersions = new HashMap<>();
+    private long version;
+    private long hits;
+    private long misses;
+    private long invalidations;
+
+    /**
+     * Creates a cache with the default capacity and registers it with the
+     * portfolio.
+     *
+     * @param portfolio the portfolio to search
+     */
+    public SearchCache(Portfolio portfolio) {
+        this(portfolio, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a cache and registers it with the portfolio.
+     *
+     * @param portfolio the portfolio to search
+     * @param capacity the maximum number of cached queries
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public SearchCache(Portfolio portfolio, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Error: The capacity must be greater than 0.");
+        }
+        this.portfolio = portfolio;
+        entries = new LinkedHashMap<String, CachedResult>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                return size() > capacity;
+            }
+        };
+        portfolio.addListener(this);
+    }
+
+    /**
+     * Searches by keywords like Portfolio.search.
+     *
+     * @param keywords the keywords separated by blanks
+     * @return the matching investments
+     */
+    public ArrayList<Investment> search(String keywords) {
+        return search(keywords, null, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Searches by keywords and keeps the investments with the given symbol
+     * whose price in the base currency lies in a range.
+     *
+     * @param keywords the keywords separated by blanks
+     * @param symbol the symbol to match ignoring case, or null or empty for
+     * any symbol
+     * @param lowPrice the lowest price in the base currency, inclusive
+     * @param highPrice the highest price in the base currency, inclusive
+     * @return the matching investments
+     */
+    public ArrayList<Investment> search(String keywords, String symbol, double lowPrice, double highPrice) {
+        String[] terms = normalize(keywords);
+        String symbolKey = symbol == null ? "" : symbol.trim().toLowerCase(Locale.ROOT);
+        boolean priceFiltered = lowPrice != Double.NEGATIVE_INFINITY || highPrice != Double.POSITIVE_INFINITY;
+        String key = String.join(" ", terms) + '|' + symbolKey + '|' + lowPrice + '|' + highPrice;
+
+        synchronized (portfolio) {
+            CachedResult entry = entries.get(key);
+            if (entry != null) {
+                if (isCurrent(entry)) {
+                    hits++;
+                    return new ArrayList<>(Arrays.asList(entry.results));
+                }
+                invalidations++;
+            }
+            misses++;
+
+            FxRates fxRates = portfolio.getFxRates();
+            ArrayList<Investment> results = new ArrayList<>();
+            ArrayList<String> currencies = new ArrayList<>(1);
+            for (Investment investment : portfolio.search(String.join(" ", terms))) {
+                if (!symbolKey.isEmpty() && !investment.getSymbol().equalsIgnoreCase(symbolKey)) {
+                    continue;
+                }
+                if (priceFiltered) {
+                    String currency = investment.getCurrency();
+                    if (currency != null && !currencies.contains(currency)) {
+                        currencies.add(currency);
+                    }
+                    double price = fxRates.toBase(currency, investment.getPrice());
+                    if (!(price >= lowPrice && price <= highPrice)) {
+                        continue;
+                    }
+                }
+                results.add(investment);
+            }
+            entries.put(key, new CachedResult(terms, priceFiltered, version, results.toArray(new Investment[0]),
+                    currencies.toArray(new String[0]), fxRates.getVersion()));
+            return results;
+        }
+    }
+
+    /**
+     * Gets the number of searches answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of searches that ran against the portfolio, including
+     * those that found a stale entry.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of searches that found their entry outdated by a
+     * change to the portfolio.
+     *
+     * @return the number of invalidated entries
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Gets the share of searches answered from the cache.
+     *
+     * @return the hit rate between 0 and 1, or 0 before the first search
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    /**
+     * Gets the number of cached queries.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        synchronized (portfolio) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Unregisters the cache from the portfolio and drops its entries.
+     */
+    public void close() {
+        synchronized (portfolio) {
+            portfolio.removeListener(this);
+            entries.clear();
+        }
+    }
+
+    @Override
+    public void investmentAdded(Investment investment) {
+        bump(membershipVersions, investment);
+    }
+
+    @Override
+    public void investmentRemoved(Investment investment) {
+        bump(membershipVersions, investment);
+    }
+
+    @Override
+    public void priceChanged(Investment investment, double oldPrice) {
+        bump(priceVersions, investment);
+    }
+
+    /**
+     * Checks whether no term of an entry has changed since it was computed.
+     */
+    private boolean isCurrent(CachedResult entry) {
+        for (String currency : entry.currencies) {
+            if (portfolio.getFxRates().getVersion(currency) > entry.fxVersion) {
+                return false;
+            }
+        }
+        for (String term : entry.terms) {
+            if (membershipVersions.getOrDefault(term, 0L) > entry.version
+                    || (entry.priceFiltered && priceVersions.getOrDefault(term, 0L) > entry.version)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gives every term of an investment, its name keywords and its symbol,
+     * a new version.
+     */
+    private void bump(HashMap<String, Long> versions, Investment investment) {
+        Long next = ++version;
+        for (String keyword : investment.getName().toLowerCase(Locale.ROOT).split(" ")) {
+            if (!keyword.isEmpty()) {
+                versions.put(keyword, next);
+            }
+        }
+        versions.put(investment.getSymbol().toLowerCase(Locale.ROOT), next);
+    }
+
+    /**
+     * Splits keywords into sorted lower-case terms exactly as Portfolio.search
+     * does, on single spaces, so the cached results are the uncached ones: a
+     * leading or doubled space yields an empty term, which matches nothing.
+     * Repeated terms are kept, since Portfolio.search treats a query for
+     * "tech tech" differently from one for "tech" when a name repeats the
+     * word.
+     */
+    private static String[] normalize(String keywords) {
+        String[] terms = keywords.toLowerCase(Locale.ROOT).split(" ");
+        Arrays.sort(terms);
+        return terms;
+    }
+}
@@ -0,0 +1,309 @@
+package ePortfolio;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Saves a portfolio as a directory of segment files, so a save only rewrites
+ * the segments holding investments that changed since the last save.
+ *
+ * <p>
+ * Each segment file holds up to SEGMENT_SIZE investments in the same format
+ * as a portfolio file. An investment keeps the segment it was first saved
+ * to. Investments report their first change after a save to their portfolio,
+ * and the portfolio reports new and fully sold investments, so the store
+ * knows the changed segments without scanning the portfolio. New investments
+ * fill the space sold investments left in earlier segments before a new
+ * segment is started. A segment is written to a temporary file and moved over
+ * the old one, so every segment file is either old or new, never partial.
+ *
+ * <p>
+ * The first save to a directory the portfolio was not loaded from writes
+ * every segment and deletes any other segment files in it. Loading from the
+ * directory lists the investments segment by segment, so their order may
+ * differ from the order they were added in.
+ */
+public class SegmentedPortfolioStore {
+
+    /** Maximum number of investments in one segment file. */
+    public static final int SEGMENT_SIZE = 1024;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{6})\\.txt");
+
+    private final Portfolio portfolio;
+    private final File directory;
+    // Investments by segment; sold investments stay until their segment is rewritten
+    private final ArrayList<ArrayList<Investment>> segments = new ArrayList<>();
+    // Investments changed or added since the last save, each listed once
+    private final ArrayList<Investment> changed = new ArrayList<>();
+    // Segments to rewrite on the next save
+    private final BitSet dirtySegments = new BitSet();
+    // Lowest segment that may have room for another investment
+    private int firstOpen;
+    // False until the directory holds every investment of the portfolio
+    private boolean synced;
+
+    /**
+     * Creates a store for a portfolio and directory. Nothing is read or
+     * written until load or save is called.
+     *
+     * @param portfolio the portfolio to load into and save from
+     * @param directory the directory holding the segment files
+     */
+    SegmentedPortfolioStore(Portfolio portfolio, File directory) {
+        this.portfolio = portfolio;
+        this.directory = directory;
+    }
+
+    /**
+     * Checks whether this store saves to a directory.
+     *
+     * @param directory the directory to check
+     * @return true if the store's directory is the same
+     */
+    boolean isStoreFor(File directory) {
+        return this.directory.getAbsoluteFile().equals(directory.getAbsoluteFile());
+    }
+
+    /**
+     * Appends the investments of every segment file to the portfolio, in
+     * segment order.
+     *
+     * @param counts incremented at index 0 for every investment appended and
+     * at index 1 for every entry skipped
+     * @throws IOException if reading a segment fails
+     */
+    void load(int[] counts) throws IOException {
+        // Investments already in the portfolio are not in any segment yet
+        synced = portfolio.getInvestments().isEmpty();
+        for (File file : segmentFiles(directory)) {
+            int segment = segmentNumber(file);
+            int first = portfolio.getInvestments().size();
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                portfolio.readInvestments(reader, counts);
+            }
+            ArrayList<Investment> members = segment(segment);
+            for (Investment investment : portfolio.getInvestments().subList(first, portfolio.getInvestments().size())) {
+                investment.segment = segment;
+                investment.dirty = false;
+                members.add(investment);
+            }
+        }
+    }
+
+    /**
+     * Records an investment that was added or changed its values since the
+     * last save.
+     *
+     * @param investment the changed investment
+     */
+    void changed(Investment investment) {
+        changed.add(investment);
+    }
+
+    /**
+     * Records an investment that was sold in full, so its segment is
+     * rewritten without it.
+     *
+     * @param investment the removed investment
+     */
+    void removed(Investment investment) {
+        if (investment.segment >= 0) {
+            dirtySegments.set(investment.segment);
+            investment.segment = -1;
+        }
+    }
+
+    /**
+     * Rewrites the segments that changed since the last save, or every
+     * segment on the first save to this directory.
+     *
+     * @return the number of investments written
+     * @throws IOException if the directory cannot be created or a segment
+     * cannot be written; the changes that were not saved are kept for the
+     * next save
+     */
+    int save() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        if (!synced) {
+            return saveAll();
+        }
+
+        // Drop sold investments first, so new investments can take their space
+        for (int segment = dirtySegments.nextSetBit(0); segment >= 0; segment = dirtySegments.nextSetBit(segment + 1)) {
+            int index = segment;
+            if (segments.get(segment).removeIf(investment -> investment.segment != index)) {
+                firstOpen = Math.min(firstOpen, segment);
+            }
+        }
+        for (Investment investment : changed) {
+            // Sold investments are listed too if they changed first; their segment is already marked
+            if (investment.owner == portfolio) {
+                if (investment.segment < 0) {
+                    place(investment);
+                }
+                dirtySegments.set(investment.segment);
+            }
+        }
+        changed.clear();
+
+        int written = 0;
+        for (int segment = dirtySegments.nextSetBit(0); segment >= 0; segment = dirtySegments.nextSetBit(segment + 1)) {
+            written += write(segment);
+            // Cleared one at a time, so a failed save retries the segments it did not write
+            dirtySegments.clear(segment);
+        }
+        return written;
+    }
+
+    /**
+     * Assigns every investment to a segment from scratch, writes all
+     * segments and deletes the segment files left over from earlier saves.
+     *
+     * @return the number of investments written
+     * @throws IOException if a segment cannot be written
+     */
+    private int saveAll() throws IOException {
+        segments.clear();
+        changed.clear();
+        dirtySegments.clear();
+        firstOpen = 0;
+        ArrayList<Investment> investments = portfolio.getInvestments();
+        for (Investment investment : investments) {
+            investment.segment = -1;
+        }
+        for (Investment investment : investments) {
+            // Investments sold in a batch stay listed until the batch ends
+            if (investment.owner == portfolio) {
+                place(investment);
+            }
+        }
+
+        int written = 0;
+        for (int segment = 0; segment < segments.size(); segment++) {
+            written += write(segment);
+        }
+        for (File file : segmentFiles(directory)) {
+            if (segmentNumber(file) >= segments.size()) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        synced = true;
+        return written;
+    }
+
+    /**
+     * Adds an investment to the first segment with room for it.
+     *
+     * @param investment the investment to place
+     */
+    private void place(Investment investment) {
+        while (firstOpen < segments.size() && segments.get(firstOpen).size() >= SEGMENT_SIZE) {
+            firstOpen++;
+        }
+        segment(firstOpen).add(investment);
+        investment.segment = firstOpen;
+    }
+
+    /**
+     * Writes one segment to a temporary file and moves it over the segment
+     * file, or deletes the segment file if the segment is empty. The
+     * investments written are marked clean.
+     *
+     * @param segment the number of the segment
+     * @return the number of investments written
+     * @throws IOException if the segment cannot be written
+     */
+    private int write(int segment) throws IOException {
+        ArrayList<Investment> members = segments.get(segment);
+        File target = new File(directory, String.format("segment-%06d.txt", segment));
+        if (members.isEmpty()) {
+            Files.deleteIfExists(target.toPath());
+            return 0;
+        }
+        File temporary = new File(directory, target.getName() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(temporary))) {
+            for (Investment investment : members) {
+                Portfolio.writeInvestment(writer, investment);
+            }
+        }
+        Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (Investment investment : members) {
+            investment.dirty = false;
+        }
+        return members.size();
+    }
+
+    /**
+     * Gets the list of investments of a segment, adding empty segments up to
+     * it if needed.
+     *
+     * @param segment the number of the segment
+     * @return the investments of the segment
+     */
+    private ArrayList<Investment> segment(int segment) {
+        while (segments.size() <= segment) {
+            segments.add(new ArrayList<>());
+        }
+        return segments.get(segment);
+    }
+
+    /**
+     * Lists the segment files of a directory in segment order.
+     *
+     * @param directory the directory holding the segment files
+     * @return the segment files
+     */
+    private static ArrayList<File> segmentFiles(File directory) {
+        ArrayList<File> files = new ArrayList<>();
+        File[] listed = directory.listFiles();
+        if (listed != null) {
+            for (File file : listed) {
+                if (SEGMENT_NAME.matcher(file.getName()).matches()) {
+                    files.add(file);
+                }
+            }
+        }
+        // Numbers are zero-padded, so the names sort in segment order
+        files.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return files;
+    }
+
+    /**
+     * Gets the segment number from a segment file name.
+     *
+     * @param file the segment file
+     * @return the number of the segment
+     */
+    private static int segmentNumber(File file) {
+        Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+        matcher.matches();
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    /**
+     * Gets the total size of the segment files in a directory.
+     *
+     * @param directory the directory holding the segment files
+     * @return the size in bytes
+     */
+    static long sizeOf(File directory) {
+        long bytes = 0;
+        for (File file : segmentFiles(directory)) {
+            bytes += file.length();
+        }
+        return bytes;
+    }
+}
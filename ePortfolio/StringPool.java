@@ -0,0 +1,61 @@
+package ePortfolio;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonicalizing pool for the strings held by investments and the keyword
+ * index. Many positions share the same name, and every keyword and symbol
+ * appears again as an index key, so keeping a single instance of each
+ * distinct string removes the duplicates created by parsing and user input.
+ *
+ * <p>
+ * The pool is shared by all portfolios in the JVM and is safe to use from
+ * several threads. Entries are never evicted, which suits names and symbols
+ * since their number is bounded by the securities a book has ever held. It
+ * can be disabled with -DePortfolio.stringPool=false.
+ */
+public final class StringPool {
+
+    private static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("ePortfolio.stringPool"));
+    private static final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>();
+
+    private StringPool() {
+    }
+
+    /**
+     * Returns the canonical instance of a string. The first instance seen of
+     * every distinct value becomes its canonical instance.
+     *
+     * @param value the string to canonicalize, may be null
+     * @return the canonical instance equal to value, or null if value is null
+     */
+    public static String canonicalize(String value) {
+        if (value == null || !ENABLED) {
+            return value;
+        }
+        String existing = pool.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        existing = pool.putIfAbsent(value, value);
+        return existing == null ? value : existing;
+    }
+
+    /**
+     * Gets the number of distinct strings in the pool.
+     *
+     * @return the number of pooled strings
+     */
+    public static int size() {
+        return pool.size();
+    }
+
+    /**
+     * Checks whether canonicalization is enabled.
+     *
+     * @return true if strings are pooled
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+}
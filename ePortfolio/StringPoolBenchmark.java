@@ -0,0 +1,80 @@
+package ePortfolio;
+
+/**
+ * Measures the heap used by a generated book with and without the string
+ * pool. Each position gets a unique symbol and one of a fixed number of
+ * names, which are built as fresh Strings the way the file loader creates
+ * them. Run it once with the default settings and once with
+ * -DePortfolio.stringPool=false and compare the reported heap.
+ *
+ * <pre>
+ * java -Xmx4g ePortfolio.StringPoolBenchmark 10000000 5000
+ * java -Xmx4g -DePortfolio.stringPool=false ePortfolio.StringPoolBenchmark 10000000 5000
+ * </pre>
+ */
+public class StringPoolBenchmark {
+
+    private static final String[] WORDS = {"Global", "North", "American", "Capital", "Energy", "Growth",
+        "Income", "Bank", "Technologies", "Holdings", "Resources", "Pacific", "Index", "Bond", "Equity", "Trust"};
+
+    /**
+     * Generates the book and prints the heap it occupies.
+     *
+     * @param args args[0] is the number of positions (default 10,000,000) and
+     * args[1] the number of distinct names (default 5,000)
+     */
+    public static void main(String[] args) {
+        int positions = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int names = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+
+        long before = usedHeap();
+        long start = System.nanoTime();
+        Portfolio portfolio = new Portfolio();
+        for (int i = 0; i < positions; i++) {
+            String symbol = "S" + i;
+            // A new String per position, as produced by the loader's split/replace chain
+            String name = generateName(i % names);
+            if (i % 2 == 0) {
+                portfolio.addInvestment(new Stock(symbol, name, 100, 10.0, 1009.99));
+            } else {
+                portfolio.addInvestment(new MutualFund(symbol, name, 100, 10.0, 1000.0));
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long after = usedHeap();
+
+        System.out.printf("String pool:      %s%n", StringPool.isEnabled() ? "enabled" : "disabled");
+        System.out.printf("Positions:        %,d with %,d distinct names%n", portfolio.getInvestments().size(), names);
+        System.out.printf("Pooled strings:   %,d%n", StringPool.size());
+        System.out.printf("Build time:       %.2f s%n", seconds);
+        System.out.printf("Heap used:        %,d MB%n", (after - before) >> 20);
+        System.out.printf("Bytes / position: %.1f%n", (after - before) / (double) positions);
+    }
+
+    /**
+     * Builds the name with the given number as a new String instance.
+     *
+     * @param n the number of the name
+     * @return a new String holding the name
+     */
+    private static String generateName(int n) {
+        StringBuilder name = new StringBuilder();
+        name.append(WORDS[n % WORDS.length]).append(' ');
+        name.append(WORDS[(n / WORDS.length) % WORDS.length]).append(' ');
+        name.append("Fund ").append(n).append(" Inc.");
+        return name.toString();
+    }
+
+    /**
+     * Gets the heap in use after a few garbage collections.
+     *
+     * @return the used heap in bytes
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,366 @@
+package ePortfolio;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Queue of trade commands in front of a portfolio, applied by a single
+ * writer thread.
+ *
+ * <p>
+ * Producers on any thread claim the next sequence number with a compare and
+ * set, fill the preallocated slot of the ring buffer that sequence maps to
+ * and publish it by writing the sequence into the slot. No locks are taken
+ * and nothing but the result future is allocated per command. The writer
+ * thread picks up every published slot in order, applies up to MAX_BATCH
+ * commands inside one Portfolio batch while holding the portfolio's monitor
+ * once, then completes the futures after releasing it. Commands are applied
+ * in the order their sequence numbers were claimed. A command that throws,
+ * even an Error, fails only its own future.
+ *
+ * <p>
+ * An idle writer spins briefly, then parks until a producer publishes a
+ * command and unparks it, so an idle pipeline takes no CPU.
+ *
+ * <p>
+ * Readers that synchronize on the portfolio, as AccountEngine and the GUI
+ * do, always see whole batches. When the ring is full, producers wait for
+ * the writer to free a slot.
+ */
+public class TradePipeline implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    public static final int MAX_BATCH = 1024;
+
+    private static final int BUY = 1;
+    private static final int SELL = 2;
+    private static final int PRICE = 3;
+    private static final int FX_RATE = 4;
+    // Set in the claim counter once the pipeline is closed
+    private static final long CLOSED = 1L << 62;
+
+    /**
+     * One preallocated entry of the ring. The volatile sequence is written
+     * last by the producer, which publishes the other fields to the writer.
+     */
+    private static final class Slot {
+
+        volatile long sequence = -1;
+        int command;
+        String type;
+        String symbol;
+        String name;
+        String currency;
+        int quantity;
+        double price;
+        CompletableFuture<Object> result;
+    }
+
+    private final Portfolio portfolio;
+    private final Slot[] ring;
+    private final int mask;
+    // Next sequence to claim, with the CLOSED bit once closed
+    private final AtomicLong claimed = new AtomicLong();
+    // Last sequence applied by the writer
+    private volatile long applied = -1;
+    private final Thread writer;
+    // Written by the writer thread only
+    private volatile long batches;
+    // Set by the writer before it parks; producers that see it unpark the writer
+    private volatile boolean writerParked;
+
+    /**
+     * Creates a pipeline with the default capacity and starts its writer.
+     *
+     * @param portfolio the portfolio the commands are applied to
+     */
+    public TradePipeline(Portfolio portfolio) {
+        this(portfolio, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a pipeline and starts its writer.
+     *
+     * @param portfolio the portfolio the commands are applied to
+     * @param capacity the number of slots in the ring, a power of two
+     * @throws IllegalArgumentException if the capacity is not a power of two
+     */
+    public TradePipeline(Portfolio portfolio, int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Error: The capacity must be a power of two.");
+        }
+        this.portfolio = portfolio;
+        ring = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Slot();
+        }
+        mask = capacity - 1;
+        writer = new Thread(this::runWriter, "ePortfolio trade writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a buy with the same rules as Portfolio.buyInvestment.
+     *
+     * @param type the investment type ("stock" or "mutualfund")
+     * @param symbol the symbol of the investment
+     * @param name the name of the investment, used only for new investments
+     * @param quantity the quantity bought
+     * @param price the price paid per unit
+     * @return completes with the message of Portfolio.buyInvestment
+     */
+    public CompletableFuture<String> buy(String type, String symbol, String name, int quantity, double price) {
+        return buy(type, symbol, name, quantity, price, null);
+    }
+
+    /**
+     * Queues a buy in a currency with the same rules as
+     * Portfolio.buyInvestment.
+     *
+     * @param type the investment type ("stock" or "mutualfund")
+     * @param symbol the symbol of the investment
+     * @param name the name of the investment, used only for new investments
+     * @param quantity the quantity bought
+     * @param price the price paid per unit
+     * @param currency the currency code, or null as for Portfolio.buyInvestment
+     * @return completes with the message of Portfolio.buyInvestment
+     */
+    public CompletableFuture<String> buy(String type, String symbol, String name, int quantity, double price, String currency) {
+        return publish(BUY, type, symbol, name, currency, quantity, price);
+    }
+
+    /**
+     * Queues a sale with the same rules as Portfolio.sellInvestment.
+     *
+     * @param symbol the symbol of the investment to sell
+     * @param quantity the quantity of the investment to sell
+     * @param price the price at which the investment is sold
+     * @return completes with the result of Portfolio.sellInvestment
+     */
+    public CompletableFuture<TradeResult> sell(String symbol, int quantity, double price) {
+        return publish(SELL, null, symbol, null, null, quantity, price);
+    }
+
+    /**
+     * Queues a price update with the same rules as Portfolio.updatePrice.
+     *
+     * @param symbol the symbol of the investment to update
+     * @param price the new price
+     * @return completes with the message of Portfolio.updatePrice
+     */
+    public CompletableFuture<String> updatePrice(String symbol, double price) {
+        return publish(PRICE, null, symbol, null, null, 0, price);
+    }
+
+    /**
+     * Queues an exchange rate update with the same rules as
+     * Portfolio.updateFxRate, in order with the trades around it.
+     *
+     * @param currency the currency code
+     * @param rate the units of base currency per unit of the currency
+     * @return completes with the message of Portfolio.updateFxRate
+     */
+    public CompletableFuture<String> updateFxRate(String currency, double rate) {
+        return publish(FX_RATE, null, null, null, currency, 0, rate);
+    }
+
+    /**
+     * Gets the number of commands applied so far.
+     *
+     * @return the number of applied commands
+     */
+    public long getAppliedCommands() {
+        return applied + 1;
+    }
+
+    /**
+     * Gets the number of batches the writer has applied. Together with
+     * getAppliedCommands it gives the average batch size.
+     *
+     * @return the number of applied batches
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Stops accepting commands, waits until every queued command has been
+     * applied and stops the writer.
+     */
+    @Override
+    public void close() {
+        long current;
+        do {
+            current = claimed.get();
+        } while ((current & CLOSED) == 0 && !claimed.compareAndSet(current, current | CLOSED));
+        LockSupport.unpark(writer);
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Claims a slot, fills it and publishes it to the writer. The future
+     * completes with what apply returns for the command, a String message
+     * or the TradeResult of a sale.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> publish(int command, String type, String symbol, String name, String currency, int quantity,
+            double price) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if ((sequence & CLOSED) != 0) {
+                throw new IllegalStateException("Error: The trade pipeline is closed.");
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        // Wait until the writer has applied the command that used this slot one lap ago
+        for (int idle = 0; sequence - ring.length > applied; idle++) {
+            backOff(idle);
+        }
+
+        Slot slot = ring[(int) sequence & mask];
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        slot.command = command;
+        slot.type = type;
+        slot.symbol = symbol;
+        slot.name = name;
+        slot.currency = currency;
+        slot.quantity = quantity;
+        slot.price = price;
+        slot.result = result;
+        slot.sequence = sequence;
+        // The writer sets writerParked before checking the slot again, so one of the two sees the other
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+        return (CompletableFuture<T>) result;
+    }
+
+    /**
+     * Applies published commands in batches until the pipeline is closed and
+     * drained.
+     */
+    private void runWriter() {
+        Object[] results = new Object[MAX_BATCH];
+        Throwable[] failures = new Throwable[MAX_BATCH];
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Object>[] futures = (CompletableFuture<Object>[]) new CompletableFuture<?>[MAX_BATCH];
+        long next = 0;
+        for (int idle = 0; ; ) {
+            // Collect the run of consecutive published slots
+            int count = 0;
+            while (count < MAX_BATCH && ring[(int) (next + count) & mask].sequence == next + count) {
+                count++;
+            }
+            if (count == 0) {
+                long current = claimed.get();
+                if ((current & CLOSED) != 0 && next == (current & ~CLOSED)) {
+                    return;
+                }
+                if (idle < 200) {
+                    backOff(idle++);
+                } else {
+                    awaitPublish(next);
+                }
+                continue;
+            }
+            idle = 0;
+
+            synchronized (portfolio) {
+                portfolio.beginBatch();
+                try {
+                    for (int i = 0; i < count; i++) {
+                        Slot slot = ring[(int) (next + i) & mask];
+                        futures[i] = slot.result;
+                        try {
+                            results[i] = apply(slot);
+                            failures[i] = null;
+                        } catch (Throwable e) {
+                            // Even an Error only fails its own command, so no future is left waiting
+                            results[i] = null;
+                            failures[i] = e;
+                        }
+                        slot.type = null;
+                        slot.symbol = null;
+                        slot.name = null;
+                        slot.currency = null;
+                        slot.result = null;
+                    }
+                } finally {
+                    portfolio.endBatch();
+                }
+            }
+            next += count;
+            applied = next - 1;
+            batches++;
+
+            // Complete outside the portfolio monitor, so callbacks cannot stall the writer's lock
+            for (int i = 0; i < count; i++) {
+                CompletableFuture<Object> future = futures[i];
+                if (failures[i] == null) {
+                    future.complete(results[i]);
+                } else {
+                    future.completeExceptionally(failures[i]);
+                }
+                futures[i] = null;
+                results[i] = null;
+                failures[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Applies one command to the portfolio.
+     */
+    private Object apply(Slot slot) {
+        switch (slot.command) {
+            case BUY:
+                return portfolio.buyInvestment(slot.type, slot.symbol, slot.name, slot.quantity, slot.price, slot.currency);
+            case SELL:
+                return portfolio.sellInvestment(slot.symbol, slot.quantity, slot.price);
+            case FX_RATE:
+                return portfolio.updateFxRate(slot.currency, slot.price);
+            default:
+                return portfolio.updatePrice(slot.symbol, slot.price);
+        }
+    }
+
+    /**
+     * Parks the writer until the slot of the next sequence is published or
+     * the pipeline is closed; publish and close unpark it.
+     */
+    private void awaitPublish(long next) {
+        writerParked = true;
+        if (ring[(int) next & mask].sequence != next && (claimed.get() & CLOSED) == 0) {
+            LockSupport.park(this);
+        }
+        writerParked = false;
+    }
+
+    /**
+     * Waits a little longer the longer a thread has been idle: spin first,
+     * then yield, then park briefly.
+     */
+    private static void backOff(int idle) {
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000L);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ePortfolio;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures the throughput of TradePipeline. Several producer threads publish
+ * a mix of price updates, buys and partial sells against a generated
+ * portfolio, and the time until the last command is applied is reported.
+ *
+ * <pre>
+ * java ePortfolio.TradePipelineBenchmark 4 5000000
+ * </pre>
+ */
+public class TradePipelineBenchmark {
+
+    private static final int SYMBOLS = 10_000;
+
+    /**
+     * Runs the producers and prints the throughput.
+     *
+     * @param args args[0] is the number of producer threads (default 4) and
+     * args[1] the total number of commands (default 5,000,000)
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int commands = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+
+        Portfolio portfolio = new Portfolio();
+        for (int i = 0; i < SYMBOLS; i++) {
+            portfolio.addInvestment(new Stock("S" + i, "Stock " + i, 1_000_000, 10.0, 10_000_009.99));
+        }
+        TradePipeline pipeline = new TradePipeline(portfolio);
+
+        int perProducer = commands / producers;
+        Thread[] threads = new Thread[producers];
+        CompletableFuture<?>[] last = new CompletableFuture<?>[producers];
+        long start = System.nanoTime();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads[p] = new Thread(() -> {
+                CompletableFuture<?> result = null;
+                for (int i = 0; i < perProducer; i++) {
+                    String symbol = "S" + ((i * 31 + producer) % SYMBOLS);
+                    switch (i % 4) {
+                        case 0:
+                            result = pipeline.buy("stock", symbol, "Stock", 10, 10.0 + (i & 7));
+                            break;
+                        case 1:
+                            result = pipeline.sell(symbol, 5, 10.0 + (i & 7));
+                            break;
+                        default:
+                            result = pipeline.updatePrice(symbol, 10.0 + (i & 15));
+                    }
+                }
+                last[producer] = result;
+            });
+            threads[p].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        pipeline.close();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long applied = pipeline.getAppliedCommands();
+        System.out.printf("Producers: %d, cores: %d%n", producers, Runtime.getRuntime().availableProcessors());
+        System.out.printf("Applied %,d commands in %.3f s: %,.0f commands/s%n", applied, seconds, applied / seconds);
+        System.out.printf("Batches: %,d (%.1f commands per batch)%n", pipeline.getBatches(), applied / (double) pipeline.getBatches());
+        System.out.println("Last result: " + last[0].join().toString().trim());
+    }
+}
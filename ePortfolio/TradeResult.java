@@ -0,0 +1,300 @@
+package ePortfolio;
+
+import java.io.IOException;
+
+/**
+ * The outcome of a sale: whether it went through and, if so, what it
+ * brought in. Sales return this instead of a message, so the figures can be
+ * added up (see RealizedLedger) and the text is only built where it is
+ * shown, by toString or appendTo.
+ */
+public final class TradeResult {
+
+    /**
+     * Whether a sale went through or why it was refused.
+     */
+    public enum Status {
+        SOLD,
+        NOT_FOUND,
+        INVALID_QUANTITY,
+        ACCOUNT_NOT_FOUND
+    }
+
+    private static final TradeResult INVALID_QUANTITY = new TradeResult(Status.INVALID_QUANTITY, null, false, 0, 0, 0, 0, 0, 0, false, 1);
+
+    private final Status status;
+    private final String symbol;
+    // The account id of an ACCOUNT_NOT_FOUND result
+    private final String account;
+    private final boolean mutualFund;
+    private final int quantity;
+    private final double price;
+    private final double proceeds;
+    private final double fee;
+    private final double gain;
+    private final int remainingQuantity;
+    private final boolean removed;
+    private final double fxRate;
+
+    private TradeResult(Status status, String symbol, boolean mutualFund, int quantity, double price, double proceeds,
+            double fee, double gain, int remainingQuantity, boolean removed, double fxRate) {
+        this.status = status;
+        this.symbol = symbol;
+        this.account = null;
+        this.mutualFund = mutualFund;
+        this.quantity = quantity;
+        this.price = price;
+        this.proceeds = proceeds;
+        this.fee = fee;
+        this.gain = gain;
+        this.remainingQuantity = remainingQuantity;
+        this.removed = removed;
+        this.fxRate = fxRate;
+    }
+
+    /**
+     * Creates the result of a sale in the base currency that went through.
+     *
+     * @param symbol the symbol as given for the sale
+     * @param mutualFund true if a mutual fund was sold, false for a stock
+     * @param quantity the quantity sold
+     * @param price the price per unit
+     * @param fee the fee charged
+     * @param gain the realized gain, net proceeds minus the book value sold
+     * @param remainingQuantity the quantity still held
+     * @return the result
+     */
+    static TradeResult sold(String symbol, boolean mutualFund, int quantity, double price, double fee, double gain, int remainingQuantity) {
+        return sold(symbol, mutualFund, quantity, price, fee, gain, remainingQuantity, 1);
+    }
+
+    /**
+     * Creates the result of a sale that went through, with the amounts in
+     * the currency of the investment.
+     *
+     * @param symbol the symbol as given for the sale
+     * @param mutualFund true if a mutual fund was sold, false for a stock
+     * @param quantity the quantity sold
+     * @param price the price per unit
+     * @param fee the fee charged
+     * @param gain the realized gain, net proceeds minus the book value sold
+     * @param remainingQuantity the quantity still held
+     * @param fxRate the exchange rate of the investment's currency at the
+     * time of the sale, see FxRates.getRate
+     * @return the result
+     */
+    static TradeResult sold(String symbol, boolean mutualFund, int quantity, double price, double fee, double gain,
+            int remainingQuantity, double fxRate) {
+        return new TradeResult(Status.SOLD, symbol, mutualFund, quantity, price, quantity * price, fee, gain,
+                remainingQuantity, remainingQuantity == 0, fxRate);
+    }
+
+    /**
+     * Gets the result of selling a symbol that is not held.
+     *
+     * @param symbol the symbol as given for the sale
+     * @return the result
+     */
+    static TradeResult notFound(String symbol) {
+        return new TradeResult(Status.NOT_FOUND, symbol, false, 0, 0, 0, 0, 0, 0, false, 1);
+    }
+
+    /**
+     * Gets the result of selling from an account that does not exist, see
+     * AccountEngine.
+     *
+     * @param account the account id as given for the sale
+     * @param symbol the symbol as given for the sale
+     * @return the result
+     */
+    static TradeResult accountNotFound(String account, String symbol) {
+        return new TradeResult(account, symbol);
+    }
+
+    private TradeResult(String account, String symbol) {
+        this.status = Status.ACCOUNT_NOT_FOUND;
+        this.symbol = symbol;
+        this.account = account;
+        mutualFund = false;
+        quantity = 0;
+        price = 0;
+        proceeds = 0;
+        fee = 0;
+        gain = 0;
+        remainingQuantity = 0;
+        removed = false;
+        fxRate = 1;
+    }
+
+    /**
+     * Gets the result of selling no units, or more than are held.
+     *
+     * @return the result, shared by all such sales
+     */
+    static TradeResult invalidQuantity() {
+        return INVALID_QUANTITY;
+    }
+
+    /**
+     * Gets whether the sale went through.
+     *
+     * @return the status
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Checks whether the sale went through.
+     *
+     * @return true if units were sold
+     */
+    public boolean isSold() {
+        return status == Status.SOLD;
+    }
+
+    /**
+     * Gets the symbol as given for the sale.
+     *
+     * @return the symbol, or null if the quantity was invalid
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Gets the type of the investment sold.
+     *
+     * @return "stock" or "mutualfund", as taken by Portfolio.buyInvestment
+     */
+    public String getType() {
+        return mutualFund ? "mutualfund" : "stock";
+    }
+
+    /**
+     * Gets the quantity sold.
+     *
+     * @return the quantity, 0 if the sale was refused
+     */
+    public int getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Gets the price per unit of the sale.
+     *
+     * @return the price
+     */
+    public double getPrice() {
+        return price;
+    }
+
+    /**
+     * Gets the proceeds before the fee, quantity times price.
+     *
+     * @return the gross proceeds
+     */
+    public double getProceeds() {
+        return proceeds;
+    }
+
+    /**
+     * Gets the fee charged for the sale.
+     *
+     * @return the fee
+     */
+    public double getFee() {
+        return fee;
+    }
+
+    /**
+     * Gets the money received, the proceeds minus the fee.
+     *
+     * @return the net proceeds
+     */
+    public double getNetProceeds() {
+        return proceeds - fee;
+    }
+
+    /**
+     * Gets the realized gain: the net proceeds minus the share of the book
+     * value that was sold.
+     *
+     * @return the gain
+     */
+    public double getGain() {
+        return gain;
+    }
+
+    /**
+     * Gets the quantity still held after the sale.
+     *
+     * @return the remaining quantity
+     */
+    public int getRemainingQuantity() {
+        return remainingQuantity;
+    }
+
+    /**
+     * Checks whether the investment was sold in full and removed.
+     *
+     * @return true if it was removed
+     */
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    /**
+     * Gets the exchange rate the amounts of the sale convert to the base
+     * currency with, the rate of the investment's currency when it was sold.
+     *
+     * @return the units of base currency per unit, 1 for the base currency
+     * and NaN if the currency had no rate
+     */
+    public double getFxRate() {
+        return fxRate;
+    }
+
+    /**
+     * Appends the message shown for the sale.
+     *
+     * @param out where the message is appended
+     * @return out
+     * @throws IOException if out fails
+     */
+    public Appendable appendTo(Appendable out) throws IOException {
+        switch (status) {
+            case NOT_FOUND:
+                return out.append("Error: No investment found with symbol '").append(symbol).append("'.");
+            case INVALID_QUANTITY:
+                return out.append("Error: Invalid quantity to sell.");
+            case ACCOUNT_NOT_FOUND:
+                return out.append("Error: No account found with id '").append(account).append("'.");
+            default:
+                out.append("You received $").append(Portfolio.formatMoney(getNetProceeds())).append(" for selling ")
+                        .append(Integer.toString(quantity)).append(" units of ").append(symbol).append(".\n");
+                out.append("Gain from this sale: $").append(Portfolio.formatMoney(gain)).append(".\n");
+                if (removed) {
+                    out.append("Investment with symbol '").append(symbol).append("' fully sold and removed from portfolio.");
+                }
+                return out;
+        }
+    }
+
+    /**
+     * Gets the message shown for the sale, the one sellInvestment used to
+     * return.
+     *
+     * @return the message
+     */
+    @Override
+    public String toString() {
+        StringBuilder message = new StringBuilder(128);
+        try {
+            appendTo(message);
+        } catch (IOException e) {
+            // A StringBuilder does not throw
+        }
+        return message.toString();
+    }
+}
@@ -0,0 +1,363 @@
+package ePortfolio;
+
+/**
+ * Bounded undo and redo of the commands applied to a portfolio: buys
+ * (addInvestment and updateExistingInvestment), sales and price updates.
+ *
+ * <p>
+ * The portfolio marks where each command begins and ends, and the history
+ * records the changes it reports in between as deltas: the kind of change,
+ * the investment, and the value before and after. The deltas live in
+ * parallel arrays used as a ring (a byte, a reference and two doubles
+ * each), so a deep history costs about 21 bytes per change and no object
+ * per change. Undoing a command applies its deltas backwards, redoing
+ * applies them forwards, each in O(1): a fully sold investment is appended
+ * again with its index entries, and a bought one is dropped from the end of
+ * the list. Sales are also taken out of, and put back into, the realized
+ * ledger, and restored prices are recorded in the price history.
+ *
+ * <p>
+ * Once the ring is full, the oldest commands are dropped whole. Changes
+ * the portfolio reports outside a command, such as a reload of the file or
+ * a replicated change, clear the history, since undoing across them could
+ * bring back positions the file no longer has. Recording a new command
+ * clears what could be redone. Like the portfolio, the history is used
+ * while holding the portfolio's monitor; undo and redo take it themselves.
+ */
+public class UndoHistory implements PortfolioListener {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final byte PRICE = 1;
+    private static final byte QUANTITY = 2;
+    private static final byte BOOK_VALUE = 3;
+    private static final byte ADDED = 4;
+    private static final byte REMOVED = 5;
+    private static final byte SOLD = 6;
+    // Set on the first delta of a command
+    private static final byte START = 8;
+    private static final byte KIND = START - 1;
+
+    private final Portfolio portfolio;
+    private final int capacity;
+    private final byte[] kinds;
+    // The investment changed, or the TradeResult of a sale
+    private final Object[] targets;
+    private final double[] before;
+    private final double[] after;
+    // Positions in the ring, counted from the first delta ever recorded:
+    // [first, end) can be undone and [end, redoEnd) redone
+    private long first;
+    private long end;
+    private long redoEnd;
+    private int undoCommands;
+    private int redoCommands;
+    // Where the command being recorded starts, or -1 outside a command
+    private long commandStart = -1;
+    // The command being recorded did not fit in the ring
+    private boolean overflowed;
+    // Set while undo or redo applies deltas, whose changes are not recorded
+    private boolean applying;
+
+    /**
+     * Creates a history with the default capacity and attaches it to a
+     * portfolio.
+     *
+     * @param portfolio the portfolio whose commands are recorded
+     */
+    public UndoHistory(Portfolio portfolio) {
+        this(portfolio, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a history and attaches it to a portfolio, replacing any
+     * history it had.
+     *
+     * @param portfolio the portfolio whose commands are recorded
+     * @param capacity the number of changes kept
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public UndoHistory(Portfolio portfolio, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Error: The capacity must be greater than 0.");
+        }
+        this.portfolio = portfolio;
+        this.capacity = capacity;
+        kinds = new byte[capacity];
+        targets = new Object[capacity];
+        before = new double[capacity];
+        after = new double[capacity];
+        synchronized (portfolio) {
+            portfolio.addListener(this);
+            portfolio.setUndoHistory(this);
+        }
+    }
+
+    /**
+     * Detaches the history from the portfolio.
+     */
+    public void close() {
+        synchronized (portfolio) {
+            portfolio.removeListener(this);
+            portfolio.setUndoHistory(null);
+            clear();
+        }
+    }
+
+    /**
+     * Undoes the last command that has not been undone.
+     *
+     * @return a message describing the result or the error
+     */
+    public String undo() {
+        synchronized (portfolio) {
+            if (end == first) {
+                return "Error: Nothing to undo.\n";
+            }
+            long position = end;
+            applying = true;
+            try {
+                do {
+                    position--;
+                    undo(index(position));
+                } while ((kinds[index(position)] & START) == 0);
+            } finally {
+                applying = false;
+            }
+            int changes = (int) (end - position);
+            end = position;
+            undoCommands--;
+            redoCommands++;
+            return "Undid the last command (" + changes + " change" + (changes == 1 ? "" : "s") + ").\n";
+        }
+    }
+
+    /**
+     * Applies again the last command that was undone.
+     *
+     * @return a message describing the result or the error
+     */
+    public String redo() {
+        synchronized (portfolio) {
+            if (end == redoEnd) {
+                return "Error: Nothing to redo.\n";
+            }
+            long position = end;
+            applying = true;
+            try {
+                do {
+                    redo(index(position));
+                    position++;
+                } while (position < redoEnd && (kinds[index(position)] & START) == 0);
+            } finally {
+                applying = false;
+            }
+            int changes = (int) (position - end);
+            end = position;
+            undoCommands++;
+            redoCommands--;
+            return "Redid the last undone command (" + changes + " change" + (changes == 1 ? "" : "s") + ").\n";
+        }
+    }
+
+    /**
+     * Gets the number of commands that can be undone.
+     *
+     * @return the number of commands
+     */
+    public int getUndoCount() {
+        synchronized (portfolio) {
+            return undoCommands;
+        }
+    }
+
+    /**
+     * Gets the number of commands that can be redone.
+     *
+     * @return the number of commands
+     */
+    public int getRedoCount() {
+        synchronized (portfolio) {
+            return redoCommands;
+        }
+    }
+
+    /**
+     * Forgets every command.
+     */
+    public void clear() {
+        synchronized (portfolio) {
+            for (long position = first; position < redoEnd; position++) {
+                targets[index(position)] = null;
+            }
+            first = end;
+            redoEnd = end;
+            undoCommands = 0;
+            redoCommands = 0;
+            if (commandStart >= 0) {
+                // The part of the command already recorded is gone, so drop the rest too
+                commandStart = end;
+                overflowed = true;
+            }
+        }
+    }
+
+    /**
+     * Starts recording a command. Called by the portfolio.
+     */
+    void beginCommand() {
+        commandStart = end;
+        overflowed = false;
+    }
+
+    /**
+     * Ends the command being recorded. Called by the portfolio.
+     */
+    void endCommand() {
+        if (overflowed) {
+            clear();
+        } else if (end > commandStart) {
+            undoCommands++;
+        }
+        commandStart = -1;
+    }
+
+    /**
+     * Records a sale of the command being recorded, so undoing it also
+     * takes it out of the realized ledger. Called by the portfolio.
+     *
+     * @param result the result of the sale
+     */
+    void sold(TradeResult result) {
+        record(SOLD, result, 0, 0);
+    }
+
+    @Override
+    public void investmentAdded(Investment investment) {
+        record(ADDED, investment, 0, 0);
+    }
+
+    @Override
+    public void investmentRemoved(Investment investment) {
+        record(REMOVED, investment, 0, 0);
+    }
+
+    @Override
+    public void priceChanged(Investment investment, double oldPrice) {
+        record(PRICE, investment, oldPrice, investment.getPrice());
+    }
+
+    @Override
+    public void quantityChanged(Investment investment, int oldQuantity) {
+        record(QUANTITY, investment, oldQuantity, investment.getQuantity());
+    }
+
+    @Override
+    public void bookValueChanged(Investment investment, double oldBookValue) {
+        record(BOOK_VALUE, investment, oldBookValue, investment.getBookValue());
+    }
+
+    private void record(byte kind, Object target, double oldValue, double newValue) {
+        if (applying) {
+            return;
+        }
+        if (commandStart < 0) {
+            // Changed outside a command: earlier commands may no longer apply
+            clear();
+            return;
+        }
+        if (overflowed) {
+            return;
+        }
+        if (end == commandStart && redoEnd > end) {
+            // A new command replaces what could be redone
+            for (long position = end; position < redoEnd; position++) {
+                targets[index(position)] = null;
+            }
+            redoEnd = end;
+            redoCommands = 0;
+        }
+        if (end - first == capacity) {
+            if (first == commandStart) {
+                // The command alone is larger than the history
+                overflowed = true;
+                return;
+            }
+            dropOldestCommand();
+        }
+        int index = index(end);
+        kinds[index] = end == commandStart ? (byte) (kind | START) : kind;
+        targets[index] = target;
+        before[index] = oldValue;
+        after[index] = newValue;
+        end++;
+        redoEnd = end;
+    }
+
+    private void dropOldestCommand() {
+        do {
+            targets[index(first)] = null;
+            first++;
+        } while (first < end && (kinds[index(first)] & START) == 0);
+        undoCommands--;
+    }
+
+    private void undo(int index) {
+        Object target = targets[index];
+        switch (kinds[index] & KIND) {
+            case PRICE:
+                setPrice((Investment) target, before[index]);
+                break;
+            case QUANTITY:
+                ((Investment) target).setQuantity((int) before[index]);
+                break;
+            case BOOK_VALUE:
+                ((Investment) target).setBookValue(before[index]);
+                break;
+            case ADDED:
+                portfolio.removeInvestment((Investment) target);
+                break;
+            case REMOVED:
+                portfolio.appendInvestment((Investment) target);
+                break;
+            default:
+                portfolio.getRealizedLedger().reverse((TradeResult) target);
+        }
+    }
+
+    private void redo(int index) {
+        Object target = targets[index];
+        switch (kinds[index] & KIND) {
+            case PRICE:
+                setPrice((Investment) target, after[index]);
+                break;
+            case QUANTITY:
+                ((Investment) target).setQuantity((int) after[index]);
+                break;
+            case BOOK_VALUE:
+                ((Investment) target).setBookValue(after[index]);
+                break;
+            case ADDED:
+                portfolio.appendInvestment((Investment) target);
+                break;
+            case REMOVED:
+                portfolio.removeInvestment((Investment) target);
+                break;
+            default:
+                portfolio.getRealizedLedger().record((TradeResult) target);
+        }
+    }
+
+    /**
+     * Restores a price, recording it in the price history too, so gains as
+     * of later dates use the restored price and not the undone one.
+     */
+    private void setPrice(Investment investment, double price) {
+        investment.setPrice(price);
+        portfolio.recordPrice(investment.getSymbol(), price);
+    }
+
+    private int index(long position) {
+        return (int) (position % capacity);
+    }
+}
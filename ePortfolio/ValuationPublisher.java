@@ -0,0 +1,491 @@
+package ePortfolio;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the changes in the unrealized gains of a portfolio as a stream
+ * of updates, so dashboards do not have to poll getTotalGain and
+ * getIndividualGains.
+ *
+ * <p>
+ * The publisher listens to the portfolio and keeps the gain it last
+ * published for every investment. Changes are collected for BATCH_MILLIS
+ * after the first one, then turned into a single Update holding the new gain
+ * of each changed position and the running total gain. That Update is built
+ * once and shared by all subscribers, so each extra subscriber only costs a
+ * buffer slot and a delivery.
+ *
+ * <p>
+ * A new subscriber first receives a snapshot of every position. Each
+ * subscriber then has a buffer of at most bufferSize updates, delivered on
+ * the executor as it requests them. When the buffer of a slow subscriber is
+ * full, the newest update is merged into the last buffered one instead of
+ * being dropped: a position that changed twice appears once with its latest
+ * gain and the sum of its changes. A slow subscriber therefore sees fewer,
+ * larger updates, but its view of the gains is never wrong. This conflation
+ * is why the class does not use SubmissionPublisher, whose full buffers can
+ * only block or drop.
+ */
+public class ValuationPublisher implements Flow.Publisher<ValuationPublisher.Update>, PortfolioListener {
+
+    public static final long BATCH_MILLIS = 50;
+    public static final int DEFAULT_BUFFER_SIZE = 16;
+
+    /**
+     * The gain of one position after a change.
+     */
+    public static final class PositionGain {
+
+        private final String symbol;
+        private final double gain;
+        private final double change;
+        private final boolean removed;
+
+        PositionGain(String symbol, double gain, double change, boolean removed) {
+            this.symbol = symbol;
+            this.gain = gain;
+            this.change = change;
+            this.removed = removed;
+        }
+
+        /**
+         * Gets the symbol of the position.
+         *
+         * @return the symbol
+         */
+        public String getSymbol() {
+            return symbol;
+        }
+
+        /**
+         * Gets the unrealized gain of the position, or 0 once it was sold.
+         *
+         * @return the gain
+         */
+        public double getGain() {
+            return gain;
+        }
+
+        /**
+         * Gets the change in gain since the subscriber's previous update.
+         *
+         * @return the change in gain
+         */
+        public double getChange() {
+            return change;
+        }
+
+        /**
+         * Checks whether the position was sold in full.
+         *
+         * @return true if the position no longer exists
+         */
+        public boolean isRemoved() {
+            return removed;
+        }
+
+        @Override
+        public String toString() {
+            return symbol + (removed ? " removed" : " $" + Portfolio.formatMoney(gain)) + " (" + Portfolio.formatMoney(change) + ")";
+        }
+    }
+
+    /**
+     * One published update: the changed positions and the total gain.
+     * Updates are immutable and shared between subscribers.
+     */
+    public static final class Update {
+
+        private final long sequence;
+        private final boolean snapshot;
+        private final double totalGain;
+        private final List<PositionGain> changes;
+
+        Update(long sequence, boolean snapshot, double totalGain, List<PositionGain> changes) {
+            this.sequence = sequence;
+            this.snapshot = snapshot;
+            this.totalGain = totalGain;
+            this.changes = Collections.unmodifiableList(changes);
+        }
+
+        /**
+         * Gets the number of the latest batch this update includes. Numbers
+         * grow by one per batch; a gap means updates were merged.
+         *
+         * @return the sequence number
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Checks whether this is the first update of a subscription, listing
+         * every position.
+         *
+         * @return true for a snapshot
+         */
+        public boolean isSnapshot() {
+            return snapshot;
+        }
+
+        /**
+         * Gets the total unrealized gain of the portfolio.
+         *
+         * @return the total gain
+         */
+        public double getTotalGain() {
+            return totalGain;
+        }
+
+        /**
+         * Gets the positions whose gain changed, each listed once.
+         *
+         * @return the changed positions
+         */
+        public List<PositionGain> getChanges() {
+            return changes;
+        }
+
+        /**
+         * Merges a later update into this one.
+         *
+         * @param later the later update
+         * @return the merged update
+         */
+        Update merge(Update later) {
+            LinkedHashMap<String, PositionGain> merged = new LinkedHashMap<>();
+            for (PositionGain change : changes) {
+                merged.put(change.symbol, change);
+            }
+            for (PositionGain change : later.changes) {
+                PositionGain earlier = merged.get(change.symbol);
+                merged.put(change.symbol, earlier == null ? change
+                        : new PositionGain(change.symbol, change.gain, earlier.change + change.change, change.removed));
+            }
+            return new Update(later.sequence, snapshot, later.totalGain, new ArrayList<>(merged.values()));
+        }
+    }
+
+    private final Portfolio portfolio;
+    private final Executor executor;
+    private final int bufferSize;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "ePortfolio valuation batches");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    // Guarded by this
+    private final IdentityHashMap<Investment, Double> gains = new IdentityHashMap<>();
+    private final LinkedHashMap<String, PositionGain> pending = new LinkedHashMap<>();
+    private double totalGain;
+    private long sequence;
+    private boolean flushScheduled;
+    private boolean closed;
+
+    /**
+     * Creates a publisher that delivers on the common pool with the default
+     * buffer size.
+     *
+     * @param portfolio the portfolio to publish
+     */
+    public ValuationPublisher(Portfolio portfolio) {
+        this(portfolio, ForkJoinPool.commonPool(), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a publisher and starts listening to the portfolio.
+     *
+     * @param portfolio the portfolio to publish
+     * @param executor the executor that delivers updates to subscribers
+     * @param bufferSize the number of updates buffered per subscriber
+     * before they are merged
+     * @throws IllegalArgumentException if the buffer size is not positive
+     */
+    public ValuationPublisher(Portfolio portfolio, Executor executor, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Error: The buffer size must be greater than 0.");
+        }
+        this.portfolio = portfolio;
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+        synchronized (portfolio) {
+            for (Investment investment : portfolio.getInvestments()) {
+                double gain = GainTracker.gainOf(investment);
+                gains.put(investment, gain);
+                totalGain += gain;
+            }
+            portfolio.addListener(this);
+        }
+    }
+
+    /**
+     * Subscribes to the updates. The first update is a snapshot of every
+     * position.
+     *
+     * @param subscriber the subscriber
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super Update> subscriber) {
+        Subscription subscription = new Subscription(subscriber);
+        synchronized (this) {
+            if (!closed) {
+                // Earlier changes go to the existing subscribers; the snapshot already includes them
+                flush();
+                ArrayList<PositionGain> positions = new ArrayList<>(gains.size());
+                for (Map.Entry<Investment, Double> entry : gains.entrySet()) {
+                    positions.add(new PositionGain(entry.getKey().getSymbol(), entry.getValue(), entry.getValue(), false));
+                }
+                subscription.buffer.add(new Update(sequence, true, totalGain, positions));
+                subscriptions.add(subscription);
+            } else {
+                subscription.completed = true;
+            }
+        }
+        subscriber.onSubscribe(subscription);
+        subscription.schedule();
+    }
+
+    /**
+     * Gets the number of active subscriptions.
+     *
+     * @return the number of subscribers
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Stops listening to the portfolio, publishes the pending changes and
+     * completes every subscription once its buffer is delivered.
+     */
+    public void close() {
+        portfolio.removeListener(this);
+        synchronized (this) {
+            flush();
+            closed = true;
+        }
+        scheduler.shutdown();
+        for (Subscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    @Override
+    public void investmentAdded(Investment investment) {
+        changed(investment, false);
+    }
+
+    @Override
+    public void investmentRemoved(Investment investment) {
+        changed(investment, true);
+    }
+
+    @Override
+    public void priceChanged(Investment investment, double oldPrice) {
+        changed(investment, false);
+    }
+
+    @Override
+    public void quantityChanged(Investment investment, int oldQuantity) {
+        changed(investment, false);
+    }
+
+    @Override
+    public void bookValueChanged(Investment investment, double oldBookValue) {
+        changed(investment, false);
+    }
+
+    /**
+     * Records the new gain of an investment and schedules a batch if none is
+     * pending.
+     */
+    private synchronized void changed(Investment investment, boolean removed) {
+        if (closed) {
+            return;
+        }
+        Double previous = removed ? gains.remove(investment) : gains.get(investment);
+        if (removed && previous == null) {
+            return;
+        }
+        double gain = removed ? 0 : GainTracker.gainOf(investment);
+        double change = gain - (previous == null ? 0 : previous);
+        if (!removed) {
+            gains.put(investment, gain);
+        }
+        totalGain += change;
+
+        PositionGain earlier = pending.get(investment.getSymbol());
+        pending.put(investment.getSymbol(), new PositionGain(investment.getSymbol(), gain,
+                change + (earlier == null ? 0 : earlier.change), removed));
+        if (!flushScheduled) {
+            flushScheduled = true;
+            scheduler.schedule(this::flushScheduled, BATCH_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void flushScheduled() {
+        flushScheduled = false;
+        flush();
+    }
+
+    /**
+     * Turns the pending changes into one update and hands it to every
+     * subscriber. Must hold the lock of this publisher.
+     */
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Update update = new Update(++sequence, false, totalGain, new ArrayList<>(pending.values()));
+        pending.clear();
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(update);
+        }
+    }
+
+    /**
+     * The buffer and demand of one subscriber. Deliveries for a subscriber
+     * run one at a time on the executor.
+     */
+    private final class Subscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super Update> subscriber;
+        // Guarded by this subscription
+        private final ArrayDeque<Update> buffer = new ArrayDeque<>();
+        private long demand;
+        private boolean delivering;
+        private boolean completed;
+        private boolean cancelled;
+        private Throwable error;
+
+        Subscription(Flow.Subscriber<? super Update> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Adds an update to the buffer, merging it into the last one if the
+         * buffer is full.
+         */
+        void offer(Update update) {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (buffer.size() < bufferSize) {
+                    buffer.addLast(update);
+                } else {
+                    buffer.addLast(buffer.pollLast().merge(update));
+                }
+            }
+            schedule();
+        }
+
+        void complete() {
+            synchronized (this) {
+                completed = true;
+            }
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Error: The number of updates requested must be greater than 0.");
+                } else {
+                    // Saturates at Long.MAX_VALUE, meaning unbounded
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                buffer.clear();
+            }
+            subscriptions.remove(this);
+        }
+
+        /**
+         * Starts a delivery run unless one is in progress or there is
+         * nothing to deliver.
+         */
+        void schedule() {
+            synchronized (this) {
+                if (delivering || cancelled || (error == null && !(completed && buffer.isEmpty()) && (demand == 0 || buffer.isEmpty()))) {
+                    return;
+                }
+                delivering = true;
+            }
+            executor.execute(this);
+        }
+
+        /**
+         * Delivers buffered updates while there is demand, then completion or
+         * an error.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                Update update = null;
+                Throwable failure;
+                boolean terminal = false;
+                synchronized (this) {
+                    if (cancelled) {
+                        delivering = false;
+                        return;
+                    }
+                    failure = error;
+                    if (failure != null || (completed && buffer.isEmpty())) {
+                        // Terminal signals end the subscription
+                        cancelled = true;
+                        delivering = false;
+                        terminal = true;
+                    } else if (demand == 0 || buffer.isEmpty()) {
+                        delivering = false;
+                        return;
+                    } else {
+                        update = buffer.pollFirst();
+                        if (demand != Long.MAX_VALUE) {
+                            demand--;
+                        }
+                    }
+                }
+                if (terminal) {
+                    subscriptions.remove(this);
+                    if (failure != null) {
+                        subscriber.onError(failure);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                try {
+                    subscriber.onNext(update);
+                } catch (RuntimeException e) {
+                    // A failing subscriber is cancelled, as Flow requires
+                    cancel();
+                    return;
+                }
+            }
+        }
+    }
+}